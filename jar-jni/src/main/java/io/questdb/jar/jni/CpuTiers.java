@@ -0,0 +1,190 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Detects the CPU tiers supported by the machine, to load the fastest variant
+ * of a library via {@link JarJniLoader#loadLibBestTier}.
+ * <p>
+ * A tier's variant of a library is packaged in a directory named after the
+ * tier, under the platform directory, e.g. "linux-x86-64/x86-64-v3/libmylib.so".
+ * The baseline variant is in the platform directory itself. Tiers, best first:
+ * <ul>
+ *   <li>x86-64: "x86-64-v4" (AVX-512), "x86-64-v3" (AVX2, FMA, BMI2),
+ *   "x86-64-v2" (SSE4.2, POPCNT). These are the microarchitecture levels of
+ *   the x86-64 psABI and rustc's `-Ctarget-cpu` names. The short names
+ *   "v4", "v3" and "v2" are accepted as directory names too.</li>
+ *   <li>aarch64: "sve2", then "sve", built with e.g. `-Ctarget-feature=+sve2`.</li>
+ * </ul>
+ * Detection reads `/proc/cpuinfo`, so on other operating systems than Linux
+ * only the baseline is used. The `io.questdb.jar.jni.cpuTier` system property
+ * overrides the detection, e.g. "baseline" to rule out a faulty tier.
+ */
+public final class CpuTiers {
+    public static final String BASELINE = "baseline";
+    public static final String TIER_PROPERTY = "io.questdb.jar.jni.cpuTier";
+
+    private static final List<String> X86_64_V2 = Arrays.asList(
+            "cx16", "lahf_lm", "popcnt", "pni", "sse4_1", "sse4_2", "ssse3");
+    private static final List<String> X86_64_V3 = Arrays.asList(
+            "avx", "avx2", "bmi1", "bmi2", "f16c", "fma", "abm", "movbe", "xsave");
+    private static final List<String> X86_64_V4 = Arrays.asList(
+            "avx512f", "avx512bw", "avx512cd", "avx512dq", "avx512vl");
+
+    /**
+     * The tiers supported by this machine, best first, excluding the baseline.
+     */
+    public static final List<String> SUPPORTED = Collections.unmodifiableList(detect());
+
+    private CpuTiers() {
+    }
+
+    private static List<String> detect() {
+        final String override = System.getProperty(TIER_PROPERTY);
+        final boolean overridden = override != null && !override.trim().isEmpty();
+        return detect(override, Platform.ARCH,
+                !overridden && Platform.isLinux() ? readCpuinfo() : "");
+    }
+
+    /**
+     * The supported tiers, from the `io.questdb.jar.jni.cpuTier` override
+     * if set, else from the contents of `/proc/cpuinfo`.
+     */
+    static List<String> detect(String override, String arch, String cpuinfo) {
+        if (override != null && !override.trim().isEmpty()) {
+            return BASELINE.equals(override.trim())
+                    ? new ArrayList<>()
+                    : new ArrayList<>(Collections.singletonList(override.trim()));
+        }
+        return parseCpuinfo(arch, cpuinfo);
+    }
+
+    private static String readCpuinfo() {
+        try {
+            return new String(
+                    Files.readAllBytes(Paths.get("/proc/cpuinfo")), StandardCharsets.US_ASCII);
+        } catch (IOException | SecurityException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Maps the CPU flags in the contents of `/proc/cpuinfo` to the supported
+     * tiers, best first.
+     *
+     * @param arch {@link Platform#ARCH}, e.g. "x86-64" or "aarch64".
+     */
+    public static List<String> parseCpuinfo(String arch, String cpuinfo) {
+        final List<String> tiers = new ArrayList<>();
+        final Set<String> flags = getFirstCpuFlags(cpuinfo);
+        if ("x86-64".equals(arch)) {
+            if (flags.containsAll(X86_64_V2)) {
+                if (flags.containsAll(X86_64_V3)) {
+                    if (flags.containsAll(X86_64_V4)) {
+                        tiers.add("x86-64-v4");
+                    }
+                    tiers.add("x86-64-v3");
+                }
+                tiers.add("x86-64-v2");
+            }
+        } else if ("aarch64".equals(arch)) {
+            if (flags.contains("sve2")) {
+                tiers.add("sve2");
+            }
+            if (flags.contains("sve")) {
+                tiers.add("sve");
+            }
+        }
+        return tiers;
+    }
+
+    /**
+     * The "flags" (x86) or "Features" (ARM) of the first processor listed.
+     */
+    private static Set<String> getFirstCpuFlags(String cpuinfo) {
+        for (String line : cpuinfo.split("\n")) {
+            final int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            final String key = line.substring(0, colon).trim();
+            if (key.equals("flags") || key.equals("Features")) {
+                return new HashSet<>(Arrays.asList(
+                        line.substring(colon + 1).trim().split("\\s+")));
+            }
+        }
+        return new HashSet<>();
+    }
+
+    /**
+     * The directory names a tier's variant may be packaged under.
+     */
+    static List<String> getDirNames(String tier) {
+        if (tier.startsWith("x86-64-v")) {
+            return Arrays.asList(tier, tier.substring("x86-64-".length()));
+        }
+        return Collections.singletonList(tier);
+    }
+
+    /**
+     * Selects the best packaged tier of a library for this machine.
+     *
+     * @return The tier's directory name under `platformDir`, or
+     * {@link #BASELINE} if no better variant is packaged.
+     */
+    static String select(Class<?> cls, String jarPathPrefix, String platformDir, String name) {
+        return select(cls, jarPathPrefix, platformDir, name, SUPPORTED);
+    }
+
+    static String select(
+            Class<?> cls,
+            String jarPathPrefix,
+            String platformDir,
+            String name,
+            List<String> supported) {
+        final String sep = jarPathPrefix.endsWith("/") ? "" : "/";
+        final String fileName = PlatformConventions.LIB_PREFIX + name + PlatformConventions.LIB_SUFFIX;
+        for (String tier : supported) {
+            for (String dirName : getDirNames(tier)) {
+                final String path = jarPathPrefix + sep + platformDir + "/" + dirName + "/" + fileName;
+                if (LibraryResource.exists(cls, path)) {
+                    return dirName;
+                }
+            }
+        }
+        return BASELINE;
+    }
+}
@@ -0,0 +1,294 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Extracts native libraries into a directory shared by all JVMs of the user,
+ * keyed by the SHA-256 of the library, so that a library is only written to
+ * disk once and later JVMs load the extracted file straight away.
+ * <p>
+ * A library is extracted to `<cache dir>/<sha256>/<file name>`. The hash is
+ * read from a `<file name>.sha256` resource next to the library, as written
+ * by the rust-maven-plugin, or else computed from the library itself.
+ * Concurrent JVMs coordinate through a file lock per entry, and the library
+ * is moved into place atomically, so a file in the cache is always complete.
+ * Libraries stored uncompressed in a JAR on disk are copied with
+ * {@link FileChannel#transferTo}, see {@link StoredEntry}.
+ * <p>
+ * The size and modification time of each extracted library are recorded in
+ * a `<file name>.stamp` file next to it. A file already in the cache is
+ * hashed again if they changed, and replaced if its checksum differs. The
+ * cache trusts its directory otherwise: it is only as safe as the directory
+ * is private to the user.
+ * <p>
+ * The cache directory is set by the `io.questdb.jar.jni.cacheDir` system
+ * property. An empty value disables the cache. The default is per user:
+ * `$XDG_CACHE_HOME/questdb-jar-jni` or `~/.cache/questdb-jar-jni` on Linux,
+ * `~/Library/Caches/questdb-jar-jni` on macOS and
+ * `%LOCALAPPDATA%\questdb-jar-jni` on Windows.
+ */
+final class ExtractionCache {
+    static final String CACHE_DIR_PROPERTY = "io.questdb.jar.jni.cacheDir";
+    private static final String DIR_NAME = "questdb-jar-jni";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ExtractionCache() {
+    }
+
+    /**
+     * The cache directory, or null if disabled.
+     */
+    static Path getDir() {
+        final String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if (dir != null) {
+            return dir.trim().isEmpty() ? null : Paths.get(dir.trim());
+        }
+        final String home = System.getProperty("user.home");
+        if (Platform.isWindows()) {
+            final String localAppData = System.getenv("LOCALAPPDATA");
+            return localAppData != null && !localAppData.isEmpty()
+                    ? Paths.get(localAppData, DIR_NAME)
+                    : home != null ? Paths.get(home, "AppData", "Local", DIR_NAME) : null;
+        }
+        if (Platform.isMac()) {
+            return home != null ? Paths.get(home, "Library", "Caches", DIR_NAME) : null;
+        }
+        final String xdgCache = System.getenv("XDG_CACHE_HOME");
+        if (xdgCache != null && !xdgCache.isEmpty()) {
+            return Paths.get(xdgCache, DIR_NAME);
+        }
+        return home != null ? Paths.get(home, ".cache", DIR_NAME) : null;
+    }
+
+    /**
+     * Extracts a library into the cache, unless already there.
+     *
+     * @return The extracted library, or null if the cache is disabled.
+     * @throws IOException   If the cache directory is not writable.
+     * @throws LoadException If the library does not match its checksum.
+     */
+    static Path extract(Class<?> cls, String pathInJar) throws IOException {
+        final Path dir = getDir();
+        if (dir == null) {
+            return null;
+        }
+        final String sha256 = getSha256(cls, pathInJar);
+        final Path entryDir = dir.resolve(sha256);
+        final Path lib = entryDir.resolve(pathInJar.substring(pathInJar.lastIndexOf('/') + 1));
+        if (isValid(lib, sha256)) {
+            return lib;
+        }
+        Files.createDirectories(entryDir);
+        // File locks are held by the JVM, so threads of the same JVM take turns first.
+        synchronized (ExtractionCache.class) {
+            try (FileChannel lockChannel = FileChannel.open(
+                    entryDir.resolve(".lock"),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                // Closing the channel releases the lock.
+                lockChannel.lock();
+                if (isValid(lib, sha256)) {
+                    return lib;
+                }
+                final Path tmp = Files.createTempFile(entryDir, lib.getFileName().toString(), ".tmp");
+                try {
+                    final String actual;
+                    final StoredEntry stored = StoredEntry.find(cls.getResource(pathInJar));
+                    if (stored != null) {
+                        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                            stored.transferTo(out);
+                        }
+                        try (InputStream is = Files.newInputStream(tmp)) {
+                            actual = copyAndHash(is, null);
+                        }
+                    } else {
+                        try (InputStream is = open(cls, pathInJar);
+                             OutputStream out = Files.newOutputStream(tmp)) {
+                            actual = copyAndHash(is, out);
+                        }
+                    }
+                    if (!actual.equals(sha256)) {
+                        throw new LoadException("Checksum mismatch for " + pathInJar +
+                                ": expected " + sha256 + ", got " + actual);
+                    }
+                    try {
+                        Files.move(tmp, lib, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(tmp, lib, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    writeStamp(lib);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        }
+        return lib;
+    }
+
+    /**
+     * Like `extract`, but returns null rather than failing on I/O errors,
+     * e.g. on a read-only file system. A checksum mismatch still fails.
+     */
+    static Path tryExtract(Class<?> cls, String pathInJar) {
+        try {
+            return extract(cls, pathInJar);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the library's checksum resource, or else hashes the library.
+     */
+    private static String getSha256(Class<?> cls, String pathInJar) throws IOException {
+        final InputStream checksum = cls.getResourceAsStream(pathInJar + ".sha256");
+        if (checksum != null) {
+            final byte[] buf = new byte[64];
+            int len = 0;
+            try (InputStream is = checksum) {
+                int read;
+                while (len < buf.length && (read = is.read(buf, len, buf.length - len)) != -1) {
+                    len += read;
+                }
+            }
+            final String hex = new String(buf, 0, len, StandardCharsets.US_ASCII).toLowerCase();
+            if (hex.matches("[0-9a-f]{64}")) {
+                return hex;
+            }
+        }
+        try (InputStream is = open(cls, pathInJar)) {
+            return copyAndHash(is, null);
+        }
+    }
+
+    /**
+     * True if the cached library exists and is unchanged since extracted,
+     * as recorded in its stamp, or else still has the expected checksum.
+     */
+    private static boolean isValid(Path lib, String sha256) throws IOException {
+        if (!Files.isRegularFile(lib)) {
+            return false;
+        }
+        final Path stamp = getStampPath(lib);
+        if (Files.isRegularFile(stamp) && Arrays.equals(Files.readAllBytes(stamp), getStamp(lib))) {
+            return true;
+        }
+        final String actual;
+        try (InputStream is = Files.newInputStream(lib)) {
+            actual = copyAndHash(is, null);
+        }
+        if (!actual.equals(sha256)) {
+            return false;
+        }
+        try {
+            writeStamp(lib);
+        } catch (IOException e) {
+            // E.g. a read-only cache: the library is hashed again next time.
+        }
+        return true;
+    }
+
+    private static Path getStampPath(Path lib) {
+        return lib.resolveSibling(lib.getFileName() + ".stamp");
+    }
+
+    /**
+     * The size and modification time of a file, e.g. "123456 1700000000000".
+     */
+    private static byte[] getStamp(Path lib) throws IOException {
+        final String stamp = Files.size(lib) + " " + Files.getLastModifiedTime(lib).toMillis();
+        return stamp.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Records the size and modification time of a verified library,
+     * replacing the stamp atomically, as concurrent JVMs may read it.
+     */
+    private static void writeStamp(Path lib) throws IOException {
+        final Path tmp = Files.createTempFile(lib.getParent(), lib.getFileName().toString(), ".stamp.tmp");
+        try {
+            Files.write(tmp, getStamp(lib));
+            try {
+                Files.move(tmp, getStampPath(lib), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, getStampPath(lib), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static InputStream open(Class<?> cls, String pathInJar) throws IOException {
+        final InputStream is = LibraryResource.open(cls, pathInJar);
+        if (is == null) {
+            throw new IOException("Cannot find " + pathInJar);
+        }
+        return is;
+    }
+
+    /**
+     * Copies a stream, if `out` is not null, and returns its SHA-256.
+     */
+    private static String copyAndHash(InputStream is, OutputStream out) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+        final DigestInputStream dis = new DigestInputStream(is, digest);
+        if (out != null) {
+            StreamTransfer.copyToStream(dis, out);
+        } else {
+            final byte[] buf = new byte[65536];
+            while (dis.read(buf) != -1) {
+                // Hashed while reading.
+            }
+        }
+        final byte[] bytes = digest.digest();
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
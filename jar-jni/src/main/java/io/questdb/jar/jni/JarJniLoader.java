@@ -24,10 +24,7 @@
 
 package io.questdb.jar.jni;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.util.List;
 
 /**
  * Loads native libraries from JAR files.
@@ -35,6 +32,24 @@ import java.io.InputStream;
 public interface JarJniLoader {
     /**
      * Loads a native library from a JAR file.
+     * <p>
+     * The library is extracted once into a per-user cache directory, keyed by
+     * its SHA-256, and later loads of the same library skip the extraction.
+     * The directory is set by the `io.questdb.jar.jni.cacheDir` system property,
+     * an empty value disabling the cache. If the cache is disabled or not
+     * writable, the library is extracted to a temporary file instead.
+     * <p>
+     * On Linux with Java 22+, a library that can't be cached is instead copied
+     * to an in-memory file created with `memfd_create`, avoiding the disk.
+     * Set the `io.questdb.jar.jni.memfd` system property to "true" to prefer
+     * in-memory files over the extraction cache.
+     * <p>
+     * Each library is loaded once per class loader: concurrent calls wait for
+     * the first one to load it, and later calls return immediately.
+     * See {@link #getLoadedLibraries()}.
+     * <p>
+     * If the library itself is not packaged, an xz-compressed `<library>.xz`
+     * next to it is decompressed while extracting it.
      *
      * @param cls           The class to use for loading the library.
      * @param jarPathPrefix The path prefix to the library in the JAR file.
@@ -49,33 +64,11 @@ public interface JarJniLoader {
             pathInJar += platformDir + "/";
         }
         pathInJar += PlatformConventions.LIB_PREFIX + name + PlatformConventions.LIB_SUFFIX;
-        final InputStream is = cls.getResourceAsStream(pathInJar);
-        if (is == null) {
+        if (!LibraryResource.exists(cls, pathInJar)) {
             throw new LoadException("Internal error: cannot find " + pathInJar + ", broken package?");
         }
 
-        try {
-            File tempLib = null;
-            try {
-                final int dot = pathInJar.indexOf('.');
-                tempLib = File.createTempFile(pathInJar.substring(0, dot), pathInJar.substring(dot));
-                // copy to tempLib
-                try (FileOutputStream out = new FileOutputStream(tempLib)) {
-                    StreamTransfer.copyToStream(is, out);
-                } finally {
-                    tempLib.deleteOnExit();
-                }
-                System.load(tempLib.getAbsolutePath());
-            } catch (IOException e) {
-                throw new LoadException("Internal error: cannot unpack " + tempLib, e);
-            }
-        } finally {
-            try {
-                is.close();
-            } catch (IOException e) {
-                // ignore
-            }
-        }
+        LibraryRegistry.load(cls, pathInJar);
     }
 
     /**
@@ -92,12 +85,46 @@ public interface JarJniLoader {
      * If executing on an Apple Silicon Macbook, the library will be loaded from
      * "/native/mac_os_x-arm64/libmylib.dylib".
      * From Windows 11, the library will be loaded from "/native/windows-amd64/mylib.dll" (note, no "lib" prefix).
+     * <p>
+     * On Linux with musl libc, a "-musl" variant of the directory (e.g. "/native/linux-x86-64-musl")
+     * is preferred if the JAR contains the library there.
      *
      * @param cls           The class to use for loading the library.
      * @param jarPathPrefix The path prefix to the library in the JAR file.
      * @param name          The name of the library, sans "lib" prefix and ".so|.dll|.dylib" suffix.
      */
     static <T> void loadLib(Class<T> cls, String jarPathPrefix, String name) {
-        loadLib(cls, jarPathPrefix, name, Platform.RESOURCE_PREFIX);
+        loadLib(cls, jarPathPrefix, name, PlatformConventions.selectPlatformDir(cls, jarPathPrefix, name));
+    }
+
+    /**
+     * Loads the fastest variant of a native library that this machine supports.
+     * <p>
+     * Like {@link #loadLib(Class, String, String)}, but prefers a variant built
+     * for a CPU tier, packaged in a subdirectory of the platform directory named
+     * after the tier, e.g. "/native/linux-x86-64/x86-64-v3/libmylib.so".
+     * See {@link CpuTiers} for the tier names and how they are detected.
+     * Falls back to the library in the platform directory itself.
+     *
+     * @param cls           The class to use for loading the library.
+     * @param jarPathPrefix The path prefix to the library in the JAR file.
+     * @param name          The name of the library, sans "lib" prefix and ".so|.dll|.dylib" suffix.
+     * @return The directory name of the loaded tier, or {@link CpuTiers#BASELINE}.
+     */
+    static <T> String loadLibBestTier(Class<T> cls, String jarPathPrefix, String name) {
+        final String platformDir = PlatformConventions.selectPlatformDir(cls, jarPathPrefix, name);
+        final String tier = CpuTiers.select(cls, jarPathPrefix, platformDir, name);
+        loadLib(cls, jarPathPrefix, name, CpuTiers.BASELINE.equals(tier)
+                ? platformDir
+                : platformDir + "/" + tier);
+        return tier;
+    }
+
+    /**
+     * The libraries loaded so far, with where they were loaded from and how
+     * long that took, e.g. for logging at startup.
+     */
+    static List<LoadedLibrary> getLoadedLibraries() {
+        return LibraryRegistry.getLoaded();
     }
 }
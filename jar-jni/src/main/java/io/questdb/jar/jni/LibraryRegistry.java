@@ -0,0 +1,248 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.BiFunction;
+
+/**
+ * The libraries loaded by {@link JarJniLoader}, by resource path and class loader.
+ * <p>
+ * Each library is extracted and loaded once: concurrent callers wait for the
+ * first one's load, and later callers return straight away. A failed load is
+ * forgotten, so that it can be retried.
+ * <p>
+ * Class loaders are referenced weakly, so that a redeployed web application
+ * or plugin can still be collected, which is when the JVM unloads its
+ * libraries.
+ */
+final class LibraryRegistry {
+    private static final Map<ClassLoader, Map<String, FutureTask<LoadedLibrary>>> LIBRARIES =
+            new WeakHashMap<>();
+
+    private LibraryRegistry() {
+    }
+
+    static LoadedLibrary load(Class<?> cls, String pathInJar) {
+        return load(cls, pathInJar, LibraryRegistry::extractAndLoad);
+    }
+
+    /**
+     * Like `load(cls, pathInJar)`, but loads the library with `loader`,
+     * which returns the path it was loaded from. For tests.
+     */
+    static LoadedLibrary load(
+            Class<?> cls,
+            String pathInJar,
+            BiFunction<Class<?>, String, String> loader) {
+        final Map<String, FutureTask<LoadedLibrary>> libraries;
+        final FutureTask<LoadedLibrary> task;
+        final boolean isOwner;
+        synchronized (LIBRARIES) {
+            libraries = LIBRARIES.computeIfAbsent(cls.getClassLoader(), classLoader -> new HashMap<>());
+            final FutureTask<LoadedLibrary> existing = libraries.get(pathInJar);
+            if (existing != null) {
+                task = existing;
+                isOwner = false;
+            } else {
+                // Once run, the task drops this callable, and with it `cls`.
+                task = new FutureTask<>(() -> {
+                    final long start = System.nanoTime();
+                    final String loadedFrom = loader.apply(cls, pathInJar);
+                    return new LoadedLibrary(
+                            pathInJar,
+                            LoadedLibrary.describe(cls.getClassLoader()),
+                            loadedFrom,
+                            System.nanoTime() - start);
+                });
+                libraries.put(pathInJar, task);
+                isOwner = true;
+            }
+        }
+        if (isOwner) {
+            task.run();
+        }
+        try {
+            return getUninterruptibly(task);
+        } catch (ExecutionException e) {
+            if (isOwner) {
+                synchronized (LIBRARIES) {
+                    libraries.remove(pathInJar, task);
+                }
+            }
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new LoadException("Cannot load " + pathInJar, cause);
+        }
+    }
+
+    /**
+     * The libraries loaded so far, in no particular order.
+     */
+    static List<LoadedLibrary> getLoaded() {
+        final List<FutureTask<LoadedLibrary>> tasks = new ArrayList<>();
+        synchronized (LIBRARIES) {
+            for (Map<String, FutureTask<LoadedLibrary>> libraries : LIBRARIES.values()) {
+                tasks.addAll(libraries.values());
+            }
+        }
+        final List<LoadedLibrary> loaded = new ArrayList<>();
+        for (FutureTask<LoadedLibrary> task : tasks) {
+            if (task.isDone()) {
+                try {
+                    loaded.add(task.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    // Done, so not interrupted; failed loads are not listed.
+                }
+            }
+        }
+        return loaded;
+    }
+
+    private static LoadedLibrary getUninterruptibly(FutureTask<LoadedLibrary> task)
+            throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Loads the copy in the extraction cache, if enabled and writable,
+     * else an in-memory copy, if supported, else a temporary copy.
+     * <p>
+     * The JVM binds a library file to the class loader that loaded it first,
+     * and refuses to load it for another one. So if another copy of this
+     * class, in another class loader (e.g. another web application), already
+     * loaded the cached file, this one falls back to a copy of its own.
+     *
+     * @return The path the library was loaded from.
+     */
+    private static String extractAndLoad(Class<?> cls, String pathInJar) {
+        final boolean preferMemfd = Boolean.getBoolean(MemfdFile.PREFER_PROPERTY);
+        Path cachedLib = preferMemfd ? null : ExtractionCache.tryExtract(cls, pathInJar);
+        if (cachedLib == null) {
+            final String memfdLib = MemfdFile.load(cls, pathInJar);
+            if (memfdLib != null) {
+                return memfdLib;
+            }
+        }
+        if (cachedLib == null && preferMemfd) {
+            cachedLib = ExtractionCache.tryExtract(cls, pathInJar);
+        }
+        if (cachedLib != null) {
+            final String path = cachedLib.toAbsolutePath().toString();
+            try {
+                System.load(path);
+                return path;
+            } catch (UnsatisfiedLinkError e) {
+                if (!isLoadedByAnotherClassLoader(e)) {
+                    throw e;
+                }
+            }
+            if (!preferMemfd) {
+                final String memfdLib = MemfdFile.load(cls, pathInJar);
+                if (memfdLib != null) {
+                    return memfdLib;
+                }
+            }
+        }
+
+        final InputStream is;
+        try {
+            is = LibraryResource.open(cls, pathInJar);
+        } catch (IOException e) {
+            throw new LoadException("Internal error: cannot read " + pathInJar, e);
+        }
+        if (is == null) {
+            throw new LoadException("Internal error: cannot find " + pathInJar + ", broken package?");
+        }
+
+        try {
+            File tempLib = null;
+            try {
+                final int dot = pathInJar.indexOf('.');
+                tempLib = File.createTempFile(pathInJar.substring(0, dot), pathInJar.substring(dot));
+                // copy to tempLib
+                final StoredEntry stored = StoredEntry.find(cls.getResource(pathInJar));
+                try (FileOutputStream out = new FileOutputStream(tempLib)) {
+                    if (stored != null) {
+                        stored.transferTo(out.getChannel());
+                    } else {
+                        StreamTransfer.copyToStream(is, out);
+                    }
+                } finally {
+                    tempLib.deleteOnExit();
+                }
+                System.load(tempLib.getAbsolutePath());
+                return tempLib.getAbsolutePath();
+            } catch (IOException e) {
+                throw new LoadException("Internal error: cannot unpack " + tempLib, e);
+            }
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * True if `System.load` failed because the file is already loaded by
+     * another class loader. The JVM keeps that record itself, for all class
+     * loaders, so it is the only reliable one.
+     */
+    private static boolean isLoadedByAnotherClassLoader(UnsatisfiedLinkError e) {
+        final String message = e.getMessage();
+        return message != null && message.contains("already loaded in another classloader");
+    }
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Finds and opens a native library in a JAR file, either stored as is or
+ * xz-compressed next to where it would be, as `<library>.xz`.
+ * A compressed library is decompressed while it is read.
+ */
+final class LibraryResource {
+    static final String XZ_SUFFIX = ".xz";
+
+    private LibraryResource() {
+    }
+
+    /**
+     * True if the library is packaged, compressed or not.
+     */
+    static boolean exists(Class<?> cls, String pathInJar) {
+        return cls.getResource(pathInJar) != null || cls.getResource(pathInJar + XZ_SUFFIX) != null;
+    }
+
+    /**
+     * Opens the library's uncompressed contents.
+     *
+     * @return The stream, or null if the library is not packaged.
+     */
+    static InputStream open(Class<?> cls, String pathInJar) throws IOException {
+        final InputStream is = cls.getResourceAsStream(pathInJar);
+        if (is != null) {
+            return is;
+        }
+        final InputStream compressed = cls.getResourceAsStream(pathInJar + XZ_SUFFIX);
+        if (compressed == null) {
+            return null;
+        }
+        try {
+            return new XzInputStream(compressed);
+        } catch (IOException e) {
+            compressed.close();
+            throw e;
+        }
+    }
+}
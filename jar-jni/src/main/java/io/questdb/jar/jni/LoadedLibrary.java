@@ -0,0 +1,88 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+/**
+ * A native library loaded by {@link JarJniLoader}, as listed by
+ * {@link JarJniLoader#getLoadedLibraries()}.
+ */
+public final class LoadedLibrary {
+    private final String resourcePath;
+    private final String classLoader;
+    private final String loadedFrom;
+    private final long loadNanos;
+
+    LoadedLibrary(String resourcePath, String classLoader, String loadedFrom, long loadNanos) {
+        this.resourcePath = resourcePath;
+        this.classLoader = classLoader;
+        this.loadedFrom = loadedFrom;
+        this.loadNanos = loadNanos;
+    }
+
+    /**
+     * The library's path in the JAR file, e.g. "/native/linux-x86-64/libmylib.so".
+     */
+    public String getResourcePath() {
+        return resourcePath;
+    }
+
+    /**
+     * The class loader of the class the library was loaded for, as its class
+     * name and identity hash code, e.g. "java.net.URLClassLoader@1b6d3586",
+     * or "bootstrap". The loader itself is not referenced, so that it can be
+     * collected, unloading the library.
+     */
+    public String getClassLoaderName() {
+        return classLoader;
+    }
+
+    /**
+     * The file passed to `System.load`: a copy in the extraction cache, an
+     * in-memory file (`/proc/self/fd/N`) or a temporary file.
+     */
+    public String getLoadedFrom() {
+        return loadedFrom;
+    }
+
+    /**
+     * How long extracting and loading the library took, in nanoseconds.
+     */
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+
+    static String describe(ClassLoader classLoader) {
+        return classLoader == null
+                ? "bootstrap"
+                : classLoader.getClass().getName() + "@" +
+                Integer.toHexString(System.identityHashCode(classLoader));
+    }
+
+    @Override
+    public String toString() {
+        return resourcePath + " loaded from " + loadedFrom +
+                " in " + (loadNanos / 1_000_000) + " ms";
+    }
+}
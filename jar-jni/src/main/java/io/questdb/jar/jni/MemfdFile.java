@@ -0,0 +1,53 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+/**
+ * Copies a library into an anonymous in-memory file, so that it can be loaded
+ * without writing it to disk, e.g. on a read-only file system.
+ * <p>
+ * This requires `memfd_create`, called through the foreign function API of
+ * Java 22+, see the `java22` variant of this class. Older JVMs always fall back
+ * to extracting the library to a file.
+ */
+final class MemfdFile {
+    /**
+     * System property: "true" to load libraries from in-memory files rather
+     * than from the extraction cache, whenever supported.
+     */
+    static final String PREFER_PROPERTY = "io.questdb.jar.jni.memfd";
+
+    private MemfdFile() {
+    }
+
+    /**
+     * Loads a library from an in-memory copy.
+     *
+     * @return The path the library was loaded from, or null if not supported.
+     */
+    static String load(Class<?> cls, String pathInJar) {
+        return null;
+    }
+}
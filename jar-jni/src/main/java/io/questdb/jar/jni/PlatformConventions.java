@@ -24,11 +24,46 @@
 
 package io.questdb.jar.jni;
 
+import java.io.File;
+
 public class PlatformConventions {
     public static final String LIB_PREFIX;
     public static final String LIB_SUFFIX;
     public static final String EXE_SUFFIX = isWindows() ? ".exe" : "";
 
+    /**
+     * True when running on Linux with musl libc, e.g. Alpine.
+     */
+    public static final boolean IS_MUSL = Platform.isLinux() && hasMuslLoader();
+
+    private static boolean hasMuslLoader() {
+        final String[] names = new File("/lib").list();
+        if (names == null) {
+            return false;
+        }
+        for (String name : names) {
+            if (name.startsWith("ld-musl-")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The platform directory to load a library from: {@link Platform#RESOURCE_PREFIX},
+     * or its {@link RustTarget#MUSL_SUFFIX} variant on musl libc, if packaged.
+     */
+    static String selectPlatformDir(Class<?> cls, String jarPathPrefix, String name) {
+        final String platformDir = Platform.RESOURCE_PREFIX;
+        if (!IS_MUSL) {
+            return platformDir;
+        }
+        final String muslDir = platformDir + RustTarget.MUSL_SUFFIX;
+        final String sep = jarPathPrefix.endsWith("/") ? "" : "/";
+        final String muslPath = jarPathPrefix + sep + muslDir + "/" + LIB_PREFIX + name + LIB_SUFFIX;
+        return LibraryResource.exists(cls, muslPath) ? muslDir : platformDir;
+    }
+
     private static boolean isWindows() {
         switch (Platform.getOSType()) {
             case Platform.WINDOWS:
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+/**
+ * Platform conventions of a Rust target triple, such as
+ * "x86_64-unknown-linux-gnu" or "aarch64-apple-darwin".
+ * <p>
+ * Used at build time to lay out cross-compiled libraries the way
+ * {@link JarJniLoader#loadLib(Class, String, String)} looks them up at runtime.
+ */
+public final class RustTarget {
+    /**
+     * Suffix added to the platform directory of musl libc targets,
+     * e.g. "linux-x86-64-musl".
+     */
+    public static final String MUSL_SUFFIX = "-musl";
+
+    private final String triple;
+    private final int osType;
+    private final String arch;
+
+    private RustTarget(String triple, int osType, String arch) {
+        this.triple = triple;
+        this.osType = osType;
+        this.arch = arch;
+    }
+
+    /**
+     * @throws IllegalArgumentException for unsupported triples, e.g. wasm.
+     */
+    public static RustTarget parse(String triple) {
+        final String[] parts = triple.trim().split("-");
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("Invalid Rust target triple: " + triple);
+        }
+        final String t = triple.trim();
+        final int osType;
+        if (t.contains("-linux-android")) {
+            osType = Platform.ANDROID;
+        } else if (t.contains("-linux")) {
+            osType = Platform.LINUX;
+        } else if (t.contains("-apple-darwin")) {
+            osType = Platform.MAC;
+        } else if (t.contains("-windows")) {
+            osType = Platform.WINDOWS;
+        } else if (t.contains("-freebsd")) {
+            osType = Platform.FREEBSD;
+        } else if (t.contains("-openbsd")) {
+            osType = Platform.OPENBSD;
+        } else if (t.contains("-netbsd")) {
+            osType = Platform.NETBSD;
+        } else if (t.contains("-solaris") || t.contains("-illumos")) {
+            osType = Platform.SOLARIS;
+        } else {
+            throw new IllegalArgumentException("Unsupported Rust target triple: " + triple);
+        }
+        return new RustTarget(t, osType, toJavaArch(parts[0], t));
+    }
+
+    /**
+     * Maps the architecture of a triple to the "os.arch" naming
+     * understood by {@link Platform}.
+     */
+    private static String toJavaArch(String rustArch, String triple) {
+        switch (rustArch) {
+            case "x86_64":
+                return "x86_64";
+            case "i586":
+            case "i686":
+                return "x86";
+            case "aarch64":
+                return "aarch64";
+            case "powerpc":
+                return "ppc";
+            case "powerpc64":
+                return "ppc64";
+            case "powerpc64le":
+                return "ppc64le";
+            case "riscv64gc":
+                return "riscv64";
+            case "sparcv9":
+                return "sparcv9";
+            default:
+                if (rustArch.startsWith("arm") || rustArch.startsWith("thumb")) {
+                    return triple.endsWith("eabi") ? "armel" : "arm";
+                }
+                return rustArch;
+        }
+    }
+
+    public String getTriple() {
+        return triple;
+    }
+
+    public boolean isMusl() {
+        return triple.contains("-musl");
+    }
+
+    /**
+     * The directory name matching {@link Platform#RESOURCE_PREFIX} on the
+     * target platform, e.g. "linux-aarch64" or "darwin-x86-64".
+     * musl libc targets get the {@link #MUSL_SUFFIX}.
+     */
+    public String getResourcePrefix() {
+        final String prefix = Platform.getNativeLibraryResourcePrefix(osType, arch, "");
+        return isMusl() ? prefix + MUSL_SUFFIX : prefix;
+    }
+
+    public String getLibPrefix() {
+        return osType == Platform.WINDOWS ? "" : "lib";
+    }
+
+    public String getLibSuffix() {
+        switch (osType) {
+            case Platform.WINDOWS:
+                return ".dll";
+            case Platform.MAC:
+                return ".dylib";
+            default:
+                return ".so";
+        }
+    }
+
+    public String getExeSuffix() {
+        return osType == Platform.WINDOWS ? ".exe" : "";
+    }
+
+    @Override
+    public String toString() {
+        return triple;
+    }
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A resource stored uncompressed ("STORED") in a JAR file on the local file
+ * system, which can be copied straight out of the JAR with
+ * {@link FileChannel#transferTo}, without inflating it or passing it through
+ * a heap buffer. The rust-maven-plugin's `align-jar` goal stores native
+ * libraries this way, page-aligned.
+ */
+final class StoredEntry {
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int EOCD_LEN = 22;
+    private static final int CEN_LEN = 46;
+    private static final int LOC_LEN = 30;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final Path jarPath;
+    private final long dataOffset;
+    private final long size;
+
+    private StoredEntry(Path jarPath, long dataOffset, long size) {
+        this.jarPath = jarPath;
+        this.dataOffset = dataOffset;
+        this.size = size;
+    }
+
+    /**
+     * Finds a resource's STORED entry, given its `jar:file:...!/...` URL.
+     *
+     * @return null if the resource is not a STORED entry of a local JAR file,
+     * e.g. if compressed, in a nested JAR or in a ZIP64 archive.
+     */
+    static StoredEntry find(URL url) {
+        if (url == null || !"jar".equals(url.getProtocol())) {
+            return null;
+        }
+        final String spec = url.getFile();
+        final int sep = spec.indexOf("!/");
+        if (sep == -1 || !spec.startsWith("file:") || spec.indexOf("!/", sep + 2) != -1) {
+            return null;
+        }
+        final Path jarPath;
+        final String name;
+        try {
+            jarPath = Paths.get(new URI(spec.substring(0, sep)));
+            name = decode(spec.substring(sep + 2));
+        } catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(jarPath, StandardOpenOption.READ)) {
+            return find(channel, jarPath, name);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Looks the entry up in the central directory, then skips its local header.
+     */
+    private static StoredEntry find(FileChannel channel, Path jarPath, String name) throws IOException {
+        final long fileSize = channel.size();
+        final int tailLen = (int) Math.min(fileSize, 0xFFFF + EOCD_LEN);
+        final ByteBuffer tail = read(channel, fileSize - tailLen, tailLen);
+        int eocd = -1;
+        for (int i = tailLen - EOCD_LEN; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIG) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd == -1) {
+            return null;
+        }
+        final long cenSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        final long cenOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC || cenOffset + cenSize > fileSize) {
+            return null;
+        }
+        final ByteBuffer cen = read(channel, cenOffset, (int) cenSize);
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int pos = 0;
+        while (pos + CEN_LEN <= cen.limit() && cen.getInt(pos) == CEN_SIG) {
+            final int flags = cen.getShort(pos + 8) & 0xFFFF;
+            final int method = cen.getShort(pos + 10) & 0xFFFF;
+            final long compressedSize = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+            final long uncompressedSize = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+            final int nameLen = cen.getShort(pos + 28) & 0xFFFF;
+            final int extraLen = cen.getShort(pos + 30) & 0xFFFF;
+            final int commentLen = cen.getShort(pos + 32) & 0xFFFF;
+            final long locOffset = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+            final int next = pos + CEN_LEN + nameLen + extraLen + commentLen;
+            if (next > cen.limit()) {
+                return null;  // Truncated or corrupt central directory.
+            }
+            if (nameLen == nameBytes.length && matches(cen, pos + CEN_LEN, nameBytes)) {
+                final boolean encrypted = (flags & 1) != 0;
+                if (encrypted || method != 0 || compressedSize != uncompressedSize ||
+                        compressedSize == ZIP64_MAGIC || locOffset == ZIP64_MAGIC) {
+                    return null;
+                }
+                final ByteBuffer loc = read(channel, locOffset, LOC_LEN);
+                if (loc.getInt(0) != LOC_SIG) {
+                    return null;
+                }
+                final long dataOffset = locOffset + LOC_LEN +
+                        (loc.getShort(26) & 0xFFFF) + (loc.getShort(28) & 0xFFFF);
+                if (dataOffset + compressedSize > fileSize) {
+                    return null;
+                }
+                return new StoredEntry(jarPath, dataOffset, compressedSize);
+            }
+            pos = next;
+        }
+        return null;
+    }
+
+    private static boolean matches(ByteBuffer buf, int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buf.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int len) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Decodes the %-escapes of a path, as UTF-8.
+     *
+     * @throws IllegalArgumentException On an invalid escape.
+     */
+    private static String decode(String path) {
+        if (path.indexOf('%') == -1) {
+            return path;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (c == '%' && i + 2 < path.length()) {
+                out.write(Integer.parseInt(path.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                final byte[] bytes = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the entry to the current position of `out`.
+     */
+    void transferTo(FileChannel out) throws IOException {
+        try (FileChannel in = FileChannel.open(jarPath, StandardOpenOption.READ)) {
+            long copied = 0;
+            while (copied < size) {
+                final long count = in.transferTo(dataOffset + copied, size - copied, out);
+                if (count <= 0) {
+                    throw new IOException("Failed to copy " + size + " bytes from " + jarPath);
+                }
+                copied += count;
+            }
+        }
+    }
+}
@@ -0,0 +1,741 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Decompresses an `.xz` file as written by `xz` or the XZ for Java library.
+ * <p>
+ * Only what the rust-maven-plugin writes is supported: a single stream of
+ * one or more blocks, each compressed with the LZMA2 filter alone, and a
+ * CRC32, CRC64, SHA-256 or no check. Headers, the check of each block and
+ * the index are verified, so a truncated or corrupted file fails to read
+ * rather than producing a broken library.
+ */
+final class XzInputStream extends InputStream {
+    private static final byte[] HEADER_MAGIC = {(byte) 0xFD, '7', 'z', 'X', 'Z', 0};
+    private static final int CHECK_NONE = 0;
+    private static final int CHECK_CRC32 = 1;
+    private static final int CHECK_CRC64 = 4;
+    private static final int CHECK_SHA256 = 10;
+    private static final int FILTER_LZMA2 = 0x21;
+    private static final int MAX_CHUNK_SIZE = 1 << 21;
+    private static final int PROB_INIT = 1024;
+    private static final long[] CRC64_TABLE = new long[256];
+
+    static {
+        for (int i = 0; i < CRC64_TABLE.length; i++) {
+            long r = i;
+            for (int j = 0; j < 8; j++) {
+                r = (r & 1) != 0 ? (r >>> 1) ^ 0xC96C5795D7870F42L : r >>> 1;
+            }
+            CRC64_TABLE[i] = r;
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] streamFlags = new byte[2];
+    private final int checkType;
+    private final byte[] chunk = new byte[1 << 16];
+    private final byte[] single = new byte[1];
+    private long inCount;
+    private boolean finished;
+
+    // Current block.
+    private boolean inBlock;
+    private long blockStart;
+    private int blockHeaderSize;
+    private long blockUncompressed;
+    private long expectedCompressed;
+    private long expectedUncompressed;
+    private long blockCount;
+    private long unpaddedSizes;
+    private long uncompressedSizes;
+    private final CRC32 crc32 = new CRC32();
+    private long crc64;
+    private MessageDigest sha256;
+
+    // Dictionary, also holding the output not read yet.
+    private byte[] dict;
+    private int dictSize;
+    private int writeIndex;
+    private long pos;
+    private long dictStart;
+    private long pending;
+    private boolean needDictReset = true;
+    private boolean needProps = true;
+
+    // LZMA state.
+    private int lc;
+    private int lp;
+    private int pb;
+    private int state;
+    private int rep0;
+    private int rep1;
+    private int rep2;
+    private int rep3;
+    private final int[] isMatch = new int[12 << 4];
+    private final int[] isRep = new int[12];
+    private final int[] isRepG0 = new int[12];
+    private final int[] isRepG1 = new int[12];
+    private final int[] isRepG2 = new int[12];
+    private final int[] isRep0Long = new int[12 << 4];
+    private final int[] posSlot = new int[4 << 6];
+    private final int[] posSpecial = new int[115];
+    private final int[] align = new int[16];
+    private final LenDecoder matchLen = new LenDecoder();
+    private final LenDecoder repLen = new LenDecoder();
+    private int[] literal;
+
+    // Range decoder over `chunk`.
+    private int range;
+    private int code;
+    private int rcPos;
+    private int rcLimit;
+
+    XzInputStream(InputStream in) throws IOException {
+        this.in = in;
+        final byte[] header = new byte[12];
+        readFully(header, 0, header.length);
+        for (int i = 0; i < HEADER_MAGIC.length; i++) {
+            if (header[i] != HEADER_MAGIC[i]) {
+                throw new IOException("Not in the .xz format");
+            }
+        }
+        crc32.reset();
+        crc32.update(header, 6, 2);
+        if ((int) crc32.getValue() != getInt(header, 8)) {
+            throw corrupt("stream header");
+        }
+        streamFlags[0] = header[6];
+        streamFlags[1] = header[7];
+        checkType = header[7];
+        if (header[6] != 0 || (checkType != CHECK_NONE && checkType != CHECK_CRC32
+                && checkType != CHECK_CRC64 && checkType != CHECK_SHA256)) {
+            throw new IOException("Unsupported .xz check type " + checkType);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (pending == 0) {
+            if (finished) {
+                return -1;
+            }
+            decodeNext();
+        }
+        final int n = (int) Math.min(len, pending);
+        int index = writeIndex - (int) pending;
+        if (index < 0) {
+            index += dict.length;
+        }
+        final int first = Math.min(n, dict.length - index);
+        System.arraycopy(dict, index, b, off, first);
+        System.arraycopy(dict, 0, b, off + first, n - first);
+        pending -= n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(pending, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Decodes the next LZMA2 chunk, or reads past the end of a block or the
+     * stream.
+     */
+    private void decodeNext() throws IOException {
+        if (!inBlock && !startBlock()) {
+            finishStream();
+            return;
+        }
+        final int control = readByte();
+        if (control == 0x00) {
+            finishBlock();
+            return;
+        }
+        if (control >= 0xE0 || control == 0x01) {
+            needProps = true;
+            needDictReset = false;
+            dictStart = pos;
+        } else if (needDictReset) {
+            throw corrupt("LZMA2 chunk without dictionary reset");
+        }
+        final long start = pos;
+        if (control >= 0x80) {
+            final int size = ((control & 0x1F) << 16) + readShort() + 1;
+            final int compressed = readShort() + 1;
+            final int reset = (control >>> 5) & 3;
+            if (reset >= 2) {
+                setProps(readByte());
+            } else if (needProps) {
+                throw corrupt("LZMA2 chunk without properties");
+            }
+            if (reset >= 1) {
+                resetState();
+            }
+            readFully(chunk, 0, compressed);
+            decodeLzma(compressed, size);
+        } else if (control <= 0x02) {
+            final int size = readShort() + 1;
+            int left = size;
+            while (left > 0) {
+                final int n = Math.min(left, dict.length - writeIndex);
+                readFully(dict, writeIndex, n);
+                writeIndex = (writeIndex + n) % dict.length;
+                left -= n;
+            }
+            pos += size;
+        } else {
+            throw corrupt("LZMA2 control byte");
+        }
+        final int produced = (int) (pos - start);
+        blockUncompressed += produced;
+        pending += produced;
+        int index = writeIndex - produced;
+        if (index < 0) {
+            index += dict.length;
+        }
+        final int first = Math.min(produced, dict.length - index);
+        updateCheck(index, first);
+        updateCheck(0, produced - first);
+    }
+
+    private boolean startBlock() throws IOException {
+        final int first = readByte();
+        if (first == 0x00) {
+            return false;
+        }
+        final byte[] header = new byte[(first + 1) * 4];
+        header[0] = (byte) first;
+        readFully(header, 1, header.length - 1);
+        crc32.reset();
+        crc32.update(header, 0, header.length - 4);
+        if ((int) crc32.getValue() != getInt(header, header.length - 4)) {
+            throw corrupt("block header");
+        }
+        final int flags = header[1] & 0xFF;
+        if ((flags & 0x3F) != 0) {
+            throw new IOException("Unsupported .xz filter chain, only LZMA2 is supported");
+        }
+        final int[] at = {2};
+        expectedCompressed = (flags & 0x40) != 0 ? getVli(header, at) : -1;
+        expectedUncompressed = (flags & 0x80) != 0 ? getVli(header, at) : -1;
+        if (getVli(header, at) != FILTER_LZMA2 || getVli(header, at) != 1) {
+            throw new IOException("Unsupported .xz filter, only LZMA2 is supported");
+        }
+        final int dictBits = header[at[0]++] & 0xFF;
+        if (dictBits > 40) {
+            throw corrupt("LZMA2 dictionary size");
+        }
+        for (int i = at[0]; i < header.length - 4; i++) {
+            if (header[i] != 0) {
+                throw corrupt("block header padding");
+            }
+        }
+        final long size = dictBits == 40 ? 0xFFFFFFFFL : (2L | (dictBits & 1)) << (dictBits / 2 + 11);
+        allocateDict(expectedUncompressed >= 0 ? Math.min(size, expectedUncompressed) : size);
+
+        inBlock = true;
+        blockStart = inCount;
+        blockUncompressed = 0;
+        needDictReset = true;
+        needProps = true;
+        crc32.reset();
+        crc64 = -1;
+        if (checkType == CHECK_SHA256) {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("SHA-256 not available", e);
+            }
+        }
+        blockHeaderSize = header.length;
+        return true;
+    }
+
+    private void allocateDict(long size) throws IOException {
+        final long needed = Math.max(size, 4096) + MAX_CHUNK_SIZE;
+        if (needed > Integer.MAX_VALUE - 8) {
+            throw new IOException("LZMA2 dictionary too large: " + size);
+        }
+        dictSize = (int) Math.max(size, 4096);
+        if (dict == null || dict.length < needed) {
+            dict = new byte[(int) needed];
+        }
+        writeIndex = 0;
+        pos = 0;
+        dictStart = 0;
+    }
+
+    private void finishBlock() throws IOException {
+        final long compressed = inCount - blockStart;
+        if ((expectedCompressed >= 0 && compressed != expectedCompressed)
+                || (expectedUncompressed >= 0 && blockUncompressed != expectedUncompressed)) {
+            throw corrupt("block size");
+        }
+        for (long i = compressed; (i & 3) != 0; i++) {
+            if (readByte() != 0) {
+                throw corrupt("block padding");
+            }
+        }
+        final byte[] expected;
+        switch (checkType) {
+            case CHECK_CRC32:
+                expected = new byte[4];
+                putLong(expected, crc32.getValue());
+                break;
+            case CHECK_CRC64:
+                expected = new byte[8];
+                putLong(expected, ~crc64);
+                break;
+            case CHECK_SHA256:
+                expected = sha256.digest();
+                break;
+            default:
+                expected = new byte[0];
+                break;
+        }
+        final byte[] actual = new byte[expected.length];
+        readFully(actual, 0, actual.length);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw corrupt("block check");
+        }
+        inBlock = false;
+        blockCount++;
+        unpaddedSizes += (blockHeaderSize + compressed + expected.length + 3) & ~3L;
+        uncompressedSizes += blockUncompressed;
+    }
+
+    /**
+     * Verifies the index, whose indicator byte was just read, and the footer.
+     */
+    private void finishStream() throws IOException {
+        final long indexStart = inCount - 1;
+        final CRC32 indexCrc = new CRC32();
+        indexCrc.update(0);
+        final long records = readVli(indexCrc);
+        long unpadded = 0;
+        long uncompressed = 0;
+        for (long i = 0; i < records; i++) {
+            unpadded += (readVli(indexCrc) + 3) & ~3L;
+            uncompressed += readVli(indexCrc);
+        }
+        if (records != blockCount || unpadded != unpaddedSizes || uncompressed != uncompressedSizes) {
+            throw corrupt("index");
+        }
+        while (((inCount - indexStart) & 3) != 0) {
+            final int b = readByte();
+            indexCrc.update(b);
+            if (b != 0) {
+                throw corrupt("index padding");
+            }
+        }
+        final byte[] crc = new byte[4];
+        readFully(crc, 0, crc.length);
+        if ((int) indexCrc.getValue() != getInt(crc, 0)) {
+            throw corrupt("index");
+        }
+        final long indexSize = inCount - indexStart;
+
+        final byte[] footer = new byte[12];
+        readFully(footer, 0, footer.length);
+        crc32.reset();
+        crc32.update(footer, 4, 6);
+        if ((int) crc32.getValue() != getInt(footer, 0)
+                || ((getInt(footer, 4) & 0xFFFFFFFFL) + 1) * 4 != indexSize
+                || footer[8] != streamFlags[0] || footer[9] != streamFlags[1]
+                || footer[10] != 'Y' || footer[11] != 'Z') {
+            throw corrupt("stream footer");
+        }
+        finished = true;
+    }
+
+    private void updateCheck(int off, int len) {
+        if (len == 0) {
+            return;
+        }
+        switch (checkType) {
+            case CHECK_CRC32:
+                crc32.update(dict, off, len);
+                break;
+            case CHECK_CRC64:
+                long crc = crc64;
+                for (int i = off, end = off + len; i < end; i++) {
+                    crc = CRC64_TABLE[(dict[i] ^ (int) crc) & 0xFF] ^ (crc >>> 8);
+                }
+                crc64 = crc;
+                break;
+            case CHECK_SHA256:
+                sha256.update(dict, off, len);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void setProps(int props) throws IOException {
+        if (props > (4 * 5 + 4) * 9 + 8) {
+            throw corrupt("LZMA properties");
+        }
+        lc = props % 9;
+        lp = (props / 9) % 5;
+        pb = props / 45;
+        if (lc + lp > 4) {
+            throw corrupt("LZMA properties");
+        }
+        literal = new int[0x300 << (lc + lp)];
+        needProps = false;
+    }
+
+    private void resetState() {
+        state = 0;
+        rep0 = rep1 = rep2 = rep3 = 0;
+        Arrays.fill(isMatch, PROB_INIT);
+        Arrays.fill(isRep, PROB_INIT);
+        Arrays.fill(isRepG0, PROB_INIT);
+        Arrays.fill(isRepG1, PROB_INIT);
+        Arrays.fill(isRepG2, PROB_INIT);
+        Arrays.fill(isRep0Long, PROB_INIT);
+        Arrays.fill(posSlot, PROB_INIT);
+        Arrays.fill(posSpecial, PROB_INIT);
+        Arrays.fill(align, PROB_INIT);
+        Arrays.fill(literal, PROB_INIT);
+        matchLen.reset();
+        repLen.reset();
+    }
+
+    private void decodeLzma(int compressed, int size) throws IOException {
+        if (compressed < 5 || chunk[0] != 0) {
+            throw corrupt("LZMA chunk");
+        }
+        code = getIntBigEndian(chunk, 1);
+        range = -1;
+        rcPos = 5;
+        rcLimit = compressed;
+
+        final long end = pos + size;
+        final int posMask = (1 << pb) - 1;
+        while (pos < end) {
+            final int posState = (int) (pos - dictStart) & posMask;
+            if (bit(isMatch, (state << 4) + posState) == 0) {
+                decodeLiteral();
+                continue;
+            }
+            int len;
+            if (bit(isRep, state) == 0) {
+                rep3 = rep2;
+                rep2 = rep1;
+                rep1 = rep0;
+                len = matchLen.decode(this, posState);
+                state = state < 7 ? 7 : 10;
+                rep0 = decodeDistance(len);
+                if (rep0 == -1) {
+                    throw corrupt("LZMA2 end marker");
+                }
+            } else {
+                if (bit(isRepG0, state) == 0) {
+                    if (bit(isRep0Long, (state << 4) + posState) == 0) {
+                        state = state < 7 ? 9 : 11;
+                        copyMatch(1);
+                        continue;
+                    }
+                } else {
+                    final int dist;
+                    if (bit(isRepG1, state) == 0) {
+                        dist = rep1;
+                    } else {
+                        if (bit(isRepG2, state) == 0) {
+                            dist = rep2;
+                        } else {
+                            dist = rep3;
+                            rep3 = rep2;
+                        }
+                        rep2 = rep1;
+                    }
+                    rep1 = rep0;
+                    rep0 = dist;
+                }
+                len = repLen.decode(this, posState);
+                state = state < 7 ? 8 : 11;
+            }
+            if (pos + len + 2 > end) {
+                throw corrupt("LZMA match crosses chunk");
+            }
+            copyMatch(len + 2);
+        }
+        normalize();
+        if (rcPos != rcLimit || code != 0) {
+            throw corrupt("LZMA chunk");
+        }
+    }
+
+    private void decodeLiteral() throws IOException {
+        final int prevByte = pos == dictStart ? 0 : getByte(1);
+        final int litState = (((int) (pos - dictStart) & ((1 << lp) - 1)) << lc) + (prevByte >>> (8 - lc));
+        final int base = 0x300 * litState;
+        int symbol = 1;
+        if (state >= 7) {
+            int matchByte = getByte(rep0 + 1);
+            do {
+                final int matchBit = (matchByte >>> 7) & 1;
+                matchByte <<= 1;
+                final int b = bit(literal, base + ((1 + matchBit) << 8) + symbol);
+                symbol = (symbol << 1) | b;
+                if (matchBit != b) {
+                    break;
+                }
+            } while (symbol < 0x100);
+        }
+        while (symbol < 0x100) {
+            symbol = (symbol << 1) | bit(literal, base + symbol);
+        }
+        putByte((byte) symbol);
+        state = state < 4 ? 0 : state < 10 ? state - 3 : state - 6;
+    }
+
+    private int decodeDistance(int len) throws IOException {
+        final int lenState = Math.min(len, 3);
+        final int slot = bitTree(posSlot, lenState << 6, 6);
+        if (slot < 4) {
+            return slot;
+        }
+        final int directBits = (slot >>> 1) - 1;
+        int dist = (2 | (slot & 1)) << directBits;
+        if (slot < 14) {
+            dist += reverseBitTree(posSpecial, dist - slot, directBits);
+        } else {
+            dist += directBits(directBits - 4) << 4;
+            dist += reverseBitTree(align, 0, 4);
+        }
+        return dist;
+    }
+
+    private int getByte(int dist) throws IOException {
+        int index = writeIndex - dist;
+        if (index < 0) {
+            index += dict.length;
+        }
+        return dict[index] & 0xFF;
+    }
+
+    private void putByte(byte b) {
+        dict[writeIndex] = b;
+        if (++writeIndex == dict.length) {
+            writeIndex = 0;
+        }
+        pos++;
+    }
+
+    private void copyMatch(int len) throws IOException {
+        final int dist = rep0 + 1;
+        if (dist <= 0 || dist > pos - dictStart || dist > dictSize) {
+            throw corrupt("LZMA match distance");
+        }
+        int from = writeIndex - dist;
+        if (from < 0) {
+            from += dict.length;
+        }
+        for (int i = 0; i < len; i++) {
+            dict[writeIndex] = dict[from];
+            if (++writeIndex == dict.length) {
+                writeIndex = 0;
+            }
+            if (++from == dict.length) {
+                from = 0;
+            }
+        }
+        pos += len;
+    }
+
+    private void normalize() throws IOException {
+        if ((range & 0xFF000000) == 0) {
+            if (rcPos == rcLimit) {
+                throw corrupt("LZMA chunk");
+            }
+            range <<= 8;
+            code = (code << 8) | (chunk[rcPos++] & 0xFF);
+        }
+    }
+
+    int bit(int[] probs, int index) throws IOException {
+        normalize();
+        final int prob = probs[index];
+        final int bound = (range >>> 11) * prob;
+        if ((code ^ 0x80000000) < (bound ^ 0x80000000)) {
+            range = bound;
+            probs[index] = prob + ((2048 - prob) >>> 5);
+            return 0;
+        }
+        range -= bound;
+        code -= bound;
+        probs[index] = prob - (prob >>> 5);
+        return 1;
+    }
+
+    int bitTree(int[] probs, int base, int bits) throws IOException {
+        int m = 1;
+        for (int i = 0; i < bits; i++) {
+            m = (m << 1) | bit(probs, base + m);
+        }
+        return m - (1 << bits);
+    }
+
+    private int reverseBitTree(int[] probs, int base, int bits) throws IOException {
+        int m = 1;
+        int symbol = 0;
+        for (int i = 0; i < bits; i++) {
+            final int b = bit(probs, base + m);
+            m = (m << 1) | b;
+            symbol |= b << i;
+        }
+        return symbol;
+    }
+
+    private int directBits(int bits) throws IOException {
+        int result = 0;
+        for (int i = 0; i < bits; i++) {
+            normalize();
+            range >>>= 1;
+            final int t = (code - range) >>> 31;
+            code -= range & (t - 1);
+            result = (result << 1) | (1 - t);
+        }
+        return result;
+    }
+
+    private int readByte() throws IOException {
+        final int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Truncated .xz file");
+        }
+        inCount++;
+        return b;
+    }
+
+    private int readShort() throws IOException {
+        return (readByte() << 8) | readByte();
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            final int n = in.read(b, off, len);
+            if (n == -1) {
+                throw new EOFException("Truncated .xz file");
+            }
+            inCount += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private long readVli(CRC32 crc) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 9; i++) {
+            final int b = readByte();
+            crc.update(b);
+            value |= (long) (b & 0x7F) << (i * 7);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw corrupt("variable-length integer");
+    }
+
+    private static long getVli(byte[] b, int[] at) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 9 && at[0] < b.length - 4; i++) {
+            final int v = b[at[0]++] & 0xFF;
+            value |= (long) (v & 0x7F) << (i * 7);
+            if ((v & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw corrupt("variable-length integer");
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+    }
+
+    private static int getIntBigEndian(byte[] b, int off) {
+        return (b[off] & 0xFF) << 24 | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | (b[off + 3] & 0xFF);
+    }
+
+    private static void putLong(byte[] b, long value) {
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    private static IOException corrupt(String what) {
+        return new IOException("Corrupt .xz file: bad " + what);
+    }
+
+    private static final class LenDecoder {
+        private final int[] choice = new int[2];
+        private final int[] low = new int[16 << 3];
+        private final int[] mid = new int[16 << 3];
+        private final int[] high = new int[256];
+
+        void reset() {
+            Arrays.fill(choice, PROB_INIT);
+            Arrays.fill(low, PROB_INIT);
+            Arrays.fill(mid, PROB_INIT);
+            Arrays.fill(high, PROB_INIT);
+        }
+
+        int decode(XzInputStream rc, int posState) throws IOException {
+            if (rc.bit(choice, 0) == 0) {
+                return rc.bitTree(low, posState << 3, 3);
+            }
+            if (rc.bit(choice, 1) == 0) {
+                return 8 + rc.bitTree(mid, posState << 3, 3);
+            }
+            return 16 + rc.bitTree(high, 0, 8);
+        }
+    }
+}
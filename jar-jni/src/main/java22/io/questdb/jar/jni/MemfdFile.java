@@ -0,0 +1,130 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Loads libraries from anonymous in-memory files created with Linux's
+ * `memfd_create`, called through the foreign function API, as
+ * `/proc/self/fd/N`, without writing them to disk.
+ * <p>
+ * The JVM warns about the restricted `Linker` methods, unless run with
+ * `--enable-native-access=io.questdb.jar.jni` (or `ALL-UNNAMED` on the class path).
+ */
+final class MemfdFile {
+    static final String PREFER_PROPERTY = "io.questdb.jar.jni.memfd";
+    private static final int MFD_CLOEXEC = 1;
+    private static final MethodHandle MEMFD_CREATE = find("memfd_create", FunctionDescriptor.of(
+            ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT));
+    private static final MethodHandle CLOSE = find("close", FunctionDescriptor.of(
+            ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+
+    private MemfdFile() {
+    }
+
+    private static MethodHandle find(String function, FunctionDescriptor descriptor) {
+        if (!Platform.isLinux()) {
+            return null;
+        }
+        try {
+            final Linker linker = Linker.nativeLinker();
+            return linker.defaultLookup().find(function)
+                    .map(address -> linker.downcallHandle(address, descriptor))
+                    .orElse(null);
+        } catch (RuntimeException e) {
+            // E.g. native access denied by `--illegal-native-access=deny`.
+            return null;
+        }
+    }
+
+    private static void close(int fd) {
+        try {
+            final int ignored = (int) CLOSE.invokeExact(fd);
+        } catch (Throwable e) {
+            // Nothing left to do.
+        }
+    }
+
+    /**
+     * Loads a library from an in-memory copy.
+     *
+     * @return The path the library was loaded from, or null if not supported,
+     * or if the copy can't be made or loaded.
+     */
+    static String load(Class<?> cls, String pathInJar) {
+        if (MEMFD_CREATE == null || CLOSE == null) {
+            return null;
+        }
+        final int fd;
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment name = arena.allocateFrom(
+                    pathInJar.substring(pathInJar.lastIndexOf('/') + 1));
+            fd = (int) MEMFD_CREATE.invokeExact(name, MFD_CLOEXEC);
+        } catch (Throwable e) {
+            return null;
+        }
+        if (fd < 0) {
+            return null;
+        }
+
+        // Once loaded, the descriptor is left open: the file lives as long as
+        // the process. Otherwise it is closed, freeing the file.
+        final Path path = Paths.get("/proc/self/fd/" + fd);
+        boolean loaded = false;
+        try {
+            try (InputStream is = LibraryResource.open(cls, pathInJar);
+                 OutputStream out = Files.newOutputStream(path)) {
+                if (is == null) {
+                    return null;
+                }
+                is.transferTo(out);
+            }
+            System.load(path.toString());
+            loaded = true;
+            return path.toString();
+        } catch (IOException e) {
+            return null;
+        } catch (UnsatisfiedLinkError e) {
+            // E.g. executable memfds are forbidden by `vm.memfd_noexec`.
+            return null;
+        } finally {
+            if (!loaded) {
+                close(fd);
+            }
+        }
+    }
+}
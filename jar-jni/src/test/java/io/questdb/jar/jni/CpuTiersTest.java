@@ -0,0 +1,134 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CpuTiersTest {
+    private static final String X86_BASELINE =
+            "fpu vme de pse tsc msr pae mce cx8 apic sep mtrr pge mca cmov pat pse36 clflush " +
+                    "mmx fxsr sse sse2 ht syscall nx lm";
+    private static final String X86_V2 = X86_BASELINE +
+            " pni ssse3 cx16 sse4_1 sse4_2 popcnt lahf_lm";
+    private static final String X86_V3 = X86_V2 +
+            " avx avx2 bmi1 bmi2 f16c fma abm movbe xsave";
+    private static final String X86_V4 = X86_V3 +
+            " avx512f avx512dq avx512cd avx512bw avx512vl";
+
+    private static String x86Cpuinfo(String flags) {
+        return "processor\t: 0\n" +
+                "vendor_id\t: GenuineIntel\n" +
+                "model name\t: Test CPU\n" +
+                "flags\t\t: " + flags + "\n" +
+                "bugs\t\t: spectre_v1\n" +
+                "\n" +
+                "processor\t: 1\n" +
+                "flags\t\t: " + X86_BASELINE + "\n";
+    }
+
+    private static String armCpuinfo(String features) {
+        return "processor\t: 0\n" +
+                "BogoMIPS\t: 50.00\n" +
+                "Features\t: " + features + "\n" +
+                "CPU implementer\t: 0x41\n";
+    }
+
+    @Test
+    public void testX86Tiers() {
+        assertEquals(Collections.emptyList(),
+                CpuTiers.parseCpuinfo("x86-64", x86Cpuinfo(X86_BASELINE)));
+        assertEquals(Collections.singletonList("x86-64-v2"),
+                CpuTiers.parseCpuinfo("x86-64", x86Cpuinfo(X86_V2)));
+        assertEquals(Arrays.asList("x86-64-v3", "x86-64-v2"),
+                CpuTiers.parseCpuinfo("x86-64", x86Cpuinfo(X86_V3)));
+        assertEquals(Arrays.asList("x86-64-v4", "x86-64-v3", "x86-64-v2"),
+                CpuTiers.parseCpuinfo("x86-64", x86Cpuinfo(X86_V4)));
+
+        // AVX-512 without AVX512VL is not v4.
+        assertEquals(Arrays.asList("x86-64-v3", "x86-64-v2"),
+                CpuTiers.parseCpuinfo("x86-64", x86Cpuinfo(X86_V4.replace(" avx512vl", ""))));
+        // A v3 flag without the v2 ones is no tier at all.
+        assertEquals(Collections.emptyList(),
+                CpuTiers.parseCpuinfo("x86-64", x86Cpuinfo(X86_V3.replace(" popcnt", ""))));
+        // The flags of another architecture don't count.
+        assertEquals(Collections.emptyList(),
+                CpuTiers.parseCpuinfo("aarch64", x86Cpuinfo(X86_V4)));
+    }
+
+    @Test
+    public void testAarch64Tiers() {
+        final String base = "fp asimd evtstrm aes pmull sha1 sha2 crc32 atomics fphp asimdhp cpuid";
+        assertEquals(Collections.emptyList(),
+                CpuTiers.parseCpuinfo("aarch64", armCpuinfo(base)));
+        assertEquals(Collections.singletonList("sve"),
+                CpuTiers.parseCpuinfo("aarch64", armCpuinfo(base + " sve")));
+        assertEquals(Arrays.asList("sve2", "sve"),
+                CpuTiers.parseCpuinfo("aarch64", armCpuinfo(base + " sve sve2 svebf16")));
+        assertEquals(Collections.emptyList(),
+                CpuTiers.parseCpuinfo("x86-64", armCpuinfo(base + " sve sve2")));
+        assertEquals(Collections.emptyList(), CpuTiers.parseCpuinfo("aarch64", ""));
+    }
+
+    @Test
+    public void testOverride() {
+        final String cpuinfo = x86Cpuinfo(X86_V4);
+        assertEquals(Collections.singletonList("x86-64-v2"),
+                CpuTiers.detect(" x86-64-v2 ", "x86-64", cpuinfo));
+        assertEquals(Collections.emptyList(),
+                CpuTiers.detect("baseline", "x86-64", cpuinfo));
+        // Unset or blank: detected.
+        assertEquals(3, CpuTiers.detect(null, "x86-64", cpuinfo).size());
+        assertEquals(3, CpuTiers.detect("  ", "x86-64", cpuinfo).size());
+    }
+
+    @Test
+    public void testDirNames() {
+        assertEquals(Arrays.asList("x86-64-v3", "v3"), CpuTiers.getDirNames("x86-64-v3"));
+        assertEquals(Collections.singletonList("sve2"), CpuTiers.getDirNames("sve2"));
+    }
+
+    @Test
+    public void testSelectFallbackOrder() {
+        // Packaged: baseline, "x86-64-v2", "v3" (short name) and "sve"; no v4.
+        final List<String> v4 = Arrays.asList("x86-64-v4", "x86-64-v3", "x86-64-v2");
+        assertEquals("v3", select(v4));
+        assertEquals("x86-64-v2", select(Collections.singletonList("x86-64-v2")));
+        assertEquals("sve", select(Arrays.asList("sve2", "sve")));
+        assertEquals(CpuTiers.BASELINE, select(Collections.singletonList("x86-64-v4")));
+        assertEquals(CpuTiers.BASELINE, select(Collections.emptyList()));
+        assertEquals(CpuTiers.BASELINE, CpuTiers.select(
+                CpuTiersTest.class, "/tiers", "plat", "missing", v4));
+    }
+
+    private static String select(List<String> supported) {
+        return CpuTiers.select(CpuTiersTest.class, "/tiers/", "plat", "demo", supported);
+    }
+}
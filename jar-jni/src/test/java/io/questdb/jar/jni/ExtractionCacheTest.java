@@ -0,0 +1,133 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class ExtractionCacheTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path cacheDir;
+    private String previousCacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = tmp.newFolder("cache").toPath();
+        previousCacheDir = System.setProperty(ExtractionCache.CACHE_DIR_PROPERTY, cacheDir.toString());
+    }
+
+    @After
+    public void tearDown() {
+        if (previousCacheDir == null) {
+            System.clearProperty(ExtractionCache.CACHE_DIR_PROPERTY);
+        } else {
+            System.setProperty(ExtractionCache.CACHE_DIR_PROPERTY, previousCacheDir);
+        }
+    }
+
+    private static byte[] resource(String path) throws Exception {
+        return Files.readAllBytes(Paths.get(ExtractionCacheTest.class.getResource(path).toURI()));
+    }
+
+    @Test
+    public void testExtract() throws Exception {
+        final Path lib = ExtractionCache.extract(ExtractionCacheTest.class, "/cache/libgood.so");
+        assertNotNull(lib);
+        assertTrue(lib.startsWith(cacheDir));
+        assertArrayEquals(resource("/cache/libgood.so"), Files.readAllBytes(lib));
+        assertEquals(lib, ExtractionCache.extract(ExtractionCacheTest.class, "/cache/libgood.so"));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        System.setProperty(ExtractionCache.CACHE_DIR_PROPERTY, " ");
+        assertNull(ExtractionCache.extract(ExtractionCacheTest.class, "/cache/libgood.so"));
+    }
+
+    @Test
+    public void testTruncatedCacheEntryIsReplaced() throws Exception {
+        final Path lib = ExtractionCache.extract(ExtractionCacheTest.class, "/cache/libgood.so");
+        assertNotNull(lib);
+        Files.write(lib, new byte[]{0x7f, 'E', 'L', 'F'}, StandardOpenOption.TRUNCATE_EXISTING);
+
+        assertEquals(lib, ExtractionCache.extract(ExtractionCacheTest.class, "/cache/libgood.so"));
+        assertArrayEquals(resource("/cache/libgood.so"), Files.readAllBytes(lib));
+    }
+
+    @Test
+    public void testReplacedCacheEntryIsReplaced() throws Exception {
+        final Path lib = ExtractionCache.extract(ExtractionCacheTest.class, "/cache/libgood.so");
+        assertNotNull(lib);
+        final byte[] replaced = resource("/cache/libgood.so");
+        replaced[0] ^= 1;
+        Files.write(lib, replaced, StandardOpenOption.TRUNCATE_EXISTING);
+        Files.setLastModifiedTime(lib, FileTime.fromMillis(Files.getLastModifiedTime(lib).toMillis() + 2000));
+
+        assertEquals(lib, ExtractionCache.extract(ExtractionCacheTest.class, "/cache/libgood.so"));
+        assertArrayEquals(resource("/cache/libgood.so"), Files.readAllBytes(lib));
+    }
+
+    @Test
+    public void testTouchedCacheEntryIsKept() throws Exception {
+        final Path lib = ExtractionCache.extract(ExtractionCacheTest.class, "/cache/libgood.so");
+        assertNotNull(lib);
+        final FileTime touched = FileTime.fromMillis(Files.getLastModifiedTime(lib).toMillis() + 2000);
+        Files.setLastModifiedTime(lib, touched);
+
+        // Hashed again, found intact and kept.
+        assertEquals(lib, ExtractionCache.extract(ExtractionCacheTest.class, "/cache/libgood.so"));
+        assertEquals(touched, Files.getLastModifiedTime(lib));
+    }
+
+    @Test
+    public void testChecksumMismatchFails() {
+        try {
+            ExtractionCache.tryExtract(ExtractionCacheTest.class, "/cache/libbad.so");
+            fail("Expected a checksum mismatch");
+        } catch (LoadException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Checksum mismatch for /cache/libbad.so"));
+        }
+    }
+
+    @Test
+    public void testUnwritableCacheDirFallsBack() throws Exception {
+        final Path file = tmp.newFile("not-a-dir").toPath();
+        System.setProperty(ExtractionCache.CACHE_DIR_PROPERTY, file.toString());
+        assertNull(ExtractionCache.tryExtract(ExtractionCacheTest.class, "/cache/libgood.so"));
+    }
+}
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.junit.Assert.*;
+
+public class LibraryRegistryTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path resources;
+    private Path cacheDir;
+    private String previousCacheDir;
+
+    /**
+     * A shared library that is harmless to load, copied from the running JDK.
+     */
+    private static Path findTestLibrary() {
+        final Path lib = Paths.get(System.getProperty("java.home"), "lib", "libsyslookup.so");
+        Assume.assumeTrue("Needs a Linux JDK 17+", Files.isRegularFile(lib));
+        return lib;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = tmp.newFolder("cache").toPath();
+        previousCacheDir = System.setProperty(ExtractionCache.CACHE_DIR_PROPERTY, cacheDir.toString());
+    }
+
+    @After
+    public void tearDown() {
+        if (previousCacheDir == null) {
+            System.clearProperty(ExtractionCache.CACHE_DIR_PROPERTY);
+        } else {
+            System.setProperty(ExtractionCache.CACHE_DIR_PROPERTY, previousCacheDir);
+        }
+    }
+
+    /**
+     * A class loader with its own copy of jar-jni and the test resources,
+     * like a web application bundling both.
+     */
+    private URLClassLoader newIsolatedLoader() throws Exception {
+        final URL classes = LibraryRegistry.class.getProtectionDomain().getCodeSource().getLocation();
+        return new URLClassLoader(new URL[]{classes, resources.toUri().toURL()}, null);
+    }
+
+    /**
+     * Loads `/native/libdemo.so` through the jar-jni copy of `loader`.
+     *
+     * @return Where it was loaded from.
+     */
+    private static String loadThrough(ClassLoader loader) throws Exception {
+        final Class<?> jarJniLoader = loader.loadClass(JarJniLoader.class.getName());
+        jarJniLoader.getMethod("loadLib", Class.class, String.class, String.class, String.class)
+                .invoke(null, jarJniLoader, "/native", "demo", null);
+        final List<?> loaded = (List<?>) jarJniLoader.getMethod("getLoadedLibraries").invoke(null);
+        assertEquals(1, loaded.size());
+        final Method getLoadedFrom = loaded.get(0).getClass().getMethod("getLoadedFrom");
+        return (String) getLoadedFrom.invoke(loaded.get(0));
+    }
+
+    @Test
+    public void testConcurrentLoadsLoadOnce() throws Exception {
+        final String pathInJar = "/test/concurrent/libdemo.so";
+        final int threadCount = 8;
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReferenceArray<LoadedLibrary> results = new AtomicReferenceArray<>(threadCount);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            final int index = i;
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    results.set(index, LibraryRegistry.load(LibraryRegistryTest.class, pathInJar, (cls, path) -> {
+                        loads.incrementAndGet();
+                        loading.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new AssertionError(e);
+                        }
+                        return "/loaded/libdemo.so";
+                    }));
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        // Let the other threads reach the registry while the first one loads.
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(thread.isAlive());
+        }
+
+        assertEquals(1, loads.get());
+        for (int i = 0; i < threadCount; i++) {
+            assertSame(results.get(0), results.get(i));
+        }
+        assertEquals("/loaded/libdemo.so", results.get(0).getLoadedFrom());
+    }
+
+    @Test
+    public void testFailedLoadIsRetried() {
+        final String pathInJar = "/test/retry/libdemo.so";
+        final AtomicInteger loads = new AtomicInteger();
+        try {
+            LibraryRegistry.load(LibraryRegistryTest.class, pathInJar, (cls, path) -> {
+                loads.incrementAndGet();
+                throw new LoadException("Cannot load " + path);
+            });
+            fail("Expected the load to fail");
+        } catch (LoadException e) {
+            assertEquals("Cannot load " + pathInJar, e.getMessage());
+        }
+        for (LoadedLibrary lib : LibraryRegistry.getLoaded()) {
+            assertNotEquals(pathInJar, lib.getResourcePath());
+        }
+
+        final LoadedLibrary lib = LibraryRegistry.load(LibraryRegistryTest.class, pathInJar, (cls, path) -> {
+            loads.incrementAndGet();
+            return "/loaded/libdemo.so";
+        });
+        assertEquals("/loaded/libdemo.so", lib.getLoadedFrom());
+        assertEquals(2, loads.get());
+
+        // Loaded now, so not loaded again.
+        assertSame(lib, LibraryRegistry.load(LibraryRegistryTest.class, pathInJar, (cls, path) -> {
+            throw new AssertionError("Loaded twice");
+        }));
+    }
+
+    @Test
+    public void testGetLoaded() {
+        final String pathInJar = "/test/reported/libdemo.so";
+        final LoadedLibrary lib = LibraryRegistry.load(LibraryRegistryTest.class, pathInJar, (cls, path) -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            return "/loaded/libdemo.so";
+        });
+
+        LoadedLibrary reported = null;
+        for (LoadedLibrary loaded : JarJniLoader.getLoadedLibraries()) {
+            if (loaded.getResourcePath().equals(pathInJar)) {
+                assertNull("Reported twice", reported);
+                reported = loaded;
+            }
+        }
+        assertSame(lib, reported);
+        final ClassLoader classLoader = LibraryRegistryTest.class.getClassLoader();
+        assertEquals(classLoader.getClass().getName() + "@" +
+                Integer.toHexString(System.identityHashCode(classLoader)), reported.getClassLoaderName());
+        assertEquals("/loaded/libdemo.so", reported.getLoadedFrom());
+        assertTrue(reported.getLoadNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(pathInJar + " loaded from /loaded/libdemo.so in " +
+                TimeUnit.NANOSECONDS.toMillis(reported.getLoadNanos()) + " ms", reported.toString());
+    }
+
+    @Test
+    public void testClassLoaderCanBeCollected() throws Exception {
+        final String pathInJar = "/test/collected/libdemo.so";
+        final WeakReference<ClassLoader> ref = loadInDiscardedClassLoader(pathInJar);
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("The registry keeps the class loader reachable", ref.get());
+        for (LoadedLibrary lib : LibraryRegistry.getLoaded()) {
+            assertNotEquals(pathInJar, lib.getResourcePath());
+        }
+    }
+
+    private static WeakReference<ClassLoader> loadInDiscardedClassLoader(String pathInJar) throws Exception {
+        final URL classes = LibraryRegistry.class.getProtectionDomain().getCodeSource().getLocation();
+        final URLClassLoader loader = new URLClassLoader(new URL[]{classes}, null);
+        final Class<?> cls = loader.loadClass(LoadedLibrary.class.getName());
+        LibraryRegistry.load(cls, pathInJar, (c, path) -> "/loaded/libdemo.so");
+        loader.close();
+        return new WeakReference<>(loader);
+    }
+
+    @Test
+    public void testCachedLibraryInTwoClassLoaders() throws Exception {
+        resources = tmp.newFolder("resources").toPath();
+        Files.createDirectories(resources.resolve("native"));
+        Files.copy(findTestLibrary(), resources.resolve("native/libdemo.so"));
+        try (URLClassLoader first = newIsolatedLoader();
+             URLClassLoader second = newIsolatedLoader()) {
+            final String firstPath = loadThrough(first);
+            assertTrue(firstPath, Paths.get(firstPath).startsWith(cacheDir));
+
+            // The JVM won't load the cached file for a second class loader.
+            final String secondPath = loadThrough(second);
+            assertNotEquals(firstPath, secondPath);
+            assertFalse(secondPath, Paths.get(secondPath).startsWith(cacheDir));
+            assertTrue(secondPath, new File(secondPath).exists() || secondPath.startsWith("/proc/self/fd/"));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests against `stored/aligned.jar`, written by the rust-maven-plugin's
+ * `JarAligner` with a 4096 byte alignment. It holds a deflated `notes.txt`,
+ * and `native/libdemo.so` (10000 bytes from `new Random(42)`) and
+ * `native/with space/libdemo.so` (its first 777 bytes), both stored.
+ */
+public class StoredEntryTest {
+    private static final int ALIGNMENT = 4096;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] libBytes() {
+        final byte[] lib = new byte[10000];
+        new Random(42).nextBytes(lib);
+        return lib;
+    }
+
+    private static Path alignedJar() throws Exception {
+        return Paths.get(StoredEntryTest.class.getResource("/stored/aligned.jar").toURI());
+    }
+
+    private static URL entryUrl(Path jar, String name) throws Exception {
+        return new URL("jar:" + jar.toUri() + "!/" + name);
+    }
+
+    private byte[] transfer(StoredEntry entry) throws Exception {
+        final Path out = tmp.newFile().toPath();
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.WRITE)) {
+            entry.transferTo(channel);
+        }
+        return Files.readAllBytes(out);
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(haystack, i, i + needle.length), needle)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testAlignedEntry() throws Exception {
+        final Path jar = alignedJar();
+        final StoredEntry entry = StoredEntry.find(entryUrl(jar, "native/libdemo.so"));
+        assertNotNull(entry);
+        assertArrayEquals(libBytes(), transfer(entry));
+
+        final int offset = indexOf(Files.readAllBytes(jar), libBytes());
+        assertTrue(offset > 0);
+        assertEquals(0, offset % ALIGNMENT);
+    }
+
+    @Test
+    public void testEscapedName() throws Exception {
+        final URL url = entryUrl(alignedJar(), "native/with%20space/libdemo.so");
+        final StoredEntry entry = StoredEntry.find(url);
+        assertNotNull(entry);
+        assertArrayEquals(Arrays.copyOf(libBytes(), 777), transfer(entry));
+        try (InputStream is = url.openStream()) {
+            assertNotNull(is);
+        }
+    }
+
+    @Test
+    public void testDeflatedEntry() throws Exception {
+        assertNull(StoredEntry.find(entryUrl(alignedJar(), "notes.txt")));
+    }
+
+    @Test
+    public void testMissingEntry() throws Exception {
+        assertNull(StoredEntry.find(entryUrl(alignedJar(), "native/libother.so")));
+    }
+
+    @Test
+    public void testNotInJar() throws Exception {
+        assertNull(StoredEntry.find(null));
+        assertNull(StoredEntry.find(alignedJar().toUri().toURL()));
+    }
+
+    @Test
+    public void testNestedJar() throws Exception {
+        final URL url = new URL("jar:" + alignedJar().toUri() +
+                "!/BOOT-INF/lib/aligned.jar!/native/libdemo.so");
+        assertNull(StoredEntry.find(url));
+    }
+
+    @Test
+    public void testZip64() throws Exception {
+        final Path jar = tmp.getRoot().toPath().resolve("zip64.jar");
+        Files.write(jar, toZip64(Files.readAllBytes(alignedJar())));
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            // Still a valid archive.
+            assertEquals(10000, zip.getEntry("native/libdemo.so").getSize());
+        }
+        assertNull(StoredEntry.find(entryUrl(jar, "native/libdemo.so")));
+    }
+
+    @Test
+    public void testTruncatedCentralDirectory() throws Exception {
+        // Cut the central directory short in the middle of the last entry's name.
+        final byte[] zip = Files.readAllBytes(alignedJar());
+        final ByteBuffer buf = ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN);
+        final int eocd = zip.length - 22;
+        final int cenOffset = buf.getInt(eocd + 16);
+        final int cenEnd = cenOffset + buf.getInt(eocd + 12);
+        int last = cenOffset;
+        for (int pos = cenOffset; pos < cenEnd; ) {
+            last = pos;
+            pos += 46 + (buf.getShort(pos + 28) & 0xFFFF) +
+                    (buf.getShort(pos + 30) & 0xFFFF) + (buf.getShort(pos + 32) & 0xFFFF);
+        }
+        final int nameLen = buf.getShort(last + 28) & 0xFFFF;
+        final String name = new String(zip, last + 46, nameLen, StandardCharsets.UTF_8);
+        buf.putInt(eocd + 12, last + 46 + nameLen / 2 - cenOffset);
+
+        final Path jar = tmp.getRoot().toPath().resolve("truncated.jar");
+        Files.write(jar, zip);
+        assertNull(StoredEntry.find(entryUrl(jar, name.replace(" ", "%20"))));
+    }
+
+    /**
+     * Replaces the end of central directory record of an archive without a
+     * comment with ZIP64 ones, leaving the sizes and offsets to the latter.
+     */
+    private static byte[] toZip64(byte[] zip) {
+        final int eocdLen = 22;
+        final ByteBuffer eocd = ByteBuffer.wrap(zip, zip.length - eocdLen, eocdLen)
+                .slice().order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0x06054b50, eocd.getInt(0));
+        final int count = eocd.getShort(10) & 0xFFFF;
+        final long cenSize = eocd.getInt(12) & 0xFFFFFFFFL;
+        final long cenOffset = eocd.getInt(16) & 0xFFFFFFFFL;
+        final long zip64EocdOffset = zip.length - eocdLen;
+
+        final ByteBuffer out = ByteBuffer.allocate(zip.length - eocdLen + 56 + 20 + eocdLen)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.put(zip, 0, zip.length - eocdLen);
+        // ZIP64 end of central directory record.
+        out.putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45)
+                .putInt(0).putInt(0).putLong(count).putLong(count).putLong(cenSize).putLong(cenOffset);
+        // ZIP64 end of central directory locator.
+        out.putInt(0x07064b50).putInt(0).putLong(zip64EocdOffset).putInt(1);
+        // End of central directory record.
+        out.putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+                .putShort((short) 0xFFFF).putShort((short) 0xFFFF)
+                .putInt(0xFFFFFFFF).putInt(0xFFFFFFFF).putShort((short) 0);
+        return out.array();
+    }
+}
@@ -0,0 +1,287 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.jar.jni;
+
+import org.junit.Test;
+import org.tukaani.xz.DeltaOptions;
+import org.tukaani.xz.FilterOptions;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.X86Options;
+import org.tukaani.xz.XZ;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes the output of XZ for Java, which the rust-maven-plugin compresses
+ * libraries with.
+ */
+public class XzInputStreamTest {
+    /**
+     * Text-like data with short and long repeats, then random bytes, so that
+     * the encoder emits literals, matches, repeated matches and uncompressed
+     * chunks.
+     */
+    private static byte[] sampleData(int size, long seed) {
+        final Random random = new Random(seed);
+        final String[] words = {"jar", "jni", "loader", "native", "library", "questdb", "rust", "maven"};
+        final byte[] data = new byte[size];
+        final int textSize = size * 3 / 4;
+        int len = 0;
+        while (len < textSize) {
+            final byte[] word = words[random.nextInt(words.length)].getBytes(StandardCharsets.US_ASCII);
+            final int n = Math.min(word.length, textSize - len);
+            System.arraycopy(word, 0, data, len, n);
+            len += n;
+            if (len < textSize) {
+                data[len++] = (byte) (random.nextInt(4) == 0 ? '\n' : ' ');
+            }
+            if (random.nextInt(50) == 0) {
+                final int repeat = Math.min(Math.min(len, textSize - len), 1 + random.nextInt(3000));
+                System.arraycopy(data, random.nextInt(len - repeat + 1), data, len, repeat);
+                len += repeat;
+            }
+        }
+        final byte[] noise = new byte[size - textSize];
+        random.nextBytes(noise);
+        System.arraycopy(noise, 0, data, textSize, noise.length);
+        return data;
+    }
+
+    private static byte[] compress(byte[] data, FilterOptions[] filters, int checkType, int blockSize)
+            throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (XZOutputStream xz = new XZOutputStream(out, filters, checkType)) {
+            for (int off = 0; off < data.length; off += blockSize) {
+                if (off > 0) {
+                    xz.endBlock();
+                }
+                xz.write(data, off, Math.min(blockSize, data.length - off));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] compress(byte[] data, LZMA2Options options, int checkType) throws IOException {
+        return compress(data, new FilterOptions[]{options}, checkType, Math.max(data.length, 1));
+    }
+
+    /**
+     * Decompresses, reading `bufSize` bytes at a time, or byte by byte if 1.
+     */
+    private static byte[] decompress(byte[] xz, int bufSize) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (XzInputStream is = new XzInputStream(new ByteArrayInputStream(xz))) {
+            if (bufSize == 1) {
+                int b;
+                while ((b = is.read()) != -1) {
+                    out.write(b);
+                }
+            } else {
+                final byte[] buf = new byte[bufSize];
+                int read;
+                while ((read = is.read(buf, 0, buf.length)) != -1) {
+                    out.write(buf, 0, read);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] xz) throws IOException {
+        return decompress(xz, 8192);
+    }
+
+    private static void assertFails(byte[] xz, String messagePrefix) {
+        try {
+            decompress(xz);
+            fail("Expected a failure starting with \"" + messagePrefix + "\"");
+        } catch (IOException e) {
+            assertNotNull(e.getMessage());
+            assertTrue(e.getMessage(), e.getMessage().startsWith(messagePrefix));
+        }
+    }
+
+    @Test
+    public void testPresets() throws Exception {
+        final byte[] data = sampleData(150_000, 1);
+        for (int preset = 0; preset <= 6; preset++) {
+            final byte[] xz = compress(data, new LZMA2Options(preset), XZ.CHECK_CRC64);
+            assertArrayEquals("preset " + preset, data, decompress(xz));
+        }
+    }
+
+    @Test
+    public void testDictionarySizes() throws Exception {
+        final byte[] data = sampleData(200_000, 2);
+        final int[] dictSizes = {
+                LZMA2Options.DICT_SIZE_MIN, 64 << 10, 96 << 10, 1 << 20, 3 << 20, 8 << 20};
+        for (int dictSize : dictSizes) {
+            final LZMA2Options options = new LZMA2Options();
+            options.setDictSize(dictSize);
+            final byte[] xz = compress(data, options, XZ.CHECK_CRC64);
+            assertArrayEquals("dictionary size " + dictSize, data, decompress(xz));
+        }
+    }
+
+    @Test
+    public void testLiteralAndPositionBits() throws Exception {
+        final byte[] data = sampleData(200_000, 3);
+        final int[][] lcLpPb = {{0, 0, 0}, {4, 0, 2}, {0, 4, 4}, {1, 3, 1}, {3, 1, 4}};
+        for (int[] bits : lcLpPb) {
+            final LZMA2Options options = new LZMA2Options();
+            options.setLcLp(bits[0], bits[1]);
+            options.setPb(bits[2]);
+            final byte[] xz = compress(data, options, XZ.CHECK_CRC32);
+            assertArrayEquals(Arrays.toString(bits), data, decompress(xz));
+        }
+    }
+
+    @Test
+    public void testCheckTypes() throws Exception {
+        final byte[] data = sampleData(100_000, 4);
+        for (int checkType : new int[]{XZ.CHECK_NONE, XZ.CHECK_CRC32, XZ.CHECK_CRC64, XZ.CHECK_SHA256}) {
+            final byte[] xz = compress(data, new LZMA2Options(), checkType);
+            assertArrayEquals("check " + checkType, data, decompress(xz));
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        for (int checkType : new int[]{XZ.CHECK_NONE, XZ.CHECK_CRC64}) {
+            final byte[] xz = compress(new byte[0], new LZMA2Options(), checkType);
+            assertArrayEquals(new byte[0], decompress(xz));
+            assertArrayEquals(new byte[0], decompress(xz, 1));
+        }
+    }
+
+    @Test
+    public void testIncompressible() throws Exception {
+        final byte[] data = new byte[500_000];
+        new Random(5).nextBytes(data);
+        final byte[] xz = compress(data, new LZMA2Options(), XZ.CHECK_CRC64);
+        assertArrayEquals(data, decompress(xz));
+    }
+
+    @Test
+    public void testMultipleChunksAndBlocks() throws Exception {
+        // LZMA2 chunks hold at most 64 KiB compressed...
+        final byte[] data = sampleData(400_000, 6);
+        final LZMA2Options options = new LZMA2Options(1);
+        assertArrayEquals(data, decompress(compress(data, options, XZ.CHECK_CRC64)));
+        final byte[] blocks = compress(data, new FilterOptions[]{options}, XZ.CHECK_SHA256, 123_456);
+        assertArrayEquals(data, decompress(blocks));
+
+        // ...and at most 2 MiB uncompressed.
+        final byte[] sample = sampleData(10_000, 12);
+        final byte[] repeated = new byte[5_000_000];
+        for (int off = 0; off < repeated.length; off += sample.length) {
+            System.arraycopy(sample, 0, repeated, off, Math.min(sample.length, repeated.length - off));
+        }
+        assertArrayEquals(repeated, decompress(compress(repeated, options, XZ.CHECK_CRC32)));
+    }
+
+    @Test
+    public void testReadSizes() throws Exception {
+        final byte[] data = sampleData(70_000, 7);
+        final byte[] xz = compress(data, new LZMA2Options(), XZ.CHECK_CRC32);
+        for (int bufSize : new int[]{1, 2, 7, 4096, 1 << 20}) {
+            assertArrayEquals("buffer size " + bufSize, data, decompress(xz, bufSize));
+        }
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        final byte[] data = sampleData(100_000, 8);
+        final byte[] xz = compress(data, new FilterOptions[]{new LZMA2Options()}, XZ.CHECK_CRC64, 40_000);
+        for (int len = 0; len < xz.length; len += len < 64 || len > xz.length - 64 ? 1 : 997) {
+            try {
+                decompress(Arrays.copyOf(xz, len));
+                fail("Truncated to " + len + " of " + xz.length + " bytes, but decoded");
+            } catch (EOFException e) {
+                assertEquals("Truncated .xz file", e.getMessage());
+            } catch (IOException e) {
+                // Within an LZMA chunk, the data runs out before the input does.
+                assertTrue(len + ": " + e.getMessage(), e.getMessage().startsWith("Corrupt .xz file: bad LZMA"));
+            }
+        }
+    }
+
+    @Test
+    public void testFlippedCheck() throws Exception {
+        final byte[] data = sampleData(50_000, 9);
+        final byte[] xz = compress(data, new LZMA2Options(), XZ.CHECK_CRC64);
+        // The block's CRC64 directly precedes the index, which the footer gives the size of.
+        final int footerStart = xz.length - 12;
+        final int indexSize = ((xz[footerStart + 4] & 0xFF) + 1) * 4;
+        final int checkStart = footerStart - indexSize - 8;
+        for (int i = checkStart; i < checkStart + 8; i++) {
+            final byte[] corrupt = xz.clone();
+            corrupt[i] ^= 0x10;
+            assertFails(corrupt, "Corrupt .xz file: bad block check");
+        }
+    }
+
+    @Test
+    public void testCorruptHeaders() throws Exception {
+        final byte[] xz = compress(sampleData(10_000, 10), new LZMA2Options(), XZ.CHECK_CRC64);
+        final byte[] notXz = xz.clone();
+        notXz[1] = 'X';
+        assertFails(notXz, "Not in the .xz format");
+
+        final byte[] badStreamHeader = xz.clone();
+        badStreamHeader[8] ^= 1;
+        assertFails(badStreamHeader, "Corrupt .xz file: bad stream header");
+
+        final byte[] badBlockHeader = xz.clone();
+        badBlockHeader[12 + 2] ^= 1;
+        assertFails(badBlockHeader, "Corrupt .xz file: bad block header");
+
+        final byte[] badFooter = xz.clone();
+        badFooter[xz.length - 3] ^= 1;
+        assertFails(badFooter, "Corrupt .xz file: bad stream footer");
+    }
+
+    @Test
+    public void testUnsupportedFilters() throws Exception {
+        final byte[] data = sampleData(20_000, 11);
+        final FilterOptions[][] chains = {
+                {new X86Options(), new LZMA2Options()},
+                {new DeltaOptions(4), new LZMA2Options()},
+        };
+        for (FilterOptions[] chain : chains) {
+            assertFails(compress(data, chain, XZ.CHECK_CRC64, data.length),
+                    "Unsupported .xz filter chain, only LZMA2 is supported");
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores the native libraries of the packaged JAR uncompressed and
+ * page-aligned, so that `JarJniLoader` can copy them out of the JAR
+ * without inflating them.
+ * <p>
+ * Runs after the JAR plugin's default execution in the `package` phase.
+ */
+@Mojo(name = "align-jar", defaultPhase = LifecyclePhase.PACKAGE, threadSafe = true)
+public class AlignJarMojo extends AbstractMojo {
+    /**
+     * The JAR to rewrite.
+     */
+    @Parameter(property = "jarFile", defaultValue = "${project.build.directory}/${project.build.finalName}.jar")
+    private String jarFile;
+
+    /**
+     * The alignment of the libraries' data within the JAR, in bytes.
+     * 4096 is the page size of x86-64, and 16384 that of Apple Silicon
+     * and of some aarch64 Linux kernels.
+     */
+    @Parameter(property = "alignment", defaultValue = "4096")
+    private int alignment;
+
+    /**
+     * The file extensions of the entries to store aligned.
+     * Defaults to "so", "dll" and "dylib".
+     */
+    @Parameter(property = "alignExtensions")
+    private String[] alignExtensions;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        final Path jar = Paths.get(jarFile);
+        if (!Files.isRegularFile(jar)) {
+            throw new MojoExecutionException(
+                    "No JAR to align at " + jar + ", does this execution run before the JAR plugin?");
+        }
+        final List<String> extensions = alignExtensions != null && alignExtensions.length > 0
+                ? Arrays.asList(alignExtensions)
+                : Arrays.asList("so", "dll", "dylib");
+        final JarAligner aligner;
+        try {
+            aligner = new JarAligner(alignment, extensions);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+        try {
+            aligner.align(jar);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to align " + jar + ": " + e.getMessage(), e);
+        }
+        getLog().info("Stored " + aligner.getAlignedCount() + " native libraries in " +
+                Shlex.quote(jar.toString()) + " uncompressed, aligned to " + alignment + " bytes");
+    }
+}
@@ -0,0 +1,314 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A store of built artifacts, shared by every project that uses the same
+ * local Maven repository, keyed by a location-independent build fingerprint.
+ * <p>
+ * Each entry is a directory named after the fingerprint, holding the
+ * artifacts and an index of their paths relative to the cargo target
+ * directory. Entries are written to a temporary directory first and then
+ * renamed into place, so a concurrent reader never sees a partial entry.
+ * <p>
+ * The index's modification time records when the entry was last used.
+ * After each publish, {@link #evict} removes the entries unused for too
+ * long, then the least recently used ones until the cache fits its size.
+ */
+public final class ArtifactCache {
+    private static final String INDEX_FILE = "artifacts.properties";
+    private final Path dir;
+    private final Log log;
+
+    public ArtifactCache(Path dir, Log log) {
+        this.dir = dir;
+        this.log = log;
+    }
+
+    /**
+     * The cache location within a local Maven repository.
+     */
+    public static Path getDefaultDir(Path localRepository) {
+        return localRepository.resolve(".cache").resolve("rust-maven-plugin");
+    }
+
+    public Path getEntryDir(String key) {
+        return dir.resolve(key);
+    }
+
+    /**
+     * Copies the artifacts of an entry back into the cargo target directory.
+     *
+     * @return The restored artifacts, or null if there is no such entry.
+     */
+    public List<CargoArtifact> restore(String key, Path targetDir, Path manifestPath)
+            throws IOException {
+        final Path entryDir = getEntryDir(key);
+        final Path indexPath = entryDir.resolve(INDEX_FILE);
+        if (!Files.isRegularFile(indexPath)) {
+            return null;
+        }
+        final Properties index = new Properties();
+        try (InputStream is = Files.newInputStream(indexPath)) {
+            index.load(is);
+        }
+        final int count;
+        try {
+            count = Integer.parseInt(index.getProperty("count", "0"));
+        } catch (NumberFormatException e) {
+            return corrupt(entryDir);
+        }
+        if (count < 0) {
+            return corrupt(entryDir);
+        }
+        final Path absTargetDir = targetDir.toAbsolutePath().normalize();
+        final List<Path> sources = new ArrayList<>();
+        final List<Path> dests = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            final String relPath = index.getProperty("artifact." + i + ".path");
+            if (relPath == null) {
+                return corrupt(entryDir);
+            }
+            final Path src;
+            final Path dest;
+            try {
+                src = entryDir.resolve(i + "-" + Paths.get(relPath).getFileName());
+                dest = targetDir.resolve(relPath);
+            } catch (InvalidPathException e) {
+                return corrupt(entryDir);
+            }
+            // E.g. `../x` would write outside of the target directory.
+            if (!Files.isRegularFile(src) ||
+                    !dest.toAbsolutePath().normalize().startsWith(absTargetDir)) {
+                return corrupt(entryDir);
+            }
+            sources.add(src);
+            dests.add(dest);
+        }
+
+        final List<CargoArtifact> artifacts = new ArrayList<>(count);
+        // Clones rather than hard links: cargo may later rewrite the target
+        // directory's files, which must not alter the cache entry.
+        final ArtifactCopier copier = new ArtifactCopier(ArtifactCopier.Mode.CLONE);
+        for (int i = 0; i < count; ++i) {
+            final Path dest = dests.get(i);
+            Files.createDirectories(dest.getParent());
+            copier.copy(sources.get(i), dest);
+            artifacts.add(new CargoArtifact(
+                    dest, manifestPath, index.getProperty("artifact." + i + ".kind"), false));
+        }
+        log.info("Restored " + count + " artifact(s) from " + entryDir +
+                ": " + copier.getSummary());
+        touch(indexPath);
+        return artifacts;
+    }
+
+    private List<CargoArtifact> corrupt(Path entryDir) {
+        log.warn("Ignoring corrupt artifact cache entry " + entryDir);
+        return null;
+    }
+
+    /**
+     * Stores the artifacts of a successful build under the given key,
+     * unless an entry already exists.
+     * <p>
+     * Artifacts outside the cargo target directory can't be restored
+     * to the same place later, so such builds are not cached.
+     *
+     * @return true if a new entry was written.
+     */
+    public boolean publish(String key, Path targetDir, List<CargoArtifact> artifacts)
+            throws IOException {
+        final Path entryDir = getEntryDir(key);
+        if (Files.isDirectory(entryDir)) {
+            return false;
+        }
+        final Path absTargetDir = targetDir.toAbsolutePath().normalize();
+        final Properties index = new Properties();
+        index.setProperty("count", String.valueOf(artifacts.size()));
+        for (int i = 0; i < artifacts.size(); ++i) {
+            final Path path = artifacts.get(i).getPath().toAbsolutePath().normalize();
+            if (!path.startsWith(absTargetDir) || !Files.isRegularFile(path)) {
+                log.debug("Not caching artifacts: " + path +
+                        " is not a file under " + absTargetDir);
+                return false;
+            }
+            index.setProperty("artifact." + i + ".path",
+                    absTargetDir.relativize(path).toString().replace('\\', '/'));
+            index.setProperty("artifact." + i + ".kind", artifacts.get(i).getKind());
+        }
+
+        Files.createDirectories(dir);
+        final Path tmpDir = Files.createTempDirectory(dir, "." + key + ".tmp");
+        try {
+            final ArtifactCopier copier = new ArtifactCopier(ArtifactCopier.Mode.CLONE);
+            for (int i = 0; i < artifacts.size(); ++i) {
+                final Path src = artifacts.get(i).getPath();
+                copier.copy(src, tmpDir.resolve(i + "-" + src.getFileName()));
+            }
+            try (OutputStream os = Files.newOutputStream(tmpDir.resolve(INDEX_FILE))) {
+                index.store(os, "rust-maven-plugin artifact cache entry");
+            }
+            try {
+                Files.move(tmpDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                return false;  // Published concurrently by another build.
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpDir, entryDir);
+            }
+            log.info("Cached " + artifacts.size() + " artifact(s) in " + entryDir);
+            return true;
+        } finally {
+            deleteTree(tmpDir);
+        }
+    }
+
+    /**
+     * Removes the entries last used more than `maxAgeMillis` ago, then the
+     * least recently used ones until the entries total at most `maxBytes`.
+     * Zero disables either limit. The entry `keep` is never removed.
+     *
+     * @return The number of entries removed.
+     */
+    public int evict(long maxBytes, long maxAgeMillis, String keep) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        final long now = System.currentTimeMillis();
+        final List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                final String name = path.getFileName().toString();
+                if (name.startsWith(".")) {
+                    // An abandoned temporary directory of a crashed publish.
+                    if (now - Files.getLastModifiedTime(path).toMillis() > TimeUnit.DAYS.toMillis(1)) {
+                        deleteTree(path);
+                    }
+                    continue;
+                }
+                final Path indexPath = path.resolve(INDEX_FILE);
+                if (!name.equals(keep) && Files.isRegularFile(indexPath)) {
+                    entries.add(new Entry(path, Files.getLastModifiedTime(indexPath).toMillis(), sizeOf(path)));
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+        long total = sizeOf(getEntryDir(keep));
+        for (Entry entry : entries) {
+            total += entry.size;
+        }
+        int evicted = 0;
+        for (Entry entry : entries) {
+            final boolean expired = maxAgeMillis > 0 && now - entry.lastUsed > maxAgeMillis;
+            if (!expired && (maxBytes <= 0 || total <= maxBytes)) {
+                continue;
+            }
+            // Renamed first, so that no reader finds a partly deleted entry.
+            final Path doomed = dir.resolve("." + entry.dir.getFileName() + ".evict");
+            try {
+                Files.move(entry.dir, doomed, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                continue;  // Evicted concurrently by another build.
+            }
+            deleteTree(doomed);
+            total -= entry.size;
+            evicted++;
+        }
+        if (evicted > 0) {
+            log.info("Evicted " + evicted + " artifact cache entries from " + dir +
+                    ", now " + ArtifactCopier.formatBytes(total));
+        }
+        return evicted;
+    }
+
+    private static void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // Only affects which entries get evicted first.
+        }
+    }
+
+    private static long sizeOf(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        long size = 0;
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path)) {
+                    size += Files.size(path);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static final class Entry {
+        private final Path dir;
+        private final long lastUsed;
+        private final long size;
+
+        Entry(Path dir, long lastUsed, long size) {
+            this.dir = dir;
+            this.lastUsed = lastUsed;
+            this.size = size;
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            final List<Path> sorted = new ArrayList<>();
+            paths.sorted(Comparator.reverseOrder()).forEach(sorted::add);
+            for (Path path : sorted) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package io.questdb.maven.rust;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZ;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies build artifacts, avoiding writes where possible.
+ * <p>
+ * A destination with the same size and contents as the source is left
+ * untouched, preserving its modification time so that downstream plugins
+ * (jar packaging, shading) see no change. Otherwise, depending on the
+ * {@link Mode}, the destination is created as a copy-on-write clone or a
+ * hard link of the source before falling back to a regular copy.
+ * <p>
+ * The destination is always replaced atomically, via a temporary file in
+ * the same directory.
+ */
+public final class ArtifactCopier {
+    /**
+     * Files smaller than this are always copied: spawning `cp` to clone
+     * them would cost more than writing them.
+     */
+    private static final long CLONE_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Directories known not to support cloning.
+     */
+    private static final Set<Path> noCloneDirs = new HashSet<>();
+
+    private final Mode mode;
+    private int unchangedCount;
+    private int clonedCount;
+    private int linkedCount;
+    private int copiedCount;
+    private int compressedCount;
+    private long bytesAvoided;
+    private long bytesWritten;
+
+    public ArtifactCopier(Mode mode) {
+        this.mode = mode;
+    }
+
+    private static boolean isLinux() {
+        return System.getProperty("os.name").toLowerCase(Locale.ROOT).startsWith("linux");
+    }
+
+    private static boolean isMac() {
+        return System.getProperty("os.name").toLowerCase(Locale.ROOT).startsWith("mac");
+    }
+
+    /**
+     * Compares two files of equal size, stopping at the first difference.
+     */
+    static boolean sameContents(Path a, Path b) throws IOException {
+        try (FileChannel chA = FileChannel.open(a, StandardOpenOption.READ);
+             FileChannel chB = FileChannel.open(b, StandardOpenOption.READ)) {
+            final ByteBuffer bufA = ByteBuffer.allocate(65536);
+            final ByteBuffer bufB = ByteBuffer.allocate(65536);
+            while (true) {
+                bufA.clear();
+                bufB.clear();
+                final int readA = readFully(chA, bufA);
+                final int readB = readFully(chB, bufB);
+                if (readA != readB) {
+                    return false;
+                }
+                if (readA <= 0) {
+                    return true;
+                }
+                bufA.flip();
+                bufB.flip();
+                if (!bufA.equals(bufB)) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private static int readFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            final int read = ch.read(buf);
+            if (read == -1) {
+                return total == 0 ? -1 : total;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static void moveIntoPlace(Path tmp, Path dest) throws IOException {
+        try {
+            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Clones `src` into `tmp` with `cp`, which uses FICLONE on Linux
+     * (btrfs, xfs, ...) and clonefile(2) on macOS (APFS).
+     */
+    private static boolean tryClone(Path src, Path tmp) {
+        final Path dir = tmp.getParent();
+        final List<String> cmd;
+        if (isLinux()) {
+            cmd = Arrays.asList("cp", "--reflink=always", src.toString(), tmp.toString());
+        } else if (isMac()) {
+            cmd = Arrays.asList("cp", "-c", src.toString(), tmp.toString());
+        } else {
+            return false;
+        }
+        synchronized (noCloneDirs) {
+            if (noCloneDirs.contains(dir)) {
+                return false;
+            }
+        }
+        boolean cloned = false;
+        try {
+            final Process process = new ProcessBuilder(cmd)
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File("/dev/null"))
+                    .start();
+            cloned = process.waitFor(30, TimeUnit.SECONDS) && process.exitValue() == 0;
+            if (!cloned) {
+                process.destroy();
+            }
+        } catch (IOException e) {
+            // `cp` unavailable.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!cloned) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                // Ignored, the regular copy will replace it.
+            }
+            synchronized (noCloneDirs) {
+                noCloneDirs.add(dir);
+            }
+        }
+        return cloned;
+    }
+
+    private static boolean tryLink(Path src, Path tmp) {
+        try {
+            Files.createLink(tmp, src);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;  // E.g. different file systems.
+        }
+    }
+
+    /**
+     * Records a destination known to be up to date without comparing it.
+     */
+    public void skipped(Path dest) {
+        unchangedCount++;
+        bytesAvoided += sizeOf(dest);
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Makes `dest` identical to `src`.
+     *
+     * @return true if `dest` was written to.
+     */
+    public boolean copy(Path src, Path dest) throws IOException {
+        final long size = Files.size(src);
+        if (Files.exists(dest) &&
+                (Files.isSameFile(src, dest) ||
+                        (Files.size(dest) == size && sameContents(src, dest)))) {
+            unchangedCount++;
+            bytesAvoided += size;
+            return false;
+        }
+
+        final Path tmp = dest.resolveSibling(
+                "." + dest.getFileName() + ".tmp" + Thread.currentThread().getId());
+        Files.deleteIfExists(tmp);
+        try {
+            if (mode != Mode.COPY && size >= CLONE_THRESHOLD && tryClone(src, tmp)) {
+                clonedCount++;
+                bytesAvoided += size;
+            } else if (mode == Mode.AUTO && tryLink(src, tmp)) {
+                linkedCount++;
+                bytesAvoided += size;
+            } else {
+                Files.copy(src, tmp, StandardCopyOption.REPLACE_EXISTING);
+                copiedCount++;
+                bytesWritten += size;
+            }
+            moveIntoPlace(tmp, dest);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return true;
+    }
+
+    /**
+     * Writes a compressed copy of `src` to `dest`, replacing it atomically.
+     */
+    public void compress(Path src, Path dest, Compression compression) throws IOException {
+        final Path tmp = dest.resolveSibling(
+                "." + dest.getFileName() + ".tmp" + Thread.currentThread().getId());
+        Files.deleteIfExists(tmp);
+        try {
+            try (InputStream in = Files.newInputStream(src);
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                switch (compression) {
+                    case XZ:
+                        writeXz(in, out, Files.size(src));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Not compressed: " + compression);
+                }
+            }
+            moveIntoPlace(tmp, dest);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        compressedCount++;
+        bytesWritten += Files.size(dest);
+    }
+
+    /**
+     * Writes LZMA2 with xz's default preset, the only filter that
+     * `JarJniLoader` decodes.
+     */
+    private static void writeXz(InputStream in, OutputStream out, long size) throws IOException {
+        final LZMA2Options options = new LZMA2Options(LZMA2Options.PRESET_DEFAULT);
+        // The loader allocates the whole dictionary: no larger than the file.
+        options.setDictSize((int) Math.max(
+                LZMA2Options.DICT_SIZE_MIN, Math.min(options.getDictSize(), size)));
+        final XZOutputStream xz = new XZOutputStream(out, options, XZ.CHECK_CRC64);
+        final byte[] buf = new byte[65536];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            xz.write(buf, 0, read);
+        }
+        xz.finish();
+    }
+
+    public long getBytesAvoided() {
+        return bytesAvoided;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024.0);
+        }
+        return String.format(Locale.ROOT, "%.1f MiB", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * A one-line summary, e.g. "1 unchanged, 1 cloned: 180.0 MiB not written".
+     */
+    public String getSummary() {
+        final StringBuilder sb = new StringBuilder();
+        append(sb, unchangedCount, "unchanged");
+        append(sb, clonedCount, "cloned");
+        append(sb, linkedCount, "hard-linked");
+        append(sb, copiedCount, "copied");
+        append(sb, compressedCount, "compressed");
+        if (sb.length() == 0) {
+            sb.append("nothing to copy");
+        }
+        sb.append(": ").append(formatBytes(bytesWritten)).append(" written, ")
+                .append(formatBytes(bytesAvoided)).append(" not written");
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, int count, String what) {
+        if (count == 0) {
+            return;
+        }
+        if (sb.length() > 0) {
+            sb.append(", ");
+        }
+        sb.append(count).append(' ').append(what);
+    }
+
+    public enum Mode {
+        /**
+         * Clone, else hard link, else copy. A hard link shares the inode with
+         * cargo's output, so editing the copy in place (strip, codesign,
+         * patchelf) also edits cargo's file.
+         */
+        AUTO,
+
+        /**
+         * Clone, else copy. Never share an inode with cargo's output.
+         */
+        CLONE,
+
+        /**
+         * Always write a full copy.
+         */
+        COPY;
+
+        public static Mode parse(String value) {
+            if (value == null || value.isEmpty()) {
+                return CLONE;
+            }
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public enum Compression {
+        /**
+         * Copy artifacts as they are.
+         */
+        NONE(""),
+
+        /**
+         * Store `<artifact>.xz` instead of the artifact.
+         */
+        XZ(".xz");
+
+        private final String suffix;
+
+        Compression(String suffix) {
+            this.suffix = suffix;
+        }
+
+        /**
+         * The suffix appended to the artifact's file name, e.g. ".xz".
+         */
+        public String getSuffix() {
+            return suffix;
+        }
+
+        public static Compression parse(String value) {
+            if (value == null || value.isEmpty()) {
+                return NONE;
+            }
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Mean benchmark times, as measured by Criterion or stored as a baseline.
+ * <p>
+ * Criterion writes each benchmark's statistics to
+ * `<criterion dir>/<group>/<function>/<value>/new/estimates.json`,
+ * next to a `benchmark.json` holding the benchmark's full ID.
+ *
+ * @see <a href="https://bheisler.github.io/criterion.rs/book/user_guide/csv_output.html">Criterion output</a>
+ */
+public final class BenchResults {
+    private final Map<String, Double> means;
+
+    private BenchResults(Map<String, Double> means) {
+        this.means = means;
+    }
+
+    /**
+     * Reads the estimates that Criterion wrote since `sinceMillis`,
+     * ignoring those of benchmarks that did not run this time.
+     */
+    public static BenchResults readCriterion(Path criterionDir, long sinceMillis)
+            throws IOException {
+        final Map<String, Double> means = new TreeMap<>();
+        if (!Files.isDirectory(criterionDir)) {
+            return new BenchResults(means);
+        }
+        final List<Path> estimates;
+        try (Stream<Path> paths = Files.walk(criterionDir)) {
+            estimates = paths
+                    .filter(path -> path.getFileName().toString().equals("estimates.json"))
+                    .filter(path -> path.getParent().getFileName().toString().equals("new"))
+                    .collect(Collectors.toList());
+        }
+        for (Path path : estimates) {
+            if (Files.getLastModifiedTime(path).toMillis() < sinceMillis) {
+                continue;
+            }
+            final Double mean = getPointEstimate(readJson(path), "mean");
+            if (mean == null) {
+                continue;
+            }
+            means.put(getBenchmarkId(criterionDir, path.getParent()), mean);
+        }
+        return new BenchResults(means);
+    }
+
+    /**
+     * Reads a baseline written by `writeBaseline`, or an empty one if missing.
+     */
+    public static BenchResults readBaseline(Path file) throws IOException {
+        final Map<String, Double> means = new TreeMap<>();
+        if (!Files.exists(file)) {
+            return new BenchResults(means);
+        }
+        final JsonObject benchmarks = readJson(file).getAsJsonObject("benchmarks");
+        if (benchmarks != null) {
+            for (Map.Entry<String, JsonElement> entry : benchmarks.entrySet()) {
+                final Double mean = getPointEstimate(benchmarks, entry.getKey());
+                if (mean != null) {
+                    means.put(entry.getKey(), mean);
+                }
+            }
+        }
+        return new BenchResults(means);
+    }
+
+    /**
+     * Writes the means as a baseline, keeping the other benchmarks of
+     * `previous` so that running a subset of them does not lose the rest.
+     */
+    public void writeBaseline(Path file, BenchResults previous) throws IOException {
+        final Map<String, Double> merged = new TreeMap<>(previous.means);
+        merged.putAll(means);
+        final Map<String, Object> benchmarks = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> entry : merged.entrySet()) {
+            benchmarks.put(entry.getKey(), Collections.singletonMap("point_estimate", entry.getValue()));
+        }
+        writeJson(file, Collections.singletonMap("benchmarks", benchmarks));
+    }
+
+    public boolean isEmpty() {
+        return means.isEmpty();
+    }
+
+    /**
+     * The mean time of each benchmark in nanoseconds, by ID.
+     */
+    public Map<String, Double> getMeans() {
+        return Collections.unmodifiableMap(means);
+    }
+
+    /**
+     * Compares each benchmark with its baseline mean, if any.
+     *
+     * @param maxRegressionPercent The increase of the mean beyond which a
+     *                             benchmark regressed, or null to never fail.
+     */
+    public List<Comparison> compare(BenchResults baseline, Double maxRegressionPercent) {
+        final List<Comparison> comparisons = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : means.entrySet()) {
+            comparisons.add(new Comparison(
+                    entry.getKey(),
+                    entry.getValue(),
+                    baseline.means.get(entry.getKey()),
+                    maxRegressionPercent));
+        }
+        return comparisons;
+    }
+
+    /**
+     * Writes the comparisons as a JSON report, for CI to pick up.
+     */
+    public static void writeReport(
+            Path file,
+            String crateName,
+            String baselineName,
+            Double maxRegressionPercent,
+            List<Comparison> comparisons) throws IOException {
+        int regressions = 0;
+        for (Comparison comparison : comparisons) {
+            if (comparison.isRegression()) {
+                ++regressions;
+            }
+        }
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("crate", crateName);
+        report.put("baseline", baselineName);
+        report.put("maxRegressionPercent", maxRegressionPercent);
+        report.put("regressionCount", regressions);
+        report.put("benchmarks", comparisons);
+        writeJson(file, report);
+    }
+
+    /**
+     * The full ID from `benchmark.json`, else the directory path,
+     * e.g. "parse/small".
+     */
+    private static String getBenchmarkId(Path criterionDir, Path newDir) {
+        final Path benchmarkJson = newDir.resolve("benchmark.json");
+        if (Files.exists(benchmarkJson)) {
+            try {
+                final JsonElement fullId = readJson(benchmarkJson).get("full_id");
+                if (fullId != null && fullId.isJsonPrimitive()) {
+                    return fullId.getAsString();
+                }
+            } catch (IOException e) {
+                // Fall back to the directory path.
+            }
+        }
+        return criterionDir.relativize(newDir.getParent()).toString().replace('\\', '/');
+    }
+
+    private static Double getPointEstimate(JsonObject object, String key) {
+        final JsonElement element = object.get(key);
+        if (element == null || !element.isJsonObject()) {
+            return null;
+        }
+        final JsonElement estimate = element.getAsJsonObject().get("point_estimate");
+        try {
+            return (estimate != null && estimate.isJsonPrimitive()) ? estimate.getAsDouble() : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static JsonObject readJson(Path file) throws IOException {
+        try {
+            final JsonElement element = JsonParser.parseString(
+                    new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            if (!element.isJsonObject()) {
+                throw new IOException("Expected a JSON object in " + file);
+            }
+            return element.getAsJsonObject();
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid JSON in " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeJson(Path file, Object value) throws IOException {
+        final Gson gson = new GsonBuilder().setPrettyPrinting().serializeNulls().create();
+        Files.createDirectories(file.getParent());
+        final Path tmpPath = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmpPath, gson.toJson(value).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpPath, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * A benchmark's mean compared with its baseline.
+     */
+    public static final class Comparison {
+        private final String id;
+        private final double meanNanos;
+        private final Double baselineMeanNanos;
+        private final Double changePercent;
+        private final boolean regression;
+
+        Comparison(String id, double meanNanos, Double baselineMeanNanos, Double maxRegressionPercent) {
+            this.id = id;
+            this.meanNanos = meanNanos;
+            this.baselineMeanNanos = baselineMeanNanos;
+            this.changePercent = (baselineMeanNanos != null && baselineMeanNanos > 0)
+                    ? Math.round((meanNanos / baselineMeanNanos - 1) * 10000) / 100.0
+                    : null;
+            this.regression = changePercent != null
+                    && maxRegressionPercent != null
+                    && changePercent > maxRegressionPercent;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public double getMeanNanos() {
+            return meanNanos;
+        }
+
+        /**
+         * The baseline's mean, or null if the benchmark is new.
+         */
+        public Double getBaselineMeanNanos() {
+            return baselineMeanNanos;
+        }
+
+        /**
+         * The change of the mean relative to the baseline, in percent,
+         * rounded to two decimals, or null if the benchmark is new.
+         */
+        public Double getChangePercent() {
+            return changePercent;
+        }
+
+        public boolean isRegression() {
+            return regression;
+        }
+
+        @Override
+        public String toString() {
+            return changePercent == null
+                    ? id + ": " + formatNanos(meanNanos) + " (new)"
+                    : id + ": " + formatNanos(meanNanos) + " (" +
+                    (changePercent >= 0 ? "+" : "") + changePercent + "% vs " +
+                    formatNanos(baselineMeanNanos) + ")";
+        }
+
+        private static String formatNanos(double nanos) {
+            if (nanos >= 1e9) {
+                return String.format(Locale.ROOT, "%.3f s", nanos / 1e9);
+            } else if (nanos >= 1e6) {
+                return String.format(Locale.ROOT, "%.3f ms", nanos / 1e6);
+            } else if (nanos >= 1e3) {
+                return String.format(Locale.ROOT, "%.3f µs", nanos / 1e3);
+            }
+            return String.format(Locale.ROOT, "%.3f ns", nanos);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Runs cargo commands in a directory, with the arguments shared by all goals.
+ */
+public class Cargo {
+    private static final long PUMP_DRAIN_TIMEOUT_MILLIS = 5000;
+    private final Crate.Params params;
+    private final Path workingDir;
+    private final Path targetDir;
+    private final Log log;
+    private Path logFile;
+    private boolean appendToLogFile;
+
+    public Cargo(Crate.Params params, Path workingDir, Path targetDir, Log log) {
+        this.params = params;
+        this.workingDir = workingDir;
+        this.targetDir = targetDir;
+        this.log = log;
+    }
+
+    public static String getCargoPath(Crate.Params params) {
+        String path = params.cargoPath != null ? params.cargoPath : "cargo";
+
+        final boolean isWindows = System.getProperty("os.name")
+                .toLowerCase().startsWith("windows");
+
+        // Expand "~" to user's home directory.
+        // This works around a limitation of ProcessBuilder.
+        if (!isWindows && path.startsWith("~/")) {
+            path = System.getProperty("user.home") + path.substring(1);
+        }
+
+        return path;
+    }
+
+    /**
+     * The log file for the cargo output of a Maven execution, such as
+     * `<stateDir>/cargo-default-build.log`.
+     */
+    public static Path getLogFile(Path stateDir, Crate.Params params) {
+        final String executionId = params.executionId != null
+                ? params.executionId.replaceAll("[^A-Za-z0-9._-]", "_")
+                : "default";
+        return stateDir.resolve("cargo-" + executionId + ".log");
+    }
+
+    /**
+     * Sets the file receiving the full output of the cargo commands.
+     *
+     * @param append False to truncate it first, for the first cargo
+     *               command of a Maven execution.
+     */
+    public void setLogFile(Path logFile, boolean append) {
+        this.logFile = logFile;
+        this.appendToLogFile = append;
+    }
+
+    /**
+     * Runs a command in the working directory.
+     *
+     * @param stdoutHandler If not null, receives the lines of stdout, which is
+     *                      then kept separate from stderr. Returns false for
+     *                      lines it does not understand, which get logged.
+     *                      Called from a pump thread, but never concurrently.
+     */
+    private void runCommand(List<String> args, Predicate<String> stdoutHandler)
+            throws IOException, InterruptedException, MojoExecutionException {
+        final ProcessBuilder processBuilder = new ProcessBuilder(args);
+        processBuilder.redirectErrorStream(stdoutHandler == null);
+        if (params.environmentVariables != null) {
+            processBuilder.environment().putAll(params.environmentVariables);
+        }
+
+        // Set the current working directory for the cargo command.
+        processBuilder.directory(workingDir.toFile());
+        addRustFlags(processBuilder.environment());
+        final CompilerCache.Session cacheSession = startCompilerCache();
+        if (cacheSession != null) {
+            processBuilder.environment().putAll(cacheSession.getEnvironment());
+        }
+        try (CargoOutput output = new CargoOutput(
+                log, logFile, appendToLogFile, params.maxLogLinesPerSecond)) {
+            appendToLogFile = true;
+            final Process process = processBuilder.start();
+            process.getOutputStream().close();
+            if (stdoutHandler != null) {
+                output.pump(process.getErrorStream(), "stderr", null);
+            }
+            output.pump(process.getInputStream(), "stdout", stdoutHandler);
+
+            final int exitCode;
+            try {
+                exitCode = process.waitFor();
+                output.join(0);
+            } catch (InterruptedException e) {
+                // Cancelled, e.g. because a concurrent build failed.
+                process.destroy();
+                output.join(PUMP_DRAIN_TIMEOUT_MILLIS);
+                throw e;
+            }
+            output.logSummary("cargo " + (args.size() > 1 ? args.get(1) : ""), exitCode);
+            if (cacheSession != null) {
+                cacheSession.report(log);
+            }
+            if (exitCode != 0) {
+                throw new MojoExecutionException(
+                        "Cargo command failed with exit code " + exitCode);
+            }
+        }
+    }
+
+    /**
+     * Appends `params.rustFlags` to those cargo would otherwise use.
+     * <p>
+     * Sets `CARGO_ENCODED_RUSTFLAGS`, which takes precedence over `RUSTFLAGS`
+     * and separates flags with 0x1f, so flags may contain spaces (e.g. paths).
+     */
+    private void addRustFlags(Map<String, String> env) {
+        if (params.rustFlags == null || params.rustFlags.length == 0) {
+            return;
+        }
+        final List<String> flags = new ArrayList<>();
+        final String encoded = env.get("CARGO_ENCODED_RUSTFLAGS");
+        final String plain = env.get("RUSTFLAGS");
+        if (encoded != null) {
+            if (!encoded.isEmpty()) {
+                Collections.addAll(flags, encoded.split("\u001f"));
+            }
+        } else if (plain != null && !plain.trim().isEmpty()) {
+            Collections.addAll(flags, plain.trim().split("\\s+"));
+        }
+        Collections.addAll(flags, params.rustFlags);
+        env.put("CARGO_ENCODED_RUSTFLAGS", String.join("\u001f", flags));
+        log.debug("CARGO_ENCODED_RUSTFLAGS: " + String.join(" ", flags));
+    }
+
+    /**
+     * Starts a compiler cache session if `compilerCacheDir` is set,
+     * unless `RUSTC_WRAPPER` is already configured.
+     */
+    private CompilerCache.Session startCompilerCache() throws MojoExecutionException {
+        if (params.compilerCacheDir == null) {
+            return null;
+        }
+        String wrapper = params.environmentVariables != null
+                ? params.environmentVariables.get("RUSTC_WRAPPER")
+                : null;
+        if (wrapper == null) {
+            wrapper = System.getenv("RUSTC_WRAPPER");
+        }
+        if (wrapper != null && !wrapper.isEmpty()) {
+            log.warn("Not using the compiler cache: RUSTC_WRAPPER is already set to " +
+                    Shlex.quote(wrapper));
+            return null;
+        }
+        return CompilerCache.create(params.compilerCacheDir, params.compilerCacheTool).start();
+    }
+
+    public void run(List<String> args) throws MojoExecutionException, MojoFailureException {
+        run(args, null);
+    }
+
+    public void run(List<String> args, Predicate<String> stdoutHandler)
+            throws MojoExecutionException, MojoFailureException {
+        String cargoPath = getCargoPath(params);
+        final List<String> cmd = new ArrayList<>();
+        cmd.add(cargoPath);
+        cmd.addAll(args);
+        log.info("Working directory: " + workingDir);
+        if (params.environmentVariables != null && !params.environmentVariables.isEmpty()) {
+            log.info("Environment variables:");
+            for (String key : params.environmentVariables.keySet()) {
+                log.info("  " + key + "=" + Shlex.quote(
+                        params.environmentVariables.get(key)));
+            }
+        }
+        log.info("Running: " + Shlex.quote(cmd));
+        try {
+            runCommand(cmd, stdoutHandler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoFailureException("Interrupted while running cargo", e);
+        } catch (IOException e) {
+            CargoInstalledChecker.INSTANCE.check(cargoPath);
+            throw new MojoFailureException("Failed to invoke cargo", e);
+        }
+    }
+
+    /**
+     * Appends the arguments common to `cargo build` and `cargo test`.
+     */
+    public void addCommonArgs(List<String> args) {
+        addArgs(args, params.release, false);
+    }
+
+    /**
+     * Like `addCommonArgs(args)`, with `--release` as given rather than as
+     * configured, e.g. for `cargo bench`, which always builds optimised.
+     */
+    public void addCommonArgs(List<String> args, boolean release) {
+        addArgs(args, release, false);
+    }
+
+    /**
+     * Appends the same arguments for `cargo nextest run`,
+     * which spells cargo's verbosity and build jobs differently.
+     */
+    public void addNextestArgs(List<String> args) {
+        addArgs(args, params.release, true);
+    }
+
+    private void addArgs(List<String> args, boolean release, boolean nextest) {
+        if (params.verbosity != null) {
+            if (!nextest) {
+                args.add(params.verbosity);
+            } else if (params.verbosity.equals("-q")) {
+                args.add("--cargo-quiet");
+            } else {
+                for (int i = 1; i < params.verbosity.length(); i++) {
+                    args.add("--cargo-verbose");
+                }
+            }
+        }
+
+        args.add("--target-dir");
+        args.add(targetDir.toAbsolutePath().toString());
+
+        if (release) {
+            args.add("--release");
+        }
+
+        if (params.target != null) {
+            args.add("--target");
+            args.add(params.target);
+        }
+
+        if (params.jobs != null) {
+            args.add(nextest ? "--build-jobs" : "-j");
+            args.add(String.valueOf(params.jobs));
+        }
+
+        if (params.allFeatures) {
+            args.add("--all-features");
+        }
+
+        if (params.noDefaultFeatures) {
+            args.add("--no-default-features");
+        }
+
+        final String[] cleanedFeatures = params.cleanedFeatures();
+        if (cleanedFeatures.length > 0) {
+            args.add("--features");
+            args.add(String.join(",", cleanedFeatures));
+        }
+
+        if (params.tests) {
+            args.add("--tests");
+        }
+
+        if (params.extraArgs != null) {
+            Collections.addAll(args, params.extraArgs);
+        }
+    }
+
+    /**
+     * Appends `--timings` if enabled. Nightly toolchains also emit the
+     * timings as JSON messages, unless `extraArgs` set the message format.
+     *
+     * @return true if the timings are reported as JSON messages,
+     * false if they must be read from the HTML report.
+     */
+    public boolean addTimingsArgs(List<String> args) {
+        if (!params.timings) {
+            return false;
+        }
+        if (!hasMessageFormatArg() && isNightly()) {
+            args.add("--timings=html,json");
+            args.add("-Zunstable-options");
+            return true;
+        }
+        args.add("--timings");
+        return false;
+    }
+
+    private boolean isNightly() {
+        return Toolchain.describe(
+                getCargoPath(params),
+                workingDir,
+                params.environmentVariables).contains("-nightly");
+    }
+
+    /**
+     * Completes the timings of a build after it ran, reading the HTML
+     * report if needed, and writes the summary to `timings.json`.
+     */
+    public void saveTimings(CargoTimings timings, boolean fromJson, Path stateDir, String name)
+            throws MojoExecutionException {
+        final Path htmlPath = CargoTimings.getHtmlReportPath(targetDir);
+        final Path summaryPath = stateDir.resolve("timings.json");
+        try {
+            if (!fromJson && !timings.readHtmlReport(htmlPath)) {
+                log.warn("No timings found in " + htmlPath);
+                return;
+            }
+            timings.write(summaryPath, name);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to write " + summaryPath + ": " + e.getMessage(), e);
+        }
+        log.info("Timings of " + timings.getUnits().size() + " units written to " +
+                Shlex.quote(summaryPath.toString()) +
+                ", HTML report: " + Shlex.quote(htmlPath.toString()));
+    }
+
+    /**
+     * True if `extraArgs` already select a message format, in which case
+     * cargo's output can't be parsed as JSON.
+     */
+    public boolean hasMessageFormatArg() {
+        if (params.extraArgs == null) {
+            return false;
+        }
+        for (String arg : params.extraArgs) {
+            if (arg != null && arg.startsWith("--message-format")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
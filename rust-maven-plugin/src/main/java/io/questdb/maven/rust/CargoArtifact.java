@@ -0,0 +1,75 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package io.questdb.maven.rust;
+
+import java.nio.file.Path;
+
+/**
+ * A file produced by cargo, as reported by a `compiler-artifact` message.
+ */
+public final class CargoArtifact {
+    private final Path path;
+    private final Path manifestPath;
+    private final String kind;
+    private final boolean fresh;
+
+    public CargoArtifact(Path path, Path manifestPath, String kind, boolean fresh) {
+        this.path = path;
+        this.manifestPath = manifestPath;
+        this.kind = kind;
+        this.fresh = fresh;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * The `Cargo.toml` of the package that the artifact belongs to.
+     */
+    public Path getManifestPath() {
+        return manifestPath;
+    }
+
+    /**
+     * Either "cdylib" or "bin".
+     */
+    public String getKind() {
+        return kind;
+    }
+
+    /**
+     * True if cargo did not need to rebuild the artifact.
+     */
+    public boolean isFresh() {
+        return fresh;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + path + (fresh ? " (fresh)" : "");
+    }
+}
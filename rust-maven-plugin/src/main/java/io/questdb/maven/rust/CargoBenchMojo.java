@@ -0,0 +1,227 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Runs `cargo bench` and compares the Criterion results with a baseline
+ * stored per branch, failing on regressions beyond `maxRegressionPercent`.
+ */
+@Mojo(name = "bench", defaultPhase = LifecyclePhase.VERIFY, threadSafe = true)
+public class CargoBenchMojo extends CargoMojoBase {
+    private static final String CRITERION_HOME = "CRITERION_HOME";
+
+    /**
+     * Skips running benchmarks.
+     */
+    @Parameter(property = "skipBenches", defaultValue = "false")
+    private boolean skipBenches;
+
+    /**
+     * The name of the baseline to compare with and update, stored in
+     * `target/rust-maven-plugin/<crate>/bench-baselines/<name>.json`.
+     * Defaults to the current git branch, or "default" outside of a branch.
+     */
+    @Parameter(property = "benchBaseline")
+    private String benchBaseline;
+
+    /**
+     * Fail the build if a benchmark's mean time grew by more than this
+     * percentage over the baseline. If unset, changes are only reported.
+     */
+    @Parameter(property = "maxRegressionPercent")
+    private Double maxRegressionPercent;
+
+    /**
+     * Store the results as the new baseline, unless a regression failed the build.
+     */
+    @Parameter(property = "updateBenchBaseline", defaultValue = "true")
+    private boolean updateBenchBaseline;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skipBenches) {
+            getLog().info("Skipping benchmarks");
+            return;
+        }
+        final List<Path> crateRoots = getCrateRoots();
+        final List<String> regressions = new ArrayList<>();
+        for (Path crateRoot : crateRoots) {
+            final Crate.Params params = getCommonCrateParams();
+            params.jobs = getJobsPerCrate(1);
+            final Path criterionDir = setCriterionHome(params, getCargoTargetDir(crateRoot));
+            final Path stateDir = getStateDir(crateRoot);
+            final Crate crate = new Crate(
+                    crateRoot,
+                    getCargoTargetDir(crateRoot),
+                    stateDir,
+                    params,
+                    getCrateLog(crateRoot, crateRoots.size()));
+
+            // Criterion's file times have a one-second resolution on some filesystems.
+            final long startMillis = System.currentTimeMillis() / 1000 * 1000 - 1000;
+            crate.bench();
+            for (BenchResults.Comparison comparison : compare(crateRoot, stateDir, criterionDir, startMillis)) {
+                regressions.add(crateRoot.getFileName() + ": " + comparison);
+            }
+        }
+        if (!regressions.isEmpty()) {
+            throw new MojoFailureException(
+                    "Benchmarks regressed by more than " + maxRegressionPercent + "%:\n  " +
+                            String.join("\n  ", regressions));
+        }
+    }
+
+    /**
+     * Compares the results of a crate's benchmarks with its baseline,
+     * writes the report and updates the baseline.
+     *
+     * @return The regressions.
+     */
+    private List<BenchResults.Comparison> compare(
+            Path crateRoot,
+            Path stateDir,
+            Path criterionDir,
+            long startMillis) throws MojoExecutionException {
+        final String baselineName = getBaselineName(crateRoot);
+        final Path baselinePath = stateDir.resolve("bench-baselines").resolve(baselineName + ".json");
+        final Path reportPath = stateDir.resolve("bench-report.json");
+        final List<BenchResults.Comparison> regressions = new ArrayList<>();
+        try {
+            final BenchResults results = BenchResults.readCriterion(criterionDir, startMillis);
+            if (results.isEmpty()) {
+                getLog().warn("No Criterion results found in " + criterionDir);
+                return regressions;
+            }
+            final BenchResults baseline = BenchResults.readBaseline(baselinePath);
+            final List<BenchResults.Comparison> comparisons =
+                    results.compare(baseline, maxRegressionPercent);
+            getLog().info("Benchmarks of " + crateRoot.getFileName() +
+                    " against baseline \"" + baselineName + "\":");
+            for (BenchResults.Comparison comparison : comparisons) {
+                if (comparison.isRegression()) {
+                    getLog().error("  " + comparison);
+                    regressions.add(comparison);
+                } else {
+                    getLog().info("  " + comparison);
+                }
+            }
+            BenchResults.writeReport(
+                    reportPath,
+                    crateRoot.getFileName().toString(),
+                    baselineName,
+                    maxRegressionPercent,
+                    comparisons);
+            getLog().info("Benchmark report written to " + Shlex.quote(reportPath.toString()));
+            if (updateBenchBaseline && regressions.isEmpty()) {
+                results.writeBaseline(baselinePath, baseline);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to compare benchmark results: " + e.getMessage(), e);
+        }
+        return regressions;
+    }
+
+    /**
+     * Points Criterion to the cargo target directory, as it would otherwise
+     * write its results to the crate's `target` directory, unaware of
+     * `--target-dir`. Keeps a `CRITERION_HOME` set by the user.
+     *
+     * @return The directory Criterion writes its results to.
+     */
+    private static Path setCriterionHome(Crate.Params params, Path targetDir) {
+        String home = params.environmentVariables != null
+                ? params.environmentVariables.get(CRITERION_HOME)
+                : null;
+        if (home == null) {
+            home = System.getenv(CRITERION_HOME);
+        }
+        if (home != null && !home.isEmpty()) {
+            return Paths.get(home);
+        }
+        final Path criterionDir = targetDir.resolve("criterion").toAbsolutePath();
+        params.environmentVariables = params.environmentVariables != null
+                ? new HashMap<>(params.environmentVariables)
+                : new HashMap<>();
+        params.environmentVariables.put(CRITERION_HOME, criterionDir.toString());
+        return criterionDir;
+    }
+
+    private String getBaselineName(Path crateRoot) {
+        String name = benchBaseline;
+        if (name == null || name.trim().isEmpty()) {
+            name = getGitBranch(crateRoot);
+        }
+        if (name == null) {
+            name = "default";
+        }
+        return name.trim().replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * The branch checked out in the git repository containing `dir`,
+     * read from `.git/HEAD`, or null if detached or not in a repository.
+     */
+    static String getGitBranch(Path dir) {
+        for (Path current = dir.toAbsolutePath(); current != null; current = current.getParent()) {
+            Path gitDir = current.resolve(".git");
+            try {
+                if (Files.isRegularFile(gitDir)) {
+                    // A worktree or submodule: "gitdir: <path>".
+                    final String content = new String(
+                            Files.readAllBytes(gitDir), StandardCharsets.UTF_8).trim();
+                    if (!content.startsWith("gitdir:")) {
+                        return null;
+                    }
+                    gitDir = current.resolve(content.substring("gitdir:".length()).trim());
+                } else if (!Files.isDirectory(gitDir)) {
+                    continue;
+                }
+                final String head = new String(
+                        Files.readAllBytes(gitDir.resolve("HEAD")), StandardCharsets.UTF_8).trim();
+                final String prefix = "ref: refs/heads/";
+                return head.startsWith(prefix) ? head.substring(prefix.length()) : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -26,12 +26,19 @@ package io.questdb.maven.rust;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * An example of a Maven plugin.
@@ -56,28 +63,482 @@ public class CargoBuildMojo extends CargoMojoBase {
     @Parameter(property = "copyWithPlatformDir")
     private boolean copyWithPlatformDir;
 
+    /**
+     * How to place artifacts into `copyTo`, when they differ from the existing copy.
+     * Identical copies are never rewritten, preserving their modification time.
+     * <ul>
+     *   <li>"clone" (default): copy-on-write clone (btrfs, xfs, APFS), else copy.
+     *   Never shares an inode with cargo's output.</li>
+     *   <li>"auto": copy-on-write clone, else hard link, else copy.
+     *   Only if nothing edits the copies in place (strip, codesign, patchelf),
+     *   as that would also edit cargo's output.</li>
+     *   <li>"copy": always copy.</li>
+     * </ul>
+     */
+    @Parameter(property = "copyMode", defaultValue = "clone")
+    private String copyMode;
+
+    /**
+     * Compress artifacts copied to `copyTo`, to shrink the JAR.
+     * <ul>
+     *   <li>"none" (default): copy artifacts as they are.</li>
+     *   <li>"xz": store `&lt;artifact&gt;.xz` instead, next to the `.sha256` checksum
+     *   of the uncompressed artifact. `JarJniLoader` decompresses it while
+     *   extracting the library.</li>
+     * </ul>
+     */
+    @Parameter(property = "compressArtifacts", defaultValue = "none")
+    private String compressArtifacts;
+
+    /**
+     * Always invoke `cargo build`, even if the build fingerprint
+     * (sources, manifests, parameters, environment and toolchain)
+     * and the artifacts are unchanged since the last build.
+     */
+    @Parameter(property = "forceBuild", defaultValue = "false")
+    private boolean forceBuild;
+
+    /**
+     * The maximum number of builds (one per crate from `paths` and target from
+     * `targets`) to run at the same time.
+     * Defaults to one per build, up to half the number of available CPUs.
+     * <p>
+     * See also `jobs`.
+     */
+    @Parameter(property = "concurrency")
+    private Integer concurrency;
+
+    /**
+     * Pass `--timings` to `cargo build` and record how long each compilation
+     * unit (e.g. a dependency's lib, a build script) took. The summary is
+     * written to `target/rust-maven-plugin/<crate>/timings.json`, next to
+     * Cargo's own HTML report in the cargo target directory.
+     * <p>
+     * Nightly toolchains report the timings as JSON messages, while stable
+     * ones only write the HTML report, which is then parsed instead.
+     */
+    @Parameter(property = "timings", defaultValue = "false")
+    private boolean timings;
+
+    /**
+     * The number of slowest compilation units to log, if `timings` is enabled.
+     */
+    @Parameter(property = "timingsTop", defaultValue = "10")
+    private int timingsTop;
+
+    /**
+     * Rust target triples to cross-compile for, such as
+     * "x86_64-unknown-linux-gnu" or "aarch64-apple-darwin", instead of
+     * building for the host. The targets are built in parallel (see
+     * `concurrency`), each in its own target directory.
+     * <p>
+     * Requires `copyWithPlatformDir` when copying: each target's artifacts
+     * are copied into its platform directory, as looked up by
+     * `JarJniLoader.loadLib` at runtime. musl targets use a "-musl" suffix.
+     */
+    @Parameter(property = "targets")
+    private String[] targets;
+
+    /**
+     * Skip (with a warning) the `targets` whose standard library is not
+     * installed according to `rustup target list --installed`, rather than
+     * failing the build.
+     */
+    @Parameter(property = "skipMissingTargets", defaultValue = "false")
+    private boolean skipMissingTargets;
+
+    /**
+     * Share built artifacts between projects and checkouts through the local
+     * Maven repository, under `.cache/rust-maven-plugin/<fingerprint>/`.
+     * The fingerprint covers the same inputs as the up-to-date check,
+     * except the copy settings, with paths relative to the crate.
+     * On a match, the artifacts are restored and `cargo build` is skipped.
+     */
+    @Parameter(property = "localRepositoryCache", defaultValue = "false")
+    private boolean localRepositoryCache;
+
+    /**
+     * The size, in MiB, that `localRepositoryCache` is trimmed to after each
+     * store, evicting the least recently used entries first. 0 for no limit.
+     */
+    @Parameter(property = "localRepositoryCacheMaxSize", defaultValue = "2048")
+    private long localRepositoryCacheMaxSize;
+
+    /**
+     * The number of days after which an unused `localRepositoryCache` entry
+     * is evicted. 0 for no limit.
+     */
+    @Parameter(property = "localRepositoryCacheMaxAge", defaultValue = "30")
+    private int localRepositoryCacheMaxAge;
+
+    @Parameter(defaultValue = "${settings.localRepository}", readonly = true)
+    private String localRepository;
+
+    /**
+     * CPU tiers to build the binaries for, e.g. for mixed fleets where some
+     * machines support AVX2 or AVX-512 and some don't:
+     * <pre>
+     * &lt;cpuTiers&gt;
+     *   &lt;cpuTier&gt;&lt;name&gt;baseline&lt;/name&gt;&lt;/cpuTier&gt;
+     *   &lt;cpuTier&gt;&lt;name&gt;x86-64-v3&lt;/name&gt;&lt;/cpuTier&gt;
+     *   &lt;cpuTier&gt;&lt;name&gt;x86-64-v4&lt;/name&gt;&lt;/cpuTier&gt;
+     * &lt;/cpuTiers&gt;
+     * </pre>
+     * Each tier appends its `rustFlags` (by default `-Ctarget-cpu=<name>`) to
+     * `RUSTFLAGS` and is built in parallel in its own target directory.
+     * Its binaries are copied into a `<name>` directory under the platform
+     * directory, except for the "baseline" tier, which is copied into the
+     * platform directory itself. Requires `copyWithPlatformDir` when copying.
+     */
+    @Parameter
+    private List<CpuTier> cpuTiers;
+
+    /**
+     * Profile-guided optimization, in two executions of this goal:
+     * <ul>
+     *   <li>"generate": build an instrumented binary into a separate target
+     *   directory and copy it to `copyTo`, for a later phase (e.g. the
+     *   surefire tests) to run the training workload against.</li>
+     *   <li>"use": merge the training run's `.profraw` files with
+     *   `llvm-profdata` and rebuild with `-Cprofile-use`.</li>
+     * </ul>
+     * Merged profiles are cached by the fingerprint of the sources and build
+     * parameters, so "generate" builds the optimized binary straight away if
+     * a profile of the same sources exists. Can't be combined with `targets`
+     * or with more than one of `cpuTiers`. Defaults to "off".
+     */
+    @Parameter(property = "pgo", defaultValue = "off")
+    private String pgo;
+
+    /**
+     * The `llvm-profdata` command used to merge PGO profiles. Defaults to the
+     * one of the `llvm-tools` rustup component, if installed, since it must
+     * match rustc's LLVM version, otherwise to `llvm-profdata` on the PATH.
+     */
+    @Parameter(property = "llvmProfdataPath")
+    private String llvmProfdataPath;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        final Crate crate = new Crate(
-                getCrateRoot(),
-                getTargetRootDir(),
-                extractCrateParams());
-        crate.setLog(getLog());
-        crate.build();
-        crate.copyArtifacts();
+        final List<Path> crateRoots = new ArrayList<>();
+        for (Path crateRoot : getCrateRoots()) {
+            if (hasRustChanges(crateRoot)) {
+                crateRoots.add(crateRoot);
+            } else {
+                getLog().info("Skipping " + crateRoot.getFileName() +
+                        ": no Rust changes in this incremental build");
+            }
+        }
+        if (crateRoots.isEmpty()) {
+            return;
+        }
+        final List<String> triples = getTargets();
+        final List<CpuTier> tiers = getCpuTiers();
+        final int buildCount = crateRoots.size() * triples.size() * tiers.size();
+        final int concurrency = getConcurrency(buildCount);
+        final List<ConcurrentTasks.Task> tasks = new ArrayList<>();
+        final List<Crate> crates = new ArrayList<>();
+        for (Path crateRoot : crateRoots) {
+            for (String triple : getInstalledTargets(crateRoot, triples)) {
+                for (CpuTier tier : tiers) {
+                    final Crate.Params params = extractCrateParams(concurrency);
+                    params.target = triple;
+                    final Log log = getLabeledLog(
+                            crateRoot.getFileName() +
+                                    (triple != null ? " " + triple : "") +
+                                    (tier != null ? " " + tier.getName() : ""),
+                            buildCount);
+                    Path targetDir = withTargetSuffix(getCargoTargetDir(crateRoot), triple);
+                    Path stateDir = withTargetSuffix(getStateDir(crateRoot), triple);
+                    if (tier != null) {
+                        params.rustFlags = tier.getRustFlags();
+                        if (!tier.isBaseline()) {
+                            params.cpuTier = tier.getName();
+                            targetDir = withSuffix(targetDir, tier.getName());
+                            stateDir = withSuffix(stateDir, tier.getName());
+                        }
+                    }
+                    if (preparePgo(crateRoot, targetDir, stateDir, params, log)) {
+                        // Keep the instrumented build apart from the optimized one.
+                        targetDir = withSuffix(targetDir, "pgo-generate");
+                        stateDir = withSuffix(stateDir, "pgo-generate");
+                    }
+                    final Crate crate = new Crate(crateRoot, targetDir, stateDir, params, log);
+                    crates.add(crate);
+                    tasks.add(() -> build(crate));
+                }
+            }
+        }
+        ConcurrentTasks.run(tasks, concurrency);
+        if (copyTo != null) {
+            refreshOutput(resolveCopyToDir(copyTo));
+        }
+
+        final List<CargoTimings.Unit> units = new ArrayList<>();
+        for (Crate crate : crates) {
+            if (crate.getTimings() != null) {
+                units.addAll(crate.getTimings().getUnits());
+            }
+        }
+        logSlowestUnits(units);
     }
 
-    private Crate.Params extractCrateParams() throws MojoExecutionException {
+    protected void logSlowestUnits(List<CargoTimings.Unit> units) {
+        CargoTimings.logSlowest(getLog(), units, timingsTop);
+    }
+
+    private void build(Crate crate) throws MojoExecutionException, MojoFailureException {
+        final TargetDirLock lock = crate.lockTargetDir();
+        try {
+            if (!forceBuild && crate.isBuildUpToDate()) {
+                return;
+            }
+            crate.invalidateBuildFingerprint();
+            if (forceBuild || !crate.restoreFromArtifactCache()) {
+                crate.build();
+                crate.publishToArtifactCache();
+            }
+            crate.copyArtifacts();
+            crate.saveBuildFingerprint();
+        } finally {
+            lock.close();
+        }
+    }
+
+    protected Pgo.Mode getPgoMode() throws MojoExecutionException {
+        try {
+            return Pgo.Mode.parse(pgo);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException("Invalid pgo: " + pgo);
+        }
+    }
+
+    /**
+     * Adds the PGO flags for `getPgoMode()` to `params`.
+     *
+     * @return true if the build is instrumented.
+     */
+    private boolean preparePgo(
+            Path crateRoot,
+            Path targetDir,
+            Path stateDir,
+            Crate.Params params,
+            Log log) throws MojoExecutionException {
+        final Pgo.Mode mode = getPgoMode();
+        if (mode == Pgo.Mode.OFF) {
+            return false;
+        }
+        Pgo.checkBuildMatrix(hasTargets(), cpuTiers != null ? cpuTiers.size() : 0);
+        final Pgo pgo = new Pgo(getStateDir(crateRoot).resolve("pgo"), log);
+        final String key = new Crate(crateRoot, targetDir, stateDir, params, log)
+                .getArtifactCacheKey();
+        final Path profile = pgo.getProfile(key);
+        if (mode == Pgo.Mode.USE) {
+            final Path merged = pgo.merge(key, getLlvmProfdata(crateRoot));
+            if (merged == null && !Files.isRegularFile(profile)) {
+                throw new MojoExecutionException(
+                        "No PGO profile for " + crateRoot.getFileName() +
+                                ": no .profraw files in " + pgo.getRawDir() +
+                                " and no profile of the current sources. " +
+                                "Run the training workload against a " +
+                                "`<pgo>generate</pgo>` build first.");
+            }
+            if (merged == null) {
+                log.info("Using the PGO profile of unchanged sources: " + profile);
+            }
+        } else if (Files.isRegularFile(profile)) {
+            log.info("Found a PGO profile of the current sources, " +
+                    "building optimized instead of instrumented: " + profile);
+        } else {
+            pgo.clearRawProfiles();
+            params.rustFlags = append(params.rustFlags, pgo.getGenerateFlag());
+            params.artifactCacheDir = null;
+            log.info("Building instrumented for PGO, profiles go to " + pgo.getRawDir());
+            return true;
+        }
+        params.rustFlags = append(params.rustFlags, Pgo.getUseFlag(profile));
+        params.pgoProfile = profile;
+        return false;
+    }
+
+    private String getLlvmProfdata(Path crateRoot) throws MojoExecutionException {
+        if (llvmProfdataPath != null && !llvmProfdataPath.trim().isEmpty()) {
+            return llvmProfdataPath.trim();
+        }
         final Crate.Params params = getCommonCrateParams();
-        if (copyTo != null) {
-            Path copyToDir = Paths.get(copyTo);
-            if (!copyToDir.isAbsolute()) {
-                copyToDir = project.getBasedir().toPath()
-                        .resolve(copyToDir);
+        final Path tool = Toolchain.findRustlibTool(
+                "llvm-profdata",
+                Cargo.getCargoPath(params),
+                crateRoot,
+                params.environmentVariables);
+        return tool != null ? tool.toString() : "llvm-profdata";
+    }
+
+    private static String[] append(String[] flags, String flag) {
+        final List<String> all = new ArrayList<>();
+        if (flags != null) {
+            Collections.addAll(all, flags);
+        }
+        all.add(flag);
+        return all.toArray(new String[0]);
+    }
+
+    /**
+     * The configured `targets`, or a single null entry to build for the host.
+     */
+    private List<String> getTargets() throws MojoExecutionException {
+        final List<String> triples = new ArrayList<>();
+        if (targets != null) {
+            for (String target : targets) {
+                if (target != null && !target.trim().isEmpty() &&
+                        !triples.contains(target.trim())) {
+                    triples.add(target.trim());
+                }
+            }
+        }
+        if (triples.isEmpty()) {
+            triples.add(null);
+        } else if (copyTo != null && !copyWithPlatformDir) {
+            throw new MojoExecutionException(
+                    "Building for `targets` requires `copyWithPlatformDir` " +
+                            "so that the artifacts of each target don't overwrite each other");
+        }
+        return triples;
+    }
+
+    /**
+     * The configured `cpuTiers`, or a single null entry to build without tiers.
+     */
+    private List<CpuTier> getCpuTiers() throws MojoExecutionException {
+        final List<CpuTier> tiers = new ArrayList<>();
+        final Set<String> names = new HashSet<>();
+        if (cpuTiers != null) {
+            for (CpuTier tier : cpuTiers) {
+                final String name = tier.getName();
+                if (name == null || !name.matches("[A-Za-z0-9._-]+")) {
+                    throw new MojoExecutionException(
+                            "Invalid CPU tier name: " + name +
+                                    ", expected letters, digits, '.', '_' or '-'");
+                }
+                if (!names.add(name)) {
+                    throw new MojoExecutionException(
+                            "CPU tier " + name + " is configured more than once");
+                }
+                tiers.add(tier);
             }
-            params.copyToDir = copyToDir;
+        }
+        if (tiers.isEmpty()) {
+            tiers.add(null);
+        } else if (copyTo != null && !copyWithPlatformDir) {
+            throw new MojoExecutionException(
+                    "Building `cpuTiers` requires `copyWithPlatformDir` " +
+                            "so that the tiers are copied into the platform directory");
+        }
+        return tiers;
+    }
+
+    private List<String> getInstalledTargets(Path crateRoot, List<String> triples)
+            throws MojoExecutionException {
+        if (triples.size() == 1 && triples.get(0) == null) {
+            return triples;
+        }
+        final Set<String> installed = Toolchain.getInstalledTargets(
+                crateRoot, getCommonCrateParams().environmentVariables);
+        if (installed == null) {
+            return triples;  // Can't tell without rustup: let cargo report errors.
+        }
+        final List<String> available = new ArrayList<>();
+        for (String triple : triples) {
+            if (installed.contains(triple)) {
+                available.add(triple);
+            } else if (skipMissingTargets) {
+                getLog().warn("Skipping target " + triple + " for " +
+                        crateRoot.getFileName() + ": not installed, see " +
+                        "`rustup target add " + triple + "`");
+            } else {
+                throw new MojoExecutionException(
+                        "Rust target " + triple + " is not installed. " +
+                                "Run `rustup target add " + triple + "` " +
+                                "or set `skipMissingTargets`.");
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Gives each target its own directory, so cargo can build them in
+     * parallel: it locks the whole target directory while building.
+     */
+    private static Path withTargetSuffix(Path dir, String triple) {
+        if (triple == null) {
+            return dir;
+        }
+        return withSuffix(dir, triple);
+    }
+
+    private static Path withSuffix(Path dir, String suffix) {
+        return dir.resolveSibling(dir.getFileName() + "-" + suffix);
+    }
+
+    private int getConcurrency(int crateCount) throws MojoExecutionException {
+        if (concurrency != null) {
+            if (concurrency < 1) {
+                throw new MojoExecutionException(
+                        "Invalid concurrency: " + concurrency);
+            }
+            return Math.min(concurrency, crateCount);
+        }
+        final int halfCpus = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        return Math.min(halfCpus, crateCount);
+    }
+
+    protected boolean hasTargets() {
+        return targets != null && targets.length > 0;
+    }
+
+    protected boolean hasCpuTiers() {
+        return cpuTiers != null && !cpuTiers.isEmpty();
+    }
+
+    protected boolean isForceBuild() {
+        return forceBuild;
+    }
+
+    /**
+     * Resolves a `copyTo` path against the project's base directory.
+     */
+    protected Path resolveCopyToDir(String copyTo) {
+        Path copyToDir = Paths.get(copyTo);
+        if (!copyToDir.isAbsolute()) {
+            copyToDir = project.getBasedir().toPath()
+                    .resolve(copyToDir);
+        }
+        return copyToDir;
+    }
+
+    protected Crate.Params extractCrateParams(int concurrency) throws MojoExecutionException {
+        final Crate.Params params = getCommonCrateParams();
+        params.jobs = getJobsPerCrate(concurrency);
+        if (copyTo != null) {
+            params.copyToDir = resolveCopyToDir(copyTo);
         }
         params.copyWithPlatformDir = copyWithPlatformDir;
+        params.timings = timings;
+        if (localRepositoryCache && localRepository != null) {
+            params.artifactCacheDir = ArtifactCache.getDefaultDir(Paths.get(localRepository));
+            params.artifactCacheMaxBytes = localRepositoryCacheMaxSize * 1024 * 1024;
+            params.artifactCacheMaxAgeDays = localRepositoryCacheMaxAge;
+        }
+        try {
+            params.copyMode = ArtifactCopier.Mode.parse(copyMode);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException("Invalid copyMode: " + copyMode);
+        }
+        try {
+            params.compression = ArtifactCopier.Compression.parse(compressArtifacts);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException("Invalid compressArtifacts: " + compressArtifacts);
+        }
         return params;
     }
 }
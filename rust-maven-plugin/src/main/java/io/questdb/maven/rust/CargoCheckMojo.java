@@ -0,0 +1,76 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Runs `cargo check` for fast feedback: type errors without the codegen and
+ * linking of `cargo build`.
+ * <p>
+ * Takes the same configuration as the `build` goal, but copies nothing and
+ * uses a `check` subdirectory of the cargo target directory, so it doesn't
+ * invalidate the artifacts or fingerprints of `build`.
+ */
+@Mojo(name = "check", defaultPhase = LifecyclePhase.COMPILE, threadSafe = true)
+public class CargoCheckMojo extends CargoMojoBase {
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final List<Path> crateRoots = getCrateRoots();
+        for (Path crateRoot : crateRoots) {
+            if (!hasRustChanges(crateRoot)) {
+                getLog().info("Skipping " + crateRoot.getFileName() +
+                        ": no Rust changes in this incremental build");
+                continue;
+            }
+            final Crate.Params params = getCommonCrateParams();
+            params.jobs = getJobsPerCrate(1);
+            final Log log = getCrateLog(crateRoot, crateRoots.size());
+            final Crate crate = new Crate(
+                    crateRoot,
+                    getCargoTargetDir(crateRoot).resolve("check"),
+                    getStateDir(crateRoot),
+                    params,
+                    log);
+            final CargoDiagnostics diagnostics = new CargoDiagnostics(crateRoot, log);
+            final TargetDirLock lock = crate.lockTargetDir();
+            try {
+                crate.check(diagnostics);
+            } finally {
+                lock.close();
+                addIdeMessages(crateRoot, diagnostics.getDiagnostics());
+                log.info("cargo check: " + diagnostics.getErrorCount() + " error(s), " +
+                        diagnostics.getWarningCount() + " warning(s)");
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.maven.plugin.logging.Log;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parses the `compiler-message` JSON messages of `cargo check` or
+ * `cargo build` run with `--message-format=json`, and logs each
+ * diagnostic with its source location, as in `file:[line,column]`,
+ * like the Maven compiler plugin does for Java.
+ *
+ * @see <a href="https://doc.rust-lang.org/rustc/json.html">rustc JSON output</a>
+ */
+public final class CargoDiagnostics {
+    private final Path crateRoot;
+    private final Log log;
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+
+    /**
+     * @param crateRoot The directory that relative source paths are
+     *                  resolved against (or against one of its parents,
+     *                  for workspace members).
+     */
+    public CargoDiagnostics(Path crateRoot, Log log) {
+        this.crateRoot = crateRoot.toAbsolutePath().normalize();
+        this.log = log;
+    }
+
+    /**
+     * Parses and logs a line of cargo's stdout.
+     * Called from a pump thread, but never concurrently.
+     *
+     * @return false if the line is not a JSON message.
+     */
+    public boolean accept(String line) {
+        if (!line.startsWith("{")) {
+            return false;
+        }
+        final JsonObject message;
+        try {
+            message = JsonParser.parseString(line).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            return false;
+        }
+        if (!"compiler-message".equals(getString(message, "reason"))) {
+            return true;
+        }
+        final JsonObject compilerMessage = getObject(message, "message");
+        if (compilerMessage != null) {
+            final Diagnostic diagnostic = parse(compilerMessage);
+            synchronized (diagnostics) {
+                diagnostics.add(diagnostic);
+            }
+            logDiagnostic(diagnostic);
+        }
+        return true;
+    }
+
+    private Diagnostic parse(JsonObject message) {
+        final JsonObject code = getObject(message, "code");
+        Path file = null;
+        int line = 0;
+        int column = 0;
+        final JsonElement spans = message.get("spans");
+        if (spans != null && spans.isJsonArray()) {
+            for (JsonElement element : spans.getAsJsonArray()) {
+                final JsonObject span = element.getAsJsonObject();
+                if (span.has("is_primary") && span.get("is_primary").getAsBoolean()) {
+                    file = resolve(getString(span, "file_name"));
+                    line = getInt(span, "line_start");
+                    column = getInt(span, "column_start");
+                    break;
+                }
+            }
+        }
+        return new Diagnostic(
+                getString(message, "level"),
+                code != null ? getString(code, "code") : null,
+                getString(message, "message"),
+                getString(message, "rendered"),
+                file,
+                line,
+                column);
+    }
+
+    /**
+     * Source paths are relative to the workspace root, which is the crate
+     * root or one of its parents.
+     */
+    private Path resolve(String fileName) {
+        if (fileName == null) {
+            return null;
+        }
+        final Path path = Paths.get(fileName);
+        if (path.isAbsolute()) {
+            return path;
+        }
+        for (Path dir = crateRoot; dir != null; dir = dir.getParent()) {
+            final Path candidate = dir.resolve(path);
+            if (Files.exists(candidate)) {
+                return candidate;
+            }
+        }
+        return crateRoot.resolve(path);
+    }
+
+    private void logDiagnostic(Diagnostic diagnostic) {
+        final StringBuilder text = new StringBuilder();
+        if (diagnostic.getFile() != null) {
+            text.append(diagnostic.getLocation()).append(' ');
+        }
+        text.append(diagnostic.getSummary());
+        final String rendered = diagnostic.getRendered();
+        if (rendered != null && diagnostic.getFile() != null) {
+            // Skip the rendered header line: it repeats the summary.
+            final int newline = rendered.indexOf('\n');
+            if (newline >= 0 && newline < rendered.length() - 1) {
+                text.append('\n').append(rendered.substring(newline + 1).replaceAll("\\s+$", ""));
+            }
+        }
+        if (diagnostic.isError()) {
+            log.error(text);
+        } else if (diagnostic.isWarning()) {
+            log.warn(text);
+        } else {
+            log.info(text);
+        }
+    }
+
+    public List<Diagnostic> getDiagnostics() {
+        synchronized (diagnostics) {
+            return Collections.unmodifiableList(new ArrayList<>(diagnostics));
+        }
+    }
+
+    /**
+     * The number of errors at a source location, excluding summaries
+     * such as "aborting due to 2 previous errors".
+     */
+    public int getErrorCount() {
+        int count = 0;
+        for (Diagnostic diagnostic : getDiagnostics()) {
+            if (diagnostic.isError() && diagnostic.getFile() != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The number of warnings at a source location.
+     */
+    public int getWarningCount() {
+        int count = 0;
+        for (Diagnostic diagnostic : getDiagnostics()) {
+            if (diagnostic.isWarning() && diagnostic.getFile() != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private static String getString(JsonObject object, String key) {
+        final JsonElement element = object.get(key);
+        return (element != null && element.isJsonPrimitive()) ? element.getAsString() : null;
+    }
+
+    private static int getInt(JsonObject object, String key) {
+        final JsonElement element = object.get(key);
+        return (element != null && element.isJsonPrimitive()) ? element.getAsInt() : 0;
+    }
+
+    private static JsonObject getObject(JsonObject object, String key) {
+        final JsonElement element = object.get(key);
+        return (element != null && element.isJsonObject()) ? element.getAsJsonObject() : null;
+    }
+
+    /**
+     * A compiler error, warning or note, at the location of its primary span.
+     */
+    public static final class Diagnostic {
+        private final String level;
+        private final String code;
+        private final String message;
+        private final String rendered;
+        private final Path file;
+        private final int line;
+        private final int column;
+
+        Diagnostic(
+                String level,
+                String code,
+                String message,
+                String rendered,
+                Path file,
+                int line,
+                int column) {
+            this.level = level != null ? level : "error";
+            this.code = code;
+            this.message = message != null ? message : "";
+            this.rendered = rendered;
+            this.file = file;
+            this.line = line;
+            this.column = column;
+        }
+
+        /**
+         * One of "error", "warning", "note", "help", "failure-note"
+         * or "error: internal compiler error".
+         */
+        public String getLevel() {
+            return level;
+        }
+
+        public boolean isError() {
+            return level.startsWith("error");
+        }
+
+        public boolean isWarning() {
+            return level.equals("warning");
+        }
+
+        /**
+         * The lint or error code, e.g. "E0308" or "unused_variables", if any.
+         */
+        public String getCode() {
+            return code;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * The diagnostic as rustc would print it, with source snippets.
+         */
+        public String getRendered() {
+            return rendered;
+        }
+
+        /**
+         * The source file of the primary span, or null if there is none.
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+
+        /**
+         * E.g. "/work/src/lib.rs:[12,5]".
+         */
+        public String getLocation() {
+            return file + ":[" + line + "," + column + "]";
+        }
+
+        /**
+         * E.g. "error[E0308]: mismatched types".
+         */
+        public String getSummary() {
+            return level + (code != null ? "[" + code + "]" : "") + ": " + message;
+        }
+
+        @Override
+        public String toString() {
+            return file != null ? getLocation() + " " + getSummary() : getSummary();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package io.questdb.maven.rust;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import io.questdb.jar.jni.PlatformConventions;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incrementally parses the JSON messages cargo prints to stdout when run
+ * with `--message-format=json-render-diagnostics`.
+ * <p>
+ * Collects the cdylib and bin artifacts from `compiler-artifact` messages,
+ * and optionally the `timing-info` messages of `--timings=json`.
+ *
+ * @see <a href="https://doc.rust-lang.org/cargo/reference/external-tools.html#json-messages">JSON messages</a>
+ */
+public final class CargoMessages {
+    private final List<CargoArtifact> artifacts = new ArrayList<>();
+    private final CargoTimings timings;
+    private final String libSuffix;
+
+    public CargoMessages() {
+        this(null);
+    }
+
+    public CargoMessages(CargoTimings timings) {
+        this(timings, PlatformConventions.LIB_SUFFIX);
+    }
+
+    /**
+     * @param libSuffix The dynamic library suffix of the target platform,
+     *                  which tells cdylibs from their import libraries.
+     */
+    public CargoMessages(CargoTimings timings, String libSuffix) {
+        this.timings = timings;
+        this.libSuffix = libSuffix;
+    }
+
+    /**
+     * Parses a line of cargo's stdout.
+     *
+     * @return false if the line is not a JSON message.
+     */
+    public boolean accept(String line) {
+        if (!line.startsWith("{")) {
+            return false;
+        }
+        final JsonObject message;
+        try {
+            message = JsonParser.parseString(line).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            return false;
+        }
+        if ("compiler-artifact".equals(getString(message, "reason"))) {
+            acceptArtifact(message);
+        } else if (timings != null) {
+            timings.accept(message);
+        }
+        return true;
+    }
+
+    private void acceptArtifact(JsonObject message) {
+        final JsonObject profile = getObject(message, "profile");
+        if (profile != null && profile.has("test") && profile.get("test").getAsBoolean()) {
+            return;  // Test harness, not a deliverable.
+        }
+        final JsonObject target = getObject(message, "target");
+        final String manifestPath = getString(message, "manifest_path");
+        if (target == null || manifestPath == null) {
+            return;
+        }
+        final boolean fresh = message.has("fresh") && message.get("fresh").getAsBoolean();
+        final List<String> kinds = getStrings(target, "kind");
+
+        if (kinds.contains("cdylib")) {
+            for (String filename : getStrings(message, "filenames")) {
+                if (filename.endsWith(libSuffix)) {
+                    artifacts.add(new CargoArtifact(
+                            Paths.get(filename), Paths.get(manifestPath), "cdylib", fresh));
+                }
+            }
+        }
+
+        if (kinds.contains("bin")) {
+            final String executable = getString(message, "executable");
+            if (executable != null) {
+                artifacts.add(new CargoArtifact(
+                        Paths.get(executable), Paths.get(manifestPath), "bin", fresh));
+            }
+        }
+    }
+
+    /**
+     * The artifacts of the package with the given `Cargo.toml`, cdylibs first.
+     */
+    public List<CargoArtifact> getArtifacts(Path manifestPath) {
+        final Path wanted = canonical(manifestPath);
+        final List<CargoArtifact> libs = new ArrayList<>();
+        final List<CargoArtifact> bins = new ArrayList<>();
+        for (CargoArtifact artifact : artifacts) {
+            if (!canonical(artifact.getManifestPath()).equals(wanted)) {
+                continue;
+            }
+            if (artifact.getKind().equals("cdylib")) {
+                libs.add(artifact);
+            } else {
+                bins.add(artifact);
+            }
+        }
+        libs.addAll(bins);
+        return libs;
+    }
+
+    private static Path canonical(Path path) {
+        try {
+            return path.toRealPath();
+        } catch (Exception e) {
+            return path.toAbsolutePath().normalize();
+        }
+    }
+
+    private static String getString(JsonObject object, String key) {
+        final JsonElement element = object.get(key);
+        return (element != null && element.isJsonPrimitive()) ? element.getAsString() : null;
+    }
+
+    private static JsonObject getObject(JsonObject object, String key) {
+        final JsonElement element = object.get(key);
+        return (element != null && element.isJsonObject()) ? element.getAsJsonObject() : null;
+    }
+
+    private static List<String> getStrings(JsonObject object, String key) {
+        final List<String> strings = new ArrayList<>();
+        final JsonElement element = object.get(key);
+        if (element != null && element.isJsonArray()) {
+            final JsonArray array = element.getAsJsonArray();
+            for (JsonElement item : array) {
+                if (item.isJsonPrimitive()) {
+                    strings.add(item.getAsString());
+                }
+            }
+        }
+        return strings;
+    }
+}
@@ -25,19 +25,52 @@
 package io.questdb.maven.rust;
 
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.Scanner;
+import org.sonatype.plexus.build.incremental.BuildContext;
+import org.tomlj.Toml;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 
 public abstract class CargoMojoBase extends AbstractMojo {
+    /**
+     * The files of a crate that, when changed, require running cargo again.
+     */
+    private static final String[] RUST_INPUTS = {
+            "**/*.rs",
+            "**/Cargo.toml",
+            "**/Cargo.lock",
+            "**/.cargo/config",
+            "**/.cargo/config.toml",
+            "**/rust-toolchain",
+            "**/rust-toolchain.toml"
+    };
+
+    /**
+     * Tracks changed files in IDE incremental builds (e.g. Eclipse m2e).
+     */
+    @Component
+    private BuildContext buildContext;
+
     @Parameter(property = "project", readonly = true)
     protected MavenProject project;
 
+    @Parameter(defaultValue = "${mojoExecution}", readonly = true)
+    private MojoExecution mojoExecution;
+
     @Parameter(property = "environmentVariables")
     private HashMap<String, String> environmentVariables;
 
@@ -49,10 +82,44 @@ public abstract class CargoMojoBase extends AbstractMojo {
 
     /**
      * Path to the Rust crate to build.
+     * <p>
+     * See also `paths`: At least one of the two must be set.
      */
-    @Parameter(property = "path", required = true)
+    @Parameter(property = "path")
     private String path;
 
+    /**
+     * Paths to multiple Rust crates, all processed with the same configuration.
+     * Can be combined with `path`.
+     * The crate directory names must be unique, as they name the target directories.
+     */
+    @Parameter(property = "paths")
+    private String[] paths;
+
+    /**
+     * The total number of parallel jobs, shared by all the concurrently
+     * running cargo processes. Each process is given an equal share
+     * (at least one) through Cargo's `--jobs` option.
+     * <p>
+     * If unset, a single crate build uses Cargo's default and concurrent
+     * builds split the number of available CPUs.
+     */
+    @Parameter(property = "jobs")
+    private Integer jobs;
+
+    /**
+     * A cargo target directory to share between modules, instead of
+     * building under each module's own `target/` directory.
+     * For example `${maven.multiModuleProjectDirectory}/target/rust` or a
+     * directory in the user's home. Relative paths are resolved against the
+     * module's base directory.
+     * <p>
+     * Builds into the directory are serialized with a file lock.
+     * The plugin's per-module state (fingerprints) stays under `target/`.
+     */
+    @Parameter(property = "sharedTargetDir")
+    private String sharedTargetDir;
+
     /**
      * Build artifacts in release mode, with optimizations.
      * Defaults to "false" and creates a debug build.
@@ -92,6 +159,36 @@ public abstract class CargoMojoBase extends AbstractMojo {
     @Parameter(property = "verbosity")
     private String verbosity;
 
+    /**
+     * The maximum number of cargo output lines per second to show on the
+     * console. Errors are always shown. All output is kept in the log file
+     * under `target/rust-maven-plugin/<crate>/`. If unset, there is no limit.
+     */
+    @Parameter(property = "maxLogLinesPerSecond")
+    private Integer maxLogLinesPerSecond;
+
+    /**
+     * Enables a rustc compilation cache stored in this directory, e.g.
+     * `${user.home}/.cache/rust-maven-plugin/rustc`. Cargo is then run with
+     * `RUSTC_WRAPPER` set, unless it is already set.
+     * <p>
+     * See also `compilerCacheTool`.
+     */
+    @Parameter(property = "compilerCacheDir")
+    private String compilerCacheDir;
+
+    /**
+     * The compiler cache implementation:
+     * <ul>
+     *   <li>"auto" (default): `sccache` if on the PATH, else "builtin".</li>
+     *   <li>"sccache": `sccache`, with `SCCACHE_DIR` set to `compilerCacheDir`.</li>
+     *   <li>"builtin": the plugin's own wrapper, which caches library crates
+     *   compiled without incremental compilation, i.e. the dependencies.</li>
+     * </ul>
+     */
+    @Parameter(property = "compilerCacheTool", defaultValue = "auto")
+    private String compilerCacheTool;
+
     /**
      * Additional args to pass to cargo.
      */
@@ -114,7 +211,7 @@ public abstract class CargoMojoBase extends AbstractMojo {
         }
     }
 
-    protected Path getCrateRoot() {
+    private Path resolveCrateRoot(String path) {
         Path crateRoot = Paths.get(path);
         if (!crateRoot.isAbsolute()) {
             crateRoot = project.getBasedir().toPath().resolve(path);
@@ -122,12 +219,173 @@ public abstract class CargoMojoBase extends AbstractMojo {
         return crateRoot;
     }
 
+    /**
+     * The crates configured via `path` and `paths`.
+     */
+    protected List<Path> getCrateRoots() throws MojoExecutionException {
+        final List<Path> crateRoots = new ArrayList<>();
+        if (path != null) {
+            crateRoots.add(resolveCrateRoot(path));
+        }
+        if (paths != null) {
+            for (String p : paths) {
+                if (p != null && !p.trim().isEmpty()) {
+                    crateRoots.add(resolveCrateRoot(p.trim()));
+                }
+            }
+        }
+        if (crateRoots.isEmpty()) {
+            throw new MojoExecutionException(
+                    "No crate to build: set `path` or `paths`");
+        }
+
+        // Each crate's target directory is named after its directory.
+        final Set<String> dirNames = new HashSet<>();
+        for (Path crateRoot : crateRoots) {
+            if (!dirNames.add(crateRoot.getFileName().toString())) {
+                throw new MojoExecutionException(
+                        "Crate directory name " + crateRoot.getFileName() +
+                                " is configured more than once: " + crateRoots);
+            }
+        }
+        return crateRoots;
+    }
+
+    /**
+     * The `--jobs` value for each of `concurrency` cargo processes
+     * running at the same time, or null to use Cargo's default.
+     */
+    protected Integer getJobsPerCrate(int concurrency) {
+        if (concurrency <= 1) {
+            return jobs;
+        }
+        final int total = jobs != null
+                ? jobs
+                : Runtime.getRuntime().availableProcessors();
+        return Math.max(1, total / concurrency);
+    }
+
+    /**
+     * Wraps the log to prefix messages with the crate's directory name,
+     * if more than one crate is configured.
+     */
+    protected Log getCrateLog(Path crateRoot, int crateCount) {
+        return getLabeledLog(crateRoot.getFileName().toString(), crateCount);
+    }
+
+    /**
+     * Wraps the log to prefix messages with a label, if more than
+     * one build runs.
+     */
+    protected Log getLabeledLog(String label, int buildCount) {
+        if (buildCount <= 1) {
+            return getLog();
+        }
+        return new PrefixedLog(getLog(), "[" + label + "] ");
+    }
+
+    /**
+     * False if this is an IDE incremental build in which none of the
+     * Rust sources, manifests or cargo configuration of the crate, of its
+     * `path` dependencies and of its parent directories changed: the
+     * inputs of the build fingerprint.
+     * Command line builds are never incremental, so always return true.
+     */
+    protected boolean hasRustChanges(Path crateRoot) {
+        if (buildContext == null || !buildContext.isIncremental()) {
+            return true;
+        }
+        final Path root = crateRoot.toAbsolutePath().normalize();
+        final Set<Path> sourceDirs;
+        try {
+            sourceDirs = Crate.getSourceDirs(root, Toml.parse(root.resolve("Cargo.toml")));
+        } catch (IOException e) {
+            return true;  // Let cargo report it.
+        }
+        for (Path dir : sourceDirs) {
+            if (hasChanges(buildContext.newScanner(dir.toFile())) ||
+                    hasChanges(buildContext.newDeleteScanner(dir.toFile()))) {
+                return true;
+            }
+        }
+        for (Path file : Crate.getAncestorInputs(root)) {
+            if (buildContext.hasDelta(file.toFile())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasChanges(Scanner scanner) {
+        scanner.setIncludes(RUST_INPUTS);
+        scanner.setExcludes(new String[]{"target/**"});
+        scanner.scan();
+        final String[] files = scanner.getIncludedFiles();
+        return files != null && files.length > 0;
+    }
+
+    /**
+     * Tells the IDE that files under `dir` were written outside of it.
+     */
+    protected void refreshOutput(Path dir) {
+        if (buildContext != null && dir != null) {
+            buildContext.refresh(dir.toFile());
+        }
+    }
+
+    /**
+     * Shows compiler diagnostics as markers in the IDE, replacing those
+     * of the previous build of the crate.
+     */
+    protected void addIdeMessages(Path crateRoot, List<CargoDiagnostics.Diagnostic> diagnostics) {
+        if (buildContext == null) {
+            return;
+        }
+        buildContext.removeMessages(crateRoot.toFile());
+        for (CargoDiagnostics.Diagnostic diagnostic : diagnostics) {
+            if (diagnostic.getFile() == null ||
+                    !(diagnostic.isError() || diagnostic.isWarning())) {
+                continue;
+            }
+            buildContext.addMessage(
+                    diagnostic.getFile().toFile(),
+                    diagnostic.getLine(),
+                    diagnostic.getColumn(),
+                    diagnostic.getSummary(),
+                    diagnostic.isError()
+                            ? BuildContext.SEVERITY_ERROR
+                            : BuildContext.SEVERITY_WARNING,
+                    null);
+        }
+    }
+
     protected Path getTargetRootDir() {
         return Paths.get(
                 project.getBuild().getDirectory(),
                 "rust-maven-plugin");
     }
 
+    /**
+     * Cargo's `--target-dir` for a crate or workspace: the `sharedTargetDir`
+     * if set, otherwise a directory of the module's own.
+     */
+    protected Path getCargoTargetDir(Path crateRoot) {
+        if (sharedTargetDir != null && !sharedTargetDir.trim().isEmpty()) {
+            final Path dir = Paths.get(sharedTargetDir.trim());
+            return dir.isAbsolute()
+                    ? dir
+                    : project.getBasedir().toPath().resolve(dir);
+        }
+        return getStateDir(crateRoot);
+    }
+
+    /**
+     * The plugin's own per-module directory for a crate or workspace.
+     */
+    protected Path getStateDir(Path crateRoot) {
+        return getTargetRootDir().resolve(crateRoot.getFileName().toString());
+    }
+
     protected Crate.Params getCommonCrateParams() throws MojoExecutionException {
         final Crate.Params params = new Crate.Params();
         params.verbosity = getVerbosity();
@@ -138,6 +396,22 @@ public abstract class CargoMojoBase extends AbstractMojo {
         params.allFeatures = allFeatures;
         params.noDefaultFeatures = noDefaultFeatures;
         params.extraArgs = extraArgs;
+        params.executionId = mojoExecution != null
+                ? mojoExecution.getExecutionId()
+                : null;
+        params.maxLogLinesPerSecond = maxLogLinesPerSecond;
+        if (compilerCacheDir != null && !compilerCacheDir.trim().isEmpty()) {
+            final Path dir = Paths.get(compilerCacheDir.trim());
+            params.compilerCacheDir = dir.isAbsolute()
+                    ? dir
+                    : project.getBasedir().toPath().resolve(dir);
+        }
+        try {
+            params.compilerCacheTool = CompilerCache.Tool.parse(compilerCacheTool);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new MojoExecutionException(
+                    "Invalid compilerCacheTool: " + compilerCacheTool);
+        }
         return params;
     }
 }
@@ -0,0 +1,310 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Routes the output of a cargo process to the Maven log and a log file.
+ * <p>
+ * Every line is written to the log file. The console only gets errors,
+ * warnings (with their source snippets) and other unrecognised output,
+ * such as test results. Cargo's progress lines (`Compiling`, `Fresh`,
+ * `Running`, build script output with `-vv`) are logged at
+ * debug level, and a summary is logged once the process exits.
+ * <p>
+ * Each stream is read by its own daemon thread, which must be joined via
+ * {@link #join} before the collected output is used.
+ */
+public final class CargoOutput implements Closeable {
+    private static final Pattern DIAGNOSTIC = Pattern.compile(
+            "^(error|warning)(\\[[A-Za-z0-9_:-]+])?: .*");
+    private static final Pattern STATUS = Pattern.compile(
+            "^\\s*(Compiling|Checking|Fresh|Dirty|Running|Downloading|Downloaded|" +
+                    "Updating|Locking|Adding|Blocking|Documenting|Packaging|Verifying|" +
+                    "Building|Doc-tests|Executable|Installing|Replacing|Removed|" +
+                    "Unpacking|Skipping|Waiting) .*");
+    private static final Pattern BUILD_SCRIPT_OUTPUT = Pattern.compile(
+            "^\\[[^ \\]]+ [0-9][^\\]]*] .*");
+    private static final Pattern FINISHED = Pattern.compile("^\\s*Finished .*");
+
+    private final Log log;
+    private final Path logFile;
+    private final Integer maxLinesPerSecond;
+    private final long startNanos = System.nanoTime();
+    private Writer writer;
+    private final List<Thread> pumps = new ArrayList<>();
+
+    private int compiled;
+    private int warnings;
+    private int errors;
+    private String finished;
+    private long windowStart;
+    private int windowLines;
+    private int suppressed;
+    private int totalSuppressed;
+
+    enum Level {
+        ERROR, WARN, INFO, DEBUG
+    }
+
+    /**
+     * @param logFile           The file receiving all output, or null.
+     * @param append            Whether to append to the log file rather
+     *                          than truncate it.
+     * @param maxLinesPerSecond If set, the maximum number of non-error lines
+     *                          sent to the console per second. The rest are
+     *                          only written to the log file.
+     */
+    public CargoOutput(Log log, Path logFile, boolean append, Integer maxLinesPerSecond) {
+        this.log = log;
+        this.logFile = logFile;
+        this.maxLinesPerSecond = maxLinesPerSecond;
+        if (logFile != null) {
+            try {
+                Files.createDirectories(logFile.getParent());
+                writer = append
+                        ? Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                        : Files.newBufferedWriter(logFile, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                log.warn("Cannot write cargo output to " + logFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Starts reading a stream on a daemon thread.
+     *
+     * @param handler If not null, receives each line first. Returns false for
+     *                lines it does not understand, which are then logged.
+     */
+    public void pump(InputStream stream, String name, Predicate<String> handler) {
+        final Thread thread = new Thread(() -> {
+            final Classifier classifier = new Classifier();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (handler == null || !handler.test(line)) {
+                        accept(classifier.classify(line), line);
+                    }
+                }
+            } catch (IOException e) {
+                // The stream is closed when the process is destroyed.
+                synchronized (this) {
+                    writeToFile("[" + name + " closed: " + e.getMessage() + "]");
+                }
+            }
+        }, "cargo-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        pumps.add(thread);
+    }
+
+    /**
+     * Waits for all streams to be read to the end.
+     *
+     * @param timeoutMillis How long to wait per stream, or 0 to wait forever.
+     */
+    public void join(long timeoutMillis) throws InterruptedException {
+        for (Thread pump : pumps) {
+            pump.join(timeoutMillis);
+        }
+    }
+
+    private synchronized void accept(Level level, String line) {
+        writeToFile(line);
+        if (DIAGNOSTIC.matcher(line).matches() && !isDiagnosticSummary(line)) {
+            if (line.startsWith("error")) {
+                ++errors;
+            } else {
+                ++warnings;
+            }
+        }
+        if (line.trim().startsWith("Compiling ")) {
+            ++compiled;
+        }
+        if (FINISHED.matcher(line).matches()) {
+            finished = line.trim();
+        }
+
+        if (level == Level.DEBUG) {
+            if (log.isDebugEnabled() && allowConsole()) {
+                log.debug(line);
+            }
+            return;
+        }
+        if (level != Level.ERROR && !allowConsole()) {
+            return;
+        }
+        if (suppressed > 0) {
+            log.info("[" + suppressed + " lines suppressed, see " + logFile + "]");
+            suppressed = 0;
+        }
+        switch (level) {
+            case ERROR:
+                log.error(line);
+                break;
+            case WARN:
+                log.warn(line);
+                break;
+            default:
+                log.info(line);
+        }
+    }
+
+    private boolean allowConsole() {
+        if (maxLinesPerSecond == null || maxLinesPerSecond <= 0) {
+            return true;
+        }
+        final long now = System.nanoTime();
+        if (now - windowStart >= 1_000_000_000L) {
+            windowStart = now;
+            windowLines = 0;
+        }
+        if (windowLines < maxLinesPerSecond) {
+            ++windowLines;
+            return true;
+        }
+        ++suppressed;
+        ++totalSuppressed;
+        return false;
+    }
+
+    /**
+     * E.g. "warning: `foo` (lib) generated 3 warnings" or
+     * "error: could not compile `foo`", which repeat earlier diagnostics.
+     */
+    private static boolean isDiagnosticSummary(String line) {
+        return line.contains(" generated ") ||
+                line.startsWith("error: could not compile") ||
+                line.startsWith("warning: build failed");
+    }
+
+    private void writeToFile(String line) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            log.warn("Cannot write cargo output to " + logFile + ": " + e.getMessage());
+            closeWriter();
+        }
+    }
+
+    /**
+     * Logs a one line summary of the process's output.
+     */
+    public synchronized void logSummary(String command, int exitCode) {
+        final double seconds = (System.nanoTime() - startNanos) / 1e9;
+        final StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.ROOT, "%s %s in %.1fs: ",
+                command, exitCode == 0 ? "succeeded" : "failed", seconds));
+        summary.append(compiled).append(" compiled, ");
+        summary.append(warnings).append(warnings == 1 ? " warning, " : " warnings, ");
+        summary.append(errors).append(errors == 1 ? " error" : " errors");
+        if (totalSuppressed > 0) {
+            summary.append(", ").append(totalSuppressed).append(" lines not shown");
+        }
+        if (writer != null) {
+            summary.append(". Full log: ").append(logFile);
+        }
+        if (finished != null) {
+            log.info(finished);
+        }
+        if (exitCode == 0) {
+            log.info(summary.toString());
+        } else {
+            log.error(summary.toString());
+        }
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+        }
+        writer = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        closeWriter();
+    }
+
+    /**
+     * Assigns a level to each line of one stream. Diagnostics span several
+     * lines, up to the next blank line, which all get the level of the
+     * diagnostic's first line.
+     */
+    static final class Classifier {
+        private Level diagnostic;
+
+        Level classify(String line) {
+            if (DIAGNOSTIC.matcher(line).matches()) {
+                final Level level = line.startsWith("error") ? Level.ERROR : Level.WARN;
+                // Summaries are single lines.
+                diagnostic = isDiagnosticSummary(line) ? null : level;
+                return level;
+            }
+            final boolean progress = STATUS.matcher(line).matches() ||
+                    FINISHED.matcher(line).matches() ||
+                    BUILD_SCRIPT_OUTPUT.matcher(line).matches();
+            if (diagnostic != null) {
+                if (line.trim().isEmpty()) {
+                    diagnostic = null;
+                    return Level.DEBUG;
+                }
+                if (!progress) {
+                    return diagnostic;
+                }
+                diagnostic = null;
+            }
+            return progress ? Level.DEBUG : Level.INFO;
+        }
+    }
+}
@@ -30,6 +30,12 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
 @Mojo(name = "test", defaultPhase = LifecyclePhase.TEST, threadSafe = true)
 public class CargoTestMojo extends CargoMojoBase {
     /**
@@ -38,17 +44,112 @@ public class CargoTestMojo extends CargoMojoBase {
     @Parameter(property = "skipTests", defaultValue = "false")
     private boolean skipTests;
 
+    /**
+     * How to run the tests:
+     * <ul>
+     *   <li>"cargo" (default): `cargo test`.</li>
+     *   <li>"nextest": `cargo nextest run`, which runs the tests in parallel
+     *   processes, if installed. Otherwise `cargo test` with libtest's JSON
+     *   output, setting `RUSTC_BOOTSTRAP=1` since this output is unstable.
+     *   Either way, a JUnit XML report with the duration of each test is
+     *   written to `reportsDirectory`.</li>
+     * </ul>
+     */
+    @Parameter(property = "testRunner", defaultValue = "cargo")
+    private String testRunner;
+
+    /**
+     * Always run the tests, even if they passed in a previous run with the
+     * same fingerprint: sources, manifests, lock files, parameters,
+     * environment and toolchain.
+     */
+    @Parameter(property = "forceTests", defaultValue = "false")
+    private boolean forceTests;
+
+    /**
+     * Where the "nextest" `testRunner` writes its `TEST-rust-<crate>.xml`
+     * reports, alongside those of the Surefire plugin by default.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/surefire-reports")
+    private String reportsDirectory;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         if (skipTests) {
             getLog().info("Skipping tests");
             return;
         }
-        final Crate crate = new Crate(
-                getCrateRoot(),
-                getTargetRootDir(),
-                getCommonCrateParams());
-        crate.setLog(getLog());
-        crate.test();
+        final Runner runner = getRunner();
+        final List<Path> crateRoots = getCrateRoots();
+        for (Path crateRoot : crateRoots) {
+            if (!hasRustChanges(crateRoot)) {
+                getLog().info("Skipping tests of " + crateRoot.getFileName() +
+                        ": no Rust changes in this incremental build");
+                continue;
+            }
+            final Crate.Params params = getCommonCrateParams();
+            params.jobs = getJobsPerCrate(1);
+            final Crate crate = new Crate(
+                    crateRoot,
+                    getCargoTargetDir(crateRoot),
+                    getStateDir(crateRoot),
+                    params,
+                    getCrateLog(crateRoot, crateRoots.size()));
+            final String fingerprint = crate.getTestFingerprint(runner.name());
+            if (!forceTests && crate.isTestUpToDate(fingerprint)) {
+                getLog().info("Skipping tests of " + crateRoot.getFileName() +
+                        ": passed in a previous run with the same inputs (" +
+                        fingerprint.substring(0, 12) + "), use -DforceTests to rerun");
+                continue;
+            }
+            crate.invalidateTestFingerprint();
+            if (runner == Runner.CARGO) {
+                crate.test();
+            } else {
+                runWithReport(crate, crateRoot, params);
+            }
+            crate.saveTestFingerprint(fingerprint);
+        }
+    }
+
+    private void runWithReport(Crate crate, Path crateRoot, Crate.Params params)
+            throws MojoExecutionException, MojoFailureException {
+        final String crateName = crateRoot.getFileName().toString();
+        final Path reportPath = project.getBasedir().toPath()
+                .resolve(reportsDirectory)
+                .resolve("TEST-rust-" + crateName + ".xml");
+        if (Toolchain.hasNextest(Cargo.getCargoPath(params), crateRoot, params.environmentVariables)) {
+            crate.nextest(reportPath);
+            return;
+        }
+        getLog().info("cargo-nextest is not installed, running cargo test with JSON output");
+        params.environmentVariables = params.environmentVariables != null
+                ? new HashMap<>(params.environmentVariables)
+                : new HashMap<>();
+        params.environmentVariables.putIfAbsent("RUSTC_BOOTSTRAP", "1");
+        final LibtestReport report = new LibtestReport(crateName, getLog());
+        try {
+            crate.test(report);
+        } finally {
+            try {
+                report.write(reportPath);
+            } catch (IOException e) {
+                getLog().warn("Failed to write " + reportPath + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private Runner getRunner() throws MojoExecutionException {
+        try {
+            return Runner.valueOf(testRunner.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(
+                    "Invalid testRunner: " + testRunner + ", expected \"cargo\" or \"nextest\"");
+        }
+    }
+
+    private enum Runner {
+        CARGO,
+        NEXTEST
     }
 }
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-unit compile durations reported by `cargo build --timings`.
+ * <p>
+ * Nightly toolchains emit them as `timing-info` JSON messages with
+ * `--timings=json`. Stable toolchains only write an HTML report,
+ * from which the embedded `UNIT_DATA` array is extracted.
+ *
+ * @see <a href="https://doc.rust-lang.org/cargo/reference/timings.html">Reporting build timings</a>
+ */
+public final class CargoTimings {
+    private static final String HTML_UNIT_DATA = "const UNIT_DATA = ";
+    private final List<Unit> units = new ArrayList<>();
+
+    /**
+     * The HTML report of the last `--timings` build into the target directory.
+     */
+    public static Path getHtmlReportPath(Path targetDir) {
+        return targetDir.resolve("cargo-timings").resolve("cargo-timing.html");
+    }
+
+    /**
+     * Collects a `timing-info` message.
+     *
+     * @return false if the message is of another kind.
+     */
+    public boolean accept(JsonObject message) {
+        if (!"timing-info".equals(getString(message, "reason"))) {
+            return false;
+        }
+        final String packageId = getString(message, "package_id");
+        final JsonObject target = message.has("target") && message.get("target").isJsonObject()
+                ? message.getAsJsonObject("target")
+                : new JsonObject();
+        final String[] nameAndVersion = parsePackageId(packageId, getString(target, "name"));
+        String targetDesc = "";
+        final JsonElement kinds = target.get("kind");
+        if (kinds != null && kinds.isJsonArray() && kinds.getAsJsonArray().size() > 0) {
+            targetDesc = kinds.getAsJsonArray().get(0).getAsString();
+        }
+        units.add(new Unit(
+                nameAndVersion[0],
+                nameAndVersion[1],
+                targetDesc,
+                getString(message, "mode"),
+                getDouble(message, "duration"),
+                getOptionalDouble(message, "rmeta_time")));
+        return true;
+    }
+
+    /**
+     * Reads the units from the HTML report written by `--timings`.
+     *
+     * @return false if the report is missing or has no unit data.
+     */
+    public boolean readHtmlReport(Path htmlPath) throws IOException {
+        if (!Files.isRegularFile(htmlPath)) {
+            return false;
+        }
+        final String html = new String(Files.readAllBytes(htmlPath), StandardCharsets.UTF_8);
+        final int start = html.indexOf(HTML_UNIT_DATA);
+        if (start == -1) {
+            return false;
+        }
+        final JsonElement data;
+        try (JsonReader reader = new JsonReader(new StringReader(
+                html.substring(start + HTML_UNIT_DATA.length())))) {
+            reader.setLenient(true);
+            data = JsonParser.parseReader(reader);
+        } catch (JsonParseException e) {
+            return false;
+        }
+        if (!data.isJsonArray()) {
+            return false;
+        }
+        for (JsonElement element : data.getAsJsonArray()) {
+            if (!element.isJsonObject()) {
+                continue;
+            }
+            final JsonObject unit = element.getAsJsonObject();
+            final String target = getString(unit, "target");
+            units.add(new Unit(
+                    getString(unit, "name"),
+                    getString(unit, "version"),
+                    target != null ? target.trim() : "",
+                    getString(unit, "mode"),
+                    getDouble(unit, "duration"),
+                    getOptionalDouble(unit, "rmeta_time")));
+        }
+        return true;
+    }
+
+    public List<Unit> getUnits() {
+        return units;
+    }
+
+    /**
+     * The `count` units that took the longest, slowest first.
+     */
+    public List<Unit> getSlowest(int count) {
+        final List<Unit> sorted = new ArrayList<>(units);
+        sorted.sort(Comparator.comparingDouble((Unit unit) -> unit.duration).reversed());
+        return sorted.subList(0, Math.min(count, sorted.size()));
+    }
+
+    /**
+     * Writes a JSON summary with all units, slowest first.
+     */
+    public void write(Path file, String crateName) throws IOException {
+        double total = 0;
+        for (Unit unit : units) {
+            total += unit.duration;
+        }
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("crate", crateName);
+        summary.put("unitCount", units.size());
+        summary.put("totalUnitSeconds", round(total));
+        summary.put("units", getSlowest(units.size()));
+
+        final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        Files.createDirectories(file.getParent());
+        final Path tmpPath = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmpPath, gson.toJson(summary).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpPath, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Logs the slowest units of one or more builds.
+     */
+    public static void logSlowest(Log log, List<Unit> units, int count) {
+        if (units.isEmpty() || count <= 0) {
+            return;
+        }
+        final List<Unit> sorted = new ArrayList<>(units);
+        sorted.sort(Comparator.comparingDouble((Unit unit) -> unit.duration).reversed());
+        log.info("Slowest compilation units:");
+        for (Unit unit : sorted.subList(0, Math.min(count, sorted.size()))) {
+            log.info(String.format(Locale.ROOT, "  %8.2fs  %s", unit.duration, unit));
+        }
+    }
+
+    /**
+     * Splits a package ID into name and version. Handles both the
+     * `name version (source)` format and the newer `source#name@version`
+     * (or `source/name#version`) package ID specs.
+     */
+    static String[] parsePackageId(String packageId, String fallbackName) {
+        if (packageId == null || packageId.isEmpty()) {
+            return new String[]{fallbackName, null};
+        }
+        final int hash = packageId.lastIndexOf('#');
+        if (hash == -1) {
+            final String[] parts = packageId.split(" ");
+            return new String[]{parts[0], parts.length > 1 ? parts[1] : null};
+        }
+        final String fragment = packageId.substring(hash + 1);
+        final int at = fragment.indexOf('@');
+        if (at != -1) {
+            return new String[]{fragment.substring(0, at), fragment.substring(at + 1)};
+        }
+        final String url = packageId.substring(0, hash);
+        final String name = url.substring(url.lastIndexOf('/') + 1);
+        return new String[]{name.isEmpty() ? fallbackName : name, fragment};
+    }
+
+    private static double round(double seconds) {
+        return Math.round(seconds * 1000) / 1000.0;
+    }
+
+    private static String getString(JsonObject object, String key) {
+        final JsonElement element = object.get(key);
+        return (element != null && element.isJsonPrimitive()) ? element.getAsString() : null;
+    }
+
+    private static Double getOptionalDouble(JsonObject object, String key) {
+        final JsonElement element = object.get(key);
+        return (element != null && element.isJsonPrimitive()) ? getDouble(object, key) : null;
+    }
+
+    private static double getDouble(JsonObject object, String key) {
+        final JsonElement element = object.get(key);
+        try {
+            return (element != null && element.isJsonPrimitive()) ? element.getAsDouble() : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * A compilation unit: one target of one package, in one mode.
+     */
+    public static final class Unit {
+        private final String name;
+        private final String version;
+        private final String target;
+        private final String mode;
+        private final double duration;
+        private final Double rmetaTime;
+
+        public Unit(
+                String name,
+                String version,
+                String target,
+                String mode,
+                double duration,
+                Double rmetaTime) {
+            this.name = name;
+            this.version = version;
+            this.target = target;
+            this.mode = mode;
+            this.duration = round(duration);
+            this.rmetaTime = rmetaTime != null ? round(rmetaTime) : null;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(String.valueOf(name));
+            if (version != null) {
+                sb.append(" v").append(version);
+            }
+            if (target != null && !target.isEmpty()) {
+                sb.append(' ').append(target);
+            }
+            if (mode != null && !mode.equals("build") && !mode.equals("todo")) {
+                sb.append(" (").append(mode).append(')');
+            }
+            return sb.toString();
+        }
+    }
+}
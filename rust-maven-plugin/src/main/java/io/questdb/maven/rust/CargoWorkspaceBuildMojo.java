@@ -0,0 +1,168 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the members of a Cargo workspace with a single cargo invocation.
+ * <p>
+ * The members share one target directory, so their common dependencies
+ * are only compiled once. Each member's artifacts are copied to its own
+ * `copyTo` directory.
+ */
+@Mojo(name = "build-workspace", defaultPhase = LifecyclePhase.COMPILE, threadSafe = true)
+public class CargoWorkspaceBuildMojo extends CargoBuildMojo {
+    /**
+     * The workspace members to build, each with an optional `copyTo` and
+     * `copyWithPlatformDir` overriding those of the goal.
+     * If unset, all members are built and copied to the goal's `copyTo`.
+     */
+    @Parameter
+    private List<WorkspaceMember> members;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final List<Path> roots = getCrateRoots();
+        if (roots.size() != 1) {
+            throw new MojoExecutionException(
+                    "The build-workspace goal takes a single workspace `path`, got: " + roots);
+        }
+        if (hasTargets()) {
+            throw new MojoExecutionException(
+                    "The build-workspace goal does not support `targets`");
+        }
+        if (hasCpuTiers()) {
+            throw new MojoExecutionException(
+                    "The build-workspace goal does not support `cpuTiers`");
+        }
+        if (getPgoMode() != Pgo.Mode.OFF) {
+            throw new MojoExecutionException(
+                    "The build-workspace goal does not support `pgo`");
+        }
+        final Path root = roots.get(0);
+        if (!hasRustChanges(root)) {
+            getLog().info("Skipping " + root.getFileName() +
+                    ": no Rust changes in this incremental build");
+            return;
+        }
+        final Workspace workspace = new Workspace(
+                root,
+                getCargoTargetDir(root),
+                getStateDir(root),
+                extractCrateParams(1));
+        workspace.setLog(getLog());
+
+        final List<Crate> crates = getMemberCrates(workspace);
+        final TargetDirLock lock = workspace.lockTargetDir();
+        try {
+            if (!isForceBuild() && isUpToDate(crates)) {
+                return;
+            }
+            for (Crate crate : crates) {
+                crate.invalidateBuildFingerprint();
+            }
+            if (isForceBuild() || !restoreFromArtifactCache(crates)) {
+                workspace.build(crates);
+                for (Crate crate : crates) {
+                    crate.publishToArtifactCache();
+                }
+            }
+            for (Crate crate : crates) {
+                crate.copyArtifacts();
+                crate.saveBuildFingerprint();
+                refreshOutput(crate.getCopyToDir());
+            }
+        } finally {
+            lock.close();
+        }
+        if (workspace.getTimings() != null) {
+            logSlowestUnits(workspace.getTimings().getUnits());
+        }
+    }
+
+    private static boolean isUpToDate(List<Crate> crates) throws MojoExecutionException {
+        for (Crate crate : crates) {
+            if (!crate.isBuildUpToDate()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cargo is skipped only if every member can be restored.
+     */
+    private static boolean restoreFromArtifactCache(List<Crate> crates)
+            throws MojoExecutionException {
+        for (Crate crate : crates) {
+            if (!crate.restoreFromArtifactCache()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<Crate> getMemberCrates(Workspace workspace) throws MojoExecutionException {
+        final Map<String, Path> available = workspace.getMembers();
+        final List<Crate> crates = new ArrayList<>();
+        if (members == null || members.isEmpty()) {
+            for (Map.Entry<String, Path> entry : available.entrySet()) {
+                crates.add(workspace.newMember(
+                        entry.getKey(), entry.getValue(), extractCrateParams(1)));
+            }
+        } else {
+            for (WorkspaceMember member : members) {
+                final Path memberRoot = available.get(member.getName());
+                if (memberRoot == null) {
+                    throw new MojoExecutionException(
+                            "Unknown workspace member " + member.getName() +
+                                    ", expected one of: " + available.keySet());
+                }
+                final Crate.Params params = extractCrateParams(1);
+                if (member.getCopyTo() != null) {
+                    params.copyToDir = resolveCopyToDir(member.getCopyTo());
+                }
+                if (member.getCopyWithPlatformDir() != null) {
+                    params.copyWithPlatformDir = member.getCopyWithPlatformDir();
+                }
+                crates.add(workspace.newMember(member.getName(), memberRoot, params));
+            }
+        }
+        if (crates.isEmpty()) {
+            throw new MojoExecutionException("The workspace has no members to build");
+        }
+        return crates;
+    }
+}
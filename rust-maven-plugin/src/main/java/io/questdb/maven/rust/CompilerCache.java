@@ -0,0 +1,405 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import io.questdb.jar.jni.PlatformConventions;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A rustc compilation cache in a local directory, injected into cargo
+ * through `RUSTC_WRAPPER`.
+ * <p>
+ * Uses `sccache` if found on the PATH, otherwise the plugin's own
+ * {@link RustcWrapper}, run through a generated launcher script.
+ */
+public final class CompilerCache {
+    private static final boolean IS_WINDOWS = System.getProperty("os.name")
+            .toLowerCase().startsWith("windows");
+
+    private final Path dir;
+    private final Tool tool;
+    private final String sccachePath;
+
+    private CompilerCache(Path dir, Tool tool, String sccachePath) {
+        this.dir = dir;
+        this.tool = tool;
+        this.sccachePath = sccachePath;
+    }
+
+    public static CompilerCache create(Path dir, Tool tool) throws MojoExecutionException {
+        final String sccachePath = tool == Tool.BUILTIN ? null : findOnPath("sccache");
+        if (tool == Tool.SCCACHE && sccachePath == null) {
+            throw new MojoExecutionException(
+                    "compilerCacheTool is \"sccache\", but sccache is not on the PATH");
+        }
+        return new CompilerCache(
+                dir,
+                sccachePath != null ? Tool.SCCACHE : Tool.BUILTIN,
+                sccachePath);
+    }
+
+    private static String findOnPath(String name) {
+        final String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        for (String entry : path.split(File.pathSeparator)) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            final Path candidate = Paths.get(entry, name + PlatformConventions.EXE_SUFFIX);
+            if (Files.isRegularFile(candidate) && Files.isExecutable(candidate)) {
+                return candidate.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts collecting statistics for one cargo command.
+     */
+    public Session start() throws MojoExecutionException {
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to create compiler cache directory " + dir +
+                            ": " + e.getMessage(), e);
+        }
+        return tool == Tool.SCCACHE ? new SccacheSession() : new BuiltinSession();
+    }
+
+    public enum Tool {
+        AUTO, SCCACHE, BUILTIN;
+
+        public static Tool parse(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * The environment and statistics of a single cargo command.
+     */
+    public abstract class Session {
+        final Map<String, String> env = new HashMap<>();
+
+        public Map<String, String> getEnvironment() {
+            return env;
+        }
+
+        /**
+         * Logs the hit rate, the bytes stored and, if known, the time saved.
+         */
+        public abstract void report(Log log);
+
+        void report(Log log, long hits, long misses, long skipped, long bytesStored, Long savedMillis) {
+            report(log, hits, misses, skipped, bytesStored, savedMillis, null);
+        }
+
+        void report(Log log, long hits, long misses, long skipped, long bytesStored, Long savedMillis,
+                    String note) {
+            final long requests = hits + misses;
+            final StringBuilder sb = new StringBuilder("Compiler cache (")
+                    .append(tool.name().toLowerCase(Locale.ROOT)).append(", ")
+                    .append(dir).append("): ")
+                    .append(hits).append(" hits, ")
+                    .append(misses).append(" misses");
+            if (requests > 0) {
+                sb.append(String.format(Locale.ROOT, " (%.0f%% hit rate)", 100.0 * hits / requests));
+            }
+            sb.append(", ").append(skipped).append(" not cacheable, ")
+                    .append(ArtifactCopier.formatBytes(bytesStored)).append(" stored");
+            if (savedMillis != null) {
+                sb.append(String.format(Locale.ROOT, ", %.1fs saved", savedMillis / 1000.0));
+            }
+            if (note != null) {
+                sb.append(" (").append(note).append(')');
+            }
+            log.info(sb.toString());
+        }
+    }
+
+    private final class BuiltinSession extends Session {
+        private final Path statsFile;
+
+        BuiltinSession() throws MojoExecutionException {
+            statsFile = dir.resolve("stats").resolve(UUID.randomUUID() + ".stats");
+            env.put("RUSTC_WRAPPER", getLauncher().toString());
+            env.put(RustcWrapper.CACHE_DIR_ENV, dir.toAbsolutePath().toString());
+            env.put(RustcWrapper.STATS_FILE_ENV, statsFile.toAbsolutePath().toString());
+            try {
+                Files.createDirectories(statsFile.getParent());
+            } catch (IOException e) {
+                throw new MojoExecutionException(
+                        "Failed to create " + statsFile.getParent() + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void report(Log log) {
+            long hits = 0;
+            long misses = 0;
+            long skipped = 0;
+            long bytes = 0;
+            long saved = 0;
+            try {
+                if (Files.isRegularFile(statsFile)) {
+                    for (String line : Files.readAllLines(statsFile, StandardCharsets.UTF_8)) {
+                        final String[] parts = line.split(" ");
+                        if (parts.length != 3) {
+                            continue;
+                        }
+                        switch (parts[0]) {
+                            case "hit":
+                                ++hits;
+                                saved += Long.parseLong(parts[2]);
+                                break;
+                            case "miss":
+                                ++misses;
+                                bytes += Long.parseLong(parts[1]);
+                                break;
+                            default:
+                                ++skipped;
+                        }
+                    }
+                }
+                Files.deleteIfExists(statsFile);
+            } catch (IOException | NumberFormatException e) {
+                log.warn("Failed to read compiler cache statistics from " + statsFile +
+                        ": " + e.getMessage());
+                return;
+            }
+            report(log, hits, misses, skipped, bytes, saved);
+        }
+    }
+
+    /**
+     * Writes (once per content) a script that runs {@link RustcWrapper}
+     * with this JVM and the plugin's jar.
+     */
+    private Path getLauncher() throws MojoExecutionException {
+        final String java = Paths.get(System.getProperty("java.home"), "bin",
+                "java" + PlatformConventions.EXE_SUFFIX).toString();
+        final String classPath;
+        try {
+            classPath = Paths.get(RustcWrapper.class.getProtectionDomain()
+                    .getCodeSource().getLocation().toURI()).toString();
+        } catch (URISyntaxException | NullPointerException e) {
+            throw new MojoExecutionException("Failed to locate the plugin's jar", e);
+        }
+        final List<String> cmd = Arrays.asList(
+                java,
+                "-XX:TieredStopAtLevel=1",
+                "-XX:+UseSerialGC",
+                "-cp",
+                classPath,
+                RustcWrapper.class.getName());
+        final String script = IS_WINDOWS
+                ? "@echo off\r\n\"" + String.join("\" \"", cmd) + "\" %*\r\n"
+                : "#!/bin/sh\nexec " + Shlex.quote(cmd) + " \"$@\"\n";
+
+        final Fingerprint fp = new Fingerprint().add("script", script);
+        final Path launcher = dir.resolve("bin").resolve(
+                "rustc-wrapper-" + fp.toHex().substring(0, 12) + (IS_WINDOWS ? ".cmd" : ".sh"));
+        if (Files.isRegularFile(launcher)) {
+            return launcher;
+        }
+        try {
+            Files.createDirectories(launcher.getParent());
+            final Path tmp = launcher.resolveSibling(launcher.getFileName() + "." + UUID.randomUUID());
+            Files.write(tmp, script.getBytes(StandardCharsets.UTF_8));
+            if (!tmp.toFile().setExecutable(true)) {
+                throw new IOException("cannot make " + tmp + " executable");
+            }
+            Files.move(tmp, launcher, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to write " + launcher + ": " + e.getMessage(), e);
+        }
+        return launcher;
+    }
+
+    private final class SccacheSession extends Session {
+        private final String before;
+
+        SccacheSession() {
+            env.put("RUSTC_WRAPPER", sccachePath);
+            env.put("SCCACHE_DIR", dir.toAbsolutePath().toString());
+            if (System.getenv("SCCACHE_SERVER_PORT") == null) {
+                // A running server keeps the `SCCACHE_DIR` it started with,
+                // so each cache directory gets a server of its own.
+                env.put("SCCACHE_SERVER_PORT", Integer.toString(serverPort(dir)));
+            }
+            before = queryStats();  // Also starts the server if needed.
+        }
+
+        @Override
+        public void report(Log log) {
+            final String after = queryStats();
+            final String location = after != null ? parseSccacheLocation(after) : null;
+            if (location != null && !location.contains(dir.toAbsolutePath().toString())) {
+                log.warn("The sccache server was started with another cache (" + location +
+                        "), `SCCACHE_DIR` only applies when it starts. " +
+                        "Run `sccache --stop-server` to use " + dir + ".");
+            }
+            final long[] start = before != null ? parseSccacheStats(before) : null;
+            final long[] end = after != null ? parseSccacheStats(after) : null;
+            if (start == null || end == null) {
+                log.info("Compiler cache (sccache, " + dir + "): statistics unavailable");
+                return;
+            }
+            report(log,
+                    end[0] - start[0],
+                    end[1] - start[1],
+                    end[2] - start[2],
+                    Math.max(0, end[3] - start[3]),
+                    null,
+                    "server-wide, including concurrent builds using the same server");
+        }
+
+        /**
+         * The sccache server's cumulative statistics as JSON, or null if
+         * unavailable.
+         */
+        private String queryStats() {
+            try {
+                final ProcessBuilder pb = new ProcessBuilder(
+                        sccachePath, "--show-stats", "--stats-format=json");
+                pb.environment().putAll(env);
+                pb.redirectError(new File(IS_WINDOWS ? "NUL" : "/dev/null"));
+                final Process process = pb.start();
+                process.getOutputStream().close();
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (InputStream is = process.getInputStream()) {
+                    final byte[] buf = new byte[4096];
+                    int read;
+                    while ((read = is.read(buf)) != -1) {
+                        out.write(buf, 0, read);
+                    }
+                }
+                if (process.waitFor() != 0) {
+                    return null;
+                }
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A port for the sccache server of a cache directory, next to sccache's
+     * default of 4226.
+     */
+    static int serverPort(Path dir) {
+        final String hex = new Fingerprint()
+                .add("dir", dir.toAbsolutePath().toString())
+                .toHex();
+        return 4227 + Integer.parseInt(hex.substring(0, 4), 16) % 100;
+    }
+
+    /**
+     * Hits, misses, non-cacheable calls and cache size, from the output of
+     * `sccache --show-stats --stats-format=json`. Returns null if unparsable.
+     */
+    static long[] parseSccacheStats(String json) {
+        try {
+            final JsonObject root = JsonParser.parseString(json).getAsJsonObject();
+            final JsonObject stats = root.getAsJsonObject("stats");
+            final JsonElement size = root.get("cache_size");
+            return new long[]{
+                    sumCounts(stats.get("cache_hits")),
+                    sumCounts(stats.get("cache_misses")),
+                    sumValues(stats.get("not_cached")),
+                    size != null && size.isJsonPrimitive() ? size.getAsLong() : 0
+            };
+        } catch (JsonParseException | IllegalStateException | ClassCastException |
+                 NullPointerException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * E.g. `Local disk: "/path/to/cache"`, or null if unavailable.
+     */
+    static String parseSccacheLocation(String json) {
+        try {
+            final JsonElement location = JsonParser.parseString(json)
+                    .getAsJsonObject().get("cache_location");
+            if (location == null || !location.isJsonPrimitive()) {
+                return null;
+            }
+            // Unescape the Rust debug formatting of Windows paths.
+            return location.getAsString().replace("\\\\", "\\");
+        } catch (JsonParseException | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sums e.g. `{"counts": {"Rust": 3, "C/C++": 1}}`.
+     */
+    private static long sumCounts(JsonElement element) {
+        if (element == null || !element.isJsonObject()) {
+            return 0;
+        }
+        return sumValues(element.getAsJsonObject().get("counts"));
+    }
+
+    private static long sumValues(JsonElement element) {
+        long sum = 0;
+        if (element != null && element.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                sum += entry.getValue().getAsLong();
+            }
+        }
+        return sum;
+    }
+}
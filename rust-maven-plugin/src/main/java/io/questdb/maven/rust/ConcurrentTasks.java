@@ -0,0 +1,111 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a list of tasks with bounded concurrency, failing fast.
+ * <p>
+ * When a task fails, the tasks still running are interrupted (which
+ * terminates their cargo processes), the ones not yet started are
+ * skipped, and the first failure is rethrown.
+ */
+public final class ConcurrentTasks {
+    private ConcurrentTasks() {
+    }
+
+    public static void run(List<Task> tasks, int concurrency)
+            throws MojoExecutionException, MojoFailureException {
+        if (tasks.size() <= 1 || concurrency <= 1) {
+            for (Task task : tasks) {
+                task.run();
+            }
+            return;
+        }
+
+        final AtomicInteger threadIndex = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(concurrency, tasks.size()),
+                runnable -> {
+                    final Thread thread = new Thread(
+                            runnable,
+                            "rust-maven-plugin-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        final CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+        try {
+            for (Task task : tasks) {
+                completion.submit(() -> {
+                    task.run();
+                    return null;
+                });
+            }
+            for (int index = 0; index < tasks.size(); ++index) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof MojoExecutionException) {
+                        throw (MojoExecutionException) cause;
+                    }
+                    if (cause instanceof MojoFailureException) {
+                        throw (MojoFailureException) cause;
+                    }
+                    throw new MojoExecutionException(
+                            "Unexpected error: " + cause.getMessage(), cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoFailureException("Interrupted", e);
+        } finally {
+            executor.shutdownNow();
+            try {
+                // Give cancelled cargo processes time to be terminated.
+                executor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Task {
+        void run() throws MojoExecutionException, MojoFailureException;
+    }
+}
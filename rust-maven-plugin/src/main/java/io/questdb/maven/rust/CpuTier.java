@@ -0,0 +1,74 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+/**
+ * A CPU tier, i.e. a variant of the binaries built for a class of CPUs, as
+ * configured for the `build` goal's `cpuTiers`.
+ */
+public class CpuTier {
+    /**
+     * The tier whose binaries are copied straight into the platform
+     * directory, as without tiers. It defaults to no extra `rustFlags`.
+     */
+    public static final String BASELINE = "baseline";
+
+    /**
+     * The tier's name, also the name of its directory under the platform
+     * directory, e.g. "x86-64-v3".
+     */
+    private String name;
+
+    /**
+     * The flags appended to `RUSTFLAGS` for the tier.
+     * Defaults to `-Ctarget-cpu=<name>`, or to none for the baseline.
+     */
+    private String[] rustFlags;
+
+    public CpuTier() {
+    }
+
+    public CpuTier(String name, String... rustFlags) {
+        this.name = name;
+        this.rustFlags = rustFlags;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isBaseline() {
+        return BASELINE.equals(name);
+    }
+
+    public String[] getRustFlags() {
+        if (rustFlags != null && rustFlags.length > 0) {
+            return rustFlags;
+        }
+        return isBaseline()
+                ? new String[0]
+                : new String[]{"-Ctarget-cpu=" + name};
+    }
+}
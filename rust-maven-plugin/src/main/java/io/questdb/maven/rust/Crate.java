@@ -26,45 +26,93 @@ package io.questdb.maven.rust;
 
 import io.questdb.jar.jni.Platform;
 import io.questdb.jar.jni.PlatformConventions;
+import io.questdb.jar.jni.RustTarget;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import org.tomlj.Toml;
-import org.tomlj.TomlArray;
 import org.tomlj.TomlInvalidTypeException;
 import org.tomlj.TomlTable;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controls running tasks on a Rust crate.
  */
 public class Crate {
+    private static final String[] FINGERPRINT_ANCESTOR_FILES = {
+            "Cargo.toml",
+            "Cargo.lock",
+            ".cargo/config",
+            ".cargo/config.toml",
+            "rust-toolchain",
+            "rust-toolchain.toml"
+    };
+
     private final Path crateRoot;
     private final Path targetDir;
+    private final Path stateDir;
     private final Params params;
-    private final TomlTable cargoToml;
+    private final CrateMetadata metadata;
     private final String packageName;
     private Log log;
+    private String fingerprint;
+    private String artifactCacheKey;
+    private List<CargoArtifact> builtArtifacts;
+    private CargoTimings timings;
+    private boolean logFileStarted;
 
     public Crate(
             Path crateRoot,
             Path targetRootDir,
             Params params) throws MojoExecutionException {
-        this.log = nullLog();
+        this(
+                crateRoot,
+                targetRootDir.resolve(crateRoot.getFileName().toString()),
+                targetRootDir.resolve(crateRoot.getFileName().toString()),
+                params);
+    }
+
+    /**
+     * @param targetDir Cargo's `--target-dir`, possibly shared with other crates.
+     * @param stateDir  Directory for the plugin's own state about this crate.
+     */
+    public Crate(
+            Path crateRoot,
+            Path targetDir,
+            Path stateDir,
+            Params params) throws MojoExecutionException {
+        this(crateRoot, targetDir, stateDir, params, nullLog());
+    }
+
+    /**
+     * @param log Also receives the messages of loading the crate's metadata.
+     */
+    public Crate(
+            Path crateRoot,
+            Path targetDir,
+            Path stateDir,
+            Params params,
+            Log log) throws MojoExecutionException {
+        this.log = log;
         this.crateRoot = crateRoot;
-        this.targetDir = targetRootDir.resolve(getDirName());
+        this.targetDir = targetDir;
+        this.stateDir = stateDir;
         this.params = params;
 
         final Path tomlPath = crateRoot.resolve("Cargo.toml");
@@ -72,24 +120,8 @@ public class Crate {
             throw new MojoExecutionException(
                     "Cargo.toml file expected under: " + crateRoot);
         }
-        try {
-            this.cargoToml = Toml.parse(tomlPath);
-        } catch (IOException e) {
-            throw new MojoExecutionException(
-                    "Failed to parse Cargo.toml file: " + e.getMessage());
-        }
-
-        try {
-            packageName = cargoToml.getString("package.name");
-            if (packageName == null) {
-                throw new MojoExecutionException(
-                        "Missing required `package.name` from Cargo.toml file");
-            }
-        } catch (TomlInvalidTypeException e) {
-            throw new MojoExecutionException(
-                    "Failed to extract `package.name` from Cargo.toml file: " +
-                            e.getMessage());
-        }
+        this.metadata = CrateMetadata.load(crateRoot, stateDir, params, log);
+        this.packageName = metadata.getPackageName();
     }
 
     public static String pinLibName(String name) {
@@ -182,316 +214,984 @@ public class Crate {
         return crateRoot.getFileName().toString();
     }
 
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public Path getManifestPath() {
+        return crateRoot.resolve("Cargo.toml");
+    }
+
     private String getProfile() {
         return params.release ? "release" : "debug";
     }
 
     public boolean hasCdylib() {
-        try {
-            TomlArray crateTypes = getCrateTypes();
-            if (crateTypes == null) {
-                return false;
-            }
+        return metadata.getCdylibName() != null;
+    }
 
-            for (int index = 0; index < crateTypes.size(); index++) {
-                String crateType = crateTypes.getString(index);
-                if ((crateType != null) && crateType.equals("cdylib")) {
-                    return true;
-                }
+    /**
+     * The paths of the cdylib and bin artifacts.
+     * <p>
+     * After `build()`, these are the files reported by cargo.
+     * Otherwise, they are derived from `Cargo.toml`.
+     */
+    public List<Path> getArtifactPaths() throws MojoExecutionException {
+        if (builtArtifacts != null) {
+            final List<Path> paths = new ArrayList<>();
+            for (CargoArtifact artifact : builtArtifacts) {
+                paths.add(artifact.getPath());
             }
-
-            return false;
-        } catch (TomlInvalidTypeException e) {
-            return false;
+            return paths;
         }
+        return getExpectedArtifactPaths();
     }
 
-    private TomlArray getCrateTypes() {
-        TomlArray crateTypes = cargoToml.getArray("lib.crate-type");
-        if (crateTypes == null) {
-            String crateTypeLegacyKey = "lib.crate_type";
-            return cargoToml.getArray(crateTypeLegacyKey);
+    private List<Path> getExpectedArtifactPaths() throws MojoExecutionException {
+        List<Path> paths = new ArrayList<>();
+        final RustTarget target = getRustTarget();
+
+        // Cross-compiled artifacts are nested under the target triple.
+        Path profileDir = targetDir;
+        if (target != null) {
+            profileDir = profileDir.resolve(target.getTriple());
+        }
+        profileDir = profileDir.resolve(getProfile());
+
+        final String libName = metadata.getCdylibName();
+        if (libName != null) {
+            final Path libPath = profileDir.resolve(target != null
+                    ? target.getLibPrefix() + libName.replace('-', '_') + target.getLibSuffix()
+                    : pinLibName(libName));
+            paths.add(libPath);
         }
-        return crateTypes;
+
+        for (String binName : metadata.getBinNames()) {
+            final Path binPath = profileDir.resolve(target != null
+                    ? binName + target.getExeSuffix()
+                    : pinBinName(binName));
+            paths.add(binPath);
+        }
+
+        return paths;
     }
 
-    private String getCdylibName() throws MojoExecutionException {
-        String name;
+    /**
+     * The target to cross-compile for, or null for the host.
+     */
+    private RustTarget getRustTarget() throws MojoExecutionException {
+        if (params.target == null) {
+            return null;
+        }
         try {
-            name = cargoToml.getString("lib.name");
-        } catch (TomlInvalidTypeException e) {
-            throw new MojoExecutionException(
-                    "Failed to extract `lib.name` from Cargo.toml file: " +
-                            e.getMessage());
+            return RustTarget.parse(params.target);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
         }
+    }
 
-        // The name might be missing, but the lib section might be present.
-        if ((name == null) && hasCdylib()) {
-            name = packageName;
+    private String getLibSuffix() throws MojoExecutionException {
+        final RustTarget target = getRustTarget();
+        return target != null ? target.getLibSuffix() : PlatformConventions.LIB_SUFFIX;
+    }
+
+    /**
+     * Locks the cargo target directory, which may be shared with other
+     * modules, for the duration of a build and the copying of its artifacts.
+     */
+    public TargetDirLock lockTargetDir() throws MojoExecutionException, MojoFailureException {
+        return TargetDirLock.acquire(targetDir, log);
+    }
+
+    private Cargo cargo() {
+        final Cargo cargo = new Cargo(params, crateRoot, targetDir, log);
+        cargo.setLogFile(Cargo.getLogFile(getStateDir(), params), logFileStarted);
+        logFileStarted = true;
+        return cargo;
+    }
+
+    /**
+     * Runs `cargo build`.
+     * <p>
+     * Unless the message format is overridden via `extraArgs`, the exact
+     * artifact paths are then taken from cargo's JSON messages rather
+     * than being derived from `Cargo.toml`.
+     */
+    public void build() throws MojoExecutionException, MojoFailureException {
+        final Cargo cargo = cargo();
+        List<String> args = new ArrayList<>();
+        args.add("build");
+        cargo.addCommonArgs(args);
+        final boolean jsonTimings = cargo.addTimingsArgs(args);
+        builtArtifacts = null;
+        timings = params.timings ? new CargoTimings() : null;
+        if (cargo.hasMessageFormatArg()) {
+            cargo.run(args);
+        } else {
+            args.add("--message-format=json-render-diagnostics");
+            final CargoMessages messages = new CargoMessages(timings, getLibSuffix());
+            cargo.run(args, messages::accept);
+            setBuiltArtifacts(messages.getArtifacts(getManifestPath()));
         }
+        if (timings != null) {
+            cargo.saveTimings(timings, jsonTimings, getStateDir(), packageName);
+        }
+    }
 
-        return name;
+    /**
+     * The timings of the last `build()`, if enabled via `Params.timings`.
+     */
+    public CargoTimings getTimings() {
+        return timings;
     }
 
-    private List<String> getBinNames() throws MojoExecutionException {
-        final List<String> binNames = new java.util.ArrayList<>();
+    /**
+     * Sets the artifacts reported by cargo, e.g. by a workspace build.
+     * Null means they are derived from `Cargo.toml` instead.
+     */
+    void setBuiltArtifacts(List<CargoArtifact> artifacts) {
+        builtArtifacts = artifacts;
+        if (artifacts != null) {
+            for (CargoArtifact artifact : artifacts) {
+                log.debug("Artifact: " + artifact);
+            }
+        }
+    }
+
+    /**
+     * Runs `cargo check`, which type-checks the crate without generating
+     * code or linking, so no artifacts are produced.
+     * <p>
+     * Unless the message format is overridden via `extraArgs`, the compiler
+     * diagnostics are passed to `diagnostics` as cargo reports them.
+     */
+    public void check(CargoDiagnostics diagnostics)
+            throws MojoExecutionException, MojoFailureException {
+        final Cargo cargo = cargo();
+        List<String> args = new ArrayList<>();
+        args.add("check");
+        cargo.addCommonArgs(args);
+        if (cargo.hasMessageFormatArg()) {
+            cargo.run(args);
+        } else {
+            args.add("--message-format=json");
+            cargo.run(args, diagnostics::accept);
+        }
+    }
+
+    public void test() throws MojoExecutionException, MojoFailureException {
+        final Cargo cargo = cargo();
+        List<String> args = new ArrayList<>();
+        args.add("test");
+        cargo.addCommonArgs(args);
+        cargo.run(args);
+    }
 
-        String defaultBin = null;
-        if (Files.exists(crateRoot.resolve("src").resolve("main.rs"))) {
-            // Expecting default bin, given that there's no lib.
-            defaultBin = packageName;
-            binNames.add(defaultBin);
+    /**
+     * Runs `cargo test` with libtest's JSON output, which requires a
+     * nightly toolchain or `RUSTC_BOOTSTRAP=1` in the environment.
+     */
+    public void test(LibtestReport report) throws MojoExecutionException, MojoFailureException {
+        final Cargo cargo = cargo();
+        List<String> args = new ArrayList<>();
+        args.add("test");
+        cargo.addCommonArgs(args);
+        if (!args.contains("--")) {
+            args.add("--");
         }
+        Collections.addAll(args, "-Z", "unstable-options", "--format", "json", "--report-time");
+        cargo.run(args, report::accept);
+    }
 
-        TomlArray bins;
+    /**
+     * Runs `cargo nextest run`, which runs each test in its own process,
+     * in parallel, and copies its JUnit report to `junitFile`, even if
+     * tests failed.
+     */
+    public void nextest(Path junitFile) throws MojoExecutionException, MojoFailureException {
+        final String profile = "rust-maven-plugin";
+        final Path configPath = getStateDir().resolve("nextest.toml");
         try {
-            bins = cargoToml.getArray("bin");
-        } catch (TomlInvalidTypeException e) {
+            Files.createDirectories(configPath.getParent());
+            Files.write(configPath, ("[profile." + profile + ".junit]\n" +
+                    "path = \"junit.xml\"\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
             throw new MojoExecutionException(
-                    "Failed to extract `bin`s from Cargo.toml file: " +
-                            e.getMessage());
+                    "Failed to write " + configPath + ": " + e.getMessage(), e);
         }
+        final Path reportPath = targetDir.resolve("nextest").resolve(profile).resolve("junit.xml");
+        final Cargo cargo = cargo();
+        List<String> args = new ArrayList<>();
+        args.add("nextest");
+        args.add("run");
+        args.add("--tool-config-file");
+        args.add(profile + ":" + configPath.toAbsolutePath());
+        args.add("--profile");
+        args.add(profile);
+        cargo.addNextestArgs(args);
+        try {
+            Files.deleteIfExists(reportPath);
+            cargo.run(args);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to delete " + reportPath + ": " + e.getMessage(), e);
+        } finally {
+            if (Files.exists(reportPath)) {
+                try {
+                    Files.createDirectories(junitFile.getParent());
+                    Files.copy(reportPath, junitFile, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    log.warn("Failed to copy " + reportPath + ": " + e.getMessage());
+                }
+            }
+        }
+    }
 
-        if (bins == null) {
-            return binNames;
+    /**
+     * Runs `cargo bench`. `release` is ignored: benchmarks always use
+     * cargo's `bench` profile.
+     */
+    public void bench() throws MojoExecutionException, MojoFailureException {
+        final Cargo cargo = cargo();
+        List<String> args = new ArrayList<>();
+        args.add("bench");
+        // `cargo bench` uses the bench profile, which `--release` would override.
+        cargo.addCommonArgs(args, false);
+        cargo.run(args);
+    }
+
+    private Path resolveCopyToDir() throws MojoExecutionException {
+
+        Path copyToDir = params.copyToDir;
+
+        if (copyToDir == null) {
+            return null;
         }
 
-        for (int index = 0; index < bins.size(); ++index) {
-            final TomlTable bin = bins.getTable(index);
-            if (bin == null) {
-                throw new MojoExecutionException(
-                        "Failed to extract `bin`s from Cargo.toml file: " +
-                                "expected a `bin` table at index " + index);
+        if (params.copyWithPlatformDir) {
+            final RustTarget target = getRustTarget();
+            copyToDir = copyToDir.resolve(target != null
+                    ? target.getResourcePrefix()
+                    : Platform.RESOURCE_PREFIX);
+            if (params.cpuTier != null) {
+                copyToDir = copyToDir.resolve(params.cpuTier);
             }
+        }
 
-            String name;
+        if (!Files.exists(copyToDir, LinkOption.NOFOLLOW_LINKS)) {
             try {
-                name = bin.getString("name");
-            } catch (TomlInvalidTypeException e) {
+                Files.createDirectories(copyToDir);
+            } catch (IOException e) {
                 throw new MojoExecutionException(
-                        "Failed to extract `bin`s from Cargo.toml file: " +
-                                "expected a string at index " + index + " `name` key");
+                        "Failed to create directory " + copyToDir +
+                                ": " + e.getMessage(), e);
             }
+        }
 
-            if (name == null) {
-                throw new MojoExecutionException(
-                        "Failed to extract `bin`s from Cargo.toml file: " +
-                                "missing `name` key at `bin` with index " + index);
-            }
+        if (!Files.isDirectory(copyToDir)) {
+            throw new MojoExecutionException(copyToDir + " is not a directory");
+        }
+        return copyToDir;
+    }
+
+    /**
+     * The directory that `copyArtifacts()` copies to, including the
+     * platform directory if enabled, or null if not copying.
+     */
+    public Path getCopyToDir() throws MojoExecutionException {
+        return resolveCopyToDir();
+    }
+
+    public void copyArtifacts() throws MojoExecutionException {
+        // Cargo nightly has support for `--out-dir`
+        // which allows us to copy the artifacts directly to the desired path.
+        // Once the feature is stabilized, copy the artifacts directly via:
+        // args.add("--out-dir")
+        // args.add(resolveCopyToDir());
+        final Path copyToDir = resolveCopyToDir();
+        if (copyToDir == null) {
+            return;
+        }
+        final List<Path> artifactPaths = getArtifactPaths();
+        log.info(
+                "Copying " + getDirName() +
+                        "'s artifacts to " + Shlex.quote(
+                        copyToDir.toAbsolutePath().toString()));
 
-            String path;
+        final ArtifactCopier copier = new ArtifactCopier(params.copyMode);
+        final String libSuffix = getLibSuffix();
+        for (Path artifactPath : artifactPaths) {
+            final Path fileName = artifactPath.getFileName();
+            final Path destPath = copyToDir.resolve(fileName);
+            // Only the libraries that `JarJniLoader` loads need a checksum.
+            final boolean isLibrary = fileName.toString().endsWith(libSuffix);
+            if (params.compression != ArtifactCopier.Compression.NONE) {
+                compressArtifact(copier, artifactPath, destPath);
+                continue;
+            }
+            deleteCompressedCopies(destPath);
+            if (isFresh(artifactPath) && isCopyCurrent(artifactPath, destPath)) {
+                copier.skipped(destPath);
+                if (isLibrary) {
+                    writeChecksum(destPath, false);
+                }
+                log.info("Unchanged " + Shlex.quote(fileName.toString()) +
+                        ": not rebuilt by cargo");
+                continue;
+            }
+            final boolean written;
             try {
-                path = bin.getString("path");
-            } catch (TomlInvalidTypeException e) {
+                written = copier.copy(artifactPath, destPath);
+            } catch (IOException e) {
                 throw new MojoExecutionException(
-                        "Failed to extract `bin`s from Cargo.toml file: " +
-                                "expected a string at index " + index + " `path` key");
+                        "Failed to copy " + artifactPath +
+                                " to " + copyToDir + ":" + e.getMessage());
             }
+            if (isLibrary) {
+                writeChecksum(destPath, written);
+            }
+            log.info((written ? "Copied " : "Unchanged ") +
+                    Shlex.quote(fileName.toString()));
+        }
+        log.info("Artifacts " + copier.getSummary());
+    }
 
-            // Handle special case where the default bin is renamed.
-            if ((path != null) && path.equals("src/main.rs")) {
-                defaultBin = name;
-                binNames.remove(0);
-                binNames.add(0, defaultBin);
+    /**
+     * Stores the artifact compressed as `<artifact>.xz`, next to the
+     * checksum of the uncompressed artifact, which tells whether the
+     * compressed copy is current. Compressing is slow, so an unchanged
+     * artifact is not compressed again.
+     */
+    private void compressArtifact(ArtifactCopier copier, Path artifactPath, Path destPath)
+            throws MojoExecutionException {
+        final String fileName = destPath.getFileName().toString();
+        final Path compressedPath = destPath.resolveSibling(
+                fileName + params.compression.getSuffix());
+        final Path checksumPath = getChecksumPath(destPath);
+        try {
+            // `JarJniLoader` prefers an uncompressed library.
+            Files.deleteIfExists(destPath);
+            final boolean exists = Files.isRegularFile(compressedPath) &&
+                    Files.isRegularFile(checksumPath);
+            if (exists && isFresh(artifactPath) &&
+                    fileModified(compressedPath) >= fileModified(artifactPath)) {
+                copier.skipped(compressedPath);
+                log.info("Unchanged " + Shlex.quote(compressedPath.getFileName().toString()) +
+                        ": not rebuilt by cargo");
+                return;
+            }
+            final String sha256 = Fingerprint.sha256(artifactPath);
+            if (exists && readChecksum(checksumPath).equals(sha256)) {
+                copier.skipped(compressedPath);
+                log.info("Unchanged " + Shlex.quote(compressedPath.getFileName().toString()));
+                return;
             }
+            copier.compress(artifactPath, compressedPath, params.compression);
+            writeChecksum(checksumPath, sha256, fileName);
+            log.info("Compressed " + Shlex.quote(fileName) + " to " +
+                    ArtifactCopier.formatBytes(Files.size(compressedPath)) + " from " +
+                    ArtifactCopier.formatBytes(Files.size(artifactPath)));
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to compress " + artifactPath +
+                            " to " + compressedPath + ": " + e.getMessage(), e);
+        }
+    }
 
-            // This `[[bin]]` entry just configures the default bin.
-            // It's already been added.
-            if (!name.equals(defaultBin)) {
-                binNames.add(name);
+    /**
+     * Removes compressed copies left by an earlier build with `compressArtifacts`.
+     */
+    private static void deleteCompressedCopies(Path destPath) throws MojoExecutionException {
+        for (ArtifactCopier.Compression compression : ArtifactCopier.Compression.values()) {
+            if (compression == ArtifactCopier.Compression.NONE) {
+                continue;
+            }
+            final Path compressedPath = destPath.resolveSibling(
+                    destPath.getFileName() + compression.getSuffix());
+            try {
+                Files.deleteIfExists(compressedPath);
+            } catch (IOException e) {
+                throw new MojoExecutionException(
+                        "Failed to delete " + compressedPath + ": " + e.getMessage(), e);
             }
         }
+    }
 
-        return binNames;
+    private static Path getChecksumPath(Path artifactPath) {
+        return artifactPath.resolveSibling(artifactPath.getFileName() + ".sha256");
     }
 
-    public List<Path> getArtifactPaths() throws MojoExecutionException {
-        List<Path> paths = new ArrayList<>();
-        final String profile = getProfile();
+    /**
+     * The hash in a `sha256sum`-style checksum file, or "" if unreadable.
+     */
+    private static String readChecksum(Path checksumPath) {
+        try {
+            final String line = new String(Files.readAllBytes(checksumPath), StandardCharsets.UTF_8);
+            final int end = line.indexOf(' ');
+            return end == -1 ? "" : line.substring(0, end);
+        } catch (IOException e) {
+            return "";
+        }
+    }
 
-        final String libName = getCdylibName();
-        if (libName != null) {
-            final Path libPath = targetDir
-                    .resolve(profile)
-                    .resolve(pinLibName(libName));
-            paths.add(libPath);
+    /**
+     * Writes `<artifact>.sha256` next to a copied library, as `sha256sum`
+     * would. `JarJniLoader` reads it to find the library in its extraction
+     * cache without hashing the library first.
+     *
+     * @param force Rewrite an existing checksum, as the artifact changed.
+     */
+    private static void writeChecksum(Path artifactPath, boolean force)
+            throws MojoExecutionException {
+        final Path checksumPath = getChecksumPath(artifactPath);
+        if (!force && Files.isRegularFile(checksumPath)) {
+            return;
         }
+        try {
+            writeChecksum(checksumPath, Fingerprint.sha256(artifactPath),
+                    artifactPath.getFileName().toString());
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to write " + checksumPath + ": " + e.getMessage(), e);
+        }
+    }
 
-        for (String binName : getBinNames()) {
-            final Path binPath = targetDir
-                    .resolve(profile)
-                    .resolve(pinBinName(binName));
-            paths.add(binPath);
+    private static void writeChecksum(Path checksumPath, String sha256, String fileName)
+            throws IOException {
+        final String line = sha256 + "  " + fileName + "\n";
+        final Path tmpPath = checksumPath.resolveSibling(checksumPath.getFileName() + ".tmp");
+        Files.write(tmpPath, line.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpPath, checksumPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * True if the copy exists, has the same size and is newer than the artifact.
+     */
+    private static boolean isCopyCurrent(Path artifactPath, Path destPath) {
+        return Files.exists(destPath) &&
+                fileSize(destPath) == fileSize(artifactPath) &&
+                fileModified(destPath) >= fileModified(artifactPath);
+    }
+
+    /**
+     * True if the last `build()` reported the artifact as not rebuilt.
+     */
+    private boolean isFresh(Path artifactPath) {
+        if (builtArtifacts == null) {
+            return false;
+        }
+        for (CargoArtifact artifact : builtArtifacts) {
+            if (artifact.getPath().equals(artifactPath)) {
+                return artifact.isFresh();
+            }
         }
+        return false;
+    }
 
-        return paths;
+    /**
+     * Directory for the plugin's own per-crate state, such as fingerprints.
+     */
+    private Path getStateDir() {
+        return stateDir;
     }
 
-    private String getCargoPath() {
-        String path = params.cargoPath;
+    private Path getFingerprintPath() {
+        return getStateDir().resolve("build.fingerprint");
+    }
 
-        final boolean isWindows = System.getProperty("os.name")
-                .toLowerCase().startsWith("windows");
+    /**
+     * Computes a digest of everything that may affect the outcome of
+     * `cargo build`: manifests, lock files, cargo configuration, the source
+     * trees of the crate and of its path dependencies, the build parameters,
+     * the environment and the toolchain version.
+     * <p>
+     * Paths are hashed relative to the crate root, so moving a checkout does
+     * not change the fingerprint.
+     */
+    public String getFingerprint() throws MojoExecutionException {
+        if (fingerprint == null) {
+            fingerprint = computeFingerprint(true);
+        }
+        return fingerprint;
+    }
 
-        // Expand "~" to user's home directory.
-        // This works around a limitation of ProcessBuilder.
-        if (!isWindows && path.startsWith("~/")) {
-            path = System.getProperty("user.home") + path.substring(1);
+    /**
+     * Like `getFingerprint()`, but without the copy settings, which don't
+     * affect what cargo builds and include the absolute `copyToDir`.
+     * Identical checkouts in different locations share this key.
+     */
+    public String getArtifactCacheKey() throws MojoExecutionException {
+        if (artifactCacheKey == null) {
+            artifactCacheKey = computeFingerprint(false);
         }
+        return artifactCacheKey;
+    }
 
-        return path;
+    private String computeFingerprint(boolean withCopySettings) throws MojoExecutionException {
+        final Fingerprint fp = new Fingerprint();
+        try {
+            final Path root = crateRoot.toAbsolutePath().normalize();
+            final Set<Path> sourceDirs = getSourceDirs(root, metadata.getToml());
+
+            final Path stateDir = getStateDir().toAbsolutePath().normalize();
+            final Path absTargetDir = targetDir.toAbsolutePath().normalize();
+            for (Path sourceDir : sourceDirs) {
+                fp.addTree(
+                        relativeKey(root, sourceDir),
+                        sourceDir,
+                        dir -> isIgnoredSourceDir(sourceDir, dir, stateDir, absTargetDir));
+            }
+
+            for (Path file : getAncestorInputs(root)) {
+                if (Files.isRegularFile(file)) {
+                    fp.addFile(relativeKey(root, file), file);
+                }
+            }
+            final Path cargoHome = getCargoHome();
+            fp.addFile("$CARGO_HOME/config", cargoHome.resolve("config"));
+            fp.addFile("$CARGO_HOME/config.toml", cargoHome.resolve("config.toml"));
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to compute fingerprint of " + crateRoot +
+                            ": " + e.getMessage(), e);
+        }
+
+        fp.add("verbosity", params.verbosity);
+        fp.add("environmentVariables", params.environmentVariables);
+        fp.add("cargoPath", params.cargoPath);
+        fp.add("release", params.release);
+        fp.add("target", params.target);
+        // `params.jobs`, `params.timings`, `params.executionId`,
+        // `params.maxLogLinesPerSecond` and the compiler cache settings
+        // are left out: they do not affect the build output.
+        fp.add("features", params.cleanedFeatures());
+        fp.add("allFeatures", params.allFeatures);
+        fp.add("noDefaultFeatures", params.noDefaultFeatures);
+        fp.add("tests", params.tests);
+        fp.add("extraArgs", params.extraArgs);
+        fp.add("rustFlags", params.rustFlags);
+        // The `-Cprofile-use` path is in `rustFlags`, but not its contents.
+        if (params.pgoProfile != null) {
+            try {
+                fp.addFile("pgoProfile", params.pgoProfile);
+            } catch (IOException e) {
+                throw new MojoExecutionException(
+                        "Failed to read " + params.pgoProfile + ": " + e.getMessage(), e);
+            }
+        }
+        if (withCopySettings) {
+            fp.add("copyToDir", params.copyToDir);
+            fp.add("copyWithPlatformDir", params.copyWithPlatformDir);
+            fp.add("copyMode", params.copyMode);
+            fp.add("compression", params.compression);
+            fp.add("cpuTier", params.cpuTier);
+        }
+        fp.add("processEnvironment", getFingerprintedProcessEnv());
+        fp.add("toolchain", Toolchain.describe(
+                Cargo.getCargoPath(params), crateRoot, params.environmentVariables));
+        return fp.toHex();
+    }
+
+    /**
+     * The crate's directory followed by those of its `path` dependencies,
+     * recursively.
+     */
+    static Set<Path> getSourceDirs(Path root, TomlTable manifest) throws IOException {
+        final Set<Path> sourceDirs = new LinkedHashSet<>();
+        sourceDirs.add(root);
+        collectPathDependencies(root, manifest, sourceDirs);
+        return sourceDirs;
     }
 
-    private void runCommand(List<String> args)
-            throws IOException, InterruptedException, MojoExecutionException {
-        final ProcessBuilder processBuilder = new ProcessBuilder(args);
-        processBuilder.redirectErrorStream(true);
-        processBuilder.environment().putAll(params.environmentVariables);
+    /**
+     * The files in the parent directories of the crate that apply to it,
+     * whether they exist or not: workspace manifests, lock files, cargo
+     * configuration and toolchain overrides.
+     */
+    static List<Path> getAncestorInputs(Path root) {
+        final List<Path> files = new ArrayList<>();
+        for (Path dir = root.getParent(); dir != null; dir = dir.getParent()) {
+            for (String name : FINGERPRINT_ANCESTOR_FILES) {
+                files.add(dir.resolve(name));
+            }
+        }
+        return files;
+    }
 
-        // Set the current working directory for the cargo command.
-        processBuilder.directory(crateRoot.toFile());
-        final Process process = processBuilder.start();
-        Executors.newSingleThreadExecutor().submit(() ->
-                new BufferedReader(new InputStreamReader(process.getInputStream()))
-                        .lines()
-                        .forEach(log::info));
+    private static String relativeKey(Path root, Path path) {
+        final String rel = root.relativize(path).toString().replace('\\', '/');
+        return rel.isEmpty() ? "." : rel;
+    }
 
-        final int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            throw new MojoExecutionException(
-                    "Cargo command failed with exit code " + exitCode);
+    private static boolean isIgnoredSourceDir(
+            Path sourceDir,
+            Path dir,
+            Path stateDir,
+            Path targetDir) {
+        final String name = dir.getFileName().toString();
+        if (name.startsWith(".") && !name.equals(".cargo")) {
+            return true;  // .git, .idea, etc.
+        }
+        if (dir.equals(sourceDir.resolve("target"))) {
+            return true;
+        }
+        final Path absDir = dir.toAbsolutePath().normalize();
+        return absDir.equals(stateDir) || absDir.equals(targetDir);
+    }
+
+    private static Path getCargoHome() {
+        final String cargoHome = System.getenv("CARGO_HOME");
+        if (cargoHome != null && !cargoHome.isEmpty()) {
+            return Paths.get(cargoHome);
         }
+        return Paths.get(System.getProperty("user.home"), ".cargo");
     }
 
-    private void cargo(List<String> args) throws MojoExecutionException, MojoFailureException {
-        String cargoPath = getCargoPath();
-        final List<String> cmd = new ArrayList<>();
-        cmd.add(cargoPath);
-        cmd.addAll(args);
-        log.info("Working directory: " + crateRoot);
-        if (!params.environmentVariables.isEmpty()) {
-            log.info("Environment variables:");
-            for (String key : params.environmentVariables.keySet()) {
-                log.info("  " + key + "=" + Shlex.quote(
-                        params.environmentVariables.get(key)));
+    /**
+     * The subset of the Maven process environment inherited by cargo that
+     * may influence its output: cargo and rustc settings, C toolchain
+     * settings used by build scripts, and the JDK used by JNI build scripts.
+     */
+    private static Map<String, String> getFingerprintedProcessEnv() {
+        final Map<String, String> env = new TreeMap<>();
+        for (Map.Entry<String, String> entry : System.getenv().entrySet()) {
+            final String key = entry.getKey();
+            final String upper = key.toUpperCase();
+            if (upper.startsWith("CARGO") ||
+                    upper.startsWith("RUST") ||
+                    upper.equals("CC") ||
+                    upper.equals("CXX") ||
+                    upper.equals("AR") ||
+                    upper.equals("CFLAGS") ||
+                    upper.equals("CXXFLAGS") ||
+                    upper.equals("LDFLAGS") ||
+                    upper.equals("JAVA_HOME")) {
+                env.put(key, entry.getValue());
             }
         }
-        log.info("Running: " + Shlex.quote(cmd));
-        try {
-            runCommand(cmd);
-        } catch (IOException | InterruptedException e) {
-            CargoInstalledChecker.INSTANCE.check(cargoPath);
-            throw new MojoFailureException("Failed to invoke cargo", e);
+        return env;
+    }
+
+    /**
+     * Recursively collects the directories of `path = "..."` dependencies.
+     */
+    private static void collectPathDependencies(
+            Path manifestDir,
+            TomlTable manifest,
+            Set<Path> found) throws IOException {
+        final List<TomlTable> depTables = new ArrayList<>();
+        for (String key : new String[]{
+                "dependencies",
+                "dev-dependencies",
+                "build-dependencies",
+                "workspace.dependencies"}) {
+            addTable(manifest, key, depTables);
+        }
+        final TomlTable targets = getTable(manifest, "target");
+        if (targets != null) {
+            for (String cfg : targets.keySet()) {
+                final TomlTable target = getTable(targets, Collections.singletonList(cfg));
+                if (target == null) {
+                    continue;
+                }
+                addTable(target, "dependencies", depTables);
+                addTable(target, "dev-dependencies", depTables);
+                addTable(target, "build-dependencies", depTables);
+            }
+        }
+
+        for (TomlTable deps : depTables) {
+            for (String name : deps.keySet()) {
+                final TomlTable dep = getTable(deps, Collections.singletonList(name));
+                if (dep == null) {
+                    continue;
+                }
+                final Object depPath = dep.get(Collections.singletonList("path"));
+                if (!(depPath instanceof String)) {
+                    continue;
+                }
+                final Path depDir = manifestDir.resolve((String) depPath).normalize();
+                if (!found.add(depDir)) {
+                    continue;
+                }
+                final Path depManifest = depDir.resolve("Cargo.toml");
+                if (Files.isRegularFile(depManifest)) {
+                    collectPathDependencies(depDir, Toml.parse(depManifest), found);
+                }
+            }
         }
     }
 
-    private void addCargoArgs(List<String> args) {
-        if (params.verbosity != null) {
-            args.add(params.verbosity);
+    private static void addTable(TomlTable parent, String dottedKey, List<TomlTable> tables) {
+        final TomlTable table = getTable(parent, dottedKey);
+        if (table != null) {
+            tables.add(table);
         }
+    }
 
-        args.add("--target-dir");
-        args.add(targetDir.toAbsolutePath().toString());
+    private static TomlTable getTable(TomlTable parent, String dottedKey) {
+        try {
+            return parent.getTable(dottedKey);
+        } catch (TomlInvalidTypeException | IllegalArgumentException e) {
+            return null;
+        }
+    }
 
-        if (params.release) {
-            args.add("--release");
+    private static TomlTable getTable(TomlTable parent, List<String> path) {
+        try {
+            return parent.getTable(path);
+        } catch (TomlInvalidTypeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Restores the artifacts of an identical earlier build, possibly of
+     * another checkout, from `Params.artifactCacheDir` into the cargo target
+     * directory, in place of `build()`.
+     *
+     * @return false if caching is disabled or there is no matching entry.
+     */
+    public boolean restoreFromArtifactCache() throws MojoExecutionException {
+        if (params.artifactCacheDir == null) {
+            return false;
+        }
+        final String key = getArtifactCacheKey();
+        final List<CargoArtifact> artifacts;
+        try {
+            artifacts = new ArtifactCache(params.artifactCacheDir, log)
+                    .restore(key, targetDir, getManifestPath());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to restore " + getDirName() +
+                    " from the artifact cache: " + e.getMessage());
+            return false;
+        }
+        if (artifacts == null) {
+            log.info("Artifact cache miss for " + getDirName() +
+                    " (" + key.substring(0, 12) + ")");
+            return false;
         }
+        log.info("Artifact cache hit for " + getDirName() +
+                " (" + key.substring(0, 12) + "): skipping cargo build");
+        timings = null;
+        setBuiltArtifacts(artifacts);
+        return true;
+    }
 
-        if (params.allFeatures) {
-            args.add("--all-features");
+    /**
+     * Stores the artifacts of the last `build()` in `Params.artifactCacheDir`.
+     * Failures only log a warning: the cache is an optimisation.
+     */
+    public void publishToArtifactCache() throws MojoExecutionException {
+        if (params.artifactCacheDir == null) {
+            return;
+        }
+        final List<CargoArtifact> artifacts = new ArrayList<>();
+        if (builtArtifacts != null) {
+            artifacts.addAll(builtArtifacts);
+        } else {
+            final String libSuffix = getLibSuffix();
+            for (Path path : getExpectedArtifactPaths()) {
+                artifacts.add(new CargoArtifact(
+                        path,
+                        getManifestPath(),
+                        path.getFileName().toString().endsWith(libSuffix) ? "cdylib" : "bin",
+                        false));
+            }
         }
+        try {
+            final ArtifactCache cache = new ArtifactCache(params.artifactCacheDir, log);
+            if (cache.publish(getArtifactCacheKey(), targetDir, artifacts)) {
+                cache.evict(params.artifactCacheMaxBytes,
+                        TimeUnit.DAYS.toMillis(params.artifactCacheMaxAgeDays),
+                        getArtifactCacheKey());
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to store " + getDirName() +
+                    "'s artifacts in the artifact cache: " + e.getMessage());
+        }
+    }
 
-        if (params.noDefaultFeatures) {
-            args.add("--no-default-features");
+    /**
+     * Checks whether a previous build with the same fingerprint produced
+     * artifacts (and copies of them) that are still unchanged on disk.
+     * <p>
+     * If so, both `cargo build` and copying the artifacts can be skipped.
+     */
+    public boolean isBuildUpToDate() throws MojoExecutionException {
+        final Path recordPath = getFingerprintPath();
+        if (!Files.isRegularFile(recordPath)) {
+            log.info("Fingerprint miss for " + getDirName() + ": no previous build");
+            return false;
         }
 
-        final String[] cleanedFeatures = params.cleanedFeatures();
-        if (cleanedFeatures.length > 0) {
-            args.add("--features");
-            args.add(String.join(",", cleanedFeatures));
+        final List<String> lines;
+        try {
+            lines = Files.readAllLines(recordPath, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.info("Fingerprint miss for " + getDirName() +
+                    ": cannot read " + recordPath + ": " + e.getMessage());
+            return false;
         }
 
-        if (params.tests) {
-            args.add("--tests");
+        final String current = getFingerprint();
+        if (lines.isEmpty() || !lines.get(0).equals("fingerprint " + current)) {
+            log.info("Fingerprint miss for " + getDirName() + ": inputs changed");
+            return false;
         }
 
-        if (params.extraArgs != null) {
-            Collections.addAll(args, params.extraArgs);
+        for (String line : lines.subList(1, lines.size())) {
+            // Format: "file <size> <mtime> <path>"
+            final String[] parts = line.split(" ", 4);
+            if (parts.length != 4 || !parts[0].equals("file")) {
+                log.info("Fingerprint miss for " + getDirName() + ": corrupt record");
+                return false;
+            }
+            final Path file = Paths.get(parts[3]);
+            if (!parts[1].equals(String.valueOf(fileSize(file))) ||
+                    !parts[2].equals(String.valueOf(fileModified(file)))) {
+                log.info("Fingerprint miss for " + getDirName() +
+                        ": " + Shlex.quote(file.toString()) + " changed");
+                return false;
+            }
         }
+
+        log.info("Fingerprint hit for " + getDirName() +
+                " (" + current.substring(0, 12) + "): " +
+                "skipping cargo build, artifacts are up to date");
+        return true;
     }
 
-    public void build() throws MojoExecutionException, MojoFailureException {
-        List<String> args = new ArrayList<>();
-        args.add("build");
-        addCargoArgs(args);
-        cargo(args);
+    /**
+     * Removes the record of the last successful build, so a failed or
+     * interrupted build is never mistaken for an up-to-date one.
+     */
+    public void invalidateBuildFingerprint() throws MojoExecutionException {
+        try {
+            Files.deleteIfExists(getFingerprintPath());
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to delete " + getFingerprintPath() + ": " + e.getMessage(), e);
+        }
     }
 
-    public void test() throws MojoExecutionException, MojoFailureException {
-        List<String> args = new ArrayList<>();
-        args.add("test");
-        addCargoArgs(args);
-        cargo(args);
+    private Path getTestFingerprintPath() {
+        final String executionId = params.executionId != null
+                ? params.executionId.replaceAll("[^A-Za-z0-9._-]", "_")
+                : "default";
+        return getStateDir().resolve("test-" + executionId + ".fingerprint");
     }
 
-    private Path resolveCopyToDir() throws MojoExecutionException {
+    /**
+     * The fingerprint of a test run: the inputs of the build as in
+     * `getArtifactCacheKey()`, which include the test sources, and the runner.
+     */
+    public String getTestFingerprint(String runner) throws MojoExecutionException {
+        final Fingerprint fp = new Fingerprint();
+        fp.add("build", getArtifactCacheKey());
+        fp.add("testRunner", runner);
+        return fp.toHex();
+    }
 
-        Path copyToDir = params.copyToDir;
+    /**
+     * Checks whether the tests last passed with the same fingerprint.
+     */
+    public boolean isTestUpToDate(String testFingerprint) {
+        final Path recordPath = getTestFingerprintPath();
+        final List<String> lines;
+        try {
+            lines = Files.isRegularFile(recordPath)
+                    ? Files.readAllLines(recordPath, StandardCharsets.UTF_8)
+                    : Collections.emptyList();
+        } catch (IOException e) {
+            log.debug("Cannot read " + recordPath + ": " + e.getMessage());
+            return false;
+        }
+        return !lines.isEmpty() && lines.get(0).equals("fingerprint " + testFingerprint);
+    }
 
-        if (copyToDir == null) {
-            return null;
+    /**
+     * Removes the record of the last passing test run, before running the tests.
+     */
+    public void invalidateTestFingerprint() throws MojoExecutionException {
+        try {
+            Files.deleteIfExists(getTestFingerprintPath());
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to delete " + getTestFingerprintPath() + ": " + e.getMessage(), e);
         }
+    }
 
-        if (params.copyWithPlatformDir) {
-            copyToDir = copyToDir.resolve(Platform.RESOURCE_PREFIX);
+    /**
+     * Records the fingerprint of a passing test run.
+     */
+    public void saveTestFingerprint(String testFingerprint) throws MojoExecutionException {
+        final Path recordPath = getTestFingerprintPath();
+        try {
+            Files.createDirectories(recordPath.getParent());
+            final Path tmpPath = recordPath.resolveSibling(
+                    recordPath.getFileName() + ".tmp");
+            Files.write(tmpPath, ("fingerprint " + testFingerprint + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            Files.move(tmpPath, recordPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to write " + recordPath + ": " + e.getMessage(), e);
         }
+    }
 
-        if (!Files.exists(copyToDir, LinkOption.NOFOLLOW_LINKS)) {
-            try {
-                Files.createDirectories(copyToDir);
-            } catch (IOException e) {
-                throw new MojoExecutionException(
-                        "Failed to create directory " + copyToDir +
-                                ": " + e.getMessage(), e);
+    /**
+     * Records the fingerprint along with the size and modification time of
+     * the built artifacts and their copies.
+     * <p>
+     * Call after a successful `build()` and `copyArtifacts()`.
+     */
+    public void saveBuildFingerprint() throws MojoExecutionException {
+        final List<Path> files = new ArrayList<>(getArtifactPaths());
+        final Path copyToDir = resolveCopyToDir();
+        if (copyToDir != null) {
+            for (Path artifactPath : getArtifactPaths()) {
+                files.add(copyToDir.resolve(
+                        artifactPath.getFileName() + params.compression.getSuffix()));
             }
         }
 
-        if (!Files.isDirectory(copyToDir)) {
-            throw new MojoExecutionException(copyToDir + " is not a directory");
+        final StringBuilder record = new StringBuilder();
+        record.append("fingerprint ").append(getFingerprint()).append('\n');
+        for (Path file : files) {
+            final Path absFile = file.toAbsolutePath();
+            record.append("file ")
+                    .append(fileSize(absFile)).append(' ')
+                    .append(fileModified(absFile)).append(' ')
+                    .append(absFile).append('\n');
+        }
+
+        final Path recordPath = getFingerprintPath();
+        try {
+            Files.createDirectories(recordPath.getParent());
+            final Path tmpPath = recordPath.resolveSibling(
+                    recordPath.getFileName() + ".tmp");
+            Files.write(tmpPath, record.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmpPath, recordPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to write " + recordPath + ": " + e.getMessage(), e);
         }
-        return copyToDir;
     }
 
-    public void copyArtifacts() throws MojoExecutionException {
-        // Cargo nightly has support for `--out-dir`
-        // which allows us to copy the artifacts directly to the desired path.
-        // Once the feature is stabilized, copy the artifacts directly via:
-        // args.add("--out-dir")
-        // args.add(resolveCopyToDir());
-        final Path copyToDir = resolveCopyToDir();
-        if (copyToDir == null) {
-            return;
+    private static long fileSize(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1;
         }
-        final List<Path> artifactPaths = getArtifactPaths();
-        log.info(
-                "Copying " + getDirName() +
-                        "'s artifacts to " + Shlex.quote(
-                        copyToDir.toAbsolutePath().toString()));
+    }
 
-        for (Path artifactPath : artifactPaths) {
-            final Path fileName = artifactPath.getFileName();
-            final Path destPath = copyToDir.resolve(fileName);
-            try {
-                Files.copy(
-                        artifactPath,
-                        destPath,
-                        StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException e) {
-                throw new MojoExecutionException(
-                        "Failed to copy " + artifactPath +
-                                " to " + copyToDir + ":" + e.getMessage());
-            }
-            log.info("Copied " + Shlex.quote(fileName.toString()));
+    private static long fileModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1;
         }
     }
 
@@ -500,13 +1200,28 @@ public class Crate {
         public HashMap<String, String> environmentVariables;
         public String cargoPath;
         public boolean release;
+        public String target;
+        public Integer jobs;
+        public boolean timings;
+        public String executionId;
+        public Integer maxLogLinesPerSecond;
+        public Path compilerCacheDir;
+        public CompilerCache.Tool compilerCacheTool = CompilerCache.Tool.AUTO;
         public String[] features;
         public boolean allFeatures;
         public boolean noDefaultFeatures;
         public boolean tests;
         public String[] extraArgs;
+        public String[] rustFlags;
+        public Path pgoProfile;
         public Path copyToDir;
         public boolean copyWithPlatformDir;
+        public String cpuTier;
+        public Path artifactCacheDir;
+        public long artifactCacheMaxBytes;
+        public int artifactCacheMaxAgeDays;
+        public ArtifactCopier.Mode copyMode = ArtifactCopier.Mode.CLONE;
+        public ArtifactCopier.Compression compression = ArtifactCopier.Compression.NONE;
 
         /**
          * Returns the features array with empty and null elements removed.
@@ -0,0 +1,535 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.tomlj.Toml;
+import org.tomlj.TomlArray;
+import org.tomlj.TomlInvalidTypeException;
+import org.tomlj.TomlTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The package name and the cdylib and bin targets of a crate.
+ * <p>
+ * These are taken from `cargo metadata --format-version 1 --no-deps`, which
+ * applies Cargo's own rules: auto-discovered bins under `src/bin/`, inherited
+ * workspace settings, legacy keys, etc. If cargo can't be run, they are
+ * derived from `Cargo.toml` instead.
+ * <p>
+ * The result is cached for the Maven session, so the build and test goals
+ * of a module share it, and saved in the crate's state directory for later
+ * sessions. Both caches are keyed by the manifest's contents and
+ * modification time, and by the files that cargo auto-discovers targets from.
+ */
+public final class CrateMetadata {
+    private static final String RECORD_FILE = "crate-metadata.json";
+    private static final Map<Path, CrateMetadata> sessionCache = new HashMap<>();
+
+    private final Path manifestPath;
+    private final String key;
+    private final String packageName;
+    private final String cdylibName;
+    private final List<String> binNames;
+    private TomlTable toml;
+
+    private CrateMetadata(
+            Path manifestPath,
+            String key,
+            String packageName,
+            String cdylibName,
+            List<String> binNames) {
+        this.manifestPath = manifestPath;
+        this.key = key;
+        this.packageName = packageName;
+        this.cdylibName = cdylibName;
+        this.binNames = Collections.unmodifiableList(binNames);
+    }
+
+    /**
+     * Loads the metadata of the crate at `crateRoot`, from the session cache,
+     * from `stateDir`, by running `cargo metadata` or from `Cargo.toml`,
+     * whichever comes first.
+     */
+    public static CrateMetadata load(
+            Path crateRoot,
+            Path stateDir,
+            Crate.Params params,
+            Log log) throws MojoExecutionException {
+        final Path manifestPath = crateRoot.resolve("Cargo.toml").toAbsolutePath().normalize();
+        final String key;
+        try {
+            key = computeKey(manifestPath);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to read " + manifestPath + ": " + e.getMessage(), e);
+        }
+
+        synchronized (sessionCache) {
+            final CrateMetadata cached = sessionCache.get(manifestPath);
+            if (cached != null && cached.key.equals(key)) {
+                return cached;
+            }
+        }
+
+        final Path recordPath = stateDir.resolve(RECORD_FILE);
+        CrateMetadata metadata = readRecord(recordPath, manifestPath, key);
+        if (metadata == null) {
+            metadata = fromCargoMetadata(manifestPath, key, params, log);
+            if (metadata != null) {
+                writeRecord(recordPath, metadata, log);
+            } else {
+                metadata = fromToml(manifestPath, key);
+            }
+        }
+
+        synchronized (sessionCache) {
+            sessionCache.put(manifestPath, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Forgets the metadata loaded so far, as if in a new Maven session.
+     */
+    static void clearSessionCache() {
+        synchronized (sessionCache) {
+            sessionCache.clear();
+        }
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    /**
+     * The name of the lib target if it is a cdylib, otherwise null.
+     */
+    public String getCdylibName() {
+        return cdylibName;
+    }
+
+    /**
+     * The names of the bin targets, the default bin (`src/main.rs`) first.
+     */
+    public List<String> getBinNames() {
+        return binNames;
+    }
+
+    /**
+     * The parsed `Cargo.toml`, e.g. to find `path` dependencies.
+     */
+    public synchronized TomlTable getToml() throws IOException {
+        if (toml == null) {
+            toml = Toml.parse(manifestPath);
+        }
+        return toml;
+    }
+
+    /**
+     * Hashes the manifest along with its modification time and the names
+     * of the files that cargo discovers targets from.
+     */
+    private static String computeKey(Path manifestPath) throws IOException {
+        final Path crateRoot = manifestPath.getParent();
+        final Path srcDir = crateRoot.resolve("src");
+        final List<String> discovered = new ArrayList<>();
+        for (String name : new String[]{"main.rs", "lib.rs"}) {
+            if (Files.exists(srcDir.resolve(name))) {
+                discovered.add(name);
+            }
+        }
+        final Path binDir = srcDir.resolve("bin");
+        if (Files.isDirectory(binDir)) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(binDir)) {
+                for (Path entry : entries) {
+                    discovered.add("bin/" + entry.getFileName());
+                }
+            }
+        }
+        Collections.sort(discovered);
+
+        final MessageDigest digest = Fingerprint.newSha256();
+        digest.update(Files.readAllBytes(manifestPath));
+        final String suffix =
+                "\0" + Files.getLastModifiedTime(manifestPath).toMillis() +
+                        "\0" + String.join("\0", discovered);
+        digest.update(suffix.getBytes(StandardCharsets.UTF_8));
+        return Fingerprint.toHex(digest.digest());
+    }
+
+    private static CrateMetadata readRecord(Path recordPath, Path manifestPath, String key) {
+        if (!Files.isRegularFile(recordPath)) {
+            return null;
+        }
+        try {
+            final Record record = new Gson().fromJson(
+                    new String(Files.readAllBytes(recordPath), StandardCharsets.UTF_8),
+                    Record.class);
+            if (record == null || !key.equals(record.key) ||
+                    record.packageName == null || record.binNames == null) {
+                return null;
+            }
+            return new CrateMetadata(
+                    manifestPath, key, record.packageName, record.cdylibName, record.binNames);
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    private static void writeRecord(Path recordPath, CrateMetadata metadata, Log log) {
+        final Record record = new Record();
+        record.key = metadata.key;
+        record.packageName = metadata.packageName;
+        record.cdylibName = metadata.cdylibName;
+        record.binNames = new ArrayList<>(metadata.binNames);
+        try {
+            Files.createDirectories(recordPath.getParent());
+            final Path tmpPath = recordPath.resolveSibling(
+                    recordPath.getFileName() + ".tmp" + Thread.currentThread().getId());
+            Files.write(tmpPath, new Gson().toJson(record).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmpPath, recordPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.debug("Failed to write " + recordPath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs `cargo metadata`, returning null if cargo is not available or fails,
+     * e.g. because the manifest is invalid.
+     */
+    private static CrateMetadata fromCargoMetadata(
+            Path manifestPath,
+            String key,
+            Crate.Params params,
+            Log log) {
+        final String json = runCargoMetadata(manifestPath, params, log);
+        if (json == null) {
+            return null;
+        }
+        try {
+            final JsonObject root = JsonParser.parseString(json).getAsJsonObject();
+            for (JsonElement element : root.getAsJsonArray("packages")) {
+                final JsonObject pkg = element.getAsJsonObject();
+                if (isSameFile(manifestPath, pkg.get("manifest_path").getAsString())) {
+                    return fromPackage(manifestPath, key, pkg);
+                }
+            }
+            log.debug("No package for " + manifestPath + " in `cargo metadata` output");
+        } catch (JsonParseException | IllegalStateException |
+                 NullPointerException | ClassCastException e) {
+            log.debug("Failed to parse `cargo metadata` output: " + e);
+        }
+        return null;
+    }
+
+    static CrateMetadata fromPackage(Path manifestPath, String key, JsonObject pkg) {
+        final Path defaultBinSrc = manifestPath.getParent().resolve("src").resolve("main.rs");
+        String cdylibName = null;
+        final List<String> binNames = new ArrayList<>();
+        for (JsonElement element : pkg.getAsJsonArray("targets")) {
+            final JsonObject target = element.getAsJsonObject();
+            final String name = target.get("name").getAsString();
+            final List<String> kinds = getStrings(target.getAsJsonArray("kind"));
+            final List<String> crateTypes = getStrings(target.getAsJsonArray("crate_types"));
+            if (crateTypes.contains("cdylib") &&
+                    (kinds.contains("lib") || kinds.contains("cdylib"))) {
+                cdylibName = name;
+            } else if (kinds.contains("bin")) {
+                if (target.has("src_path") &&
+                        isSameFile(defaultBinSrc, target.get("src_path").getAsString())) {
+                    binNames.add(0, name);
+                } else {
+                    binNames.add(name);
+                }
+            }
+        }
+        return new CrateMetadata(
+                manifestPath, key, pkg.get("name").getAsString(), cdylibName, binNames);
+    }
+
+    private static List<String> getStrings(JsonArray array) {
+        final List<String> strings = new ArrayList<>();
+        if (array != null) {
+            for (JsonElement element : array) {
+                strings.add(element.getAsString());
+            }
+        }
+        return strings;
+    }
+
+    private static boolean isSameFile(Path path, String other) {
+        final Path otherPath = Paths.get(other);
+        try {
+            return Files.isSameFile(path, otherPath);
+        } catch (IOException e) {
+            return path.equals(otherPath.toAbsolutePath().normalize());
+        }
+    }
+
+    private static String runCargoMetadata(Path manifestPath, Crate.Params params, Log log) {
+        final List<String> cmd = new ArrayList<>();
+        cmd.add(Cargo.getCargoPath(params));
+        Collections.addAll(cmd,
+                "metadata", "--format-version", "1", "--no-deps",
+                "--manifest-path", manifestPath.toString());
+        try {
+            final ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.directory(manifestPath.getParent().toFile());
+            if (params.environmentVariables != null) {
+                pb.environment().putAll(params.environmentVariables);
+            }
+            final Process process = pb.start();
+            process.getOutputStream().close();
+            final ByteArrayOutputStream err = new ByteArrayOutputStream();
+            final Thread errPump = new Thread(() -> {
+                try {
+                    readFully(process.getErrorStream(), err);
+                } catch (IOException e) {
+                    // Process gone.
+                }
+            }, "cargo-metadata-stderr");
+            errPump.setDaemon(true);
+            errPump.start();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            readFully(process.getInputStream(), out);
+            final int exitCode = process.waitFor();
+            errPump.join();
+            if (exitCode != 0) {
+                log.debug("`" + Shlex.quote(cmd) + "` failed with exit code " + exitCode +
+                        ": " + new String(err.toByteArray(), StandardCharsets.UTF_8).trim());
+                return null;
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.debug("Can't run `cargo metadata`: " + e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private static void readFully(InputStream is, ByteArrayOutputStream out) throws IOException {
+        try (InputStream in = is) {
+            final byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Derives the targets from `Cargo.toml`, for when cargo can't be run.
+     * Unlike cargo, this does not discover bins under `src/bin/`.
+     */
+    static CrateMetadata fromToml(Path manifestPath, String key) throws MojoExecutionException {
+        final TomlTable cargoToml;
+        try {
+            cargoToml = Toml.parse(manifestPath);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to parse Cargo.toml file: " + e.getMessage());
+        }
+
+        final String packageName;
+        try {
+            packageName = cargoToml.getString("package.name");
+            if (packageName == null) {
+                throw new MojoExecutionException(
+                        "Missing required `package.name` from Cargo.toml file");
+            }
+        } catch (TomlInvalidTypeException e) {
+            throw new MojoExecutionException(
+                    "Failed to extract `package.name` from Cargo.toml file: " +
+                            e.getMessage());
+        }
+
+        final CrateMetadata metadata = new CrateMetadata(
+                manifestPath,
+                key,
+                packageName,
+                getTomlCdylibName(cargoToml, packageName),
+                getTomlBinNames(manifestPath.getParent(), cargoToml, packageName));
+        metadata.toml = cargoToml;
+        return metadata;
+    }
+
+    private static boolean hasTomlCdylib(TomlTable cargoToml) {
+        try {
+            TomlArray crateTypes = getTomlCrateTypes(cargoToml);
+            if (crateTypes == null) {
+                return false;
+            }
+
+            for (int index = 0; index < crateTypes.size(); index++) {
+                String crateType = crateTypes.getString(index);
+                if ((crateType != null) && crateType.equals("cdylib")) {
+                    return true;
+                }
+            }
+
+            return false;
+        } catch (TomlInvalidTypeException e) {
+            return false;
+        }
+    }
+
+    private static TomlArray getTomlCrateTypes(TomlTable cargoToml) {
+        TomlArray crateTypes = cargoToml.getArray("lib.crate-type");
+        if (crateTypes == null) {
+            String crateTypeLegacyKey = "lib.crate_type";
+            return cargoToml.getArray(crateTypeLegacyKey);
+        }
+        return crateTypes;
+    }
+
+    private static String getTomlCdylibName(TomlTable cargoToml, String packageName)
+            throws MojoExecutionException {
+        String name;
+        try {
+            name = cargoToml.getString("lib.name");
+        } catch (TomlInvalidTypeException e) {
+            throw new MojoExecutionException(
+                    "Failed to extract `lib.name` from Cargo.toml file: " +
+                            e.getMessage());
+        }
+
+        // The name might be missing, but the lib section might be present.
+        if ((name == null) && hasTomlCdylib(cargoToml)) {
+            name = packageName;
+        }
+
+        return name;
+    }
+
+    private static List<String> getTomlBinNames(
+            Path crateRoot,
+            TomlTable cargoToml,
+            String packageName) throws MojoExecutionException {
+        final List<String> binNames = new java.util.ArrayList<>();
+
+        String defaultBin = null;
+        if (Files.exists(crateRoot.resolve("src").resolve("main.rs"))) {
+            // Expecting default bin, given that there's no lib.
+            defaultBin = packageName;
+            binNames.add(defaultBin);
+        }
+
+        TomlArray bins;
+        try {
+            bins = cargoToml.getArray("bin");
+        } catch (TomlInvalidTypeException e) {
+            throw new MojoExecutionException(
+                    "Failed to extract `bin`s from Cargo.toml file: " +
+                            e.getMessage());
+        }
+
+        if (bins == null) {
+            return binNames;
+        }
+
+        for (int index = 0; index < bins.size(); ++index) {
+            final TomlTable bin = bins.getTable(index);
+            if (bin == null) {
+                throw new MojoExecutionException(
+                        "Failed to extract `bin`s from Cargo.toml file: " +
+                                "expected a `bin` table at index " + index);
+            }
+
+            String name;
+            try {
+                name = bin.getString("name");
+            } catch (TomlInvalidTypeException e) {
+                throw new MojoExecutionException(
+                        "Failed to extract `bin`s from Cargo.toml file: " +
+                                "expected a string at index " + index + " `name` key");
+            }
+
+            if (name == null) {
+                throw new MojoExecutionException(
+                        "Failed to extract `bin`s from Cargo.toml file: " +
+                                "missing `name` key at `bin` with index " + index);
+            }
+
+            String path;
+            try {
+                path = bin.getString("path");
+            } catch (TomlInvalidTypeException e) {
+                throw new MojoExecutionException(
+                        "Failed to extract `bin`s from Cargo.toml file: " +
+                                "expected a string at index " + index + " `path` key");
+            }
+
+            // Handle special case where the default bin is renamed.
+            if ((path != null) && path.equals("src/main.rs")) {
+                defaultBin = name;
+                binNames.remove(0);
+                binNames.add(0, defaultBin);
+            }
+
+            // This `[[bin]]` entry just configures the default bin.
+            // It's already been added.
+            if (!name.equals(defaultBin)) {
+                binNames.add(name);
+            }
+        }
+
+        return binNames;
+    }
+
+    /**
+     * The persisted form, in `<stateDir>/crate-metadata.json`.
+     */
+    private static final class Record {
+        String key;
+        String packageName;
+        String cdylibName;
+        List<String> binNames;
+    }
+}
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Accumulates the inputs of a cargo invocation into a single SHA-256 digest.
+ * <p>
+ * Every value is length-prefixed, so that adjacent values can't be
+ * confused for one another (e.g. "ab" + "c" vs "a" + "bc").
+ */
+public final class Fingerprint {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private final MessageDigest digest = newSha256();
+
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int index = 0; index < bytes.length; ++index) {
+            chars[index * 2] = HEX[(bytes[index] >> 4) & 0xF];
+            chars[index * 2 + 1] = HEX[bytes[index] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the SHA-256 of a file's contents as a hex string.
+     */
+    public static String sha256(Path file) throws IOException {
+        final MessageDigest fileDigest = newSha256();
+        final byte[] buf = new byte[65536];
+        try (InputStream is = Files.newInputStream(file)) {
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                fileDigest.update(buf, 0, read);
+            }
+        }
+        return toHex(fileDigest.digest());
+    }
+
+    private void update(String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final int len = bytes.length;
+        digest.update(new byte[]{
+                (byte) (len >>> 24), (byte) (len >>> 16),
+                (byte) (len >>> 8), (byte) len});
+        digest.update(bytes);
+    }
+
+    public Fingerprint add(String key, Object value) {
+        update(key);
+        update(String.valueOf(value));
+        return this;
+    }
+
+    public Fingerprint add(String key, String[] values) {
+        update(key);
+        if (values == null) {
+            update("null");
+            return this;
+        }
+        update(String.valueOf(values.length));
+        for (String value : values) {
+            update(String.valueOf(value));
+        }
+        return this;
+    }
+
+    /**
+     * Adds all entries of a map, sorted by key.
+     */
+    public Fingerprint add(String key, Map<String, String> values) {
+        update(key);
+        if (values == null) {
+            update("null");
+            return this;
+        }
+        final TreeMap<String, String> sorted = new TreeMap<>(values);
+        update(String.valueOf(sorted.size()));
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            update(entry.getKey());
+            update(String.valueOf(entry.getValue()));
+        }
+        return this;
+    }
+
+    /**
+     * Adds the contents of a file, or a marker if the file does not exist.
+     */
+    public Fingerprint addFile(String key, Path file) throws IOException {
+        update(key);
+        if (!Files.isRegularFile(file)) {
+            update("<missing>");
+            return this;
+        }
+        update(String.valueOf(Files.size(file)));
+        final byte[] buf = new byte[65536];
+        try (InputStream is = Files.newInputStream(file)) {
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                digest.update(buf, 0, read);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds the relative path and contents of every regular file under `root`.
+     * <p>
+     * Files are visited in sorted order so the result is independent of the
+     * order the file system lists them in.
+     *
+     * @param skipDir Returns true for directories that should not be visited.
+     */
+    public Fingerprint addTree(String key, Path root, Predicate<Path> skipDir) throws IOException {
+        update(key);
+        final List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(root)) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(root) && skipDir.test(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (Files.isRegularFile(file)) {
+                        files.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        final List<String> relPaths = new ArrayList<>(files.size());
+        for (Path file : files) {
+            relPaths.add(root.relativize(file).toString().replace('\\', '/'));
+        }
+        Collections.sort(relPaths);
+        update(String.valueOf(relPaths.size()));
+        for (String relPath : relPaths) {
+            addFile(relPath, root.resolve(relPath));
+        }
+        return this;
+    }
+
+    public String toHex() {
+        return toHex(digest.digest());
+    }
+}
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Rewrites a JAR so that its native libraries are stored uncompressed, with
+ * their data aligned to a page boundary, like Android's `zipalign`.
+ * <p>
+ * The alignment is padded in the local header's extra field, using the
+ * 0xD935 field that `zipalign` and `apksigner` use. `JarJniLoader` then copies
+ * such libraries straight out of the JAR with `FileChannel.transferTo`.
+ * <p>
+ * `ZipOutputStream` may add extra fields of its own to a local header, e.g.
+ * an extended timestamp for a time outside the DOS range. The offset of each
+ * entry's data is checked once written, and if any is misaligned, the JAR is
+ * written again, padded for the fields measured the first time.
+ */
+public final class JarAligner {
+    private static final int LOC_LEN = 30;
+    private static final int ALIGNMENT_EXTRA_ID = 0xD935;
+    private static final int ALIGNMENT_EXTRA_LEN = 6;
+
+    private final int alignment;
+    private final List<String> extensions;
+    private int alignedCount;
+
+    /**
+     * @param alignment  A power of two, at most 32768.
+     * @param extensions The file extensions of the entries to align, e.g. "so".
+     */
+    public JarAligner(int alignment, List<String> extensions) {
+        if (alignment <= 0 || alignment > 0x8000 || Integer.bitCount(alignment) != 1) {
+            throw new IllegalArgumentException(
+                    "The alignment must be a power of two up to 32768, got " + alignment);
+        }
+        this.alignment = alignment;
+        this.extensions = extensions;
+    }
+
+    /**
+     * The number of entries stored and aligned by the last `align` call.
+     */
+    public int getAlignedCount() {
+        return alignedCount;
+    }
+
+    public boolean isAligned(String name) {
+        final String lower = name.toLowerCase(Locale.ROOT);
+        for (String extension : extensions) {
+            if (lower.endsWith("." + extension.toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites the JAR in place, keeping the order, times and comments of its entries.
+     */
+    public void align(Path jar) throws IOException {
+        final Path tmp = jar.resolveSibling(jar.getFileName() + ".aligning");
+        try {
+            final Map<Integer, Integer> addedExtraLens = new HashMap<>();
+            if (!write(jar, tmp, addedExtraLens) && !write(jar, tmp, addedExtraLens)) {
+                throw new IOException("Cannot align the entries of " + jar);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, jar, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes the aligned copy of `jar` to `tmp`.
+     *
+     * @param addedExtraLens By index of an aligned entry, the length of the
+     *                       extra fields `ZipOutputStream` adds to its local
+     *                       header. Updated with the lengths written.
+     * @return True if all entries are aligned.
+     */
+    private boolean write(Path jar, Path tmp, Map<Integer, Integer> addedExtraLens) throws IOException {
+        alignedCount = 0;
+        boolean aligned = true;
+        try (ZipFile in = new ZipFile(jar.toFile());
+             CountingOutputStream counter = new CountingOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(tmp)));
+             ZipOutputStream out = new ZipOutputStream(counter, StandardCharsets.UTF_8)) {
+            if (in.getComment() != null) {
+                out.setComment(in.getComment());
+            }
+            final Enumeration<? extends ZipEntry> entries = in.entries();
+            for (int index = 0; entries.hasMoreElements(); index++) {
+                final ZipEntry entry = entries.nextElement();
+                final ZipEntry copy = new ZipEntry(entry.getName());
+                copy.setTime(entry.getTime());
+                if (entry.getComment() != null) {
+                    copy.setComment(entry.getComment());
+                }
+                final boolean isAligned = !entry.isDirectory() && isAligned(entry.getName());
+                final long headerOffset = counter.count;
+                final int headerLen;
+                if (isAligned) {
+                    copy.setMethod(ZipEntry.STORED);
+                    copy.setSize(entry.getSize());
+                    copy.setCompressedSize(entry.getSize());
+                    copy.setCrc(entry.getCrc());
+                    final int addedExtraLen = addedExtraLens.getOrDefault(index, 0);
+                    final byte[] extra = getAlignmentExtra(
+                            headerOffset, entry.getName(), addedExtraLen);
+                    copy.setExtra(extra);
+                    headerLen = LOC_LEN + entry.getName().getBytes(StandardCharsets.UTF_8).length +
+                            extra.length;
+                    ++alignedCount;
+                } else {
+                    headerLen = 0;
+                    copy.setMethod(entry.getMethod());
+                    if (entry.getMethod() == ZipEntry.STORED) {
+                        copy.setSize(entry.getSize());
+                        copy.setCompressedSize(entry.getCompressedSize());
+                        copy.setCrc(entry.getCrc());
+                    }
+                    if (entry.getExtra() != null) {
+                        copy.setExtra(entry.getExtra());
+                    }
+                }
+                out.putNextEntry(copy);
+                if (isAligned) {
+                    addedExtraLens.put(index, (int) (counter.count - headerOffset - headerLen));
+                    aligned &= counter.count % alignment == 0;
+                }
+                try (InputStream is = in.getInputStream(entry)) {
+                    final byte[] buf = new byte[65536];
+                    int read;
+                    while ((read = is.read(buf)) != -1) {
+                        out.write(buf, 0, read);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+        return aligned;
+    }
+
+    /**
+     * The extra field that pads the data of an entry whose local header
+     * starts at `offset`, and gets `addedExtraLen` bytes of other extra
+     * fields, to the alignment.
+     */
+    private byte[] getAlignmentExtra(long offset, String name, int addedExtraLen) {
+        final long unpadded = offset + LOC_LEN +
+                name.getBytes(StandardCharsets.UTF_8).length + addedExtraLen + ALIGNMENT_EXTRA_LEN;
+        final int padding = (int) ((alignment - unpadded % alignment) % alignment);
+        final byte[] extra = new byte[ALIGNMENT_EXTRA_LEN + padding];
+        final int dataLen = extra.length - 4;
+        extra[0] = (byte) ALIGNMENT_EXTRA_ID;
+        extra[1] = (byte) (ALIGNMENT_EXTRA_ID >> 8);
+        extra[2] = (byte) dataLen;
+        extra[3] = (byte) (dataLen >> 8);
+        extra[4] = (byte) alignment;
+        extra[5] = (byte) (alignment >> 8);
+        return extra;
+    }
+
+    /**
+     * Tracks the offset in the JAR that the next local header is written at.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.maven.plugin.logging.Log;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Collects the results of `cargo test` run with libtest's JSON output,
+ * `-- -Z unstable-options --format json --report-time`, and writes them
+ * as a JUnit XML report in the format of the Maven Surefire plugin.
+ */
+public final class LibtestReport {
+    private final String crateName;
+    private final Log log;
+    private final List<TestCase> testCases = new ArrayList<>();
+
+    public LibtestReport(String crateName, Log log) {
+        this.crateName = crateName;
+        this.log = log;
+    }
+
+    /**
+     * Parses and logs a line of cargo's stdout.
+     * Called from a pump thread, but never concurrently.
+     *
+     * @return false if the line is not a JSON event.
+     */
+    public boolean accept(String line) {
+        if (!line.startsWith("{")) {
+            return false;
+        }
+        final JsonObject event;
+        try {
+            event = JsonParser.parseString(line).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            return false;
+        }
+        final String type = getString(event, "type");
+        final String status = getString(event, "event");
+        if ("suite".equals(type) && !"started".equals(status)) {
+            log.info(String.format(Locale.ROOT,
+                    "Test result: %s. %d passed; %d failed; %d ignored; %d filtered out",
+                    status,
+                    getInt(event, "passed"),
+                    getInt(event, "failed"),
+                    getInt(event, "ignored"),
+                    getInt(event, "filtered_out")));
+        } else if ("test".equals(type) && status != null && !"started".equals(status)) {
+            final TestCase testCase = new TestCase(
+                    getString(event, "name"),
+                    status,
+                    getDouble(event, "exec_time"),
+                    getString(event, "stdout"));
+            synchronized (testCases) {
+                testCases.add(testCase);
+            }
+            if (testCase.isFailure()) {
+                log.error("test " + testCase.name + " ... " + status);
+                if (testCase.stdout != null && !testCase.stdout.isEmpty()) {
+                    log.error(testCase.stdout);
+                }
+            } else {
+                log.info("test " + testCase.name + " ... " + status);
+            }
+        }
+        return true;
+    }
+
+    public List<TestCase> getTestCases() {
+        synchronized (testCases) {
+            return new ArrayList<>(testCases);
+        }
+    }
+
+    /**
+     * Writes the results as a single test suite named after the crate.
+     */
+    public void write(Path file) throws IOException {
+        final List<TestCase> cases = getTestCases();
+        int failures = 0;
+        int skipped = 0;
+        double time = 0;
+        for (TestCase testCase : cases) {
+            if (testCase.isFailure()) {
+                ++failures;
+            } else if (testCase.isSkipped()) {
+                ++skipped;
+            }
+            time += testCase.time;
+        }
+        Files.createDirectories(file.getParent());
+        final Path tmpPath = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmpPath)) {
+            final XMLStreamWriter xml = XMLOutputFactory.newInstance()
+                    .createXMLStreamWriter(os, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("testsuite");
+            xml.writeAttribute("name", crateName);
+            xml.writeAttribute("tests", String.valueOf(cases.size()));
+            xml.writeAttribute("failures", String.valueOf(failures));
+            xml.writeAttribute("errors", "0");
+            xml.writeAttribute("skipped", String.valueOf(skipped));
+            xml.writeAttribute("time", formatTime(time));
+            for (TestCase testCase : cases) {
+                xml.writeCharacters("\n  ");
+                xml.writeStartElement("testcase");
+                xml.writeAttribute("name", testCase.getName());
+                xml.writeAttribute("classname", testCase.getClassName(crateName));
+                xml.writeAttribute("time", formatTime(testCase.time));
+                if (testCase.isFailure()) {
+                    xml.writeStartElement("failure");
+                    xml.writeAttribute("message", "test " + testCase.status);
+                    xml.writeCharacters(sanitize(testCase.stdout));
+                    xml.writeEndElement();
+                    if (testCase.stdout != null) {
+                        xml.writeStartElement("system-out");
+                        xml.writeCharacters(sanitize(testCase.stdout));
+                        xml.writeEndElement();
+                    }
+                } else if (testCase.isSkipped()) {
+                    xml.writeEmptyElement("skipped");
+                }
+                xml.writeEndElement();
+            }
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to write " + file + ": " + e.getMessage(), e);
+        }
+        Files.move(tmpPath, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String formatTime(double seconds) {
+        return String.format(Locale.ROOT, "%.3f", seconds);
+    }
+
+    /**
+     * Drops the control characters that XML 1.0 can't represent.
+     */
+    private static String sanitize(String text) {
+        if (text == null) {
+            return "";
+        }
+        final StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String getString(JsonObject object, String key) {
+        final JsonElement element = object.get(key);
+        return (element != null && element.isJsonPrimitive()) ? element.getAsString() : null;
+    }
+
+    private static int getInt(JsonObject object, String key) {
+        final JsonElement element = object.get(key);
+        try {
+            return (element != null && element.isJsonPrimitive()) ? element.getAsInt() : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static double getDouble(JsonObject object, String key) {
+        final JsonElement element = object.get(key);
+        try {
+            return (element != null && element.isJsonPrimitive()) ? element.getAsDouble() : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The result of a test, e.g. "tests::it_works" with status "ok".
+     */
+    public static final class TestCase {
+        private final String name;
+        private final String status;
+        private final double time;
+        private final String stdout;
+
+        TestCase(String name, String status, double time, String stdout) {
+            this.name = name != null ? name : "";
+            this.status = status;
+            this.time = time;
+            this.stdout = stdout;
+        }
+
+        /**
+         * The test function, without its module path.
+         */
+        public String getName() {
+            final int sep = name.lastIndexOf("::");
+            return sep != -1 ? name.substring(sep + 2) : name;
+        }
+
+        /**
+         * The crate and module path, e.g. "str-reverse::tests".
+         */
+        public String getClassName(String crateName) {
+            final int sep = name.lastIndexOf("::");
+            return sep != -1 ? crateName + "::" + name.substring(0, sep) : crateName;
+        }
+
+        /**
+         * "ok", "failed", "ignored", "timeout" or "bench".
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        public double getTime() {
+            return time;
+        }
+
+        public boolean isFailure() {
+            return "failed".equals(status) || "timeout".equals(status);
+        }
+
+        public boolean isSkipped() {
+            return "ignored".equals(status);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The files of a profile-guided optimization (PGO) build of a crate.
+ * <p>
+ * The instrumented build writes `.profraw` files into `raw/` whenever a
+ * process that loaded it exits, e.g. the tests. These are then merged with
+ * `llvm-profdata` into `profiles/<key>.profdata`, where the key is the
+ * fingerprint of the crate's sources and build parameters. A later build of
+ * the same sources reuses the merged profile without a new training run.
+ *
+ * @see <a href="https://doc.rust-lang.org/rustc/profile-guided-optimization.html">PGO</a>
+ */
+public final class Pgo {
+    private final Path dir;
+    private final Log log;
+
+    public Pgo(Path dir, Log log) {
+        this.dir = dir;
+        this.log = log;
+    }
+
+    public Path getRawDir() {
+        return dir.resolve("raw");
+    }
+
+    /**
+     * The merged profile for a crate's build fingerprint, which may not exist.
+     */
+    public Path getProfile(String key) {
+        return dir.resolve("profiles").resolve(key + ".profdata");
+    }
+
+    /**
+     * The rustc flag that instruments a build.
+     */
+    public String getGenerateFlag() {
+        return "-Cprofile-generate=" + getRawDir().toAbsolutePath();
+    }
+
+    public static String getUseFlag(Path profile) {
+        return "-Cprofile-use=" + profile.toAbsolutePath();
+    }
+
+    /**
+     * Checks that a PGO build makes one binary per crate. The training
+     * workload runs on the build host and loads a single binary, so the
+     * `.profraw` files can't be told apart between builds for several
+     * `targets` or `cpuTiers`, nor would they exist for the ones not loaded.
+     */
+    public static void checkBuildMatrix(boolean hasTargets, int cpuTierCount)
+            throws MojoExecutionException {
+        if (hasTargets) {
+            throw new MojoExecutionException(
+                    "`pgo` can't be combined with `targets`: " +
+                            "the training workload must run on the build host");
+        }
+        if (cpuTierCount > 1) {
+            throw new MojoExecutionException(
+                    "`pgo` can't be combined with more than one of `cpuTiers`: " +
+                            "the training workload only loads one tier");
+        }
+    }
+
+    /**
+     * Removes the `.profraw` files of a previous training run,
+     * so they don't get merged into a profile of different sources.
+     */
+    public void clearRawProfiles() throws MojoExecutionException {
+        try {
+            for (Path raw : findRawProfiles()) {
+                Files.deleteIfExists(raw);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to clear " + getRawDir() + ": " + e.getMessage(), e);
+        }
+    }
+
+    public List<Path> findRawProfiles() throws IOException {
+        final List<Path> raws = new ArrayList<>();
+        if (!Files.isDirectory(getRawDir())) {
+            return raws;
+        }
+        try (DirectoryStream<Path> entries =
+                     Files.newDirectoryStream(getRawDir(), "*.profraw")) {
+            for (Path entry : entries) {
+                raws.add(entry);
+            }
+        }
+        Collections.sort(raws);
+        return raws;
+    }
+
+    /**
+     * Merges the `.profraw` files of the training run into the profile for
+     * `key`, then deletes them.
+     *
+     * @return The merged profile, or null if there were no `.profraw` files.
+     */
+    public Path merge(String key, String llvmProfdata) throws MojoExecutionException {
+        final List<Path> raws;
+        try {
+            raws = findRawProfiles();
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to list " + getRawDir() + ": " + e.getMessage(), e);
+        }
+        if (raws.isEmpty()) {
+            return null;
+        }
+        final Path profile = getProfile(key);
+        final Path tmp = profile.resolveSibling(profile.getFileName() + ".tmp");
+        final List<String> cmd = new ArrayList<>();
+        cmd.add(llvmProfdata);
+        cmd.add("merge");
+        cmd.add("-o");
+        cmd.add(tmp.toString());
+        for (Path raw : raws) {
+            cmd.add(raw.toString());
+        }
+        log.info("Merging " + raws.size() + " PGO profile(s): " + Shlex.quote(cmd));
+        try {
+            Files.createDirectories(profile.getParent());
+            final ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectErrorStream(true);
+            final Process process = pb.start();
+            process.getOutputStream().close();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream is = process.getInputStream()) {
+                final byte[] buf = new byte[4096];
+                int read;
+                while ((read = is.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                }
+            }
+            final int exitCode = process.waitFor();
+            final String output = new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+            if (!output.isEmpty()) {
+                log.info(output);
+            }
+            if (exitCode != 0) {
+                throw new MojoExecutionException(
+                        "llvm-profdata failed with exit code " + exitCode);
+            }
+            Files.move(tmp, profile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to run " + llvmProfdata + ": " + e.getMessage() +
+                            ". Install it via `rustup component add llvm-tools` " +
+                            "or set `llvmProfdataPath`.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while merging PGO profiles", e);
+        } finally {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                // Leftover temp file only.
+            }
+        }
+        clearRawProfiles();
+        return profile;
+    }
+
+    public enum Mode {
+        /**
+         * A regular build.
+         */
+        OFF,
+
+        /**
+         * An instrumented build, to run the training workload against.
+         */
+        GENERATE,
+
+        /**
+         * An optimized build, using the training run's profile.
+         */
+        USE;
+
+        public static Mode parse(String value) {
+            if (value == null || value.isEmpty()) {
+                return OFF;
+            }
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Prefixes every message, to tell apart the output of concurrent builds.
+ */
+public final class PrefixedLog implements Log {
+    private final Log log;
+    private final String prefix;
+
+    public PrefixedLog(Log log, String prefix) {
+        this.log = log;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return log.isDebugEnabled();
+    }
+
+    @Override
+    public void debug(CharSequence content) {
+        log.debug(prefix + content);
+    }
+
+    @Override
+    public void debug(CharSequence content, Throwable error) {
+        log.debug(prefix + content, error);
+    }
+
+    @Override
+    public void debug(Throwable error) {
+        log.debug(prefix, error);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return log.isInfoEnabled();
+    }
+
+    @Override
+    public void info(CharSequence content) {
+        log.info(prefix + content);
+    }
+
+    @Override
+    public void info(CharSequence content, Throwable error) {
+        log.info(prefix + content, error);
+    }
+
+    @Override
+    public void info(Throwable error) {
+        log.info(prefix, error);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return log.isWarnEnabled();
+    }
+
+    @Override
+    public void warn(CharSequence content) {
+        log.warn(prefix + content);
+    }
+
+    @Override
+    public void warn(CharSequence content, Throwable error) {
+        log.warn(prefix + content, error);
+    }
+
+    @Override
+    public void warn(Throwable error) {
+        log.warn(prefix, error);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return log.isErrorEnabled();
+    }
+
+    @Override
+    public void error(CharSequence content) {
+        log.error(prefix + content);
+    }
+
+    @Override
+    public void error(CharSequence content, Throwable error) {
+        log.error(prefix + content, error);
+    }
+
+    @Override
+    public void error(Throwable error) {
+        log.error(prefix, error);
+    }
+}
@@ -0,0 +1,535 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * A `RUSTC_WRAPPER` that caches the outputs of rustc in a local directory.
+ * <p>
+ * Cargo runs it as `wrapper rustc args...`. Only library crates compiled
+ * without incremental compilation are cached, which covers the dependencies
+ * from registries and git. Anything else is passed through to rustc.
+ * <p>
+ * The cache key covers the rustc version, the arguments, the environment
+ * variables cargo sets for the crate, the package's source tree, the
+ * `OUT_DIR` of its build script and the contents of its `--extern`
+ * dependencies. Paths are part of the key, so entries are shared by builds
+ * in the same location, e.g. CI workers with clean checkouts.
+ * <p>
+ * Like sccache, each entry also records what rustc's dep-info reports beyond
+ * the key: the environment variables read with `env!` or `option_env!`
+ * (`# env-dep:` lines) and the files read from outside the package and
+ * `OUT_DIR`, e.g. with `include_bytes!`. An entry whose recorded values
+ * differ from the current ones is a miss, and is replaced.
+ * <p>
+ * This class only depends on the JDK: it runs from the plugin's jar alone.
+ */
+public final class RustcWrapper {
+    /**
+     * The cache directory.
+     */
+    public static final String CACHE_DIR_ENV = "RUST_MAVEN_PLUGIN_CACHE_DIR";
+
+    /**
+     * A file to which a line is appended per rustc invocation:
+     * `<hit|miss|skip> <bytes> <millis>`.
+     */
+    public static final String STATS_FILE_ENV = "RUST_MAVEN_PLUGIN_CACHE_STATS";
+
+    private static final String META_FILE = "meta.properties";
+    private static final String STDOUT_FILE = "stdout";
+    private static final String STDERR_FILE = "stderr";
+    private static final String OUTPUTS_DIR = "outputs";
+    private static final String ENV_DEP_PREFIX = "env.";
+    private static final String UNSET_ENV_DEP_PREFIX = "unsetEnv.";
+    private static final String FILE_DEP_PREFIX = "file.";
+
+    private RustcWrapper() {
+    }
+
+    public static void main(String[] args) {
+        int exitCode;
+        try {
+            exitCode = run(args, System.getenv());
+        } catch (Exception e) {
+            System.err.println("rust-maven-plugin rustc wrapper failed: " + e);
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+
+    static int run(String[] args, Map<String, String> env)
+            throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: RustcWrapper <rustc> [args...]");
+            return 2;
+        }
+        final List<String> cmd = Arrays.asList(args);
+        final String cacheDir = env.get(CACHE_DIR_ENV);
+        final Invocation invocation = Invocation.parse(cmd);
+        if (cacheDir == null || invocation == null) {
+            final int exitCode = passThrough(cmd);
+            recordStats(env, "skip", 0, 0);
+            return exitCode;
+        }
+
+        final String key = invocation.computeKey(env);
+        final Path entry = Paths.get(cacheDir).resolve(key.substring(0, 2)).resolve(key);
+        final long start = System.nanoTime();
+        final Properties meta = readMeta(entry);
+        final boolean stale = meta != null && !depsUnchanged(meta, env);
+        if (meta != null && !stale && restore(entry, meta, invocation.outDir)) {
+            replay(entry.resolve(STDOUT_FILE), System.out);
+            replay(entry.resolve(STDERR_FILE), System.err);
+            final long elapsed = (System.nanoTime() - start) / 1_000_000;
+            final long compileMillis = Long.parseLong(meta.getProperty("compileMillis", "0"));
+            recordStats(env, "hit", 0, Math.max(0, compileMillis - elapsed));
+            return 0;
+        }
+
+        final Map<String, String> before = listOutputs(invocation);
+        final Path tmpDir = Files.createTempDirectory(
+                Paths.get(cacheDir), ".tmp-" + key.substring(0, 8));
+        final Path stdout = tmpDir.resolve(STDOUT_FILE);
+        final Path stderr = tmpDir.resolve(STDERR_FILE);
+        final ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectInput(ProcessBuilder.Redirect.INHERIT);
+        pb.redirectOutput(stdout.toFile());
+        pb.redirectError(stderr.toFile());
+        final int exitCode = pb.start().waitFor();
+        final long compileMillis = (System.nanoTime() - start) / 1_000_000;
+        replay(stdout, System.out);
+        replay(stderr, System.err);
+        if (exitCode != 0) {
+            deleteTree(tmpDir);
+            recordStats(env, "skip", 0, 0);
+            return exitCode;
+        }
+
+        long bytes = 0;
+        final List<String> files = new ArrayList<>();
+        final Path outputsDir = Files.createDirectories(tmpDir.resolve(OUTPUTS_DIR));
+        for (Map.Entry<String, String> output : listOutputs(invocation).entrySet()) {
+            if (output.getValue().equals(before.get(output.getKey()))) {
+                continue;  // Not written by this invocation.
+            }
+            final Path src = invocation.outDir.resolve(output.getKey());
+            Files.copy(src, outputsDir.resolve(output.getKey()));
+            bytes += Files.size(src);
+            files.add(output.getKey());
+        }
+        final Path depInfo = invocation.outDir.resolve(
+                invocation.crateName + invocation.extraFilename + ".d");
+        if (!Files.isRegularFile(depInfo)) {
+            // Without dep-info, what rustc read besides the key is unknown.
+            deleteTree(tmpDir);
+            recordStats(env, "skip", 0, 0);
+            return 0;
+        }
+        final Properties newMeta = readDeps(depInfo, invocation.getSourceRoot(env), env.get("OUT_DIR"));
+        newMeta.setProperty("compileMillis", String.valueOf(compileMillis));
+        newMeta.setProperty("files", String.join(File.pathSeparator, files));
+        try (OutputStream os = Files.newOutputStream(tmpDir.resolve(META_FILE))) {
+            newMeta.store(os, null);
+        }
+        try {
+            Files.createDirectories(entry.getParent());
+            if (stale) {
+                deleteTree(entry);
+            }
+            Files.move(tmpDir, entry, StandardCopyOption.ATOMIC_MOVE);
+            recordStats(env, "miss", bytes, compileMillis);
+        } catch (IOException e) {
+            // Stored concurrently by another build.
+            deleteTree(tmpDir);
+            recordStats(env, "miss", 0, compileMillis);
+        }
+        return 0;
+    }
+
+    private static int passThrough(List<String> cmd) throws IOException, InterruptedException {
+        return new ProcessBuilder(cmd).inheritIO().start().waitFor();
+    }
+
+    private static Properties readMeta(Path entry) {
+        final Path metaPath = entry.resolve(META_FILE);
+        if (!Files.isRegularFile(metaPath)) {
+            return null;
+        }
+        final Properties meta = new Properties();
+        try (InputStream is = Files.newInputStream(metaPath)) {
+            meta.load(is);
+        } catch (IOException e) {
+            return null;
+        }
+        return meta;
+    }
+
+    /**
+     * Reads the environment variables and the files outside `sourceRoot`
+     * and `outDir` that a dep-info file lists, as entry metadata.
+     */
+    static Properties readDeps(Path depInfo, Path sourceRoot, String outDir) throws IOException {
+        final Properties deps = new Properties();
+        final Path cwd = Paths.get("").toAbsolutePath();
+        final Path root = sourceRoot.toAbsolutePath().normalize();
+        final Path out = outDir != null ? Paths.get(outDir).toAbsolutePath().normalize() : null;
+        for (String line : Files.readAllLines(depInfo, StandardCharsets.UTF_8)) {
+            if (line.startsWith("# env-dep:")) {
+                final String dep = line.substring("# env-dep:".length());
+                final int eq = dep.indexOf('=');
+                if (eq == -1) {
+                    deps.setProperty(UNSET_ENV_DEP_PREFIX + dep, "");
+                } else {
+                    deps.setProperty(ENV_DEP_PREFIX + dep.substring(0, eq), dep.substring(eq + 1));
+                }
+            } else if (!line.startsWith("#") && line.endsWith(":")) {
+                // An empty rule per dependency: `path:`, with spaces escaped.
+                final Path file = cwd.resolve(
+                        line.substring(0, line.length() - 1).replace("\\ ", " ")).normalize();
+                if (!file.startsWith(root) && (out == null || !file.startsWith(out)) &&
+                        Files.isRegularFile(file)) {
+                    deps.setProperty(FILE_DEP_PREFIX + file, Fingerprint.sha256(file));
+                }
+            }
+        }
+        return deps;
+    }
+
+    /**
+     * True if the environment variables and files recorded by `readDeps`
+     * still have the same values.
+     */
+    static boolean depsUnchanged(Properties meta, Map<String, String> env) {
+        for (String name : meta.stringPropertyNames()) {
+            final String recorded = meta.getProperty(name);
+            if (name.startsWith(ENV_DEP_PREFIX)) {
+                final String value = env.get(name.substring(ENV_DEP_PREFIX.length()));
+                if (value == null || !escapeEnvDep(value).equals(recorded)) {
+                    return false;
+                }
+            } else if (name.startsWith(UNSET_ENV_DEP_PREFIX)) {
+                if (env.containsKey(name.substring(UNSET_ENV_DEP_PREFIX.length()))) {
+                    return false;
+                }
+            } else if (name.startsWith(FILE_DEP_PREFIX)) {
+                try {
+                    if (!Fingerprint.sha256(Paths.get(name.substring(FILE_DEP_PREFIX.length())))
+                            .equals(recorded)) {
+                        return false;
+                    }
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Escapes a value as rustc does in `# env-dep:` lines.
+     */
+    private static String escapeEnvDep(String value) {
+        return value.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static boolean restore(Path entry, Properties meta, Path outDir) {
+        final String files = meta.getProperty("files", "");
+        try {
+            Files.createDirectories(outDir);
+            for (String file : files.split(File.pathSeparator)) {
+                if (file.isEmpty()) {
+                    continue;
+                }
+                final Path dest = outDir.resolve(file);
+                final Path tmp = outDir.resolve("." + file + ".restore");
+                Files.copy(entry.resolve(OUTPUTS_DIR).resolve(file), tmp,
+                        StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The files in the output directory named after the crate,
+     * with their modification times and sizes.
+     */
+    private static Map<String, String> listOutputs(Invocation invocation) throws IOException {
+        final Map<String, String> outputs = new TreeMap<>();
+        if (!Files.isDirectory(invocation.outDir)) {
+            return outputs;
+        }
+        final String stem = invocation.crateName + invocation.extraFilename;
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(invocation.outDir)) {
+            for (Path file : dir) {
+                final String name = file.getFileName().toString();
+                if ((name.startsWith(stem + ".") || name.startsWith("lib" + stem + ".")) &&
+                        Files.isRegularFile(file)) {
+                    outputs.put(name, Files.getLastModifiedTime(file).toMillis() + ":" + Files.size(file));
+                }
+            }
+        }
+        return outputs;
+    }
+
+    private static void replay(Path file, PrintStream out) throws IOException {
+        if (Files.isRegularFile(file)) {
+            Files.copy(file, out);
+            out.flush();
+        }
+    }
+
+    private static void recordStats(Map<String, String> env, String kind, long bytes, long millis) {
+        final String statsFile = env.get(STATS_FILE_ENV);
+        if (statsFile == null) {
+            return;
+        }
+        // Short appends are atomic, so concurrent rustc processes don't interleave.
+        final String line = kind + " " + bytes + " " + millis + "\n";
+        try {
+            Files.write(Paths.get(statsFile), line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ignored) {
+        }
+    }
+
+    static void deleteTree(Path root) {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted((a, b) -> b.getNameCount() - a.getNameCount())
+                    .forEach(path -> path.toFile().delete());
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * A cacheable rustc invocation.
+     */
+    static final class Invocation {
+        final List<String> cmd;
+        final String crateName;
+        final String extraFilename;
+        final Path outDir;
+        final List<Path> externs = new ArrayList<>();
+        Path sourceFile;
+
+        private Invocation(List<String> cmd, String crateName, String extraFilename, Path outDir) {
+            this.cmd = cmd;
+            this.crateName = crateName;
+            this.extraFilename = extraFilename;
+            this.outDir = outDir;
+        }
+
+        /**
+         * Returns null if the invocation can't be cached, e.g. it is a version
+         * query, builds a binary or uses incremental compilation.
+         */
+        static Invocation parse(List<String> cmd) {
+            String crateName = null;
+            String extraFilename = "";
+            String outDir = null;
+            final List<String> crateTypes = new ArrayList<>();
+            final List<String> externs = new ArrayList<>();
+            final List<String> positional = new ArrayList<>();
+            for (int index = 1; index < cmd.size(); ++index) {
+                final String arg = cmd.get(index);
+                final String next = index + 1 < cmd.size() ? cmd.get(index + 1) : null;
+                String flag = arg;
+                String value = null;
+                if (arg.startsWith("--") && arg.contains("=")) {
+                    flag = arg.substring(0, arg.indexOf('='));
+                    value = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.startsWith("-C") && arg.length() > 2) {
+                    flag = "-C";
+                    value = arg.substring(2);
+                }
+                switch (flag) {
+                    case "--crate-name":
+                    case "--crate-type":
+                    case "--out-dir":
+                    case "--extern":
+                    case "--edition":
+                    case "--error-format":
+                    case "--json":
+                    case "--emit":
+                    case "--cap-lints":
+                    case "--cfg":
+                    case "--target":
+                    case "--check-cfg":
+                    case "-L":
+                    case "-C":
+                    case "-A":
+                    case "-W":
+                    case "-D":
+                    case "-F":
+                    case "-Z":
+                        if (value == null) {
+                            if (next == null) {
+                                return null;
+                            }
+                            value = next;
+                            ++index;
+                        }
+                        break;
+                    default:
+                        if (arg.startsWith("-")) {
+                            // Queries (-vV, --print) and unknown flags.
+                            if (arg.equals("-") || arg.startsWith("-v") || arg.startsWith("--print") ||
+                                    arg.equals("--test") || arg.startsWith("--version")) {
+                                return null;
+                            }
+                        } else {
+                            positional.add(arg);
+                        }
+                        continue;
+                }
+                switch (flag) {
+                    case "--crate-name":
+                        crateName = value;
+                        break;
+                    case "--crate-type":
+                        crateTypes.addAll(Arrays.asList(value.split(",")));
+                        break;
+                    case "--out-dir":
+                        outDir = value;
+                        break;
+                    case "--extern":
+                        externs.add(value);
+                        break;
+                    case "-C":
+                        if (value.startsWith("incremental")) {
+                            return null;
+                        }
+                        if (value.startsWith("extra-filename=")) {
+                            extraFilename = value.substring("extra-filename=".length());
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (crateName == null || outDir == null || positional.size() != 1 || crateTypes.isEmpty()) {
+                return null;
+            }
+            for (String crateType : crateTypes) {
+                if (!crateType.equals("lib") && !crateType.equals("rlib")) {
+                    return null;
+                }
+            }
+            final Invocation invocation = new Invocation(
+                    cmd, crateName, extraFilename, Paths.get(outDir));
+            invocation.sourceFile = Paths.get(positional.get(0));
+            for (String extern : externs) {
+                final int eq = extern.indexOf('=');
+                if (eq != -1) {
+                    invocation.externs.add(Paths.get(extern.substring(eq + 1)));
+                }
+            }
+            return invocation;
+        }
+
+        String computeKey(Map<String, String> env) throws IOException, InterruptedException {
+            final Fingerprint fp = new Fingerprint();
+            // 2: entries record their dep-info's env and file dependencies.
+            fp.add("version", 2);
+            fp.add("rustc", capture(Arrays.asList(cmd.get(0), "-vV")));
+            fp.add("args", cmd.subList(1, cmd.size()).toArray(new String[0]));
+
+            final Map<String, String> keyEnv = new HashMap<>();
+            for (Map.Entry<String, String> entry : env.entrySet()) {
+                final String name = entry.getKey();
+                if ((name.startsWith("CARGO_") && !name.equals("CARGO_MAKEFLAGS")) ||
+                        name.equals("OUT_DIR") ||
+                        name.equals("RUSTC_BOOTSTRAP") ||
+                        name.equals("RUSTUP_TOOLCHAIN")) {
+                    keyEnv.put(name, entry.getValue());
+                }
+            }
+            fp.add("env", keyEnv);
+
+            fp.addTree("sources", getSourceRoot(env), dir -> {
+                final String name = dir.getFileName().toString();
+                return name.startsWith(".") || name.equals("target");
+            });
+            final String outDirEnv = env.get("OUT_DIR");
+            if (outDirEnv != null) {
+                fp.addTree("OUT_DIR", Paths.get(outDirEnv), dir -> false);
+            }
+            for (Path extern : externs) {
+                fp.addFile("extern " + extern.getFileName(), extern);
+            }
+            return fp.toHex();
+        }
+
+        /**
+         * The package's directory, whose whole tree is part of the key.
+         */
+        Path getSourceRoot(Map<String, String> env) {
+            final String manifestDir = env.get("CARGO_MANIFEST_DIR");
+            return manifestDir != null
+                    ? Paths.get(manifestDir)
+                    : sourceFile.toAbsolutePath().getParent();
+        }
+
+        private static String capture(List<String> cmd) throws IOException, InterruptedException {
+            final Process process = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream is = process.getInputStream()) {
+                final byte[] buf = new byte[4096];
+                int read;
+                while ((read = is.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                }
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8) + process.waitFor();
+        }
+    }
+}
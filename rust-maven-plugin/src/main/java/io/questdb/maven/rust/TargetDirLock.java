@@ -0,0 +1,121 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on a cargo target directory, held while building into it
+ * and copying the artifacts out of it.
+ * <p>
+ * Cargo locks the target directory too, but only for the duration of one
+ * command. Without this lock, another module sharing the directory could
+ * rebuild an artifact (e.g. with other features) between our build and our
+ * copy. File locks are held per process, so threads of the same JVM
+ * (`mvn -T`) are first serialized through an in-process lock.
+ */
+public final class TargetDirLock implements AutoCloseable {
+    private static final String LOCK_FILE_NAME = ".rust-maven-plugin.lock";
+    private static final ConcurrentHashMap<Path, ReentrantLock> jvmLocks =
+            new ConcurrentHashMap<>();
+
+    private final ReentrantLock jvmLock;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+
+    private TargetDirLock(ReentrantLock jvmLock, FileChannel channel, FileLock fileLock) {
+        this.jvmLock = jvmLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Blocks until the directory is locked by neither another thread
+     * nor another process.
+     */
+    public static TargetDirLock acquire(Path targetDir, Log log)
+            throws MojoExecutionException, MojoFailureException {
+        final Path dir = targetDir.toAbsolutePath().normalize();
+        final ReentrantLock jvmLock = jvmLocks.computeIfAbsent(
+                dir, key -> new ReentrantLock());
+        try {
+            if (!jvmLock.tryLock()) {
+                log.info("Waiting for another build to release " + dir);
+                jvmLock.lockInterruptibly();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoFailureException("Interrupted while waiting for " + dir, e);
+        }
+
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(dir);
+            channel = FileChannel.open(
+                    dir.resolve(LOCK_FILE_NAME),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            FileLock fileLock = channel.tryLock();
+            if (fileLock == null) {
+                log.info("Waiting for another process to release " + dir);
+                fileLock = channel.lock();
+            }
+            return new TargetDirLock(jvmLock, channel, fileLock);
+        } catch (IOException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            jvmLock.unlock();
+            throw new MojoExecutionException(
+                    "Failed to lock " + dir + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            fileLock.release();
+            channel.close();
+        } catch (IOException ignored) {
+            // Closing the channel releases the lock regardless.
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+}
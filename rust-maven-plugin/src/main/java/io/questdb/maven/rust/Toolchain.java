@@ -0,0 +1,223 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import io.questdb.jar.jni.PlatformConventions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Describes the Rust toolchain that a cargo command would use.
+ * <p>
+ * The description is the verbose version output of both `cargo` and
+ * `rustc`, which covers the release, the commit hash and the host triple.
+ * Results are cached per cargo path and working directory, since
+ * `rust-toolchain.toml` files can select a different toolchain per directory.
+ */
+public final class Toolchain {
+    private static final HashMap<String, String> cache = new HashMap<>();
+    private static final HashMap<Path, Set<String>> installedTargets = new HashMap<>();
+
+    private Toolchain() {
+    }
+
+    public static synchronized String describe(
+            String cargoPath,
+            Path workingDir,
+            Map<String, String> environmentVariables) {
+        final String rustcPath = getRustcPath(cargoPath, environmentVariables);
+        final String key = cargoPath + '\0' + rustcPath + '\0' + workingDir;
+        String description = cache.get(key);
+        if (description == null) {
+            description =
+                    capture(Arrays.asList(cargoPath, "-vV"), workingDir, environmentVariables) +
+                            capture(Arrays.asList(rustcPath, "-vV"), workingDir, environmentVariables);
+            cache.put(key, description);
+        }
+        return description;
+    }
+
+    /**
+     * The target triples whose standard library is installed, as listed
+     * by `rustup target list --installed` in the given directory.
+     * Returns null if rustup is not available, e.g. for a system-wide
+     * Rust installation, in which case the targets can't be checked.
+     */
+    public static synchronized Set<String> getInstalledTargets(
+            Path workingDir,
+            Map<String, String> environmentVariables) {
+        if (installedTargets.containsKey(workingDir)) {
+            return installedTargets.get(workingDir);
+        }
+        Set<String> targets = null;
+        try {
+            final ProcessBuilder pb = new ProcessBuilder(
+                    "rustup", "target", "list", "--installed");
+            pb.directory(workingDir.toFile());
+            if (environmentVariables != null) {
+                pb.environment().putAll(environmentVariables);
+            }
+            pb.redirectErrorStream(true);
+            final Process process = pb.start();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream is = process.getInputStream()) {
+                final byte[] buf = new byte[4096];
+                int read;
+                while ((read = is.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                }
+            }
+            if (process.waitFor() == 0) {
+                targets = new TreeSet<>();
+                for (String line : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\\R")) {
+                    final String triple = line.trim();
+                    if (!triple.isEmpty() && !triple.contains(" ")) {
+                        targets.add(triple);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // No rustup.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        installedTargets.put(workingDir, targets);
+        return targets;
+    }
+
+    /**
+     * True if `cargo nextest` is installed for the toolchain of the directory.
+     */
+    public static synchronized boolean hasNextest(
+            String cargoPath,
+            Path workingDir,
+            Map<String, String> environmentVariables) {
+        final String key = cargoPath + '\0' + "nextest" + '\0' + workingDir;
+        String version = cache.get(key);
+        if (version == null) {
+            version = capture(
+                    Arrays.asList(cargoPath, "nextest", "--version"), workingDir, environmentVariables);
+            cache.put(key, version);
+        }
+        return version.endsWith("exit code: 0\n");
+    }
+
+    /**
+     * Finds a tool shipped with the toolchain, such as `llvm-profdata` from
+     * the `llvm-tools` rustup component, under
+     * `<sysroot>/lib/rustlib/<host>/bin/`. Returns null if not installed.
+     */
+    public static Path findRustlibTool(
+            String name,
+            String cargoPath,
+            Path workingDir,
+            Map<String, String> environmentVariables) {
+        final String rustcPath = getRustcPath(cargoPath, environmentVariables);
+        final String sysroot = capture(
+                Arrays.asList(rustcPath, "--print", "sysroot"), workingDir, environmentVariables);
+        String host = null;
+        for (String line : describe(cargoPath, workingDir, environmentVariables).split("\\R")) {
+            if (line.startsWith("host: ")) {
+                host = line.substring("host: ".length()).trim();
+            }
+        }
+        if (host == null || !sysroot.endsWith("exit code: 0\n")) {
+            return null;
+        }
+        final String sysrootDir = sysroot.substring(0, sysroot.indexOf('\n')).trim();
+        final Path tool = Paths.get(sysrootDir, "lib", "rustlib", host, "bin",
+                name + PlatformConventions.EXE_SUFFIX);
+        return Files.isRegularFile(tool) ? tool : null;
+    }
+
+    /**
+     * Finds the `rustc` that cargo is going to invoke.
+     * <p>
+     * This is `$RUSTC` if set, otherwise the `rustc` next to
+     * a custom `cargo` path, otherwise the `rustc` on the PATH.
+     */
+    static String getRustcPath(String cargoPath, Map<String, String> environmentVariables) {
+        String rustc = environmentVariables != null ? environmentVariables.get("RUSTC") : null;
+        if (rustc == null) {
+            rustc = System.getenv("RUSTC");
+        }
+        if (rustc != null && !rustc.isEmpty()) {
+            return rustc;
+        }
+        final Path cargoParent = Paths.get(cargoPath).getParent();
+        if (cargoParent != null) {
+            final Path sibling = cargoParent.resolve("rustc" + PlatformConventions.EXE_SUFFIX);
+            if (Files.exists(sibling)) {
+                return sibling.toString();
+            }
+        }
+        return "rustc";
+    }
+
+    private static String capture(
+            List<String> cmd,
+            Path workingDir,
+            Map<String, String> environmentVariables) {
+        try {
+            final ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectErrorStream(true);
+            pb.directory(workingDir.toFile());
+            if (environmentVariables != null) {
+                pb.environment().putAll(environmentVariables);
+            }
+            final Process process = pb.start();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream is = process.getInputStream()) {
+                final byte[] buf = new byte[4096];
+                int read;
+                while ((read = is.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                }
+            }
+            final int exitCode = process.waitFor();
+            return new String(out.toByteArray(), StandardCharsets.UTF_8) +
+                    "exit code: " + exitCode + "\n";
+        } catch (IOException e) {
+            // Not the message: it names the working directory, which would
+            // make the description depend on the checkout's location.
+            return cmd.get(0) + " unavailable\n";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return cmd.get(0) + " interrupted\n";
+        }
+    }
+}
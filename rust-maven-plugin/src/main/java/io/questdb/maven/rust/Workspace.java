@@ -0,0 +1,305 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.tomlj.Toml;
+import org.tomlj.TomlArray;
+import org.tomlj.TomlInvalidTypeException;
+import org.tomlj.TomlTable;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A Cargo workspace, whose members are built by a single cargo invocation
+ * into a target directory they all share.
+ */
+public class Workspace {
+    private final Path root;
+    private final Path targetDir;
+    private final Path stateDir;
+    private final Crate.Params params;
+    private final TomlTable cargoToml;
+    private Log log;
+    private CargoTimings timings;
+    private boolean logFileStarted;
+
+    public Workspace(
+            Path root,
+            Path targetRootDir,
+            Crate.Params params) throws MojoExecutionException {
+        this(
+                root,
+                targetRootDir.resolve(root.getFileName().toString()),
+                targetRootDir.resolve(root.getFileName().toString()),
+                params);
+    }
+
+    /**
+     * @param targetDir Cargo's `--target-dir`, possibly shared with other modules.
+     * @param stateDir  Directory for the plugin's own state about the members.
+     */
+    public Workspace(
+            Path root,
+            Path targetDir,
+            Path stateDir,
+            Crate.Params params) throws MojoExecutionException {
+        this.log = Crate.nullLog();
+        this.root = root;
+        this.targetDir = targetDir;
+        this.stateDir = stateDir;
+        this.params = params;
+        this.cargoToml = parseManifest(root);
+        if (getTable("workspace") == null) {
+            throw new MojoExecutionException(
+                    "Missing `[workspace]` section in " + root.resolve("Cargo.toml"));
+        }
+    }
+
+    public void setLog(Log log) {
+        this.log = log;
+    }
+
+    private static TomlTable parseManifest(Path dir) throws MojoExecutionException {
+        final Path tomlPath = dir.resolve("Cargo.toml");
+        if (!Files.isRegularFile(tomlPath)) {
+            throw new MojoExecutionException(
+                    "Cargo.toml file expected under: " + dir);
+        }
+        try {
+            return Toml.parse(tomlPath);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to parse Cargo.toml file: " + e.getMessage());
+        }
+    }
+
+    private TomlTable getTable(String key) {
+        try {
+            return cargoToml.getTable(key);
+        } catch (TomlInvalidTypeException e) {
+            return null;
+        }
+    }
+
+    private List<String> getStrings(String key) throws MojoExecutionException {
+        final List<String> strings = new ArrayList<>();
+        final TomlArray array;
+        try {
+            array = cargoToml.getArray(key);
+        } catch (TomlInvalidTypeException e) {
+            throw new MojoExecutionException(
+                    "Failed to extract `" + key + "` from Cargo.toml file: " +
+                            e.getMessage());
+        }
+        if (array == null) {
+            return strings;
+        }
+        for (int index = 0; index < array.size(); ++index) {
+            try {
+                strings.add(array.getString(index));
+            } catch (TomlInvalidTypeException e) {
+                throw new MojoExecutionException(
+                        "Failed to extract `" + key + "` from Cargo.toml file: " +
+                                "expected a string at index " + index);
+            }
+        }
+        return strings;
+    }
+
+    /**
+     * The workspace's member packages, by package name, in the order
+     * `workspace.members` lists them. Glob patterns such as "crates/*" are
+     * expanded and `workspace.exclude` is honoured. A root package is
+     * listed first.
+     */
+    public Map<String, Path> getMembers() throws MojoExecutionException {
+        final Set<Path> dirs = new LinkedHashSet<>();
+        if (getTable("package") != null) {
+            dirs.add(root);
+        }
+        for (String pattern : getStrings("workspace.members")) {
+            dirs.addAll(expandMember(pattern));
+        }
+        final Set<Path> excluded = new LinkedHashSet<>();
+        for (String exclude : getStrings("workspace.exclude")) {
+            excluded.add(root.resolve(exclude).normalize());
+        }
+
+        final Map<String, Path> members = new LinkedHashMap<>();
+        for (Path dir : dirs) {
+            if (isExcluded(dir, excluded)) {
+                continue;
+            }
+            final String name;
+            try {
+                name = parseManifest(dir).getString("package.name");
+            } catch (TomlInvalidTypeException e) {
+                throw new MojoExecutionException(
+                        "Failed to extract `package.name` from " +
+                                dir.resolve("Cargo.toml") + ": " + e.getMessage());
+            }
+            if (name == null) {
+                throw new MojoExecutionException(
+                        "Missing required `package.name` from " +
+                                dir.resolve("Cargo.toml"));
+            }
+            members.put(name, dir);
+        }
+        return members;
+    }
+
+    private static boolean isExcluded(Path dir, Set<Path> excluded) {
+        for (Path exclude : excluded) {
+            if (dir.startsWith(exclude)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Path> expandMember(String pattern) throws MojoExecutionException {
+        final List<Path> dirs = new ArrayList<>();
+        if (!hasGlob(pattern)) {
+            dirs.add(root.resolve(pattern).normalize());
+            return dirs;
+        }
+
+        // As with cargo, only directories containing a `Cargo.toml` match.
+        final PathMatcher matcher = FileSystems.getDefault()
+                .getPathMatcher("glob:" + pattern);
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (dir.equals(root)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    final String name = dir.getFileName().toString();
+                    if (name.startsWith(".") || dir.equals(root.resolve("target"))) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (matcher.matches(root.relativize(dir)) &&
+                            Files.isRegularFile(dir.resolve("Cargo.toml"))) {
+                        dirs.add(dir.normalize());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to expand workspace member " + pattern +
+                            ": " + e.getMessage(), e);
+        }
+        Collections.sort(dirs);
+        return dirs;
+    }
+
+    private static boolean hasGlob(String pattern) {
+        return pattern.indexOf('*') != -1 ||
+                pattern.indexOf('?') != -1 ||
+                pattern.indexOf('[') != -1;
+    }
+
+    /**
+     * Creates the crate for a member package, sharing the workspace's
+     * target directory and keeping its own plugin state.
+     */
+    public Crate newMember(String packageName, Path memberRoot, Crate.Params memberParams)
+            throws MojoExecutionException {
+        return new Crate(
+                memberRoot,
+                targetDir,
+                stateDir.resolve("members").resolve(packageName),
+                memberParams,
+                log);
+    }
+
+    /**
+     * Locks the cargo target directory for a build and the copying of
+     * its artifacts.
+     */
+    public TargetDirLock lockTargetDir() throws MojoExecutionException, MojoFailureException {
+        return TargetDirLock.acquire(targetDir, log);
+    }
+
+    /**
+     * Builds the members with a single `cargo build -p a -p b ...` and hands
+     * each of them the artifacts cargo reports for its manifest.
+     */
+    public void build(List<Crate> members) throws MojoExecutionException, MojoFailureException {
+        final Cargo cargo = new Cargo(params, root, targetDir, log);
+        cargo.setLogFile(Cargo.getLogFile(stateDir, params), logFileStarted);
+        logFileStarted = true;
+        final List<String> args = new ArrayList<>();
+        args.add("build");
+        for (Crate member : members) {
+            args.add("-p");
+            args.add(member.getPackageName());
+        }
+        cargo.addCommonArgs(args);
+        final boolean jsonTimings = cargo.addTimingsArgs(args);
+        timings = params.timings ? new CargoTimings() : null;
+        if (cargo.hasMessageFormatArg()) {
+            cargo.run(args);
+            for (Crate member : members) {
+                member.setBuiltArtifacts(null);
+            }
+        } else {
+            args.add("--message-format=json-render-diagnostics");
+            final CargoMessages messages = new CargoMessages(timings);
+            cargo.run(args, messages::accept);
+            for (Crate member : members) {
+                member.setBuiltArtifacts(messages.getArtifacts(member.getManifestPath()));
+            }
+        }
+        if (timings != null) {
+            cargo.saveTimings(timings, jsonTimings, stateDir, root.getFileName().toString());
+        }
+    }
+
+    /**
+     * The timings of the last `build()`, if enabled via `Params.timings`.
+     */
+    public CargoTimings getTimings() {
+        return timings;
+    }
+}
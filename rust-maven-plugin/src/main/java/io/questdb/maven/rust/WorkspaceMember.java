@@ -0,0 +1,59 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+/**
+ * A member of a Cargo workspace, as configured for the `build-workspace` goal.
+ */
+public class WorkspaceMember {
+    /**
+     * The member's package name, as passed to Cargo's `-p` option.
+     */
+    private String name;
+
+    /**
+     * Location to copy this member's binaries to.
+     * Defaults to the goal's `copyTo`.
+     */
+    private String copyTo;
+
+    /**
+     * Whether to nest the copy into a platform directory.
+     * Defaults to the goal's `copyWithPlatformDir`.
+     */
+    private Boolean copyWithPlatformDir;
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCopyTo() {
+        return copyTo;
+    }
+
+    public Boolean getCopyWithPlatformDir() {
+        return copyWithPlatformDir;
+    }
+}
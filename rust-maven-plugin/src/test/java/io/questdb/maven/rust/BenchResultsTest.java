@@ -0,0 +1,142 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BenchResultsTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private static void writeEstimates(Path benchDir, String fullId, double mean) throws Exception {
+        final Path newDir = benchDir.resolve("new");
+        Files.createDirectories(newDir);
+        Files.write(newDir.resolve("estimates.json"), ("{\"mean\":{\"confidence_interval\":" +
+                "{\"confidence_level\":0.95,\"lower_bound\":1.0,\"upper_bound\":2.0}," +
+                "\"point_estimate\":" + mean + ",\"standard_error\":0.1}," +
+                "\"median\":{\"point_estimate\":1.0}}").getBytes(StandardCharsets.UTF_8));
+        if (fullId != null) {
+            Files.write(newDir.resolve("benchmark.json"),
+                    ("{\"full_id\":\"" + fullId + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testCompareWithBaseline() throws Exception {
+        final Path root = tmpDir.getRoot().toPath();
+        final Path criterion = root.resolve("criterion");
+        writeEstimates(criterion.resolve("reverse").resolve("short"), "reverse/short", 100.0);
+        writeEstimates(criterion.resolve("reverse").resolve("long"), null, 2000.0);
+        writeEstimates(criterion.resolve("stale"), "stale", 5.0);
+        Files.setLastModifiedTime(
+                criterion.resolve("stale").resolve("new").resolve("estimates.json"),
+                FileTime.fromMillis(0));
+        // Criterion's summary reports are ignored.
+        Files.createDirectories(criterion.resolve("report"));
+
+        final BenchResults results = BenchResults.readCriterion(criterion, 1000);
+        assertEquals(2, results.getMeans().size());
+        assertEquals(100.0, results.getMeans().get("reverse/short"), 0.0);
+        assertEquals(2000.0, results.getMeans().get("reverse/long"), 0.0);
+
+        // No baseline yet.
+        final Path baselinePath = root.resolve("baselines").resolve("main.json");
+        final BenchResults empty = BenchResults.readBaseline(baselinePath);
+        assertTrue(empty.isEmpty());
+        for (BenchResults.Comparison comparison : results.compare(empty, 10.0)) {
+            assertNull(comparison.getChangePercent());
+            assertFalse(comparison.isRegression());
+        }
+        results.writeBaseline(baselinePath, empty);
+
+        // 20% slower and 5% faster.
+        writeEstimates(criterion.resolve("reverse").resolve("short"), "reverse/short", 120.0);
+        writeEstimates(criterion.resolve("reverse").resolve("long"), null, 1900.0);
+        final BenchResults baseline = BenchResults.readBaseline(baselinePath);
+        final List<BenchResults.Comparison> comparisons =
+                BenchResults.readCriterion(criterion, 1000).compare(baseline, 10.0);
+        assertEquals("reverse/long", comparisons.get(0).getId());
+        assertEquals(-5.0, comparisons.get(0).getChangePercent(), 0.0);
+        assertFalse(comparisons.get(0).isRegression());
+        assertEquals("reverse/short", comparisons.get(1).getId());
+        assertEquals(20.0, comparisons.get(1).getChangePercent(), 0.0);
+        assertTrue(comparisons.get(1).isRegression());
+        assertFalse(BenchResults.readCriterion(criterion, 1000)
+                .compare(baseline, null).get(1).isRegression());
+
+        final Path reportPath = root.resolve("bench-report.json");
+        BenchResults.writeReport(reportPath, "str-reverse", "main", 10.0, comparisons);
+        final String report = new String(Files.readAllBytes(reportPath), StandardCharsets.UTF_8);
+        assertTrue(report.contains("\"regressionCount\": 1"));
+        assertTrue(report.contains("\"changePercent\": 20.0"));
+    }
+
+    @Test
+    public void testBaselineKeepsOtherBenchmarks() throws Exception {
+        final Path root = tmpDir.getRoot().toPath();
+        final Path criterion = root.resolve("criterion");
+        final Path baselinePath = root.resolve("main.json");
+        writeEstimates(criterion.resolve("a"), "a", 1.0);
+        BenchResults.readCriterion(criterion, 0)
+                .writeBaseline(baselinePath, BenchResults.readBaseline(baselinePath));
+
+        final Path other = root.resolve("other");
+        writeEstimates(other.resolve("b"), "b", 2.0);
+        BenchResults.readCriterion(other, 0)
+                .writeBaseline(baselinePath, BenchResults.readBaseline(baselinePath));
+
+        final BenchResults baseline = BenchResults.readBaseline(baselinePath);
+        assertEquals(1.0, baseline.getMeans().get("a"), 0.0);
+        assertEquals(2.0, baseline.getMeans().get("b"), 0.0);
+    }
+
+    @Test
+    public void testGitBranch() throws Exception {
+        final Path root = tmpDir.getRoot().toPath();
+        final Path crate = root.resolve("src").resolve("main").resolve("rust");
+        Files.createDirectories(crate);
+        assertNull(CargoBenchMojo.getGitBranch(crate));
+
+        Files.createDirectories(root.resolve(".git"));
+        Files.write(root.resolve(".git").resolve("HEAD"),
+                "ref: refs/heads/feature/simd\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals("feature/simd", CargoBenchMojo.getGitBranch(crate));
+
+        Files.write(root.resolve(".git").resolve("HEAD"),
+                "4b825dc642cb6eb9a060e54bf8d69288fbee4904\n".getBytes(StandardCharsets.UTF_8));
+        assertNull(CargoBenchMojo.getGitBranch(crate));
+    }
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CargoDiagnosticsTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private static String compilerMessage(String level, String code, String message, String span) {
+        return "{\"reason\":\"compiler-message\"," +
+                "\"package_id\":\"mylib 0.1.0 (path+file:///work/mylib)\"," +
+                "\"manifest_path\":\"/work/mylib/Cargo.toml\"," +
+                "\"target\":{\"kind\":[\"cdylib\"],\"name\":\"mylib\"}," +
+                "\"message\":{\"$message_type\":\"diagnostic\"," +
+                "\"message\":\"" + message + "\"," +
+                "\"code\":" + (code == null ? "null" : "{\"code\":\"" + code + "\",\"explanation\":null}") + "," +
+                "\"level\":\"" + level + "\"," +
+                "\"spans\":[" + span + "],\"children\":[]," +
+                "\"rendered\":\"" + level + ": " + message + "\\n --> src/lib.rs:3:9\\n  |\\n\"}}";
+    }
+
+    private static String span(String fileName, int line, int column) {
+        return "{\"file_name\":\"" + fileName + "\",\"byte_start\":0,\"byte_end\":1," +
+                "\"line_start\":" + line + ",\"line_end\":" + line + "," +
+                "\"column_start\":" + column + ",\"column_end\":" + (column + 1) + "," +
+                "\"is_primary\":true,\"text\":[],\"label\":null}";
+    }
+
+    @Test
+    public void testDiagnostics() throws Exception {
+        // A workspace member: spans are relative to the workspace root.
+        final Path workspace = tmpDir.newFolder("ws").toPath();
+        final Path member = workspace.resolve("mylib");
+        Files.createDirectories(member.resolve("src"));
+        Files.createFile(member.resolve("src").resolve("lib.rs"));
+
+        final CargoDiagnostics diagnostics = new CargoDiagnostics(member, new TestLog());
+        assertFalse(diagnostics.accept("    Checking mylib v0.1.0"));
+        assertTrue(diagnostics.accept("{\"reason\":\"build-finished\",\"success\":false}"));
+        assertTrue(diagnostics.accept(compilerMessage(
+                "error", "E0308", "mismatched types", span("mylib/src/lib.rs", 3, 9))));
+        assertTrue(diagnostics.accept(compilerMessage(
+                "warning", "unused_variables", "unused variable: `x`", span("src/lib.rs", 7, 13))));
+        assertTrue(diagnostics.accept(compilerMessage(
+                "error", null, "aborting due to 1 previous error", "")));
+
+        final List<CargoDiagnostics.Diagnostic> found = diagnostics.getDiagnostics();
+        assertEquals(3, found.size());
+        assertEquals(1, diagnostics.getErrorCount());
+        assertEquals(1, diagnostics.getWarningCount());
+
+        final CargoDiagnostics.Diagnostic error = found.get(0);
+        assertEquals(member.resolve("src").resolve("lib.rs"), error.getFile());
+        assertEquals(3, error.getLine());
+        assertEquals(9, error.getColumn());
+        assertEquals("error[E0308]: mismatched types", error.getSummary());
+        assertEquals(member.resolve("src").resolve("lib.rs") + ":[3,9]", error.getLocation());
+
+        assertEquals(member.resolve("src").resolve("lib.rs"), found.get(1).getFile());
+        assertTrue(found.get(1).isWarning());
+        assertNull(found.get(2).getFile());
+    }
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package io.questdb.maven.rust;
+
+import io.questdb.jar.jni.PlatformConventions;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CargoMessagesTest {
+    private static final String LIB = Crate.pinLibName("mylib");
+    private static final String BIN = Crate.pinBinName("mybin");
+
+    private static String artifact(
+            String manifestPath,
+            String kind,
+            String filenames,
+            String executable,
+            boolean test,
+            boolean fresh) {
+        return "{\"reason\":\"compiler-artifact\"," +
+                "\"package_id\":\"mylib 0.1.0 (path+file:///work/mylib)\"," +
+                "\"manifest_path\":\"" + manifestPath + "\"," +
+                "\"target\":{\"kind\":[\"" + kind + "\"],\"crate_types\":[\"" + kind + "\"],\"name\":\"x\"}," +
+                "\"profile\":{\"opt_level\":\"0\",\"test\":" + test + "}," +
+                "\"features\":[]," +
+                "\"filenames\":[" + filenames + "]," +
+                "\"executable\":" + (executable == null ? "null" : "\"" + executable + "\"") + "," +
+                "\"fresh\":" + fresh + "}";
+    }
+
+    @Test
+    public void testArtifacts() {
+        final CargoMessages messages = new CargoMessages();
+        assertFalse(messages.accept("   Compiling mylib v0.1.0"));
+        assertTrue(messages.accept(artifact(
+                "/work/dep/Cargo.toml", "lib",
+                "\"/work/target/debug/deps/libdep.rlib\"", null, false, true)));
+        assertTrue(messages.accept(artifact(
+                "/work/mylib/Cargo.toml", "bin",
+                "\"/work/target/x86_64-unknown-linux-gnu/custom/" + BIN + "\"",
+                "/work/target/x86_64-unknown-linux-gnu/custom/" + BIN, false, true)));
+        assertTrue(messages.accept(artifact(
+                "/work/mylib/Cargo.toml", "cdylib",
+                "\"/work/target/x86_64-unknown-linux-gnu/custom/" + LIB + "\"," +
+                        "\"/work/target/x86_64-unknown-linux-gnu/custom/" + LIB + ".extra\"",
+                null, false, false)));
+        assertTrue(messages.accept(artifact(
+                "/work/mylib/Cargo.toml", "bin",
+                "\"/work/target/debug/deps/mybin-0123abcd\"",
+                "/work/target/debug/deps/mybin-0123abcd", true, false)));
+        assertTrue(messages.accept("{\"reason\":\"build-finished\",\"success\":true}"));
+
+        final List<CargoArtifact> artifacts =
+                messages.getArtifacts(Paths.get("/work/mylib/Cargo.toml"));
+        assertEquals(2, artifacts.size());
+
+        final Path dir = Paths.get("/work/target/x86_64-unknown-linux-gnu/custom");
+        assertEquals("cdylib", artifacts.get(0).getKind());
+        assertEquals(dir.resolve(LIB), artifacts.get(0).getPath());
+        assertTrue(artifacts.get(0).getPath().toString().endsWith(PlatformConventions.LIB_SUFFIX));
+        assertFalse(artifacts.get(0).isFresh());
+
+        assertEquals("bin", artifacts.get(1).getKind());
+        assertEquals(dir.resolve(BIN), artifacts.get(1).getPath());
+        assertTrue(artifacts.get(1).isFresh());
+
+        assertTrue(messages.getArtifacts(Paths.get("/work/other/Cargo.toml")).isEmpty());
+    }
+}
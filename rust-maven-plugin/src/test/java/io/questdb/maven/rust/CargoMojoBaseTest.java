@@ -0,0 +1,258 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.Scanner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.plexus.build.incremental.BuildContext;
+import org.sonatype.plexus.build.incremental.EmptyScanner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CargoMojoBaseTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    static final class TestMojo extends CargoMojoBase {
+        @Override
+        public void execute() {
+        }
+    }
+
+    static void setField(Object mojo, String name, Object value) throws Exception {
+        final Field field = CargoMojoBase.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+
+    @Test
+    public void testJobsPerCrate() throws Exception {
+        final TestMojo mojo = new TestMojo();
+        assertNull(mojo.getJobsPerCrate(1));
+        final int cpus = Runtime.getRuntime().availableProcessors();
+        assertEquals(Integer.valueOf(Math.max(1, cpus / 2)), mojo.getJobsPerCrate(2));
+
+        setField(mojo, "jobs", 8);
+        assertEquals(Integer.valueOf(8), mojo.getJobsPerCrate(1));
+        assertEquals(Integer.valueOf(2), mojo.getJobsPerCrate(3));
+        assertEquals(Integer.valueOf(1), mojo.getJobsPerCrate(16));
+    }
+
+    @Test
+    public void testHasRustChanges() throws Exception {
+        final Path root = tmpDir.getRoot().toPath().toRealPath();
+        final Path crate = root.resolve("crate");
+        write(crate.resolve("Cargo.toml"),
+                "[package]\nname = \"crate\"\n\n" +
+                        "[dependencies]\ndep = { path = \"../dep\" }\n");
+        write(crate.resolve("src").resolve("lib.rs"), "");
+        write(crate.resolve("README.md"), "");
+        write(crate.resolve("target").resolve("debug").resolve("build.rs"), "");
+        write(root.resolve("dep").resolve("Cargo.toml"), "[package]\nname = \"dep\"\n");
+        write(root.resolve("dep").resolve("src").resolve("lib.rs"), "");
+        write(root.resolve("Cargo.lock"), "");
+
+        final TestMojo mojo = new TestMojo();
+        assertTrue(mojo.hasRustChanges(crate));
+
+        final StubBuildContext context = new StubBuildContext();
+        setField(mojo, "buildContext", context);
+        context.incremental = false;
+        assertTrue(mojo.hasRustChanges(crate));
+
+        context.incremental = true;
+        assertFalse(mojo.hasRustChanges(crate));
+
+        context.changed.add(crate.resolve("README.md").toFile());
+        context.changed.add(crate.resolve("target").resolve("debug").resolve("build.rs").toFile());
+        assertFalse(mojo.hasRustChanges(crate));
+
+        for (Path changed : Arrays.asList(
+                crate.resolve("src").resolve("lib.rs"),
+                crate.resolve("Cargo.toml"),
+                root.resolve("dep").resolve("src").resolve("lib.rs"),
+                root.resolve("Cargo.lock"),
+                root.resolve("rust-toolchain.toml"))) {
+            context.changed.clear();
+            context.changed.add(changed.toFile());
+            assertTrue(changed.toString(), mojo.hasRustChanges(crate));
+        }
+    }
+
+    @Test
+    public void testIdeFeedback() throws Exception {
+        final Path crate = tmpDir.newFolder("crate").toPath();
+        final Path lib = crate.resolve("src").resolve("lib.rs");
+        final TestMojo mojo = new TestMojo();
+
+        // Without a build context (e.g. in tests), both do nothing.
+        mojo.refreshOutput(crate);
+        mojo.addIdeMessages(crate, new ArrayList<>());
+
+        final StubBuildContext context = new StubBuildContext();
+        setField(mojo, "buildContext", context);
+        mojo.refreshOutput(null);
+        mojo.refreshOutput(crate.resolve("lib"));
+        assertEquals(Arrays.asList(crate.resolve("lib").toFile()), context.refreshed);
+
+        context.messages.add("stale");
+        mojo.addIdeMessages(crate, Arrays.asList(
+                new CargoDiagnostics.Diagnostic("error", "E0308", "mismatched types", null, lib, 3, 9),
+                new CargoDiagnostics.Diagnostic("warning", null, "unused", null, lib, 1, 5),
+                new CargoDiagnostics.Diagnostic("note", null, "a note", null, lib, 2, 1),
+                new CargoDiagnostics.Diagnostic("error", null, "no location", null, null, 0, 0)));
+        assertEquals(Arrays.asList(
+                "lib.rs:3:9 error error[E0308]: mismatched types",
+                "lib.rs:1:5 warning warning: unused"), context.messages);
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * An incremental IDE build in which only the `changed` files changed.
+     */
+    private static final class StubBuildContext implements BuildContext {
+        final Set<File> changed = new HashSet<>();
+        final List<File> refreshed = new ArrayList<>();
+        final List<String> messages = new ArrayList<>();
+        boolean incremental = true;
+
+        @Override
+        public boolean hasDelta(String relpath) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean hasDelta(File file) {
+            return changed.contains(file);
+        }
+
+        @Override
+        public boolean hasDelta(@SuppressWarnings("rawtypes") List relpaths) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void refresh(File file) {
+            refreshed.add(file);
+        }
+
+        @Override
+        public OutputStream newFileOutputStream(File file) throws IOException {
+            return new FileOutputStream(file);
+        }
+
+        @Override
+        public Scanner newScanner(File basedir) {
+            final DirectoryScanner scanner = new DirectoryScanner() {
+                @Override
+                public String[] getIncludedFiles() {
+                    final List<String> files = new ArrayList<>();
+                    for (String file : super.getIncludedFiles()) {
+                        if (changed.contains(new File(basedir, file))) {
+                            files.add(file);
+                        }
+                    }
+                    return files.toArray(new String[0]);
+                }
+            };
+            scanner.setBasedir(basedir);
+            return scanner;
+        }
+
+        @Override
+        public Scanner newDeleteScanner(File basedir) {
+            return new EmptyScanner(basedir);
+        }
+
+        @Override
+        public Scanner newScanner(File basedir, boolean ignoreDelta) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isIncremental() {
+            return incremental;
+        }
+
+        @Override
+        public void setValue(String key, Object value) {
+        }
+
+        @Override
+        public Object getValue(String key) {
+            return null;
+        }
+
+        @Override
+        @Deprecated
+        public void addWarning(File file, int line, int column, String message, Throwable cause) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @Deprecated
+        public void addError(File file, int line, int column, String message, Throwable cause) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void addMessage(File file, int line, int column, String message, int severity, Throwable cause) {
+            messages.add(file.getName() + ":" + line + ":" + column + " " +
+                    (severity == SEVERITY_ERROR ? "error" : "warning") + " " + message);
+        }
+
+        @Override
+        public void removeMessages(File file) {
+            messages.clear();
+        }
+
+        @Override
+        public boolean isUptodate(File target, File source) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CargoOutputTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private static final String OUTPUT = String.join("\n",
+            "   Compiling serde v1.0.160",
+            "   Compiling my-crate v0.1.0 (/work/my-crate)",
+            "warning: unused variable: `x`",
+            " --> src/lib.rs:3:9",
+            "  |",
+            "3 |     let x = 1;",
+            "  |         ^ help: if this is intentional, prefix it with an underscore: `_x`",
+            "",
+            "warning: `my-crate` (lib) generated 1 warning",
+            "[serde 1.0.160] cargo:rerun-if-changed=build.rs",
+            "error[E0308]: mismatched types",
+            " --> src/lib.rs:5:5",
+            "",
+            "test tests::it_works ... ok",
+            "    Finished dev [unoptimized + debuginfo] target(s) in 1.23s") + "\n";
+
+    @Test
+    public void testClassifier() {
+        final CargoOutput.Classifier classifier = new CargoOutput.Classifier();
+        final List<CargoOutput.Level> levels = new ArrayList<>();
+        for (String line : OUTPUT.split("\n", -1)) {
+            levels.add(classifier.classify(line));
+        }
+        assertEquals(CargoOutput.Level.DEBUG, levels.get(0));
+        assertEquals(CargoOutput.Level.WARN, levels.get(2));
+        assertEquals(CargoOutput.Level.WARN, levels.get(6));
+        assertEquals(CargoOutput.Level.DEBUG, levels.get(7));
+        assertEquals(CargoOutput.Level.DEBUG, levels.get(9));
+        assertEquals(CargoOutput.Level.ERROR, levels.get(10));
+        assertEquals(CargoOutput.Level.ERROR, levels.get(11));
+        assertEquals(CargoOutput.Level.INFO, levels.get(13));
+        assertEquals(CargoOutput.Level.DEBUG, levels.get(14));
+    }
+
+    @Test
+    public void testPumpToConsoleAndFile() throws Exception {
+        final CapturingLog log = new CapturingLog();
+        final Path logFile = tmpDir.getRoot().toPath().resolve("logs").resolve("cargo.log");
+        try (CargoOutput output = new CargoOutput(log, logFile, false, null)) {
+            output.pump(new ByteArrayInputStream(
+                    OUTPUT.getBytes(StandardCharsets.UTF_8)), "stderr", null);
+            output.join(0);
+            output.logSummary("cargo build", 0);
+        }
+
+        final List<String> fileLines = Files.readAllLines(logFile, StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList(OUTPUT.split("\n")), fileLines);
+
+        assertFalse(log.lines.contains("[info]    Compiling serde v1.0.160"));
+        assertTrue(log.lines.contains("[warn] warning: unused variable: `x`"));
+        assertTrue(log.lines.contains("[error] error[E0308]: mismatched types"));
+        assertTrue(log.lines.contains("[info] test tests::it_works ... ok"));
+        final String summary = log.lines.get(log.lines.size() - 1);
+        assertTrue(summary, summary.startsWith("[info] cargo build succeeded in "));
+        assertTrue(summary, summary.contains("2 compiled, 1 warning, 1 error"));
+        assertTrue(summary, summary.endsWith("Full log: " + logFile));
+    }
+
+    @Test
+    public void testAppendToLogFile() throws Exception {
+        final Path logFile = tmpDir.getRoot().toPath().resolve("cargo.log");
+        Files.write(logFile, "previous execution\n".getBytes(StandardCharsets.UTF_8));
+        final String[][] commands = {{"first", "false"}, {"second", "true"}};
+        for (String[] command : commands) {
+            try (CargoOutput output = new CargoOutput(
+                    new CapturingLog(), logFile, Boolean.parseBoolean(command[1]), null)) {
+                output.pump(new ByteArrayInputStream(
+                        command[0].getBytes(StandardCharsets.UTF_8)), "stdout", null);
+                output.join(0);
+            }
+        }
+        assertEquals(Arrays.asList("first", "second"),
+                Files.readAllLines(logFile, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        final StringBuilder many = new StringBuilder();
+        for (int index = 0; index < 100; ++index) {
+            many.append("line ").append(index).append('\n');
+        }
+        many.append("error: boom\n");
+        final CapturingLog log = new CapturingLog();
+        try (CargoOutput output = new CargoOutput(log, null, false, 10)) {
+            output.pump(new ByteArrayInputStream(
+                    many.toString().getBytes(StandardCharsets.UTF_8)), "stdout", null);
+            output.join(0);
+        }
+        assertTrue(log.lines.size() < 20);
+        assertTrue(log.lines.contains("[error] error: boom"));
+    }
+
+    @Test
+    public void testHandlerSeesLinesFirst() throws Exception {
+        final CapturingLog log = new CapturingLog();
+        final List<String> handled = new ArrayList<>();
+        try (CargoOutput output = new CargoOutput(log, null, false, null)) {
+            output.pump(new ByteArrayInputStream(
+                    "{\"reason\":\"x\"}\nplain\n".getBytes(StandardCharsets.UTF_8)),
+                    "stdout",
+                    line -> line.startsWith("{") && handled.add(line));
+            output.join(0);
+        }
+        assertEquals(1, handled.size());
+        assertEquals(1, log.lines.size());
+        assertEquals("[info] plain", log.lines.get(0));
+    }
+
+    private static class CapturingLog extends SystemStreamLog {
+        final List<String> lines = new ArrayList<>();
+
+        @Override
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        @Override
+        public void info(CharSequence content) {
+            lines.add("[info] " + content);
+        }
+
+        @Override
+        public void warn(CharSequence content) {
+            lines.add("[warn] " + content);
+        }
+
+        @Override
+        public void error(CharSequence content) {
+            lines.add("[error] " + content);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CargoTimingsTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Test
+    public void testJsonMessages() throws Exception {
+        final CargoTimings timings = new CargoTimings();
+        final CargoMessages messages = new CargoMessages(timings);
+        assertTrue(messages.accept("{\"reason\":\"timing-info\"," +
+                "\"package_id\":\"registry+https://github.com/rust-lang/crates.io-index#syn@2.0.15\"," +
+                "\"target\":{\"kind\":[\"lib\"],\"name\":\"syn\"}," +
+                "\"mode\":\"build\",\"duration\":3.25,\"rmeta_time\":1.5}"));
+        assertTrue(messages.accept("{\"reason\":\"timing-info\"," +
+                "\"package_id\":\"path+file:///work/my-crate#0.1.0\"," +
+                "\"target\":{\"kind\":[\"cdylib\"],\"name\":\"my_crate\"}," +
+                "\"mode\":\"build\",\"duration\":7.5}"));
+        assertTrue(messages.accept("{\"reason\":\"build-finished\",\"success\":true}"));
+
+        final List<CargoTimings.Unit> slowest = timings.getSlowest(10);
+        assertEquals(2, slowest.size());
+        assertEquals("my-crate v0.1.0 cdylib", slowest.get(0).toString());
+        assertEquals("syn v2.0.15 lib", slowest.get(1).toString());
+        assertEquals(1, timings.getSlowest(1).size());
+
+        final Path summary = tmpDir.getRoot().toPath().resolve("timings.json");
+        timings.write(summary, "my-crate");
+        final String json = new String(Files.readAllBytes(summary), StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"totalUnitSeconds\": 10.75"));
+    }
+
+    @Test
+    public void testHtmlReport() throws Exception {
+        final Path html = tmpDir.newFile("cargo-timing.html").toPath();
+        Files.write(html, ("<html><script>\n" +
+                "const DURATION = 12.5;\n" +
+                "const UNIT_DATA = [\n" +
+                "  {\"i\": 0, \"name\": \"serde\", \"version\": \"1.0.160\", " +
+                "\"mode\": \"run-custom-build\", \"target\": \" build script\", " +
+                "\"start\": 0.1, \"duration\": 0.4, \"rmeta_time\": null},\n" +
+                "  {\"i\": 1, \"name\": \"jni\", \"version\": \"0.21.1\", " +
+                "\"mode\": \"todo\", \"target\": \"\", " +
+                "\"start\": 0.5, \"duration\": 2.0, \"rmeta_time\": 1.2}\n" +
+                "];\n" +
+                "const CONCURRENCY_DATA = [];\n" +
+                "</script></html>\n").getBytes(StandardCharsets.UTF_8));
+
+        final CargoTimings timings = new CargoTimings();
+        assertTrue(timings.readHtmlReport(html));
+        final List<CargoTimings.Unit> slowest = timings.getSlowest(10);
+        assertEquals(2, slowest.size());
+        assertEquals("jni v0.21.1", slowest.get(0).toString());
+        assertEquals("serde v1.0.160 build script (run-custom-build)", slowest.get(1).toString());
+
+        assertFalse(new CargoTimings().readHtmlReport(html.resolveSibling("missing.html")));
+    }
+
+    @Test
+    public void testParsePackageId() {
+        assertArrayEquals(
+                new String[]{"serde", "1.0.160"},
+                CargoTimings.parsePackageId(
+                        "serde 1.0.160 (registry+https://github.com/rust-lang/crates.io-index)", "x"));
+        assertArrayEquals(
+                new String[]{"foo", "0.2.0"},
+                CargoTimings.parsePackageId("path+file:///work/bar#foo@0.2.0", "x"));
+        assertArrayEquals(
+                new String[]{"bar", "0.2.0"},
+                CargoTimings.parsePackageId("path+file:///work/bar#0.2.0", "x"));
+        assertArrayEquals(
+                new String[]{"x", null},
+                CargoTimings.parsePackageId(null, "x"));
+    }
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentTasksTest {
+
+    @Test
+    public void testRunsAllTasks() throws Exception {
+        final AtomicInteger ran = new AtomicInteger();
+        final List<ConcurrentTasks.Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            tasks.add(ran::incrementAndGet);
+        }
+        ConcurrentTasks.run(tasks, 2);
+        assertEquals(5, ran.get());
+    }
+
+    @Test
+    public void testFirstFailureCancelsOtherTasks() {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch never = new CountDownLatch(1);
+        final AtomicInteger interrupted = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final ConcurrentTasks.Task blocking = () -> {
+            started.countDown();
+            try {
+                if (never.await(30, TimeUnit.SECONDS)) {
+                    completed.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+            }
+        };
+        final ConcurrentTasks.Task failing = () -> {
+            try {
+                started.await();
+            } catch (InterruptedException e) {
+                throw new MojoExecutionException("interrupted", e);
+            }
+            throw new MojoExecutionException("first failure");
+        };
+
+        final long start = System.nanoTime();
+        final MojoExecutionException e = assertThrows(MojoExecutionException.class,
+                () -> ConcurrentTasks.run(Arrays.asList(blocking, failing, blocking, blocking), 2));
+        assertEquals("first failure", e.getMessage());
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 30);
+
+        // Running tasks are interrupted and queued ones are skipped.
+        assertEquals(0, completed.get());
+        assertTrue(interrupted.get() >= 1);
+    }
+}
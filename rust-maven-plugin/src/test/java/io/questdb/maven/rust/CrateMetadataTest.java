@@ -0,0 +1,154 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CrateMetadataTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private static void write(Path file, String contents) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String metadataJson(Path crateRoot) {
+        final String dir = crateRoot.toAbsolutePath().toString();
+        return "{\"packages\":[{\"name\":\"tools\",\"manifest_path\":\"" + dir + "/Cargo.toml\"," +
+                "\"targets\":[" +
+                "{\"kind\":[\"cdylib\",\"rlib\"],\"crate_types\":[\"cdylib\",\"rlib\"]," +
+                "\"name\":\"tools_jni\",\"src_path\":\"" + dir + "/src/lib.rs\"}," +
+                "{\"kind\":[\"bin\"],\"crate_types\":[\"bin\"]," +
+                "\"name\":\"extra\",\"src_path\":\"" + dir + "/src/bin/extra.rs\"}," +
+                "{\"kind\":[\"bin\"],\"crate_types\":[\"bin\"]," +
+                "\"name\":\"tools\",\"src_path\":\"" + dir + "/src/main.rs\"}," +
+                "{\"kind\":[\"test\"],\"crate_types\":[\"bin\"]," +
+                "\"name\":\"it\",\"src_path\":\"" + dir + "/tests/it.rs\"}" +
+                "]}],\"workspace_members\":[],\"version\":1}";
+    }
+
+    @Test
+    public void testCargoMetadataCached() throws Exception {
+        Assume.assumeFalse(CrateTest.isWindows());
+        CrateMetadata.clearSessionCache();
+        final Path root = tmpDir.getRoot().toPath().toRealPath();
+        final Path crateRoot = root.resolve("tools");
+        write(crateRoot.resolve("Cargo.toml"),
+                "[package]\nname = \"tools\"\nversion.workspace = true\n");
+        write(crateRoot.resolve("src").resolve("main.rs"), "");
+        write(crateRoot.resolve("src").resolve("lib.rs"), "");
+        write(crateRoot.resolve("src").resolve("bin").resolve("extra.rs"), "");
+
+        final Path json = root.resolve("metadata.json");
+        write(json, metadataJson(crateRoot));
+        final Path counter = root.resolve("invocations");
+        final Path fakeCargo = root.resolve("fake-cargo");
+        write(fakeCargo, "#!/bin/sh\n" +
+                "echo x >> '" + counter + "'\n" +
+                "cat '" + json + "'\n");
+        assertTrue(fakeCargo.toFile().setExecutable(true));
+
+        final Crate.Params params = new Crate.Params();
+        params.cargoPath = fakeCargo.toString();
+        final Path stateDir = root.resolve("state");
+
+        final CrateMetadata metadata = CrateMetadata.load(
+                crateRoot, stateDir, params, new TestLog());
+        assertEquals("tools", metadata.getPackageName());
+        assertEquals("tools_jni", metadata.getCdylibName());
+        assertEquals(Arrays.asList("tools", "extra"), metadata.getBinNames());
+        assertEquals(1, Files.readAllLines(counter).size());
+
+        // Same session, then a new session with the record on disk.
+        assertSame(metadata, CrateMetadata.load(crateRoot, stateDir, params, new TestLog()));
+        CrateMetadata.clearSessionCache();
+        final CrateMetadata reloaded = CrateMetadata.load(
+                crateRoot, stateDir, params, new TestLog());
+        assertEquals(metadata.getBinNames(), reloaded.getBinNames());
+        assertEquals(1, Files.readAllLines(counter).size());
+
+        // A new auto-discovered bin invalidates the record.
+        write(crateRoot.resolve("src").resolve("bin").resolve("other.rs"), "");
+        CrateMetadata.load(crateRoot, stateDir, params, new TestLog());
+        assertEquals(2, Files.readAllLines(counter).size());
+    }
+
+    @Test
+    public void testTomlFallback() throws Exception {
+        CrateMetadata.clearSessionCache();
+        final Path crateRoot = tmpDir.newFolder("fallback").toPath();
+        write(crateRoot.resolve("Cargo.toml"),
+                "[package]\nname = \"fallback\"\nversion = \"0.1.0\"\n\n" +
+                        "[lib]\ncrate-type = [\"cdylib\"]\n");
+        write(crateRoot.resolve("src").resolve("lib.rs"), "");
+
+        final Crate.Params params = new Crate.Params();
+        params.cargoPath = crateRoot.resolve("no-such-cargo").toString();
+        final CrateMetadata metadata = CrateMetadata.load(
+                crateRoot, tmpDir.newFolder("state").toPath(), params, new TestLog());
+        assertEquals("fallback", metadata.getPackageName());
+        assertEquals("fallback", metadata.getCdylibName());
+        assertEquals(Collections.emptyList(), metadata.getBinNames());
+        assertNotNull(metadata.getToml());
+    }
+
+    @Test
+    public void testLoadedWithCrateLog() throws Exception {
+        CrateMetadata.clearSessionCache();
+        final Path crateRoot = tmpDir.newFolder("logged").toPath();
+        write(crateRoot.resolve("Cargo.toml"), "[package]\nname = \"logged\"\n");
+
+        final Crate.Params params = new Crate.Params();
+        params.cargoPath = crateRoot.resolve("no-such-cargo").toString();
+        final List<String> debug = new ArrayList<>();
+        final Log log = new SystemStreamLog() {
+            @Override
+            public void debug(CharSequence content) {
+                debug.add(content.toString());
+            }
+        };
+        new Crate(crateRoot, tmpDir.newFolder("target").toPath(),
+                tmpDir.newFolder("logged-state").toPath(), params, log);
+        assertEquals(1, debug.size());
+        assertTrue(debug.get(0), debug.get(0).startsWith("Can't run `cargo metadata`"));
+    }
+}
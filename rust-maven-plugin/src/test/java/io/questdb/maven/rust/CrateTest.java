@@ -25,19 +25,28 @@
 package io.questdb.maven.rust;
 
 import io.questdb.jar.jni.Platform;
+import io.questdb.jar.jni.RustTarget;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.tukaani.xz.XZInputStream;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -119,6 +128,8 @@ public class CrateTest {
         expectedBinPath = expectedBinPath.resolve(mockBinPath.getFileName());
 
         assertTrue(Files.exists(expectedBinPath));
+        assertFalse(Files.exists(expectedBinPath.resolveSibling(
+                mockBinPath.getFileName() + ".sha256")));
     }
 
     @Test
@@ -570,6 +581,403 @@ public class CrateTest {
                 () -> new Crate(mock.crateRoot, targetRootDir, params));
     }
 
+    @Test
+    public void testBuildFingerprint() throws Exception {
+        final MockCrate mock = new MockCrate("fingerprinted", "debug");
+        mock.writeCargoToml(
+                "[package]\n" +
+                        "name = \"fingerprinted\"\n" +
+                        "version = \"0.1.0\"\n" +
+                        "edition = \"2021\"\n" +
+                        "\n" +
+                        "[lib]\n" +
+                        "crate-type = [\"cdylib\"]\n");
+        final Path libSrc = mock.touchSrc("lib.rs");
+        writeFile(libSrc, "pub fn foo() -> i32 { 42 }");
+        final Path cdylibPath = mock.touchLib("fingerprinted");
+
+        final Crate.Params params = defaultParams();
+        params.copyToDir = tmpDir.newFolder("dest_dir").toPath();
+
+        final Crate crate = new Crate(mock.crateRoot, targetRootDir, params);
+        assertFalse(crate.isBuildUpToDate());
+        crate.copyArtifacts();
+        crate.saveBuildFingerprint();
+
+        // Same inputs, same artifacts.
+        final Crate unchanged = new Crate(mock.crateRoot, targetRootDir, params);
+        assertEquals(crate.getFingerprint(), unchanged.getFingerprint());
+        assertTrue(unchanged.isBuildUpToDate());
+
+        // A changed parameter is a miss.
+        final Crate.Params releaseParams = defaultParams();
+        releaseParams.copyToDir = params.copyToDir;
+        releaseParams.release = true;
+        final Crate release = new Crate(mock.crateRoot, targetRootDir, releaseParams);
+        assertNotEquals(crate.getFingerprint(), release.getFingerprint());
+
+        // A deleted copy is a miss.
+        final Path copied = params.copyToDir.resolve(cdylibPath.getFileName());
+        Files.delete(copied);
+        assertFalse(new Crate(mock.crateRoot, targetRootDir, params).isBuildUpToDate());
+        crate.copyArtifacts();
+        crate.saveBuildFingerprint();
+        assertTrue(new Crate(mock.crateRoot, targetRootDir, params).isBuildUpToDate());
+
+        // A changed source file is a miss.
+        writeFile(libSrc, "pub fn foo() -> i32 { 43 }");
+        final Crate edited = new Crate(mock.crateRoot, targetRootDir, params);
+        assertNotEquals(crate.getFingerprint(), edited.getFingerprint());
+        assertFalse(edited.isBuildUpToDate());
+    }
+
+    @Test
+    public void testCopyArtifactsKeepsUnchangedCopies() throws Exception {
+        final MockCrate mock = new MockCrate("copy-engine", "debug");
+        mock.writeCargoToml(
+                "[package]\n" +
+                        "name = \"copy-engine\"\n" +
+                        "version = \"0.1.0\"\n" +
+                        "edition = \"2021\"\n" +
+                        "\n" +
+                        "[lib]\n" +
+                        "crate-type = [\"cdylib\"]\n");
+        mock.touchSrc("lib.rs");
+        final Path cdylibPath = mock.touchLib("copy-engine");
+        writeFile(cdylibPath, "version 1");
+
+        for (ArtifactCopier.Mode mode : ArtifactCopier.Mode.values()) {
+            final Crate.Params params = defaultParams();
+            params.copyToDir = tmpDir.newFolder("dest_dir_" + mode).toPath();
+            params.copyMode = mode;
+            final Crate crate = new Crate(mock.crateRoot, targetRootDir, params);
+            final Path copied = params.copyToDir.resolve(cdylibPath.getFileName());
+
+            writeFile(cdylibPath, "version 1");
+            crate.copyArtifacts();
+            assertEquals("version 1", new String(Files.readAllBytes(copied), "UTF-8"));
+
+            // Identical contents: the copy is not rewritten.
+            final FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+            Files.setLastModifiedTime(copied, past);
+            crate.copyArtifacts();
+            assertEquals(past, Files.getLastModifiedTime(copied));
+
+            // Same size, different contents: the copy is replaced.
+            writeFile(cdylibPath, "version 2");
+            crate.copyArtifacts();
+            assertEquals("version 2", new String(Files.readAllBytes(copied), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void testCompressArtifacts() throws Exception {
+        final MockCrate mock = new MockCrate("packed-engine", "debug");
+        mock.writeCargoToml(
+                "[package]\n" +
+                        "name = \"packed-engine\"\n" +
+                        "version = \"0.1.0\"\n" +
+                        "edition = \"2021\"\n" +
+                        "\n" +
+                        "[lib]\n" +
+                        "crate-type = [\"cdylib\"]\n");
+        mock.touchSrc("lib.rs");
+        final Path cdylibPath = mock.touchLib("packed-engine");
+        final StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            contents.append("symbol_").append(i % 37).append('\n');
+        }
+        writeFile(cdylibPath, contents.toString());
+
+        final Crate.Params params = defaultParams();
+        params.copyToDir = tmpDir.newFolder("dest_dir").toPath();
+        params.compression = ArtifactCopier.Compression.XZ;
+        final Crate crate = new Crate(mock.crateRoot, targetRootDir, params);
+        final Path copied = params.copyToDir.resolve(cdylibPath.getFileName());
+        final Path compressed = params.copyToDir.resolve(cdylibPath.getFileName() + ".xz");
+        final Path checksum = params.copyToDir.resolve(cdylibPath.getFileName() + ".sha256");
+
+        crate.copyArtifacts();
+        assertFalse(Files.exists(copied));
+        assertTrue(Files.size(compressed) < Files.size(cdylibPath));
+        assertEquals(contents.toString(), readXz(compressed));
+        assertEquals(
+                Fingerprint.sha256(cdylibPath) + "  " + cdylibPath.getFileName() + "\n",
+                new String(Files.readAllBytes(checksum), StandardCharsets.UTF_8));
+
+        // Unchanged artifact: not compressed again.
+        final FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+        Files.setLastModifiedTime(compressed, past);
+        crate.copyArtifacts();
+        assertEquals(past, Files.getLastModifiedTime(compressed));
+
+        writeFile(cdylibPath, "version 2");
+        crate.copyArtifacts();
+        assertEquals("version 2", readXz(compressed));
+
+        // Without compression, the stale compressed copy is removed.
+        params.compression = ArtifactCopier.Compression.NONE;
+        new Crate(mock.crateRoot, targetRootDir, params).copyArtifacts();
+        assertFalse(Files.exists(compressed));
+        assertEquals("version 2", new String(Files.readAllBytes(copied), StandardCharsets.UTF_8));
+    }
+
+    private static String readXz(Path path) throws IOException {
+        try (InputStream is = new XZInputStream(Files.newInputStream(path))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[4096];
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testCrossTargetArtifacts() throws Exception {
+        final MockCrate mock = new MockCrate("cross-lib", "release");
+        mock.writeCargoToml(
+                "[package]\n" +
+                        "name = \"cross-lib\"\n" +
+                        "version = \"0.1.0\"\n" +
+                        "\n" +
+                        "[lib]\n" +
+                        "crate-type = [\"cdylib\"]\n");
+        mock.touchSrc("lib.rs");
+
+        final Crate.Params params = defaultParams();
+        params.release = true;
+        params.target = "x86_64-pc-windows-msvc";
+        params.copyToDir = tmpDir.newFolder("cross_dest").toPath();
+        params.copyWithPlatformDir = true;
+        final Path targetDir = targetRootDir.resolve("cross-lib-" + params.target);
+        final Crate crate = new Crate(mock.crateRoot, targetDir, targetDir, params);
+
+        final Path expected = targetDir
+                .resolve("x86_64-pc-windows-msvc")
+                .resolve("release")
+                .resolve("cross_lib.dll");
+        assertEquals(1, crate.getArtifactPaths().size());
+        assertEquals(expected, crate.getArtifactPaths().get(0));
+
+        Files.createDirectories(expected.getParent());
+        writeFile(expected, "dll");
+        crate.copyArtifacts();
+        assertTrue(Files.exists(params.copyToDir
+                .resolve("win32-x86-64")
+                .resolve("cross_lib.dll")));
+
+        assertEquals("linux-aarch64",
+                RustTarget.parse("aarch64-unknown-linux-gnu").getResourcePrefix());
+        assertEquals("linux-x86-64-musl",
+                RustTarget.parse("x86_64-unknown-linux-musl").getResourcePrefix());
+        assertEquals("darwin-aarch64",
+                RustTarget.parse("aarch64-apple-darwin").getResourcePrefix());
+    }
+
+    @Test
+    public void testArtifactCache() throws Exception {
+        final Path cacheDir = tmpDir.newFolder("m2", "cache").toPath();
+        final String toml =
+                "[package]\n" +
+                        "name = \"cached-lib\"\n" +
+                        "version = \"0.1.0\"\n" +
+                        "\n" +
+                        "[lib]\n" +
+                        "crate-type = [\"cdylib\"]\n";
+        final MockCrate mockA = new MockCrate("cache-a", "debug");
+        mockA.writeCargoToml(toml);
+        writeFile(mockA.touchSrc("lib.rs"), "fn a() {}");
+        final MockCrate mockB = new MockCrate("cache-b", "debug");
+        mockB.writeCargoToml(toml);
+        writeFile(mockB.touchSrc("lib.rs"), "fn a() {}");
+
+        final Crate.Params paramsA = defaultParams();
+        paramsA.artifactCacheDir = cacheDir;
+        paramsA.copyToDir = tmpDir.newFolder("dest_a").toPath();
+        final Crate crateA = new Crate(mockA.crateRoot, targetRootDir, paramsA);
+        final Crate.Params paramsB = defaultParams();
+        paramsB.artifactCacheDir = cacheDir;
+        paramsB.copyToDir = tmpDir.newFolder("dest_b").toPath();
+        final Crate crateB = new Crate(mockB.crateRoot, targetRootDir, paramsB);
+
+        // The copy destination is part of the build fingerprint, not of the cache key.
+        assertNotEquals(crateA.getFingerprint(), crateB.getFingerprint());
+        assertEquals(crateA.getArtifactCacheKey(), crateB.getArtifactCacheKey());
+
+        assertFalse(crateB.restoreFromArtifactCache());
+        writeFile(mockA.touchLib("cached-lib"), "built lib");
+        crateA.publishToArtifactCache();
+        assertTrue(Files.isDirectory(cacheDir.resolve(crateA.getArtifactCacheKey())));
+
+        assertTrue(crateB.restoreFromArtifactCache());
+        final Path restored = crateB.getArtifactPaths().get(0);
+        assertEquals(targetRootDir.resolve("cache-b").resolve("debug"), restored.getParent());
+        crateB.copyArtifacts();
+        final Path copy = paramsB.copyToDir.resolve(restored.getFileName());
+        assertEquals("built lib", new String(Files.readAllBytes(copy), StandardCharsets.UTF_8));
+
+        // Different sources, different key.
+        writeFile(mockB.crateRoot.resolve("src").resolve("lib.rs"), "fn b() {}");
+        final Crate changed = new Crate(mockB.crateRoot, targetRootDir, paramsB);
+        assertNotEquals(crateA.getArtifactCacheKey(), changed.getArtifactCacheKey());
+        assertFalse(changed.restoreFromArtifactCache());
+    }
+
+    @Test
+    public void testArtifactCacheCorruptEntry() throws Exception {
+        final Path cacheDir = tmpDir.newFolder("corrupt", "cache").toPath();
+        final Path targetDir = tmpDir.newFolder("corrupt", "target").toPath();
+        final ArtifactCache cache = new ArtifactCache(cacheDir, TestLog.INSTANCE);
+        final Path entryDir = cache.getEntryDir("key");
+        Files.createDirectories(entryDir);
+        writeFile(entryDir.resolve("0-libx.so"), "lib");
+        final Path index = entryDir.resolve("artifacts.properties");
+
+        writeFile(index, "count=one\n");
+        assertNull(cache.restore("key", targetDir, null));
+
+        writeFile(index, "count=1\nartifact.0.path=../libx.so\nartifact.0.kind=cdylib\n");
+        assertNull(cache.restore("key", targetDir, null));
+        assertFalse(Files.exists(targetDir.resolveSibling("libx.so")));
+
+        writeFile(index, "count=1\nartifact.0.path=debug/libx.so\nartifact.0.kind=cdylib\n");
+        final List<CargoArtifact> restored = cache.restore("key", targetDir, null);
+        assertNotNull(restored);
+        assertEquals(targetDir.resolve("debug").resolve("libx.so"), restored.get(0).getPath());
+    }
+
+    @Test
+    public void testArtifactCacheEviction() throws Exception {
+        final Path cacheDir = tmpDir.newFolder("evict", "cache").toPath();
+        final Path targetDir = tmpDir.newFolder("evict", "target").toPath();
+        final ArtifactCache cache = new ArtifactCache(cacheDir, TestLog.INSTANCE);
+        final long now = System.currentTimeMillis();
+        final String[] keys = {"old", "stale", "used", "new"};
+        for (int i = 0; i < keys.length; i++) {
+            final Path lib = targetDir.resolve("lib" + keys[i] + ".so");
+            writeFile(lib, String.format("%01000d", i));
+            final List<CargoArtifact> artifacts = Collections.singletonList(
+                    new CargoArtifact(lib, targetDir.resolve("Cargo.toml"), "cdylib", false));
+            assertTrue(cache.publish(keys[i], targetDir, artifacts));
+            Files.setLastModifiedTime(
+                    cacheDir.resolve(keys[i]).resolve("artifacts.properties"),
+                    FileTime.fromMillis(now - TimeUnit.DAYS.toMillis(40 - 10 * i)));
+        }
+
+        // A restore marks the entry as used.
+        assertNotNull(cache.restore("stale", tmpDir.newFolder("restored").toPath(),
+                targetDir.resolve("Cargo.toml")));
+
+        // "old" is 40 days old: expired. "used" is then the least recently used.
+        final long entrySize = Files.size(cacheDir.resolve("new").resolve("artifacts.properties")) + 1000;
+        assertEquals(2, cache.evict(entrySize * 2 + 100, TimeUnit.DAYS.toMillis(30), "new"));
+        assertFalse(Files.exists(cacheDir.resolve("old")));
+        assertFalse(Files.exists(cacheDir.resolve("used")));
+        assertTrue(Files.isDirectory(cacheDir.resolve("stale")));
+        assertTrue(Files.isDirectory(cacheDir.resolve("new")));
+
+        // The entry just published is kept even if it alone exceeds the limit.
+        assertEquals(1, cache.evict(1, 0, "new"));
+        assertTrue(Files.isDirectory(cacheDir.resolve("new")));
+    }
+
+    @Test
+    public void testTestFingerprint() throws Exception {
+        final MockCrate mock = new MockCrate("tested-lib", "debug");
+        mock.writeCargoToml(
+                "[package]\n" +
+                        "name = \"tested-lib\"\n" +
+                        "version = \"0.1.0\"\n");
+        writeFile(mock.touchSrc("lib.rs"), "fn a() {}");
+
+        final Crate crate = new Crate(mock.crateRoot, targetRootDir, defaultParams());
+        final String fingerprint = crate.getTestFingerprint("CARGO");
+        assertNotEquals(fingerprint, crate.getTestFingerprint("NEXTEST"));
+        assertFalse(crate.isTestUpToDate(fingerprint));
+        crate.saveTestFingerprint(fingerprint);
+        assertTrue(crate.isTestUpToDate(fingerprint));
+        assertEquals(fingerprint, new Crate(mock.crateRoot, targetRootDir, defaultParams())
+                .getTestFingerprint("CARGO"));
+
+        // A changed source invalidates the last passing run.
+        writeFile(mock.crateRoot.resolve("src").resolve("lib.rs"), "fn b() {}");
+        final Crate changed = new Crate(mock.crateRoot, targetRootDir, defaultParams());
+        assertFalse(changed.isTestUpToDate(changed.getTestFingerprint("CARGO")));
+
+        crate.invalidateTestFingerprint();
+        assertFalse(crate.isTestUpToDate(fingerprint));
+    }
+
+    @Test
+    public void testCpuTierCopyDir() throws Exception {
+        final MockCrate mock = new MockCrate("tiered-lib", "release");
+        mock.writeCargoToml(
+                "[package]\n" +
+                        "name = \"tiered-lib\"\n" +
+                        "version = \"0.1.0\"\n" +
+                        "\n" +
+                        "[lib]\n" +
+                        "crate-type = [\"cdylib\"]\n");
+        mock.touchSrc("lib.rs");
+        final Path lib = mock.touchLib("tiered-lib");
+
+        final Crate.Params params = defaultParams();
+        params.release = true;
+        params.copyToDir = tmpDir.newFolder("tiered_dest").toPath();
+        params.copyWithPlatformDir = true;
+        params.cpuTier = "x86-64-v3";
+        params.rustFlags = new CpuTier("x86-64-v3").getRustFlags();
+        final Crate crate = new Crate(mock.crateRoot, targetRootDir, params);
+        crate.copyArtifacts();
+        assertTrue(Files.exists(params.copyToDir
+                .resolve(Platform.RESOURCE_PREFIX)
+                .resolve("x86-64-v3")
+                .resolve(lib.getFileName())));
+
+        assertArrayEquals(
+                new String[]{"-Ctarget-cpu=x86-64-v4"},
+                new CpuTier("x86-64-v4").getRustFlags());
+        assertEquals(0, new CpuTier(CpuTier.BASELINE).getRustFlags().length);
+        assertArrayEquals(
+                new String[]{"-Ctarget-feature=+avx2"},
+                new CpuTier("avx2", "-Ctarget-feature=+avx2").getRustFlags());
+    }
+
+    @Test
+    public void testSharedTargetDirLock() throws Exception {
+        final Path sharedDir = tmpDir.newFolder("shared_target").toPath();
+        final MockCrate mockA = new MockCrate("lock-a", "debug");
+        mockA.writeCargoToml("[package]\nname = \"lock-a\"\nversion = \"0.1.0\"\n");
+        final MockCrate mockB = new MockCrate("lock-b", "debug");
+        mockB.writeCargoToml("[package]\nname = \"lock-b\"\nversion = \"0.1.0\"\n");
+        final Crate crateA = new Crate(
+                mockA.crateRoot, sharedDir, targetRootDir.resolve("lock-a"), defaultParams());
+        final Crate crateB = new Crate(
+                mockB.crateRoot, sharedDir, targetRootDir.resolve("lock-b"), defaultParams());
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread other;
+        final TargetDirLock lockA = crateA.lockTargetDir();
+        try {
+            other = new Thread(() -> {
+                try {
+                    crateB.lockTargetDir().close();
+                    acquired.countDown();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            other.start();
+            assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        } finally {
+            lockA.close();
+        }
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        other.join();
+    }
+
     private static void writeFile(Path dest, String contents) throws IOException {
         try (PrintWriter w = new PrintWriter(dest.toFile(), "UTF-8")) {
             w.write(contents);
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class JarAlignerTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    /**
+     * The offset of an entry's data, found after its name in its local header.
+     */
+    private static long getDataOffset(byte[] jar, String name) {
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < jar.length - nameBytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(jar, i, i + nameBytes.length), nameBytes)) {
+                final int extraLen = (jar[i - 2] & 0xFF) | ((jar[i - 1] & 0xFF) << 8);
+                return i + nameBytes.length + extraLen;
+            }
+        }
+        throw new AssertionError(name + " not found");
+    }
+
+    private static byte[] readEntry(ZipFile zip, String name) throws Exception {
+        try (InputStream is = zip.getInputStream(zip.getEntry(name))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[4096];
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    public void testAlign() throws Exception {
+        final Path jar = tmpDir.getRoot().toPath().resolve("app.jar");
+        final byte[] lib = new byte[10000];
+        new Random(42).nextBytes(lib);
+        final byte[] text = "hello hello hello hello".getBytes(StandardCharsets.UTF_8);
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), new Manifest())) {
+            out.putNextEntry(new JarEntry("io/questdb/Main.txt"));
+            out.write(text);
+            out.putNextEntry(new JarEntry("libs/linux-x86-64/libstr_reverse.so"));
+            out.write(lib);
+            out.putNextEntry(new JarEntry("libs/windows-amd64/str_reverse.dll"));
+            out.write(lib, 0, 777);
+        }
+
+        final JarAligner aligner = new JarAligner(4096, Arrays.asList("so", "dll", "dylib"));
+        aligner.align(jar);
+        assertEquals(2, aligner.getAlignedCount());
+
+        final byte[] bytes = Files.readAllBytes(jar);
+        assertEquals(0, getDataOffset(bytes, "libs/linux-x86-64/libstr_reverse.so") % 4096);
+        assertEquals(0, getDataOffset(bytes, "libs/windows-amd64/str_reverse.dll") % 4096);
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            assertEquals(ZipEntry.STORED, zip.getEntry("libs/linux-x86-64/libstr_reverse.so").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("io/questdb/Main.txt").getMethod());
+            assertArrayEquals(lib, readEntry(zip, "libs/linux-x86-64/libstr_reverse.so"));
+            assertArrayEquals(Arrays.copyOf(lib, 777), readEntry(zip, "libs/windows-amd64/str_reverse.dll"));
+            assertArrayEquals(text, readEntry(zip, "io/questdb/Main.txt"));
+            assertNotNull(zip.getEntry("META-INF/MANIFEST.MF"));
+        }
+
+        // Aligning again keeps the libraries aligned.
+        aligner.align(jar);
+        assertEquals(0, getDataOffset(Files.readAllBytes(jar), "libs/windows-amd64/str_reverse.dll") % 4096);
+    }
+
+    @Test
+    public void testAlignTimeOutsideDosRange() throws Exception {
+        // ZipOutputStream adds an extended timestamp field for times before 1980.
+        final Path jar = tmpDir.getRoot().toPath().resolve("app.jar");
+        final byte[] lib = new byte[5000];
+        new Random(7).nextBytes(lib);
+        final long epoch = 0L;
+        final long y2200 = 7258118400000L;
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            final JarEntry first = new JarEntry("libs/libfirst.so");
+            first.setTime(epoch);
+            out.putNextEntry(first);
+            out.write(lib);
+            final JarEntry second = new JarEntry("libs/libsecond.so");
+            second.setTime(y2200);
+            out.putNextEntry(second);
+            out.write(lib, 0, 1234);
+        }
+
+        final JarAligner aligner = new JarAligner(4096, Arrays.asList("so"));
+        aligner.align(jar);
+        assertEquals(2, aligner.getAlignedCount());
+
+        final byte[] bytes = Files.readAllBytes(jar);
+        assertEquals(0, getDataOffset(bytes, "libs/libfirst.so") % 4096);
+        assertEquals(0, getDataOffset(bytes, "libs/libsecond.so") % 4096);
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            assertEquals(epoch, zip.getEntry("libs/libfirst.so").getTime());
+            assertEquals(y2200, zip.getEntry("libs/libsecond.so").getTime());
+            assertArrayEquals(lib, readEntry(zip, "libs/libfirst.so"));
+            assertArrayEquals(Arrays.copyOf(lib, 1234), readEntry(zip, "libs/libsecond.so"));
+        }
+    }
+
+    @Test
+    public void testInvalidAlignment() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new JarAligner(3000, Arrays.asList("so")));
+    }
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LibtestReportTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Test
+    public void testJsonEvents() throws Exception {
+        final LibtestReport report = new LibtestReport("str-reverse", new TestLog());
+        assertFalse(report.accept("running 3 tests"));
+        assertTrue(report.accept("{ \"type\": \"suite\", \"event\": \"started\", \"test_count\": 3 }"));
+        assertTrue(report.accept("{ \"type\": \"test\", \"event\": \"started\", \"name\": \"tests::reverse\" }"));
+        assertTrue(report.accept("{ \"type\": \"test\", \"name\": \"tests::reverse\", " +
+                "\"event\": \"ok\", \"exec_time\": 0.25 }"));
+        assertTrue(report.accept("{ \"type\": \"test\", \"name\": \"tests::empty\", " +
+                "\"event\": \"failed\", \"exec_time\": 0.5, " +
+                "\"stdout\": \"thread 'tests::empty' panicked at src/lib.rs:10:5:\\n<oops>\\u0007\\n\" }"));
+        assertTrue(report.accept("{ \"type\": \"test\", \"name\": \"slow\", \"event\": \"ignored\" }"));
+        assertTrue(report.accept("{ \"type\": \"suite\", \"event\": \"failed\", \"passed\": 1, " +
+                "\"failed\": 1, \"ignored\": 1, \"measured\": 0, \"filtered_out\": 0, \"exec_time\": 0.75 }"));
+
+        final List<LibtestReport.TestCase> testCases = report.getTestCases();
+        assertEquals(3, testCases.size());
+        assertEquals("reverse", testCases.get(0).getName());
+        assertEquals("str-reverse::tests", testCases.get(0).getClassName("str-reverse"));
+        assertTrue(testCases.get(1).isFailure());
+        assertEquals("str-reverse", testCases.get(2).getClassName("str-reverse"));
+        assertTrue(testCases.get(2).isSkipped());
+
+        final Path xmlPath = tmpDir.getRoot().toPath().resolve("reports").resolve("TEST-rust-str-reverse.xml");
+        report.write(xmlPath);
+        final String xml = new String(Files.readAllBytes(xmlPath), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<testsuite name=\"str-reverse\" tests=\"3\" failures=\"1\" " +
+                "errors=\"0\" skipped=\"1\" time=\"0.750\">"));
+        assertTrue(xml.contains("<testcase name=\"reverse\" classname=\"str-reverse::tests\" time=\"0.250\">"));
+        assertTrue(xml.contains("<failure message=\"test failed\">"));
+        assertTrue(xml.contains("&lt;oops&gt;\n"));
+        assertTrue(xml.contains("<skipped"));
+    }
+}
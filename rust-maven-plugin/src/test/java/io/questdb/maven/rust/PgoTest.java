@@ -0,0 +1,95 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class PgoTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Test
+    public void testMode() {
+        assertEquals(Pgo.Mode.OFF, Pgo.Mode.parse(null));
+        assertEquals(Pgo.Mode.GENERATE, Pgo.Mode.parse("generate"));
+        assertEquals(Pgo.Mode.USE, Pgo.Mode.parse(" Use "));
+        assertThrows(IllegalArgumentException.class, () -> Pgo.Mode.parse("train"));
+    }
+
+    @Test
+    public void testBuildMatrix() throws Exception {
+        Pgo.checkBuildMatrix(false, 0);
+        Pgo.checkBuildMatrix(false, 1);
+        final MojoExecutionException tiers = assertThrows(MojoExecutionException.class,
+                () -> Pgo.checkBuildMatrix(false, 2));
+        assertTrue(tiers.getMessage(), tiers.getMessage().contains("`cpuTiers`"));
+        final MojoExecutionException targets = assertThrows(MojoExecutionException.class,
+                () -> Pgo.checkBuildMatrix(true, 1));
+        assertTrue(targets.getMessage(), targets.getMessage().contains("`targets`"));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        Assume.assumeFalse(CrateTest.isWindows());
+        final Path root = tmpDir.getRoot().toPath();
+        final Pgo pgo = new Pgo(root.resolve("pgo"), new TestLog());
+        assertNull(pgo.merge("abc", "llvm-profdata"));
+
+        // Concatenates the inputs into the `-o` file.
+        final Path fakeProfdata = root.resolve("fake-llvm-profdata");
+        Files.write(fakeProfdata, ("#!/bin/sh\n" +
+                "shift; shift; out=\"$1\"; shift\n" +
+                "cat \"$@\" > \"$out\"\n").getBytes(StandardCharsets.UTF_8));
+        assertTrue(fakeProfdata.toFile().setExecutable(true));
+
+        Files.createDirectories(pgo.getRawDir());
+        Files.write(pgo.getRawDir().resolve("default_1.profraw"), "a".getBytes(StandardCharsets.UTF_8));
+        Files.write(pgo.getRawDir().resolve("default_2.profraw"), "b".getBytes(StandardCharsets.UTF_8));
+        assertTrue(pgo.getGenerateFlag().startsWith("-Cprofile-generate="));
+
+        final Path profile = pgo.merge("abc", fakeProfdata.toString());
+        assertEquals(pgo.getProfile("abc"), profile);
+        assertEquals("ab", new String(Files.readAllBytes(profile), StandardCharsets.UTF_8));
+        assertTrue(pgo.findRawProfiles().isEmpty());
+
+        // Without new .profraw files, there's nothing to merge.
+        assertNull(pgo.merge("abc", fakeProfdata.toString()));
+
+        Files.write(pgo.getRawDir().resolve("default_3.profraw"), "c".getBytes(StandardCharsets.UTF_8));
+        assertThrows(MojoExecutionException.class,
+                () -> pgo.merge("def", root.resolve("missing-profdata").toString()));
+    }
+}
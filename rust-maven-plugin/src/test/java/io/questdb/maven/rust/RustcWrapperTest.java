@@ -0,0 +1,239 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RustcWrapperTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private static List<String> rustc(String... args) {
+        final List<String> cmd = new ArrayList<>();
+        cmd.add("rustc");
+        cmd.addAll(Arrays.asList(args));
+        return cmd;
+    }
+
+    @Test
+    public void testParse() {
+        final RustcWrapper.Invocation invocation = RustcWrapper.Invocation.parse(rustc(
+                "--crate-name", "serde", "--edition=2018", "/reg/serde/src/lib.rs",
+                "--error-format=json", "--crate-type", "lib",
+                "--emit=dep-info,metadata,link", "-C", "opt-level=3",
+                "-C", "extra-filename=-abc123", "--out-dir", "/t/release/deps",
+                "-L", "dependency=/t/release/deps",
+                "--extern", "serde_derive=/t/release/deps/libserde_derive-1.so",
+                "--cap-lints", "allow"));
+        assertNotNull(invocation);
+        assertEquals("serde", invocation.crateName);
+        assertEquals("-abc123", invocation.extraFilename);
+        assertEquals(1, invocation.externs.size());
+
+        // Version queries, binaries, proc-macros and incremental builds aren't cached.
+        assertNull(RustcWrapper.Invocation.parse(rustc("-vV")));
+        assertNull(RustcWrapper.Invocation.parse(rustc(
+                "--crate-name", "app", "src/main.rs", "--crate-type", "bin",
+                "--out-dir", "/t/debug/deps")));
+        assertNull(RustcWrapper.Invocation.parse(rustc(
+                "--crate-name", "derive", "src/lib.rs", "--crate-type", "proc-macro",
+                "--out-dir", "/t/debug/deps")));
+        assertNull(RustcWrapper.Invocation.parse(rustc(
+                "--crate-name", "mine", "src/lib.rs", "--crate-type", "lib",
+                "-C", "incremental=/t/debug/incremental", "--out-dir", "/t/debug/deps")));
+    }
+
+    @Test
+    public void testHitAfterMiss() throws Exception {
+        Assume.assumeFalse(CrateTest.isWindows());
+        final Path root = tmpDir.getRoot().toPath();
+        final Path counter = root.resolve("invocations");
+        final Path fakeRustc = root.resolve("fake-rustc");
+        Files.write(fakeRustc, ("#!/bin/sh\n" +
+                "if [ \"$1\" = \"-vV\" ]; then echo 'rustc 1.70.0'; exit 0; fi\n" +
+                "echo x >> '" + counter + "'\n" +
+                "echo 'compiling' >&2\n" +
+                "while [ $# -gt 0 ]; do\n" +
+                "  if [ \"$1\" = '--out-dir' ]; then out=\"$2\"; fi\n" +
+                "  shift\n" +
+                "done\n" +
+                "echo rlib > \"$out/libdemo-1.rlib\"\n" +
+                "echo deps > \"$out/demo-1.d\"\n").getBytes(StandardCharsets.UTF_8));
+        assertTrue(fakeRustc.toFile().setExecutable(true));
+
+        final Path pkg = root.resolve("pkg");
+        Files.createDirectories(pkg.resolve("src"));
+        Files.write(pkg.resolve("src").resolve("lib.rs"), "pub fn f() {}".getBytes(StandardCharsets.UTF_8));
+        final Path outDir = Files.createDirectories(root.resolve("target").resolve("deps"));
+        final Path stats = root.resolve("stats");
+        final Map<String, String> env = new HashMap<>();
+        env.put(RustcWrapper.CACHE_DIR_ENV, root.resolve("cache").toString());
+        env.put(RustcWrapper.STATS_FILE_ENV, stats.toString());
+        env.put("CARGO_MANIFEST_DIR", pkg.toString());
+        Files.createDirectories(root.resolve("cache"));
+
+        final String[] args = {
+                fakeRustc.toString(), "--crate-name", "demo",
+                pkg.resolve("src").resolve("lib.rs").toString(),
+                "--crate-type", "lib", "-C", "extra-filename=-1",
+                "--out-dir", outDir.toString()};
+        assertEquals(0, RustcWrapper.run(args, env));
+        assertEquals(1, Files.readAllLines(counter).size());
+
+        Files.delete(outDir.resolve("libdemo-1.rlib"));
+        assertEquals(0, RustcWrapper.run(args, env));
+        assertEquals(1, Files.readAllLines(counter).size());
+        assertEquals("rlib", Files.readAllLines(outDir.resolve("libdemo-1.rlib")).get(0));
+
+        // A source change is a miss.
+        Files.write(pkg.resolve("src").resolve("lib.rs"), "pub fn g() {}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, RustcWrapper.run(args, env));
+        assertEquals(2, Files.readAllLines(counter).size());
+
+        final List<String> statLines = Files.readAllLines(stats);
+        assertEquals(3, statLines.size());
+        assertTrue(statLines.get(0).startsWith("miss "));
+        assertTrue(statLines.get(1).startsWith("hit "));
+        assertTrue(statLines.get(2).startsWith("miss "));
+    }
+
+    @Test
+    public void testEnvAndFileDeps() throws Exception {
+        Assume.assumeFalse(CrateTest.isWindows());
+        final Path root = tmpDir.getRoot().toPath();
+        final Path counter = root.resolve("invocations");
+        final Path hash = root.resolve("git-hash");
+        final Path external = root.resolve("shared").resolve("data.bin");
+        Files.createDirectories(external.getParent());
+        Files.write(external, "v1".getBytes(StandardCharsets.UTF_8));
+        // Reports `env!("GIT_HASH")`, `option_env!("BUILD_VERSION")` and
+        // `include_bytes!` of a file outside the package in its dep-info.
+        final Path fakeRustc = root.resolve("fake-rustc");
+        Files.write(fakeRustc, ("#!/bin/sh\n" +
+                "if [ \"$1\" = \"-vV\" ]; then echo 'rustc 1.70.0'; exit 0; fi\n" +
+                "echo x >> '" + counter + "'\n" +
+                "while [ $# -gt 0 ]; do\n" +
+                "  if [ \"$1\" = '--out-dir' ]; then out=\"$2\"; fi\n" +
+                "  shift\n" +
+                "done\n" +
+                "echo rlib > \"$out/libdemo-1.rlib\"\n" +
+                "{\n" +
+                "  echo \"$out/demo-1.d: src/lib.rs " + external + "\"\n" +
+                "  echo\n" +
+                "  echo 'src/lib.rs:'\n" +
+                "  echo '" + external + ":'\n" +
+                "  echo\n" +
+                "  echo \"# env-dep:GIT_HASH=$(cat '" + hash + "')\"\n" +
+                "  echo '# env-dep:BUILD_VERSION'\n" +
+                "} > \"$out/demo-1.d\"\n").getBytes(StandardCharsets.UTF_8));
+        assertTrue(fakeRustc.toFile().setExecutable(true));
+
+        final Path pkg = root.resolve("pkg");
+        Files.createDirectories(pkg.resolve("src"));
+        Files.write(pkg.resolve("src").resolve("lib.rs"), "pub fn f() {}".getBytes(StandardCharsets.UTF_8));
+        final Path outDir = Files.createDirectories(root.resolve("target").resolve("deps"));
+        final Map<String, String> env = new HashMap<>();
+        env.put(RustcWrapper.CACHE_DIR_ENV, root.resolve("cache").toString());
+        env.put("CARGO_MANIFEST_DIR", pkg.toString());
+        Files.createDirectories(root.resolve("cache"));
+        final String[] args = {
+                fakeRustc.toString(), "--crate-name", "demo",
+                pkg.resolve("src").resolve("lib.rs").toString(),
+                "--crate-type", "lib", "-C", "extra-filename=-1",
+                "--out-dir", outDir.toString()};
+
+        setGitHash(env, hash, "aaa");
+        assertEquals(0, RustcWrapper.run(args, env));
+        assertEquals(0, RustcWrapper.run(args, env));
+        assertEquals(1, Files.readAllLines(counter).size());
+
+        // A variable read with `env!` changed: a miss, which replaces the entry.
+        setGitHash(env, hash, "bbb");
+        assertEquals(0, RustcWrapper.run(args, env));
+        assertEquals(2, Files.readAllLines(counter).size());
+        assertEquals(0, RustcWrapper.run(args, env));
+        assertEquals(2, Files.readAllLines(counter).size());
+
+        // A variable that was unset is now set.
+        env.put("BUILD_VERSION", "1.2.3");
+        assertEquals(0, RustcWrapper.run(args, env));
+        assertEquals(3, Files.readAllLines(counter).size());
+        env.remove("BUILD_VERSION");
+
+        // A file outside the package changed.
+        assertEquals(0, RustcWrapper.run(args, env));
+        assertEquals(3, Files.readAllLines(counter).size());
+        Files.write(external, "v2".getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, RustcWrapper.run(args, env));
+        assertEquals(4, Files.readAllLines(counter).size());
+    }
+
+    private static void setGitHash(Map<String, String> env, Path hash, String value) throws Exception {
+        env.put("GIT_HASH", value);
+        Files.write(hash, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParseSccacheStats() {
+        final long[] stats = CompilerCache.parseSccacheStats("{\"stats\":{" +
+                "\"cache_hits\":{\"counts\":{\"Rust\":7}}," +
+                "\"cache_misses\":{\"counts\":{\"Rust\":2,\"C/C++\":1}}," +
+                "\"not_cached\":{\"crate-type\":4}}," +
+                "\"cache_size\":1024}");
+        assertArrayEquals(new long[]{7, 3, 4, 1024}, stats);
+        assertNull(CompilerCache.parseSccacheStats("not json"));
+    }
+
+    @Test
+    public void testParseSccacheLocation() {
+        assertEquals("Local disk: \"C:\\cache\"", CompilerCache.parseSccacheLocation(
+                "{\"stats\":{},\"cache_location\":\"Local disk: \\\"C:\\\\\\\\cache\\\"\"}"));
+        assertNull(CompilerCache.parseSccacheLocation("{\"stats\":{}}"));
+        assertNull(CompilerCache.parseSccacheLocation("not json"));
+    }
+
+    @Test
+    public void testSccacheServerPort() throws Exception {
+        final Path dir = tmpDir.newFolder("sccache").toPath();
+        final int port = CompilerCache.serverPort(dir);
+        assertTrue(port > 4226 && port < 4327);
+        assertEquals(port, CompilerCache.serverPort(dir));
+    }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ *     ___                  _   ____  ____
+ *    / _ \ _   _  ___  ___| |_|  _ \| __ )
+ *   | | | | | | |/ _ \/ __| __| | | |  _ \
+ *   | |_| | |_| |  __/\__ \ |_| |_| | |_) |
+ *    \__\_\\__,_|\___||___/\__|____/|____/
+ *
+ *  Copyright (c) 2014-2019 Appsicle
+ *  Copyright (c) 2019-2023 QuestDB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package io.questdb.maven.rust;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class WorkspaceTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private static void write(Path file, String contents) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeMember(Path dir, String name) throws IOException {
+        write(dir.resolve("Cargo.toml"),
+                "[package]\n" +
+                        "name = \"" + name + "\"\n" +
+                        "version = \"0.1.0\"\n");
+        write(dir.resolve("src").resolve("lib.rs"), "");
+    }
+
+    @Test
+    public void testMembers() throws Exception {
+        final Path root = tmpDir.newFolder("ws").toPath();
+        write(root.resolve("Cargo.toml"),
+                "[package]\n" +
+                        "name = \"root-pkg\"\n" +
+                        "version = \"0.1.0\"\n" +
+                        "\n" +
+                        "[workspace]\n" +
+                        "members = [\"tools/cli\", \"crates/*\"]\n" +
+                        "exclude = [\"crates/skipped\"]\n");
+        writeMember(root.resolve("tools").resolve("cli"), "cli");
+        writeMember(root.resolve("crates").resolve("b"), "crate-b");
+        writeMember(root.resolve("crates").resolve("a"), "crate-a");
+        writeMember(root.resolve("crates").resolve("skipped"), "skipped");
+        Files.createDirectories(root.resolve("crates").resolve("not-a-crate"));
+
+        final Workspace workspace = new Workspace(
+                root, tmpDir.newFolder("target").toPath(), new Crate.Params());
+        final Map<String, Path> members = workspace.getMembers();
+        assertEquals(
+                Arrays.asList("root-pkg", "cli", "crate-a", "crate-b"),
+                new ArrayList<>(members.keySet()));
+        assertEquals(root.resolve("crates").resolve("a"), members.get("crate-a"));
+
+        final Crate crate = workspace.newMember(
+                "crate-a", members.get("crate-a"), new Crate.Params());
+        assertEquals("crate-a", crate.getPackageName());
+    }
+
+    @Test
+    public void testNotAWorkspace() throws Exception {
+        final Path root = tmpDir.newFolder("single").toPath();
+        writeMember(root, "single");
+        try {
+            new Workspace(root, tmpDir.newFolder("target").toPath(), new Crate.Params());
+            fail("Expected MojoExecutionException");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage().contains("[workspace]"));
+        }
+    }
+}